@@ -0,0 +1,74 @@
+package org.directtruststandards.timplus.monitor.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput benchmarks for the Tx model.  The addRecipient benchmark builds a Tx with a given number of group chat recipients.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TxBenchmark
+{
+	@Param({"1", "10", "300"})
+	public int recipientCount;
+	
+	protected String[] recipients;
+	
+	protected Tx tx;
+	
+	@Setup
+	public void setup()
+	{
+		recipients = new String[recipientCount];
+		for (int i = 0; i < recipientCount; ++i)
+			recipients[i] = "occupant" + i + "@example.com/resource";
+		
+		tx = new Tx();
+		tx.setStanzaType(TxStanzaType.AMP);
+		tx.getDetails().put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, "chatty2"));
+		tx.getDetails().put(TxDetailType.FROM, new TxDetail(TxDetailType.FROM, "hamlet.lit"));
+		tx.getDetails().put(TxDetailType.ORIGINAL_RECIPIENT, new TxDetail(TxDetailType.ORIGINAL_RECIPIENT, "francisco@hamlet.lit"));
+		tx.getDetails().put(TxDetailType.AMP_CONDITION_VALUE, new TxDetail(TxDetailType.AMP_CONDITION_VALUE, "direct"));
+		tx.getDetails().put(TxDetailType.TYPE, new TxDetail(TxDetailType.TYPE, "normal"));
+		for (String recipient : recipients)
+			tx.addRecipient(recipient);
+	}
+	
+	@Benchmark
+	public Tx addRecipient()
+	{
+		final Tx retVal = new Tx();
+		for (String recipient : recipients)
+			retVal.addRecipient(recipient);
+		
+		return retVal;
+	}
+	
+	@Benchmark
+	public String txToString()
+	{
+		return tx.toString();
+	}
+}
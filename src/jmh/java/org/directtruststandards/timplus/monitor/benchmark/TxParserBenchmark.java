@@ -0,0 +1,112 @@
+package org.directtruststandards.timplus.monitor.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.jivesoftware.smack.packet.Stanza;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput benchmarks for the TxParser engines over the stanza corpus in src/test/resources/messages.  The corpus contains
+ * at least one stanza for each TxStanzaType.  Run with the GC profiler to report allocations per operation.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TxParserBenchmark
+{
+	@Param({"plainMessageStanza.txt", "mixedChatStateAndBody.txt", "chatStateStanza.txt", "ampDeliveredStanza.txt", "serviceUnavailableStanza.txt", 
+		"iqRosterSetStanza.txt", "iqErrorStanza.txt", "presenceSubscribeStanza.txt", "presenceErrorStanza.txt"})
+	public String stanzaResource;
+	
+	@Param({"default", "pull"})
+	public String engine;
+	
+	protected TxParser parser;
+	
+	protected String stanza;
+	
+	protected byte[] stanzaBytes;
+	
+	protected Stanza parsedStanza;
+	
+	protected MutableTx target;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		parser = "pull".equals(engine) ? new PullTxParser() : new DefaultTxParser();
+		
+		stanza = IOUtils.resourceToString("/messages/" + stanzaResource, StandardCharsets.UTF_8);
+		stanzaBytes = stanza.getBytes(StandardCharsets.UTF_8);
+		parsedStanza = new StanzaFactory().create(stanza);
+		target = new MutableTx();
+	}
+	
+	@Benchmark
+	public Tx parseStanzaString()
+	{
+		return parser.parseStanza(stanza);
+	}
+	
+	@Benchmark
+	public boolean parseIntoString()
+	{
+		return parser.parseInto(stanza, target);
+	}
+	
+	@Benchmark
+	public Tx parseStanzaInputStream()
+	{
+		return parser.parseStanza(new ByteArrayInputStream(stanzaBytes));
+	}
+	
+	@Benchmark
+	public TxStanzaType classifyString()
+	{
+		return parser.classify(stanza);
+	}
+	
+	@Benchmark
+	public Map<TxDetailType, TxDetail> getStanzaDetailsStanza()
+	{
+		return parser.getStanzaDetails(parsedStanza);
+	}
+	
+	/**
+	 * Exposes the Smack stanza conversion of the DefaultTxParser so the getStanzaDetails(Stanza) benchmark measures extraction only.
+	 */
+	protected static class StanzaFactory extends DefaultTxParser
+	{
+		public Stanza create(String stanza) throws Exception
+		{
+			return toStanza(stanza);
+		}
+	}
+}
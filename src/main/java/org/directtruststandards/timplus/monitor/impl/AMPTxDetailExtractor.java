@@ -0,0 +1,174 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.amp.AMPDeliverCondition;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.jivesoftware.smackx.amp.packet.AMPExtension.Rule;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Built in extractor of the ORIGINAL_RECIPIENT and AMP_CONDITION_VALUE details of an AMP element.  TIM+ message delivery notifications
+ * carry the status of "notify" and a rule with the action of "notify" and the condition of "deliver".  The first AMP element of a
+ * message is used.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class AMPTxDetailExtractor implements TxDetailExtractor
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(AMPTxDetailExtractor.class);
+
+	private static final Set<TxDetailType> DETAIL_TYPES =
+			Collections.unmodifiableSet(EnumSet.of(TxDetailType.ORIGINAL_RECIPIENT, TxDetailType.AMP_CONDITION_VALUE));
+
+	private static final String RULE_ELEMENT = "rule";
+
+	private static final String STATUS_NOTIFY = AMPExtension.Status.notify.name();
+
+	private static final String ACTION_NOTIFY = AMPExtension.Action.notify.name();
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public String getNamespace()
+	{
+		return AMPExtension.NAMESPACE;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public String getElementName()
+	{
+		return AMPExtension.ELEMENT;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Set<TxDetailType> getDetailTypes()
+	{
+		return DETAIL_TYPES;
+	}
+
+    /**
+     * {@inheritDoc}  AMP elements are only read from messages.
+     */
+	@Override
+	public boolean isApplicable(String stanzaElement)
+	{
+		return Message.ELEMENT.equals(stanzaElement);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean extract(ExtensionElement element, TxDetailExtractionContext context)
+	{
+		if (!(element instanceof AMPExtension))
+			return false;
+
+		final AMPExtension ampExtension = AMPExtension.class.cast(element);
+
+		// the 'to' attribute is the original recipient of the message stanza
+		putOriginalRecipient(ampExtension.getTo(), context);
+
+		// TIM+ message delivery falls under the status of "notify"
+		if (ampExtension.getStatus() == AMPExtension.Status.notify && ampExtension.getRulesCount() > 0 &&
+				context.isRequested(TxDetailType.AMP_CONDITION_VALUE))
+		{
+			for (Rule rule : ampExtension.getRules())
+			{
+				// TIM+ message delivery uses the "action" of "notify" and the "condition" of "deliver"
+				if (rule.getAction() == AMPExtension.Action.notify && rule.getCondition() != null &&
+						AMPDeliverCondition.NAME.equals(rule.getCondition().getName()))
+				{
+					context.putDetail(TxDetailType.AMP_CONDITION_VALUE, rule.getCondition().getValue());
+					break;
+				}
+			}
+		}
+
+		return true;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean extract(XmlPullParser parser, TxDetailExtractionContext context) throws Exception
+	{
+		// the 'to' attribute is the original recipient of the message stanza
+		putOriginalRecipient(parser.getAttributeValue("", "to"), context);
+
+		// TIM+ message delivery falls under the status of "notify"
+		final boolean notify = context.isRequested(TxDetailType.AMP_CONDITION_VALUE) &&
+				STATUS_NOTIFY.equals(parser.getAttributeValue("", "status"));
+		final int depth = parser.getDepth();
+
+		int event = parser.next();
+		while (!(event == XmlPullParser.END_TAG && parser.getDepth() == depth))
+		{
+			if (event == XmlPullParser.START_TAG)
+			{
+				// TIM+ message delivery uses the "action" of "notify" and the "condition" of "deliver"
+				if (notify && RULE_ELEMENT.equals(parser.getName()) && !context.hasDetail(TxDetailType.AMP_CONDITION_VALUE) &&
+						ACTION_NOTIFY.equals(parser.getAttributeValue("", "action")) &&
+						AMPDeliverCondition.NAME.equals(parser.getAttributeValue("", "condition")))
+				{
+					final AMPDeliverCondition.Value value = toDeliverValue(parser.getAttributeValue("", "value"));
+					if (value != null)
+						context.putDetail(TxDetailType.AMP_CONDITION_VALUE, value.name());
+				}
+
+				PullTxParser.skipElement(parser, context.getDepthLimit());
+			}
+
+			event = parser.next();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds the normalized original recipient if it is requested and present.  An invalid JID is logged and ignored.
+	 * @param originalRecip The raw value of the 'to' attribute of the AMP element.
+	 * @param context The context of the parse.
+	 */
+	protected void putOriginalRecipient(String originalRecip, TxDetailExtractionContext context)
+	{
+		if (StringUtils.isEmpty(originalRecip) || !context.isRequested(TxDetailType.ORIGINAL_RECIPIENT))
+			return;
+
+		try
+		{
+			context.putDetail(TxDetailType.ORIGINAL_RECIPIENT, context.toJidString(originalRecip));
+		}
+		catch (XmppStringprepException e)
+		{
+			LOGGER.warn("Failed to parse ORIGINAL_RECIPIENT Jid from given string: " + originalRecip);
+		}
+	}
+
+	private static AMPDeliverCondition.Value toDeliverValue(String value)
+	{
+		for (AMPDeliverCondition.Value deliverValue : AMPDeliverCondition.Value.values())
+			if (deliverValue.name().equals(value))
+				return deliverValue;
+
+		return null;
+	}
+}
@@ -0,0 +1,148 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.reactivestreams.Processor;
+
+/**
+ * Asynchronous facade over a TxParser.  Parsing is handed off to an executor so that callers such as network I/O threads are never
+ * blocked by stanza parsing.
+ * <p>
+ * Individual stanzas are parsed with the parseStanzaAsync methods.  Streams of stanzas are parsed with a reactive streams
+ * {@link Processor} that applies backpressure to the stanza publisher and bounds the number of stanzas in flight.  Processors can
+ * shed low value stanza types under overload through a {@link TxAdmissionController}.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class AsyncTxParser
+{
+	/**
+	 * The default maximum number of in flight stanzas of a processor.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+	protected final TxParser parser;
+
+	protected final Executor executor;
+
+	protected TxAdmissionController admissionController;
+
+	/**
+	 * Constructor.  Parsing is performed on the common fork/join pool.
+	 * @param parser The parser that performs the parsing.
+	 */
+	public AsyncTxParser(TxParser parser)
+	{
+		this(parser, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor
+	 * @param parser The parser that performs the parsing.
+	 * @param executor The executor that parsing is performed on.
+	 */
+	public AsyncTxParser(TxParser parser, Executor executor)
+	{
+		if (parser == null)
+			throw new IllegalArgumentException("Parser cannot be null");
+
+		if (executor == null)
+			throw new IllegalArgumentException("Executor cannot be null");
+
+		this.parser = parser;
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the admission controller used by processors created after this call.  Processors pre-classify each stanza with the
+	 * {@link TxStanzaClassifier} of the parser, or a default classifier if the parser is not a {@link DefaultTxParser}.
+	 * @param admissionController The admission controller or null to parse every stanza.
+	 */
+	public void setAdmissionController(TxAdmissionController admissionController)
+	{
+		this.admissionController = admissionController;
+	}
+
+	/**
+	 * Gets the admission controller used by new processors.
+	 * @return The admission controller or null if every stanza is parsed.
+	 */
+	public TxAdmissionController getAdmissionController()
+	{
+		return admissionController;
+	}
+
+	/**
+	 * Asynchronously parses a stanza in string format into a monitoring object.
+	 * @param stanza A string representation of a stanza
+	 * @return A future that completes with the monitoring object, or with null if the stanza could not be parsed.
+	 */
+	public CompletableFuture<Tx> parseStanzaAsync(String stanza)
+	{
+		return CompletableFuture.supplyAsync(() -> parser.parseStanza(stanza), executor);
+	}
+
+	/**
+	 * Asynchronously parses the stanza held in the remaining bytes of a buffer into a monitoring object.  The buffer must not be
+	 * modified until the future completes.
+	 * @param stanza The buffer containing the stanza
+	 * @return A future that completes with the monitoring object, or with null if the stanza could not be parsed.
+	 */
+	public CompletableFuture<Tx> parseStanzaAsync(ByteBuffer stanza)
+	{
+		return CompletableFuture.supplyAsync(() -> parser.parseStanza(stanza), executor);
+	}
+
+	/**
+	 * Creates a processor that parses published stanzas in string format using the default in flight window.
+	 * @return A new processor.
+	 */
+	public Processor<String, Tx> newStringProcessor()
+	{
+		return newStringProcessor(DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * Creates a processor that parses published stanzas in string format.
+	 * @param maxInFlight The maximum number of stanzas that are requested from the publisher but not yet emitted.
+	 * @return A new processor.
+	 */
+	public Processor<String, Tx> newStringProcessor(int maxInFlight)
+	{
+		return new TxParseProcessor<String>(parser::parseStanza, getClassifier()::classify, admissionController, executor, maxInFlight);
+	}
+
+	/**
+	 * Creates a processor that parses published stanza buffers using the default in flight window.
+	 * @return A new processor.
+	 */
+	public Processor<ByteBuffer, Tx> newByteBufferProcessor()
+	{
+		return newByteBufferProcessor(DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * Creates a processor that parses published stanza buffers.  A buffer must not be modified by the publisher until the monitoring
+	 * object parsed from it has been emitted.
+	 * @param maxInFlight The maximum number of stanzas that are requested from the publisher but not yet emitted.
+	 * @return A new processor.
+	 */
+	public Processor<ByteBuffer, Tx> newByteBufferProcessor(int maxInFlight)
+	{
+		return new TxParseProcessor<ByteBuffer>(parser::parseStanza, getClassifier()::classify, admissionController, executor, maxInFlight);
+	}
+
+	/**
+	 * Gets the classifier that processors use to pre-classify stanzas for admission control.
+	 * @return The classifier of the parser or a default classifier.
+	 */
+	protected TxStanzaClassifier getClassifier()
+	{
+		return (parser instanceof DefaultTxParser) ? ((DefaultTxParser)parser).getClassifier() : new TxStanzaClassifier();
+	}
+}
@@ -0,0 +1,115 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.jivesoftware.smack.packet.StreamOpen;
+import org.jivesoftware.smack.util.ParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Built in extractor of the MESSAGE_BODY_IND detail.  Only the body in the language of the message is considered, and the indicator is
+ * only set when that body is not empty.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class BodyTxDetailExtractor implements TxDetailExtractor
+{
+	private static final Set<TxDetailType> DETAIL_TYPES = Collections.unmodifiableSet(EnumSet.of(TxDetailType.MESSAGE_BODY_IND));
+
+	private static final String XML_LANG_ATTRIBUTE = "xml:lang";
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public String getNamespace()
+	{
+		return StreamOpen.CLIENT_NAMESPACE;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public String getElementName()
+	{
+		return Message.BODY;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Set<TxDetailType> getDetailTypes()
+	{
+		return DETAIL_TYPES;
+	}
+
+    /**
+     * {@inheritDoc}  Bodies are only read from messages.
+     */
+	@Override
+	public boolean isApplicable(String stanzaElement)
+	{
+		return Message.ELEMENT.equals(stanzaElement);
+	}
+
+    /**
+     * {@inheritDoc}  The body of the message language is resolved by Smack, so the first body element settles the detail.  Smack only
+     * reads the bodies of jabber:client stanzas and keeps the bodies of jabber:server stanzas as generic elements, which are tested
+     * the same way as bodies read by the pull parser.
+     */
+	@Override
+	public boolean extract(ExtensionElement element, TxDetailExtractionContext context)
+	{
+		if (element instanceof StandardExtensionElement)
+		{
+			final StandardExtensionElement body = (StandardExtensionElement)element;
+			
+			// only the first body matching the language of the message is considered
+			final String language = context.getLanguage();
+			final String bodyLanguage = body.getAttributeValue(XML_LANG_ATTRIBUTE);
+			if (!StringUtils.equals(language, bodyLanguage == null ? language : bodyLanguage))
+				return false;
+			
+			if (!StringUtils.isEmpty(body.getText()))
+				context.putDetail(TxDetailType.MESSAGE_BODY_IND, "");
+			
+			return true;
+		}
+		
+		if (!(context.getStanza() instanceof Message))
+			return false;
+
+		if (!StringUtils.isEmpty(Message.class.cast(context.getStanza()).getBody()))
+			context.putDetail(TxDetailType.MESSAGE_BODY_IND, "");
+
+		return true;
+	}
+
+    /**
+     * {@inheritDoc}  The body text is only tested for presence, so it is skipped without being materialized.
+     */
+	@Override
+	public boolean extract(XmlPullParser parser, TxDetailExtractionContext context) throws Exception
+	{
+		// only the first body matching the language of the message is considered
+		final String language = context.getLanguage();
+		final String bodyLanguage = ParserUtils.getXmlLang(parser);
+		final boolean hasText = PullTxParser.skipContent(parser, context.getDepthLimit());
+		if (!StringUtils.equals(language, bodyLanguage == null ? language : bodyLanguage))
+			return false;
+
+		if (hasText)
+			context.putDetail(TxDetailType.MESSAGE_BODY_IND, "");
+
+		return true;
+	}
+}
@@ -0,0 +1,91 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.chatstates.ChatState;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Built in extractor of the CHAT_STATE detail.  Every element of the chat state namespace is read; the first element that names a known
+ * chat state wins.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class ChatStateTxDetailExtractor implements TxDetailExtractor
+{
+	private static final Set<TxDetailType> DETAIL_TYPES = Collections.unmodifiableSet(EnumSet.of(TxDetailType.CHAT_STATE));
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public String getNamespace()
+	{
+		return ChatStateExtension.NAMESPACE;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Set<TxDetailType> getDetailTypes()
+	{
+		return DETAIL_TYPES;
+	}
+
+    /**
+     * {@inheritDoc}  Chat states are only read from messages.
+     */
+	@Override
+	public boolean isApplicable(String stanzaElement)
+	{
+		return Message.ELEMENT.equals(stanzaElement);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean extract(ExtensionElement element, TxDetailExtractionContext context)
+	{
+		if (!(element instanceof ChatStateExtension))
+			return false;
+
+		context.putDetail(TxDetailType.CHAT_STATE, ChatStateExtension.class.cast(element).getChatState().name());
+
+		return true;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean extract(XmlPullParser parser, TxDetailExtractionContext context) throws Exception
+	{
+		final ChatState chatState = toChatState(parser.getName());
+
+		PullTxParser.skipElement(parser, context.getDepthLimit());
+
+		if (chatState == null)
+			return false;
+
+		context.putDetail(TxDetailType.CHAT_STATE, chatState.name());
+
+		return true;
+	}
+
+	private static ChatState toChatState(String name)
+	{
+		for (ChatState state : ChatState.values())
+			if (state.name().equals(name))
+				return state;
+
+		return null;
+	}
+}
@@ -1,17 +1,31 @@
 package org.directtruststandards.timplus.monitor.impl;
 
 import java.io.InputStream;
-import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.directtruststandards.timplus.monitor.tx.TxParserMetrics;
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
 import org.directtruststandards.timplus.monitor.tx.model.Tx;
 import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
 import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
 import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.directtruststandards.timplus.monitor.util.SizeLimitedReader;
+import org.directtruststandards.timplus.monitor.util.XmlCharsetUtils;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
@@ -20,18 +34,26 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.StanzaError;
 import org.jivesoftware.smack.util.PacketParserUtils;
-import org.jivesoftware.smackx.amp.AMPDeliverCondition;
-import org.jivesoftware.smackx.amp.packet.AMPExtension;
-import org.jivesoftware.smackx.amp.packet.AMPExtension.Rule;
-import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
 import org.jxmpp.jid.Jid;
-import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
 
 /**
  * Default implementation of the TxParser interface
+ * <p>
+ * The parser holds no per stanza state and a single instance is safe to share across any number of threads.  Each parse borrows a
+ * configured XML pull parser from an {@link XmlPullParserPool}, by default one per thread, so the parser factory is not consulted
+ * for every stanza.  The setters configure the parser and are not synchronized; configure the parser before sharing it.  Batches of
+ * stanzas are parsed concurrently on a fork/join pool; batches at or below the batch threshold are parsed sequentially on the calling
+ * thread.
+ * <p>
+ * The details of child elements are read by {@link TxDetailExtractor extractors} that are looked up by the namespace of each element
+ * present in the stanza.  When a projection of detail types is requested, the full stanza is still parsed by Smack, but the
+ * normalization of JIDs and the extractors of unrequested details are skipped.
+ * <p>
+ * Stanza types are classified with a {@link TxStanzaClassifier} scan of the raw markup and only parsed when the scan is not decisive.
  * @author Greg Meyer
  * @since 1.0
  */
@@ -45,9 +67,297 @@ public class DefaultTxParser implements TxParser
 	
 	private static final String CLIENT_NAMESPACE_INSERT = "xmlns='jabber:client'";
 	
+	private static final String XML_DECLARATION_START = "<?xml";
+	
+	private static final String XML_DECLARATION_END = "?>";
+	
+	private static final TxDetailType[] DETAIL_TYPES = TxDetailType.values();
+	
+	/**
+	 * Projection containing every detail type.  Must not be modified.
+	 */
+	protected static final EnumSet<TxDetailType> ALL_DETAILS = EnumSet.allOf(TxDetailType.class);
+	
+	/**
+	 * Projection containing the detail types that decide the stanza type.  Must not be modified.
+	 */
+	protected static final EnumSet<TxDetailType> TYPE_DETAILS = EnumSet.of(TxDetailType.ERROR_CONDITION, 
+			TxDetailType.AMP_CONDITION_VALUE, TxDetailType.CHAT_STATE, TxDetailType.MESSAGE_BODY_IND);
+	
+	/**
+	 * Projection used to classify a stanza that the classifier cannot resolve without a parse.  The type attribute is requested so
+	 * that a stanza with an invalid type fails to classify.  Must not be modified.
+	 */
+	protected static final EnumSet<TxDetailType> CLASSIFY_DETAILS = EnumSet.of(TxDetailType.TYPE);
+	
+	/**
+	 * Default number of stanzas at or below which a batch is parsed sequentially.
+	 */
+	public static final int DEFAULT_BATCH_THRESHOLD = 64;
+	
+	/**
+	 * Default maximum size of a raw stanza in characters.
+	 */
+	public static final int DEFAULT_MAX_STANZA_SIZE = 1024 * 1024;
+	
+	protected int batchThreshold;
+	
+	protected int maxStanzaSize;
+	
+	protected volatile ForkJoinPool batchPool;
+	
+	protected JidCache jidCache;
+	
+	protected TxParserMetrics metrics;
+	
+	protected TxStanzaClassifier classifier;
+	
+	protected XmlPullParserPool parserPool;
+	
+	protected TxDetailExtractorRegistry extractorRegistry;
+	
+	protected TxDuplicateFilter duplicateFilter;
+	
+	protected Predicate<String> groupChatServices;
+	
 	public DefaultTxParser()
 	{
 		super();
+		
+		batchThreshold = DEFAULT_BATCH_THRESHOLD;
+		maxStanzaSize = DEFAULT_MAX_STANZA_SIZE;
+		batchPool = ForkJoinPool.commonPool();
+		jidCache = new JidCache();
+		metrics = new DefaultTxParserMetrics();
+		classifier = new TxStanzaClassifier();
+		parserPool = new XmlPullParserPool();
+		extractorRegistry = new TxDetailExtractorRegistry();
+	}
+	
+	/**
+	 * Sets the maximum size of a raw stanza in characters.  A larger stanza fails to parse as soon as the limit is reached, before the
+	 * rest of it is read or buffered, so a few oversized or hostile stanzas cannot cause large allocations.  Stanza objects and
+	 * the stanzas of a continuous stream are not limited.
+	 * @param maxStanzaSize The maximum stanza size or 0 for no limit.
+	 */
+	public void setMaxStanzaSize(int maxStanzaSize)
+	{
+		if (maxStanzaSize < 0)
+			throw new IllegalArgumentException("Max stanza size cannot be negative");
+		
+		this.maxStanzaSize = maxStanzaSize;
+	}
+	
+	/**
+	 * Gets the maximum size of a raw stanza in characters.
+	 * @return The maximum stanza size or 0 for no limit.
+	 */
+	public int getMaxStanzaSize()
+	{
+		return maxStanzaSize;
+	}
+	
+	/**
+	 * Sets the filter that drops copies of raw stanzas that have already been parsed.  The identity of a raw stanza is hashed by the 
+	 * classifier before it is parsed, and a parse of a duplicate returns null (or false when parsing into a target) without reading 
+	 * the rest of the stanza.  Stanzas read from an input stream and stanza objects are not filtered.  Duplicate filtering is disabled 
+	 * by default.
+	 * @param duplicateFilter The duplicate filter or null to disable duplicate filtering.
+	 */
+	public void setDuplicateFilter(TxDuplicateFilter duplicateFilter)
+	{
+		this.duplicateFilter = duplicateFilter;
+	}
+	
+	/**
+	 * Gets the filter that drops copies of raw stanzas that have already been parsed.
+	 * @return The duplicate filter or null if duplicate filtering is disabled.
+	 */
+	public TxDuplicateFilter getDuplicateFilter()
+	{
+		return duplicateFilter;
+	}
+	
+	/**
+	 * Sets the predicate that recognizes the domains of group chat (MUC) services.  A group chat message sent from a full JID to a bare
+	 * JID is either a message that an occupant sends to a room or a copy that a room reflects to the bare JID of an occupant, and the
+	 * two can only be told apart by knowing which domain hosts rooms.  Rooms span TIM+ service providers, so the domain of a room is not
+	 * related to the domains of its occupants.  Without a known service on either side the GROUP_CHAT_ROOM detail of such a message is
+	 * not set.  No services are known by default.
+	 * @param groupChatServices Predicate that tests a domain, or null if no group chat services are known.
+	 */
+	public void setGroupChatServices(Predicate<String> groupChatServices)
+	{
+		this.groupChatServices = groupChatServices;
+	}
+	
+	/**
+	 * Gets the predicate that recognizes the domains of group chat services.
+	 * @return Predicate that tests a domain, or null if no group chat services are known.
+	 */
+	public Predicate<String> getGroupChatServices()
+	{
+		return groupChatServices;
+	}
+	
+	/**
+	 * Sets the registry of extractors that read the details of the child elements of a stanza.  The default registry contains the built
+	 * in AMP, chat state, error, and body extractors; extractors can be added to it with {@link TxDetailExtractorRegistry#register}.
+	 * @param extractorRegistry The extractor registry.
+	 */
+	public void setExtractorRegistry(TxDetailExtractorRegistry extractorRegistry)
+	{
+		if (extractorRegistry == null)
+			throw new IllegalArgumentException("Extractor registry cannot be null");
+		
+		this.extractorRegistry = extractorRegistry;
+	}
+	
+	/**
+	 * Gets the registry of extractors that read the details of the child elements of a stanza.
+	 * @return The extractor registry.
+	 */
+	public TxDetailExtractorRegistry getExtractorRegistry()
+	{
+		return extractorRegistry;
+	}
+	
+	/**
+	 * Sets the pool that XML pull parsers are borrowed from.  The default pool keeps one parser per thread; use a shared pool with
+	 * a fixed capacity when stanzas are parsed on many short lived threads.
+	 * @param parserPool The parser pool.
+	 */
+	public void setParserPool(XmlPullParserPool parserPool)
+	{
+		if (parserPool == null)
+			throw new IllegalArgumentException("Parser pool cannot be null");
+		
+		this.parserPool = parserPool;
+	}
+	
+	/**
+	 * Gets the pool that XML pull parsers are borrowed from.
+	 * @return The parser pool.
+	 */
+	public XmlPullParserPool getParserPool()
+	{
+		return parserPool;
+	}
+	
+	/**
+	 * Sets the classifier used by the classify methods to determine the stanza type without a full parse.  Stanzas that the classifier
+	 * cannot decide are parsed.
+	 * @param classifier The stanza classifier.
+	 */
+	public void setClassifier(TxStanzaClassifier classifier)
+	{
+		if (classifier == null)
+			throw new IllegalArgumentException("Classifier cannot be null");
+		
+		this.classifier = classifier;
+	}
+	
+	/**
+	 * Gets the classifier used to determine the stanza type without a full parse.
+	 * @return The stanza classifier.
+	 */
+	public TxStanzaClassifier getClassifier()
+	{
+		return classifier;
+	}
+	
+	/**
+	 * Sets the sink that parse counts, latencies, extracted details, and failures of raw stanzas are recorded to.  A single sink may be 
+	 * shared by multiple parsers.
+	 * @param metrics The metrics sink.  Use {@link TxParserMetrics#NOOP} to disable metrics.
+	 */
+	public void setMetrics(TxParserMetrics metrics)
+	{
+		if (metrics == null)
+			throw new IllegalArgumentException("Metrics cannot be null");
+		
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Gets the sink that parser metrics are recorded to.
+	 * @return The metrics sink.
+	 */
+	public TxParserMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Sets the cache used to normalize and canonicalize the JID values of the FROM, RECIPIENTS, and ORIGINAL_RECIPIENT details.  A
+	 * single cache may be shared by multiple parsers.
+	 * @param jidCache The JID cache.
+	 */
+	public void setJidCache(JidCache jidCache)
+	{
+		if (jidCache == null)
+			throw new IllegalArgumentException("JID cache cannot be null");
+		
+		this.jidCache = jidCache;
+	}
+	
+	/**
+	 * Gets the cache used to normalize and canonicalize JID values.
+	 * @return The JID cache.
+	 */
+	public JidCache getJidCache()
+	{
+		return jidCache;
+	}
+	
+	/**
+	 * Sets the number of stanzas at or below which a batch (or a split of a batch) is parsed sequentially.
+	 * @param batchThreshold The sequential cutoff.  Must be at least 1.
+	 */
+	public void setBatchThreshold(int batchThreshold)
+	{
+		if (batchThreshold < 1)
+			throw new IllegalArgumentException("Batch threshold must be at least 1");
+		
+		this.batchThreshold = batchThreshold;
+	}
+	
+	/**
+	 * Gets the number of stanzas at or below which a batch is parsed sequentially.
+	 * @return The sequential cutoff.
+	 */
+	public int getBatchThreshold()
+	{
+		return batchThreshold;
+	}
+	
+	/**
+	 * Sets the number of threads used to parse batches.  A dedicated fork/join pool is created with the given parallelism; a value of 0 
+	 * uses the common fork/join pool.  May be called while batches are being parsed: new batches use the new pool, batches already 
+	 * running on a previous dedicated pool finish on it, and that pool is shut down once they complete.
+	 * @param parallelism The batch parallelism or 0 to use the common pool.
+	 */
+	public synchronized void setParallelism(int parallelism)
+	{
+		if (parallelism < 0)
+			throw new IllegalArgumentException("Parallelism cannot be negative");
+		
+		final ForkJoinPool oldPool = batchPool;
+		
+		batchPool = (parallelism == 0) ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+		
+		// an orderly shutdown after the swap only rejects batches that have not yet been submitted, and those are retried on the new pool
+		if (oldPool != ForkJoinPool.commonPool())
+			oldPool.shutdown();
+	}
+	
+	/**
+	 * Gets the number of threads used to parse batches.
+	 * @return The batch parallelism.
+	 */
+	public int getParallelism()
+	{
+		return batchPool.getParallelism();
 	}
 
     /**
@@ -56,20 +366,66 @@ public class DefaultTxParser implements TxParser
 	@Override
 	public Tx parseStanza(String stanza)
 	{
+		return parseStanza(stanza, ALL_DETAILS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(String stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return isDuplicate(stanza) ? null : parseRawStanza(stanza, detailTypes);
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return isDuplicate(stanza) ? null : parseRawStanza(stanza, detailTypes);
+	}
+	
+	/**
+	 * Parses the requested details of a raw stanza without checking it against the duplicate filter.
+	 * @param stanza A string representation of a stanza
+	 * @param detailTypes The detail types to extract
+	 * @return A monitoring object containing the stanza type and the requested monitoring details, or null if the stanza could not be
+	 * parsed.
+	 */
+	protected Tx parseRawStanza(String stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		final long start = System.nanoTime();
+		
 		Tx retVal = null;
 		try
 		{			
 			final Stanza parsedStanza = toStanza(stanza);
 			
-			retVal = parseStanza(parsedStanza);
+			retVal = recordParse(parseStanza(parsedStanza, detailTypes), start);
 		}
 		catch (Exception e)
 		{
+			metrics.recordFailure(e);
 			LOGGER.warn("Failed to retrieve stanza details.", e);
 		}
 		
 		return retVal;
 	}
+	
+	/**
+	 * Parses the requested details of the raw stanza held in the remaining bytes of a buffer without checking it against the duplicate
+	 * filter.  The position of the buffer is not modified.
+	 * @param stanza The buffer containing the stanza
+	 * @param detailTypes The detail types to extract
+	 * @return A monitoring object containing the stanza type and the requested monitoring details, or null if the stanza could not be
+	 * parsed.
+	 */
+	protected Tx parseRawStanza(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return parseRawStanza(XmlCharsetUtils.decode(stanza), detailTypes);
+	}
 
     /**
      * {@inheritDoc}
@@ -77,15 +433,27 @@ public class DefaultTxParser implements TxParser
 	@Override
 	public Tx parseStanza(InputStream stream)
 	{
+		return parseStanza(stream, ALL_DETAILS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(InputStream stream, EnumSet<TxDetailType> detailTypes)
+	{
+		final long start = System.nanoTime();
+		
 		Tx retVal = null;
 		try
 		{			
 			final Stanza parsedStanza = toStanza(stream);
 			
-			retVal = parseStanza(parsedStanza);
+			retVal = recordParse(parseStanza(parsedStanza, detailTypes), start);
 		}
 		catch (Exception e)
 		{
+			metrics.recordFailure(e);
 			LOGGER.warn("Failed to retrieve stanza details.", e);
 		}
 		
@@ -98,70 +466,218 @@ public class DefaultTxParser implements TxParser
 	@Override
 	public Tx parseStanza(Stanza stanza)
 	{
-		final Map<TxDetailType, TxDetail> details = getStanzaDetails(stanza);
+		return parseStanza(stanza, ALL_DETAILS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(Stanza stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return parseStanza(stanza, detailTypes, new Tx());
+	}
+	
+	/**
+	 * Parses the requested details of a Smack stanza object into a target monitoring object.  The reusable detail objects of a 
+	 * {@link MutableTx} are filled in place.
+	 * @param stanza The stanza.
+	 * @param detailTypes The detail types to extract
+	 * @param target The empty monitoring object that receives the stanza type and the requested monitoring details.
+	 * @return The target monitoring object.
+	 */
+	protected Tx parseStanza(Stanza stanza, EnumSet<TxDetailType> detailTypes, Tx target)
+	{
+		final EnumSet<TxDetailType> extracted = withTypeDetails(detailTypes);
+		extractStanzaDetails(stanza, extracted, target);
 		
-		final Tx retVal = new Tx();
-		retVal.setDetails(details);
+		final Map<TxDetailType, TxDetail> details = target.getDetails();
 		
 		// Determine the stanza type
 		if (stanza instanceof Message)
+			target.setStanzaType(getStanzaType(Message.ELEMENT, details));
+		else if (stanza instanceof IQ)
+			target.setStanzaType(getStanzaType(IQ.IQ_ELEMENT, details));
+		else if (stanza instanceof Presence)
+			target.setStanzaType(getStanzaType(Presence.ELEMENT, details));
+		else
+			// Unknown type
+			target.setStanzaType(TxStanzaType.UNKNOWN);
+		
+		if (extracted != detailTypes)
+			details.keySet().retainAll(detailTypes);
+		
+		return target;
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean parseInto(String stanza, MutableTx target)
+	{
+		return parseInto(stanza, ALL_DETAILS, target);
+	}
+	
+    /**
+     * {@inheritDoc}  The details are written into the reusable detail objects of the target without creating an intermediate monitoring
+     * object.
+     */
+	@Override
+	public boolean parseInto(String stanza, EnumSet<TxDetailType> detailTypes, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+		
+		final long start = System.nanoTime();
+		
+		target.reset();
+		if (isDuplicate(stanza))
+			return false;
+		
+		try
 		{
-			// An error detail indicates a message error
-			if (details.get(TxDetailType.ERROR_CONDITION) != null)
-				retVal.setStanzaType(TxStanzaType.MESSAGE_ERROR);
-			
-			// An AMP detail indicates a message AMP
-			else if (details.get(TxDetailType.AMP_CONDITION_VALUE) != null)
-				retVal.setStanzaType(TxStanzaType.AMP);
-			
-			// A chat state and no message body indicates this
-			// as a chat state only message
-			else if (details.get(TxDetailType.CHAT_STATE) != null && details.get(TxDetailType.MESSAGE_BODY_IND) == null)
-				retVal.setStanzaType(TxStanzaType.MESSAGE_CHAT_STATE);
-			
-			// Otherwise the is a normal message
-			else
-				retVal.setStanzaType(TxStanzaType.MESSAGE);	
+			recordParse(parseStanza(toStanza(stanza), detailTypes, target), start);
+			return true;
 		}
-		else if (stanza instanceof IQ)
+		catch (Exception e)
 		{
-			// An error detail indicates an IQ error
-			if (details.get(TxDetailType.ERROR_CONDITION) != null)
-				retVal.setStanzaType(TxStanzaType.IQ_ERROR);
-			
-			// Otherwise the is a normal IQ
-			else
-				retVal.setStanzaType(TxStanzaType.IQ);	
+			target.reset();
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
 		}
-		else if (stanza instanceof Presence)
+		
+		return false;
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean parseInto(ByteBuffer stanza, MutableTx target)
+	{
+		return parseInto(stanza, ALL_DETAILS, target);
+	}
+	
+    /**
+     * {@inheritDoc}  The details are written into the reusable detail objects of the target without creating an intermediate monitoring
+     * object.
+     */
+	@Override
+	public boolean parseInto(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+		
+		final long start = System.nanoTime();
+		
+		target.reset();
+		if (isDuplicate(stanza))
+			return false;
+		
+		try
 		{
-			// An error detail indicates a presence error
-			if (details.get(TxDetailType.ERROR_CONDITION) != null)
-				retVal.setStanzaType(TxStanzaType.PRESENSE_ERROR);
-			
-			// Otherwise the is a normal presence
-			else
-				retVal.setStanzaType(TxStanzaType.PRESENSE);	
+			recordParse(parseStanza(toStanza(XmlCharsetUtils.decode(stanza)), detailTypes, target), start);
+			return true;
+		}
+		catch (Exception e)
+		{
+			target.reset();
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
 		}
-		else
-			// Unknown type
-			retVal.setStanzaType(TxStanzaType.UNKNOWN);
 		
-		return retVal;
+		return false;
 	}
 
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public TxStanzaType classify(String stanza)
+	{
+		final TxStanzaType retVal = classifier.classify(stanza);
+		if (retVal != null)
+			return retVal;
+		
+		// the fallback parse must not remember the stanza in the duplicate filter, or the parse that follows would drop it
+		final Tx tx = parseRawStanza(stanza, CLASSIFY_DETAILS);
+		
+		return (tx == null) ? null : tx.getStanzaType();
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public TxStanzaType classify(ByteBuffer stanza)
+	{
+		final TxStanzaType retVal = classifier.classify(stanza);
+		if (retVal != null)
+			return retVal;
+		
+		// the fallback parse must not remember the stanza in the duplicate filter, or the parse that follows would drop it
+		final Tx tx = parseRawStanza(stanza, CLASSIFY_DETAILS);
+		
+		return (tx == null) ? null : tx.getStanzaType();
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public List<Tx> parseStanzas(List<String> stanzas)
+	{
+		final List<String> source = (stanzas instanceof RandomAccess) ? stanzas : new ArrayList<>(stanzas);
+		final Tx[] retVal = new Tx[source.size()];
+		
+		if (retVal.length <= batchThreshold)
+			new ParseStanzasTask(source, retVal, 0, retVal.length).compute();
+		else
+		{
+			ForkJoinPool pool = batchPool;
+			while (true)
+			{
+				try
+				{
+					pool.invoke(new ParseStanzasTask(source, retVal, 0, retVal.length));
+					break;
+				}
+				catch (RejectedExecutionException e)
+				{
+					// the pool was replaced and shut down between reading it and submitting the batch
+					if (pool == batchPool)
+						throw e;
+					
+					pool = batchPool;
+				}
+			}
+		}
+		
+		return Arrays.asList(retVal);
+	}
+	
     /**
      * {@inheritDoc}
      */
 	@Override
 	public Map<TxDetailType, TxDetail> getStanzaDetails(String stanza)
+	{
+		return getStanzaDetails(stanza, ALL_DETAILS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Map<TxDetailType, TxDetail> getStanzaDetails(String stanza, EnumSet<TxDetailType> detailTypes)
 	{
 		Map<TxDetailType, TxDetail> retVal = null;
 		try
 		{			
 			final Stanza parsedStanza = toStanza(stanza);
 			
-			retVal = getStanzaDetails(parsedStanza);
+			retVal = getStanzaDetails(parsedStanza, detailTypes);
 		}
 		catch (Exception e)
 		{
@@ -196,114 +712,331 @@ public class DefaultTxParser implements TxParser
 	@Override
 	public Map<TxDetailType, TxDetail> getStanzaDetails(Stanza stanza)
 	{
-		final Map<TxDetailType, TxDetail> retVal = new HashMap<TxDetailType, TxDetail>();
+		return getStanzaDetails(stanza, ALL_DETAILS);
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Map<TxDetailType, TxDetail> getStanzaDetails(Stanza stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		final Tx target = new Tx();
+		extractStanzaDetails(stanza, detailTypes, target);
 		
+		return target.getDetails();
+	}
+	
+	/**
+	 * Extracts the requested details of a Smack stanza object into a monitoring object.
+	 * @param stanza The stanza.
+	 * @param detailTypes The detail types to extract.
+	 * @param target The monitoring object that the details are added to.
+	 */
+	protected void extractStanzaDetails(Stanza stanza, EnumSet<TxDetailType> detailTypes, Tx target)
+	{
 		// get the message id
 		final String msgId = stanza.getStanzaId();
-		if (!StringUtils.isEmpty(msgId))
-			retVal.put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, msgId));
+		if (!StringUtils.isEmpty(msgId) && detailTypes.contains(TxDetailType.MSG_ID))
+			putDetail(target, TxDetailType.MSG_ID, msgId);
 		
 		// get the source
 		final Jid from = stanza.getFrom();
-		if (from != null)
-			retVal.put(TxDetailType.FROM, new TxDetail(TxDetailType.FROM, from.toString()));
+		if (from != null && detailTypes.contains(TxDetailType.FROM))
+			putDetail(target, TxDetailType.FROM, jidCache.toJidString(from));
 		
 		// get the destination
 		final Jid to = stanza.getTo();
-		if (to != null)
-			retVal.put(TxDetailType.RECIPIENTS, new TxDetail(TxDetailType.RECIPIENTS, to.toString()));
-		
-		
-		// get the error if any
-		final StanzaError error = stanza.getError();
-		if (error != null)
-			retVal.put(TxDetailType.ERROR_CONDITION, new TxDetail(TxDetailType.ERROR_CONDITION, error.getCondition().toString()));
+		if (to != null && detailTypes.contains(TxDetailType.RECIPIENTS))
+			putDetail(target, TxDetailType.RECIPIENTS, jidCache.toJidString(to));
 		
+		String stanzaElement = null;
 		if (stanza instanceof Message)
 		{
-			final Message msg = Message.class.cast(stanza);
+			stanzaElement = Message.ELEMENT;
 			
 			// get the type attribute if it exists
-			final Type type = msg.getType();
-			if (type != null)
-				retVal.put(TxDetailType.TYPE, new TxDetail(TxDetailType.TYPE, type.name()));
+			final Type type = Message.class.cast(stanza).getType();
+			if (type != null && detailTypes.contains(TxDetailType.TYPE))
+				putDetail(target, TxDetailType.TYPE, type.name());
 			
-			// check if a message body is present
-			if (!StringUtils.isEmpty(msg.getBody()))
-				retVal.put(TxDetailType.MESSAGE_BODY_IND, new TxDetail(TxDetailType.MESSAGE_BODY_IND, ""));
-				
-			// check for a chat state
-			final ExtensionElement chatStateElement = msg.getExtension(ChatStateExtension.NAMESPACE);
-			if (chatStateElement != null && chatStateElement instanceof ChatStateExtension)
+			// get the room of a group chat message
+			if (type == Type.groupchat && detailTypes.contains(TxDetailType.GROUP_CHAT_ROOM))
 			{
-				final ChatStateExtension chatStateExtension = ChatStateExtension.class.cast(chatStateElement);
-				retVal.put(TxDetailType.CHAT_STATE, new TxDetail(TxDetailType.CHAT_STATE, chatStateExtension.getChatState().name()));
-			}
-			
-			// check if this is an AMP message
-			final ExtensionElement xmpExtension = msg.getExtension(AMPExtension.NAMESPACE);
-			if (xmpExtension != null)
-			{					
-				// start digging into the status attribute and rule element of the AMP message
-				if (xmpExtension instanceof AMPExtension)
-				{					
-					final AMPExtension ampExtension = AMPExtension.class.cast(xmpExtension);
-					
-					// the 'to' attribute is the original recipient of the message stanza
-					if (!StringUtils.isEmpty(ampExtension.getTo()))
-					{
-						try
-						{
-							final Jid orginalRecipJid = JidCreate.from(ampExtension.getTo());
-							retVal.put(TxDetailType.ORIGINAL_RECIPIENT, new TxDetail(TxDetailType.ORIGINAL_RECIPIENT, orginalRecipJid.toString()));
-						} 
-						catch (XmppStringprepException e)
-						{
-							LOGGER.warn("Failed to parse ORIGINAL_RECIPIENT Jid from given string: " + ampExtension.getTo());
-						}
-					}
-						
-					// TIM+ message delivery falls under the status of "notify"
-					if (ampExtension.getStatus() == AMPExtension.Status.notify && ampExtension.getRulesCount() > 0)
-					{
-						for (Rule rule : ampExtension.getRules())
-						{
-							// TIM+ message delivery uses the "action" of "notify" and the "condition" of "deliver"
-							if (rule.getAction() == AMPExtension.Action.notify && rule.getCondition() != null &&
-									rule.getCondition().getName() == AMPDeliverCondition.NAME)
-							{
-								retVal.put(TxDetailType.AMP_CONDITION_VALUE, new TxDetail(TxDetailType.AMP_CONDITION_VALUE, rule.getCondition().getValue()));
-								break;
-							}
-						}
-					}
-
-				}
+				final String room = getGroupChatRoom(from == null ? null : jidCache.toJidString(from), 
+						to == null ? null : jidCache.toJidString(to));
+				if (room != null)
+					putDetail(target, TxDetailType.GROUP_CHAT_ROOM, room);
 			}
 		}
 		else if (stanza instanceof IQ)
 		{
-			final IQ iq = IQ.class.cast(stanza);
+			stanzaElement = IQ.IQ_ELEMENT;
 			
 			// get the type attribute if it exists
-			final IQ.Type type = iq.getType();
-			if (type != null)
-				retVal.put(TxDetailType.TYPE, new TxDetail(TxDetailType.TYPE, type.name()));
+			final IQ.Type type = IQ.class.cast(stanza).getType();
+			if (type != null && detailTypes.contains(TxDetailType.TYPE))
+				putDetail(target, TxDetailType.TYPE, type.name());
 		}
 		else if (stanza instanceof Presence)
 		{
-			final Presence iq = Presence.class.cast(stanza);
+			stanzaElement = Presence.ELEMENT;
 			
 			// get the type attribute if it exists
-			final Presence.Type type = iq.getType();
-			if (type != null)
-				retVal.put(TxDetailType.TYPE, new TxDetail(TxDetailType.TYPE, type.name()));
+			final Presence.Type type = Presence.class.cast(stanza).getType();
+			if (type != null && detailTypes.contains(TxDetailType.TYPE))
+				putDetail(target, TxDetailType.TYPE, type.name());
 		}		
 		
+		// get the details of the child elements that are present
+		if (stanzaElement != null)
+			extractDetails(stanza, stanzaElement, detailTypes, target);
+	}
+	
+
+	/**
+	 * Dispatches the error, bodies, and extension elements of a Smack stanza object to the registered extractors of their namespaces.
+	 * Elements without a registered extractor are not inspected, and dispatch stops once every extractor of a requested detail type
+	 * is resolved.
+	 * @param stanza The stanza.
+	 * @param stanzaElement The name of the stanza element: message, iq, or presence.
+	 * @param detailTypes The detail types to extract.
+	 * @param target The monitoring object that the details are added to.
+	 */
+	protected void extractDetails(Stanza stanza, String stanzaElement, EnumSet<TxDetailType> detailTypes, Tx target)
+	{
+		final TxDetailExtractorRegistry.Table table = extractorRegistry.getTable();
+		
+		long pending = table.getPendingMask(stanzaElement, detailTypes);
+		if (pending == 0)
+			return;
+		
+		final TxDetailExtractionContext context = 
+				new TxDetailExtractionContext(stanza, stanzaElement, stanza.getLanguage(), detailTypes, target, jidCache);
+		
+		// Smack holds the error and bodies of a stanza outside of its extensions
+		final StanzaError error = stanza.getError();
+		if (error != null)
+			pending = dispatchElement(table, pending, CLIENT_NAMESPACE, StanzaError.ERROR, error, context);
+		
+		if (pending != 0 && stanza instanceof Message)
+			for (Message.Body body : Message.class.cast(stanza).getBodies())
+				pending = dispatchElement(table, pending, CLIENT_NAMESPACE, Message.BODY, body, context);
+		
+		if (pending != 0)
+			for (ExtensionElement element : stanza.getExtensions())
+				pending = dispatchElement(table, pending, element.getNamespace(), element.getElementName(), element, context);
+	}
+	
+	/**
+	 * Dispatches a single element to its extractor if the extractor is still pending.
+	 * @param table The extractor table of the stanza.
+	 * @param pending The bit mask of pending extractors.
+	 * @param namespace The element namespace.
+	 * @param elementName The element name.
+	 * @param element The element.
+	 * @param context The context of the parse.
+	 * @return The bit mask of extractors that are still pending.
+	 */
+	private long dispatchElement(TxDetailExtractorRegistry.Table table, long pending, String namespace, String elementName, 
+			ExtensionElement element, TxDetailExtractionContext context)
+	{
+		final int index = table.indexOf(namespace, elementName);
+		if (index < 0 || (pending & (1L << index)) == 0)
+			return pending;
+		
+		try
+		{
+			if (!table.getExtractor(index).extract(element, context))
+				return pending;
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Failed to extract details from element " + elementName + " of namespace " + namespace, e);
+		}
+		
+		return pending & ~(1L << index);
+	}
+	
+	/**
+	 * Gets the detail types to extract for a projection.  The details that decide the stanza type are always extracted so that a
+	 * projection does not change the stanza type; callers remove those that were not requested once the stanza type is determined.
+	 * @param detailTypes The requested detail types.
+	 * @return The requested detail types if they include every detail that decides the stanza type, otherwise a new set with those
+	 * details added.
+	 */
+	protected static EnumSet<TxDetailType> withTypeDetails(EnumSet<TxDetailType> detailTypes)
+	{
+		if (detailTypes.containsAll(TYPE_DETAILS))
+			return detailTypes;
+		
+		final EnumSet<TxDetailType> retVal = EnumSet.copyOf(detailTypes);
+		retVal.addAll(TYPE_DETAILS);
 		
 		return retVal;
 	}
 	
+	/**
+	 * Adds a detail to a monitoring object.  The reusable detail objects of a {@link MutableTx} are filled in place; other monitoring objects
+	 * receive new detail objects.
+	 * @param target The monitoring object.
+	 * @param detailType The detail type.
+	 * @param detailValue The detail value.  A RECIPIENTS value is a single recipient.
+	 */
+	protected void putDetail(Tx target, TxDetailType detailType, String detailValue)
+	{
+		TxDetailExtractionContext.putDetail(target, detailType, detailValue);
+	}
+	
+	/**
+	 * Records a parsed raw stanza and its extracted details to the metrics sink.
+	 * @param tx The monitoring object parsed from the stanza.
+	 * @param startNanos The value of {@link System#nanoTime()} when parsing started.
+	 * @return The monitoring object.
+	 */
+	protected Tx recordParse(Tx tx, long startNanos)
+	{
+		metrics.recordParse(tx.getStanzaType(), System.nanoTime() - startNanos);
+		
+		final Map<TxDetailType, TxDetail> details = tx.getDetails();
+		for (TxDetailType detailType : DETAIL_TYPES)
+			if (details.containsKey(detailType))
+				metrics.recordDetail(detailType);
+		
+		return tx;
+	}
+	
+	/**
+	 * Determines the monitoring stanza type from the name of the stanza element and the details that were extracted from the stanza.
+	 * @param stanzaElement The name of the stanza element: message, iq, or presence.
+	 * @param details The details extracted from the stanza.
+	 * @return The monitoring stanza type.
+	 */
+	protected TxStanzaType getStanzaType(String stanzaElement, Map<TxDetailType, TxDetail> details)
+	{
+		if (Message.ELEMENT.equals(stanzaElement))
+		{
+			// An error detail indicates a message error
+			if (details.get(TxDetailType.ERROR_CONDITION) != null)
+				return TxStanzaType.MESSAGE_ERROR;
+			
+			// An AMP detail indicates a message AMP
+			else if (details.get(TxDetailType.AMP_CONDITION_VALUE) != null)
+				return TxStanzaType.AMP;
+			
+			// A chat state and no message body indicates this
+			// as a chat state only message
+			else if (details.get(TxDetailType.CHAT_STATE) != null && details.get(TxDetailType.MESSAGE_BODY_IND) == null)
+				return TxStanzaType.MESSAGE_CHAT_STATE;
+			
+			// Otherwise the is a normal message
+			else
+				return TxStanzaType.MESSAGE;	
+		}
+		else if (IQ.IQ_ELEMENT.equals(stanzaElement))
+		{
+			// An error detail indicates an IQ error
+			if (details.get(TxDetailType.ERROR_CONDITION) != null)
+				return TxStanzaType.IQ_ERROR;
+			
+			// Otherwise the is a normal IQ
+			else
+				return TxStanzaType.IQ;	
+		}
+		else if (Presence.ELEMENT.equals(stanzaElement))
+		{
+			// An error detail indicates a presence error
+			if (details.get(TxDetailType.ERROR_CONDITION) != null)
+				return TxStanzaType.PRESENSE_ERROR;
+			
+			// Otherwise the is a normal presence
+			else
+				return TxStanzaType.PRESENSE;	
+		}
+		
+		// Unknown type
+		return TxStanzaType.UNKNOWN;
+	}
+	
+	/**
+	 * Determines the room of a group chat message from its normalized source and destination.  A message that an occupant sends to a
+	 * room is addressed to the bare JID of the room, and the copies that the room reflects to each occupant are sent from the occupant
+	 * JID of the sender, which is the room JID with the nickname as its resource.
+	 * <p>
+	 * Reflections are normally addressed to the full JID of an occupant, but may be addressed to its bare JID, in which case both kinds
+	 * of copy are sent from a full JID to a bare JID.  Such a copy is only attributed to a room if the domain of one side is a known
+	 * group chat service; see {@link #setGroupChatServices(Predicate)}.
+	 * @param from The normalized JID of the sender.  May be null.
+	 * @param to The normalized JID of the recipient.  May be null.
+	 * @return The bare JID of the room, or null if the room cannot be determined.
+	 */
+	protected String getGroupChatRoom(String from, String to)
+	{
+		if (to == null || to.indexOf('/') >= 0)
+			return (from == null) ? null : jidCache.toBareJidString(from);
+		
+		if (from == null || from.indexOf('/') < 0)
+			return to;
+		
+		final Predicate<String> services = groupChatServices;
+		if (services == null)
+			return null;
+		
+		if (services.test(getDomain(from)))
+			return jidCache.toBareJidString(from);
+		
+		return services.test(getDomain(to)) ? to : null;
+	}
+	
+	/**
+	 * Gets the domain part of a normalized JID.
+	 * @param jid The normalized JID.
+	 * @return The domain part.
+	 */
+	private static String getDomain(String jid)
+	{
+		final int resource = jid.indexOf('/');
+		final int domain = jid.lastIndexOf('@', (resource < 0) ? jid.length() : resource) + 1;
+		
+		return jid.substring(domain, (resource < 0) ? jid.length() : resource);
+	}
+	
+	/**
+	 * Converts a raw JID string into its normalized string representation using the JID cache.
+	 * @param jid The raw JID.
+	 * @return The normalized JID string.
+	 * @throws XmppStringprepException Thrown if the raw value is not a valid JID.
+	 */
+	protected String toJidString(String jid) throws XmppStringprepException
+	{
+		return jidCache.toJidString(jid);
+	}
+	
+	/**
+	 * Checks a raw stanza against the duplicate filter.
+	 * @param stanza The raw stanza.
+	 * @return True if duplicate filtering is enabled and the stanza is a duplicate, otherwise false.
+	 */
+	protected boolean isDuplicate(CharSequence stanza)
+	{
+		final TxDuplicateFilter filter = duplicateFilter;
+		
+		return filter != null && stanza != null && filter.isDuplicate(classifier.identityHash(stanza));
+	}
+	
+	/**
+	 * Checks the raw stanza held in the remaining bytes of a buffer against the duplicate filter.  The position of the buffer is not 
+	 * modified.
+	 * @param stanza The buffer containing the raw stanza.
+	 * @return True if duplicate filtering is enabled and the stanza is a duplicate, otherwise false.
+	 */
+	protected boolean isDuplicate(ByteBuffer stanza)
+	{
+		final TxDuplicateFilter filter = duplicateFilter;
+		
+		return filter != null && stanza != null && filter.isDuplicate(classifier.identityHash(stanza));
+	}
+	
 	/**
 	 * Converts a string into a Stanza object
 	 * @param stanza The stanza in string format.
@@ -312,7 +1045,26 @@ public class DefaultTxParser implements TxParser
 	 */
 	protected Stanza toStanza(String stanza) throws Exception
 	{
-		return PacketParserUtils.parseStanza(toNameSpacedStanza(stanza));
+		checkStanzaSize(stanza);
+		
+		final XmlPullParser parser = parserPool.acquire(new StringReader(toNameSpacedStanza(stanza)));
+		try
+		{
+			int event = parser.getEventType();
+			while (event != XmlPullParser.START_TAG)
+			{
+				if (event == XmlPullParser.END_DOCUMENT)
+					throw new IllegalArgumentException("No stanza element found.");
+				
+				event = parser.next();
+			}
+			
+			return PacketParserUtils.parseStanza(parser);
+		}
+		finally
+		{
+			parserPool.release(parser);
+		}
 	}
 	
 	/**
@@ -323,12 +1075,35 @@ public class DefaultTxParser implements TxParser
 	 */
 	protected Stanza toStanza(InputStream stream) throws Exception
 	{
-		return PacketParserUtils.parseStanza(IOUtils.toString(stream, Charset.defaultCharset()));
+		return toStanza(IOUtils.toString(limitStanzaSize(XmlCharsetUtils.newReader(stream))));
+	}
+	
+	/**
+	 * Checks a raw stanza against the maximum stanza size.
+	 * @param stanza The raw stanza.
+	 * @throws IllegalArgumentException Thrown if the stanza exceeds the maximum stanza size.
+	 */
+	protected void checkStanzaSize(CharSequence stanza)
+	{
+		if (maxStanzaSize > 0 && stanza.length() > maxStanzaSize)
+			throw new IllegalArgumentException("Stanza exceeds the maximum size of " + maxStanzaSize + " characters");
+	}
+	
+	/**
+	 * Limits a reader of a raw stanza to the maximum stanza size.
+	 * @param reader The reader of the raw stanza.
+	 * @return A reader that throws an IllegalArgumentException once the maximum stanza size is exceeded, or the reader itself if the
+	 * size is not limited.
+	 */
+	protected Reader limitStanzaSize(Reader reader)
+	{
+		return (maxStanzaSize > 0) ? new SizeLimitedReader(reader, maxStanzaSize) : reader;
 	}
 	
 	/**
 	 * The underlying parser implementation requires that the stanza include a default namespace attribute.
-	 * This method prepares a staza for parsing by setting a default namespace if one does not already exist.
+	 * This method prepares a staza for parsing by setting a default namespace if one does not already exist.  A leading XML declaration
+	 * is removed as the stanza has already been decoded.
 	 * @param stanza The stanza to process.
 	 * @return The input stanza with default client namespace (if the stanza did not already include a default namespace).
 	 */
@@ -336,6 +1111,9 @@ public class DefaultTxParser implements TxParser
 	{
 		String trimmedStanza = stanza.trim();
 		
+		if (trimmedStanza.startsWith(XML_DECLARATION_START))
+			trimmedStanza = trimmedStanza.substring(trimmedStanza.indexOf(XML_DECLARATION_END) + XML_DECLARATION_END.length()).trim();
+		
 		if (!(trimmedStanza.contains(CLIENT_NAMESPACE) || trimmedStanza.contains(SERVER_NAMESPACE)))
 		{
 			final String start = trimmedStanza.substring(0, trimmedStanza.indexOf(' '));
@@ -346,4 +1124,53 @@ public class DefaultTxParser implements TxParser
 		else
 			return trimmedStanza;
 	}
+	
+	/**
+	 * Fork/join task that parses a range of a batch of stanzas, splitting the range in half until it reaches the batch threshold.
+	 */
+	protected class ParseStanzasTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 5403470364525328046L;
+
+		protected final List<String> stanzas;
+		
+		protected final Tx[] results;
+		
+		protected final int start;
+		
+		protected final int end;
+		
+		/**
+		 * Constructor
+		 * @param stanzas The full batch of stanzas.
+		 * @param results The array that parsed monitoring objects are written to at the same index as the input stanza.
+		 * @param start The first index (inclusive) of the range to parse.
+		 * @param end The last index (exclusive) of the range to parse.
+		 */
+		protected ParseStanzasTask(List<String> stanzas, Tx[] results, int start, int end)
+		{
+			this.stanzas = stanzas;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected void compute()
+		{
+			if (end - start <= batchThreshold)
+			{
+				for (int i = start; i < end; ++i)
+					results[i] = parseStanza(stanzas.get(i));
+			}
+			else
+			{
+				final int mid = (start + end) >>> 1;
+				invokeAll(new ParseStanzasTask(stanzas, results, start, mid), new ParseStanzasTask(stanzas, results, mid, end));
+			}
+		}
+	}
 }
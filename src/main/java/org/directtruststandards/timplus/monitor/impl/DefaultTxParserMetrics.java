@@ -0,0 +1,158 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.directtruststandards.timplus.monitor.tx.TxParserMetrics;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+/**
+ * Default implementation of the TxParserMetrics interface that keeps all metrics in memory using JDK striped counters.  Parse and detail
+ * counts are indexed by the ordinal of their type and parse latencies are kept in a {@link LatencyHistogram} per stanza type, so
+ * recording never allocates.  Failures are counted by the class of the exception that caused them; the counter of a failure class is
+ * created the first time that class is seen.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class DefaultTxParserMetrics implements TxParserMetrics
+{
+	private static final Function<Class<?>, LongAdder> NEW_COUNTER = cause -> new LongAdder();
+	
+	protected final LongAdder[] parseCounts;
+	
+	protected final LatencyHistogram[] latencies;
+	
+	protected final LongAdder[] detailCounts;
+	
+	protected final Map<Class<?>, LongAdder> failureCounts;
+	
+	public DefaultTxParserMetrics()
+	{
+		final int stanzaTypes = TxStanzaType.values().length;
+		parseCounts = new LongAdder[stanzaTypes];
+		latencies = new LatencyHistogram[stanzaTypes];
+		for (int i = 0; i < stanzaTypes; ++i)
+		{
+			parseCounts[i] = new LongAdder();
+			latencies[i] = new LatencyHistogram();
+		}
+		
+		final int detailTypes = TxDetailType.values().length;
+		detailCounts = new LongAdder[detailTypes];
+		for (int i = 0; i < detailTypes; ++i)
+			detailCounts[i] = new LongAdder();
+		
+		failureCounts = new ConcurrentHashMap<>();
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public void recordParse(TxStanzaType stanzaType, long latencyNanos)
+	{
+		parseCounts[stanzaType.ordinal()].increment();
+		latencies[stanzaType.ordinal()].record(latencyNanos);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public void recordDetail(TxDetailType detailType)
+	{
+		detailCounts[detailType.ordinal()].increment();
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public void recordFailure(Throwable cause)
+	{
+		final Class<?> causeClass = cause.getClass();
+		
+		LongAdder counter = failureCounts.get(causeClass);
+		if (counter == null)
+			counter = failureCounts.computeIfAbsent(causeClass, NEW_COUNTER);
+		
+		counter.increment();
+	}
+	
+	/**
+	 * Gets the number of parsed stanzas of a given type.
+	 * @param stanzaType The stanza type.
+	 * @return The number of parsed stanzas.
+	 */
+	public long getParseCount(TxStanzaType stanzaType)
+	{
+		return parseCounts[stanzaType.ordinal()].sum();
+	}
+	
+	/**
+	 * Gets the parse latency histogram of a given stanza type.  Latencies are recorded in nanoseconds.
+	 * @param stanzaType The stanza type.
+	 * @return The latency histogram.
+	 */
+	public LatencyHistogram getLatencyHistogram(TxStanzaType stanzaType)
+	{
+		return latencies[stanzaType.ordinal()];
+	}
+	
+	/**
+	 * Gets the number of times a given detail type was extracted.
+	 * @param detailType The detail type.
+	 * @return The number of extracted details.
+	 */
+	public long getDetailCount(TxDetailType detailType)
+	{
+		return detailCounts[detailType.ordinal()].sum();
+	}
+	
+	/**
+	 * Gets the number of failures caused by a given exception class.
+	 * @param cause The exception class.
+	 * @return The number of failures.
+	 */
+	public long getFailureCount(Class<? extends Throwable> cause)
+	{
+		final LongAdder counter = failureCounts.get(cause);
+		
+		return (counter == null) ? 0 : counter.sum();
+	}
+	
+	/**
+	 * Gets a snapshot of the failure counts of all exception classes that have caused a failure.
+	 * @return A map of exception classes to failure counts.
+	 */
+	public Map<Class<?>, Long> getFailureCounts()
+	{
+		final Map<Class<?>, Long> retVal = new HashMap<>();
+		for (Map.Entry<Class<?>, LongAdder> entry : failureCounts.entrySet())
+			retVal.put(entry.getKey(), entry.getValue().sum());
+		
+		return Collections.unmodifiableMap(retVal);
+	}
+	
+	/**
+	 * Resets all metrics.
+	 */
+	public void reset()
+	{
+		for (LongAdder counter : parseCounts)
+			counter.reset();
+		
+		for (LatencyHistogram histogram : latencies)
+			histogram.reset();
+		
+		for (LongAdder counter : detailCounts)
+			counter.reset();
+		
+		failureCounts.clear();
+	}
+}
@@ -0,0 +1,96 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.packet.StreamOpen;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Built in extractor of the ERROR_CONDITION detail from the error element of a stanza.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class ErrorTxDetailExtractor implements TxDetailExtractor
+{
+	private static final Set<TxDetailType> DETAIL_TYPES = Collections.unmodifiableSet(EnumSet.of(TxDetailType.ERROR_CONDITION));
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public String getNamespace()
+	{
+		return StreamOpen.CLIENT_NAMESPACE;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public String getElementName()
+	{
+		return StanzaError.ERROR;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Set<TxDetailType> getDetailTypes()
+	{
+		return DETAIL_TYPES;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean extract(ExtensionElement element, TxDetailExtractionContext context)
+	{
+		if (!(element instanceof StanzaError))
+			return false;
+
+		context.putDetail(TxDetailType.ERROR_CONDITION, StanzaError.class.cast(element).getCondition().toString());
+
+		return true;
+	}
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalStateException Thrown if the error element does not contain a valid condition.
+     */
+	@Override
+	public boolean extract(XmlPullParser parser, TxDetailExtractionContext context) throws Exception
+	{
+		final int depth = parser.getDepth();
+		String condition = null;
+
+		int event = parser.next();
+		while (!(event == XmlPullParser.END_TAG && parser.getDepth() == depth))
+		{
+			if (event == XmlPullParser.START_TAG)
+			{
+				if (condition == null && StanzaError.ERROR_CONDITION_AND_TEXT_NAMESPACE.equals(parser.getNamespace()) &&
+						!Stanza.TEXT.equals(parser.getName()))
+					condition = StanzaError.Condition.fromString(parser.getName()).toString();
+
+				PullTxParser.skipElement(parser, context.getDepthLimit());
+			}
+
+			event = parser.next();
+		}
+
+		if (condition == null)
+			throw new IllegalStateException("Error element does not contain a condition");
+
+		context.putDetail(TxDetailType.ERROR_CONDITION, condition);
+
+		return true;
+	}
+}
@@ -0,0 +1,256 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * Bounded, concurrent cache that maps raw JID strings to their normalized string representation.  A hit skips JID stringprep
+ * entirely and returns a canonical String instance, so monitoring objects that reference the same JID share a single String.
+ * <p>
+ * The cache is split into lock striped segments, each evicting its least recently used entry once the segment is full.  Only JIDs
+ * that normalize successfully are cached.  Hit and miss counts are kept in striped counters and are safe to read at any time.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class JidCache
+{
+	/**
+	 * The default maximum number of cached JIDs.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 8192;
+
+	private static final int SEGMENT_COUNT = 16;
+
+	protected final Segment[] segments;
+
+	protected final int maxSize;
+
+	protected final LongAdder hits;
+
+	protected final LongAdder misses;
+
+	/**
+	 * Empty constructor.  Creates a cache with the default maximum size.
+	 */
+	public JidCache()
+	{
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 * @param maxSize The maximum number of cached JIDs.  The bound is spread evenly across the segments of the cache, rounding up to at
+	 * least one entry per segment.
+	 */
+	public JidCache(int maxSize)
+	{
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Max size must be at least 1");
+
+		this.maxSize = maxSize;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+
+		final int segmentMax = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; ++i)
+			segments[i] = new Segment(segmentMax);
+	}
+
+	/**
+	 * Gets the normalized string representation of a JID, using the cached value if one exists.
+	 * @param jid The raw JID string.
+	 * @return The canonical normalized JID string.
+	 * @throws XmppStringprepException Thrown if the raw value is not a valid JID.
+	 */
+	public String toJidString(String jid) throws XmppStringprepException
+	{
+		final Segment segment = segmentFor(jid);
+
+		String retVal;
+		synchronized (segment)
+		{
+			retVal = segment.get(jid);
+		}
+
+		if (retVal != null)
+		{
+			hits.increment();
+			return retVal;
+		}
+
+		misses.increment();
+
+		// the normalized form is cached as well so that differently formatted raw JIDs share one canonical instance
+		final String normalized = canonicalize(JidCreate.from(jid).toString());
+
+		synchronized (segment)
+		{
+			// another thread may have cached the same JID in the meantime; keep the first instance as the canonical one
+			retVal = segment.putIfAbsent(jid, normalized);
+		}
+
+		return (retVal == null) ? normalized : retVal;
+	}
+
+	/**
+	 * Gets the canonical string representation of an already parsed JID.  The JID is already normalized, so a miss caches the
+	 * JID's own string representation without any stringprep.
+	 * @param jid The parsed JID.
+	 * @return The canonical normalized JID string.
+	 */
+	public String toJidString(Jid jid)
+	{
+		final String jidString = jid.toString();
+		final Segment segment = segmentFor(jidString);
+
+		String retVal;
+		synchronized (segment)
+		{
+			retVal = segment.putIfAbsent(jidString, jidString);
+		}
+
+		if (retVal != null)
+		{
+			hits.increment();
+			return retVal;
+		}
+
+		misses.increment();
+
+		return jidString;
+	}
+
+	/**
+	 * Gets the canonical instance of the bare form of a normalized JID string.
+	 * @param jid The normalized JID string.
+	 * @return The JID without its resource part.
+	 */
+	public String toBareJidString(String jid)
+	{
+		final int slash = jid.indexOf('/');
+
+		return (slash < 0) ? jid : canonicalize(jid.substring(0, slash));
+	}
+
+	/**
+	 * Gets the canonical instance of a normalized JID string, caching the given instance if none exists.
+	 * @param normalized The normalized JID string.
+	 * @return The canonical instance of the normalized JID string.
+	 */
+	protected String canonicalize(String normalized)
+	{
+		final Segment segment = segmentFor(normalized);
+
+		final String retVal;
+		synchronized (segment)
+		{
+			retVal = segment.putIfAbsent(normalized, normalized);
+		}
+
+		return (retVal == null) ? normalized : retVal;
+	}
+
+	/**
+	 * Gets the number of lookups that were answered from the cache.
+	 * @return The hit count.
+	 */
+	public long getHitCount()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of lookups that required JID normalization.
+	 * @return The miss count.
+	 */
+	public long getMissCount()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the maximum number of cached JIDs.
+	 * @return The maximum size of the cache.
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Gets the number of JID strings currently cached.  Raw JIDs that differ from their normalized form occupy two entries.
+	 * @return The number of cached JID strings.
+	 */
+	public int size()
+	{
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				retVal += segment.size();
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Removes all cached JIDs and resets the hit and miss counts.
+	 */
+	public void clear()
+	{
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				segment.clear();
+			}
+		}
+
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * Gets the segment that holds a given JID string.
+	 * @param jid The JID string.
+	 * @return The segment of the cache for the JID.
+	 */
+	protected Segment segmentFor(String jid)
+	{
+		final int hash = jid.hashCode();
+
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+	}
+
+	/**
+	 * Access ordered segment of the cache that evicts its least recently used entry when full.  Access must be synchronized on
+	 * the segment.
+	 */
+	protected static class Segment extends LinkedHashMap<String, String>
+	{
+		private static final long serialVersionUID = 2290420873915092170L;
+
+		protected final int segmentMax;
+
+		protected Segment(int segmentMax)
+		{
+			super(16, 0.75f, true);
+
+			this.segmentMax = segmentMax;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+		{
+			return size() > segmentMax;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent, allocation free latency histogram with log-linear buckets in the style of an HDR histogram.  Each power of two range of
+ * values is split into eight linear sub buckets, so recorded values are resolved to within 12.5%.  Values from 0 to roughly 68 seconds
+ * of nanoseconds are resolved; larger values are counted in the last bucket.
+ * <p>
+ * Bucket counts are striped LongAdder counters, so recording from many threads does not contend on a single memory location.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private static final int MAX_EXPONENT = 36;
+
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+	protected final LongAdder[] buckets;
+
+	protected final LongAdder count;
+
+	protected final LongAdder total;
+
+	protected final LongAccumulator max;
+
+	public LatencyHistogram()
+	{
+		buckets = new LongAdder[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; ++i)
+			buckets[i] = new LongAdder();
+
+		count = new LongAdder();
+		total = new LongAdder();
+		max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records a value.
+	 * @param value The value to record.  Negative values are recorded as 0.
+	 */
+	public void record(long value)
+	{
+		final long recordValue = Math.max(0, value);
+
+		buckets[bucketIndex(recordValue)].increment();
+		count.increment();
+		total.add(recordValue);
+		max.accumulate(recordValue);
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 * @return The number of recorded values.
+	 */
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 * @return The largest recorded value or 0 if no values have been recorded.
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean of the recorded values.
+	 * @return The mean or 0 if no values have been recorded.
+	 */
+	public double getMean()
+	{
+		final long recorded = count.sum();
+
+		return (recorded == 0) ? 0 : (double)total.sum() / recorded;
+	}
+
+	/**
+	 * Gets the value at a given percentile.  The value is the upper bound of the bucket containing the percentile, capped at the largest
+	 * recorded value.
+	 * @param percentile The percentile between 0 and 100.
+	 * @return The value at the percentile or 0 if no values have been recorded.
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		final long[] counts = new long[BUCKET_COUNT];
+		long recorded = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i)
+		{
+			counts[i] = buckets[i].sum();
+			recorded += counts[i];
+		}
+
+		if (recorded == 0)
+			return 0;
+
+		final long target = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * recorded));
+
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i)
+		{
+			seen += counts[i];
+			if (seen >= target)
+				return Math.min(bucketUpperBound(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * Resets all recorded values.
+	 */
+	public void reset()
+	{
+		for (LongAdder bucket : buckets)
+			bucket.reset();
+
+		count.reset();
+		total.reset();
+		max.reset();
+	}
+
+	/**
+	 * Gets the bucket index of a non negative value.
+	 * @param value The value.
+	 * @return The bucket index.
+	 */
+	protected static int bucketIndex(long value)
+	{
+		if (value < SUB_BUCKET_COUNT)
+			return (int)value;
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKET_COUNT - 1;
+
+		final int subBucket = (int)((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * Gets the largest value that falls within a bucket.
+	 * @param index The bucket index.
+	 * @return The upper bound of the bucket.
+	 */
+	protected static long bucketUpperBound(int index)
+	{
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+
+		if (index == BUCKET_COUNT - 1)
+			return Long.MAX_VALUE;
+
+		final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		final long subBucket = index % SUB_BUCKET_COUNT;
+
+		return ((SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -0,0 +1,112 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.directtruststandards.timplus.monitor.tx.TxParserMetrics;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Implementation of the TxParserMetrics interface that publishes parser metrics to a Micrometer registry.  Micrometer is an optional
+ * dependency and must be on the classpath to use this class.
+ * <p>
+ * Parse latencies are published as a timer per stanza type, which also carries the parse count, along with a counter per extracted detail 
+ * type and a counter per failure cause.  All stanza and detail meters are registered up front so that recording does not allocate.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class MicrometerTxParserMetrics implements TxParserMetrics
+{
+	/**
+	 * The name of the parse latency timers.
+	 */
+	public static final String PARSE_METER = "timplus.tx.parse";
+	
+	/**
+	 * The name of the extracted detail counters.
+	 */
+	public static final String DETAIL_METER = "timplus.tx.parse.details";
+	
+	/**
+	 * The name of the failure counters.
+	 */
+	public static final String FAILURE_METER = "timplus.tx.parse.failures";
+	
+	protected final MeterRegistry registry;
+	
+	protected final Timer[] parseTimers;
+	
+	protected final Counter[] detailCounters;
+	
+	protected final Map<Class<?>, Counter> failureCounters;
+	
+	protected final Function<Class<?>, Counter> newFailureCounter;
+	
+	/**
+	 * Constructor
+	 * @param registry The registry that meters are registered with.
+	 */
+	public MicrometerTxParserMetrics(MeterRegistry registry)
+	{
+		if (registry == null)
+			throw new IllegalArgumentException("Registry cannot be null");
+		
+		this.registry = registry;
+		
+		final TxStanzaType[] stanzaTypes = TxStanzaType.values();
+		parseTimers = new Timer[stanzaTypes.length];
+		for (TxStanzaType stanzaType : stanzaTypes)
+			parseTimers[stanzaType.ordinal()] = Timer.builder(PARSE_METER).description("Time taken to parse a stanza")
+				.tag("stanzaType", stanzaType.name()).publishPercentileHistogram().register(registry);
+		
+		final TxDetailType[] detailTypes = TxDetailType.values();
+		detailCounters = new Counter[detailTypes.length];
+		for (TxDetailType detailType : detailTypes)
+			detailCounters[detailType.ordinal()] = Counter.builder(DETAIL_METER).description("Number of extracted stanza details")
+				.tag("detailType", detailType.name()).register(registry);
+		
+		failureCounters = new ConcurrentHashMap<>();
+		newFailureCounter = cause -> Counter.builder(FAILURE_METER).description("Number of stanzas that could not be parsed")
+				.tag("cause", cause.getName()).register(this.registry);
+	}
+	
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public void recordParse(TxStanzaType stanzaType, long latencyNanos)
+	{
+		parseTimers[stanzaType.ordinal()].record(latencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public void recordDetail(TxDetailType detailType)
+	{
+		detailCounters[detailType.ordinal()].increment();
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public void recordFailure(Throwable cause)
+	{
+		final Class<?> causeClass = cause.getClass();
+		
+		Counter counter = failureCounters.get(causeClass);
+		if (counter == null)
+			counter = failureCounters.computeIfAbsent(causeClass, newFailureCounter);
+		
+		counter.increment();
+	}
+}
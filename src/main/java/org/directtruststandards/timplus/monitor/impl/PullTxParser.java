@@ -0,0 +1,591 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.input.CharSequenceReader;
+import org.apache.commons.lang3.StringUtils;
+import org.directtruststandards.timplus.monitor.tx.TxStreamParser;
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.util.XmlCharsetUtils;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.ParserUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Implementation of the TxParser interface that reads the raw stanza XML in a single forward pass and fills the monitoring
+ * details directly instead of materializing a Smack Stanza object and invoking every registered extension provider.
+ * <p>
+ * The extracted details are equivalent to those of the {@link DefaultTxParser}, including for stanzas in the jabber:server namespace.
+ * Stanzas that are already parsed into Smack Stanza objects are handled by the DefaultTxParser logic.  A default namespace is not
+ * required on the stanza.
+ * <p>
+ * Child elements of the stanza are dispatched to the {@link TxDetailExtractor extractors} of the parser's registry by their namespace,
+ * the same extractors that read the elements of Smack stanza objects.  When a projection of detail types is requested, elements
+ * without a pending extractor are skipped without being inspected and reading stops as soon as every requested detail and the stanza
+ * type have been resolved.  The remainder of the stanza is not read, so it is not checked for well formedness.
+ * <p>
+ * This parser also implements the {@link TxStreamParser} interface for reading continuous XMPP streams.  XMPP streams are
+ * always decoded as UTF-8 as required by section 11.6 of RFC 6120.
+ * <p>
+ * Element content is never retained: the text of a body is only tested for presence, and elements without a pending extractor, such
+ * as file transfer metadata or XHTML-IM payloads, are skipped.  A stanza fails to parse as soon as it exceeds the
+ * {@link #setMaxStanzaSize(int) maximum stanza size} or nests elements deeper than the {@link #setMaxDepth(int) maximum depth}.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class PullTxParser extends DefaultTxParser implements TxStreamParser
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(PullTxParser.class);
+
+	private static final String GROUPCHAT_TYPE = Message.Type.groupchat.name();
+
+	/**
+	 * Default maximum depth of elements nested below the stanza element.
+	 */
+	public static final int DEFAULT_MAX_DEPTH = 32;
+
+	protected int maxDepth;
+
+	public PullTxParser()
+	{
+		super();
+
+		maxDepth = DEFAULT_MAX_DEPTH;
+	}
+
+	/**
+	 * Sets the maximum depth of elements nested below the stanza element.  A child of the stanza element has a depth of 1.  A stanza
+	 * with deeper elements fails to parse when the first such element is read.
+	 * @param maxDepth The maximum depth.  Must be at least 1.
+	 */
+	public void setMaxDepth(int maxDepth)
+	{
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("Max depth must be at least 1");
+
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Gets the maximum depth of elements nested below the stanza element.
+	 * @return The maximum depth.
+	 */
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(String stanza)
+	{
+		return parseStanza(stanza, ALL_DETAILS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	protected Tx parseRawStanza(String stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		final long start = System.nanoTime();
+
+		Tx retVal = null;
+		try
+		{
+			checkStanzaSize(stanza);
+
+			retVal = recordParse(readTx(new StringReader(stanza), detailTypes), start);
+		}
+		catch (Exception e)
+		{
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
+		}
+
+		return retVal;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(InputStream stream)
+	{
+		return parseStanza(stream, ALL_DETAILS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(InputStream stream, EnumSet<TxDetailType> detailTypes)
+	{
+		final long start = System.nanoTime();
+
+		Tx retVal = null;
+		try
+		{
+			retVal = recordParse(readTx(limitStanzaSize(XmlCharsetUtils.newReader(stream)), detailTypes), start);
+		}
+		catch (Exception e)
+		{
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
+		}
+
+		return retVal;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(CharSequence stanza)
+	{
+		if (stanza instanceof String)
+			return parseStanza((String)stanza);
+		
+		if (isDuplicate(stanza))
+			return null;
+
+		final long start = System.nanoTime();
+
+		Tx retVal = null;
+		try
+		{
+			checkStanzaSize(stanza);
+
+			retVal = recordParse(readTx(new CharSequenceReader(stanza)), start);
+		}
+		catch (Exception e)
+		{
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
+		}
+
+		return retVal;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Tx parseStanza(ByteBuffer stanza)
+	{
+		return parseStanza(stanza, ALL_DETAILS);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	protected Tx parseRawStanza(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		final long start = System.nanoTime();
+
+		Tx retVal = null;
+		try
+		{
+			retVal = recordParse(readTx(limitStanzaSize(XmlCharsetUtils.newReader(stanza)), detailTypes), start);
+		}
+		catch (Exception e)
+		{
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
+		}
+
+		return retVal;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean parseInto(String stanza, EnumSet<TxDetailType> detailTypes, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+
+		final long start = System.nanoTime();
+
+		target.reset();
+		if (isDuplicate(stanza))
+			return false;
+
+		try
+		{
+			checkStanzaSize(stanza);
+
+			recordParse(readTx(new StringReader(stanza), detailTypes, target), start);
+			return true;
+		}
+		catch (Exception e)
+		{
+			target.reset();
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
+		}
+
+		return false;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public boolean parseInto(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+
+		final long start = System.nanoTime();
+
+		target.reset();
+		if (isDuplicate(stanza))
+			return false;
+
+		try
+		{
+			recordParse(readTx(limitStanzaSize(XmlCharsetUtils.newReader(stanza)), detailTypes, target), start);
+			return true;
+		}
+		catch (Exception e)
+		{
+			target.reset();
+			metrics.recordFailure(e);
+			LOGGER.warn("Failed to retrieve stanza details.", e);
+		}
+
+		return false;
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Map<TxDetailType, TxDetail> getStanzaDetails(String stanza)
+	{
+		final Tx tx = parseStanza(stanza);
+
+		return (tx == null) ? null : tx.getDetails();
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Map<TxDetailType, TxDetail> getStanzaDetails(InputStream stream)
+	{
+		final Tx tx = parseStanza(stream);
+
+		return (tx == null) ? null : tx.getDetails();
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public Iterator<Tx> parseStream(InputStream stream)
+	{
+		return new TxStreamIterator(this, new InputStreamReader(stream, StandardCharsets.UTF_8));
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	public long parseStream(InputStream stream, Consumer<Tx> consumer)
+	{
+		final Iterator<Tx> iter = parseStream(stream);
+		
+		long count = 0;
+		while (iter.hasNext())
+		{
+			consumer.accept(iter.next());
+			++count;
+		}
+		
+		return count;
+	}
+
+	/**
+	 * Reads a single stanza from a reader into a monitoring object.
+	 * @param reader The reader containing the stanza.
+	 * @return A monitoring object containing the stanza type and all relevant monitoring details
+	 * @throws Exception Thrown if the stanza cannot be read.
+	 */
+	protected Tx readTx(Reader reader) throws Exception
+	{
+		return readTx(reader, ALL_DETAILS);
+	}
+
+	/**
+	 * Reads the requested details of a single stanza from a reader into a monitoring object.
+	 * @param reader The reader containing the stanza.
+	 * @param detailTypes The detail types to extract.
+	 * @return A monitoring object containing the stanza type and the requested monitoring details
+	 * @throws Exception Thrown if the stanza cannot be read.
+	 */
+	protected Tx readTx(Reader reader, EnumSet<TxDetailType> detailTypes) throws Exception
+	{
+		return readTx(reader, detailTypes, new Tx());
+	}
+
+	/**
+	 * Reads the requested details of a single stanza from a reader into a target monitoring object.
+	 * @param reader The reader containing the stanza.
+	 * @param detailTypes The detail types to extract.
+	 * @param target The monitoring object that the stanza type and details are written to.  It must not contain any details.
+	 * @return The target monitoring object
+	 * @throws Exception Thrown if the stanza cannot be read.
+	 */
+	protected Tx readTx(Reader reader, EnumSet<TxDetailType> detailTypes, Tx target) throws Exception
+	{
+		final XmlPullParser parser = parserPool.acquire(reader);
+		try
+		{
+			int event = parser.getEventType();
+			while (event != XmlPullParser.START_TAG)
+			{
+				if (event == XmlPullParser.END_DOCUMENT)
+					throw new IllegalArgumentException("No stanza element found.");
+
+				event = parser.next();
+			}
+
+			return readTx(parser, detailTypes, target);
+		}
+		finally
+		{
+			parserPool.release(parser);
+		}
+	}
+
+	/**
+	 * Reads a stanza into a monitoring object.  The parser must be positioned on the start tag of the stanza element.  On return, the parser
+	 * is positioned on the end tag of the stanza element.
+	 * @param parser The parser positioned on the start tag of the stanza element.
+	 * @return A monitoring object containing the stanza type and all relevant monitoring details
+	 * @throws Exception Thrown if the stanza cannot be read.
+	 */
+	protected Tx readTx(XmlPullParser parser) throws Exception
+	{
+		final int depth = parser.getDepth();
+
+		final Tx retVal = readTx(parser, ALL_DETAILS);
+
+		// every detail may be resolved before the end of the stanza
+		ParserUtils.forwardToEndTagOfDepth(parser, depth);
+
+		return retVal;
+	}
+
+	/**
+	 * Reads the requested details of a stanza into a monitoring object.  The parser must be positioned on the start tag of the stanza
+	 * element.  Reading stops as soon as every requested detail and the stanza type are resolved, so on return the parser is positioned
+	 * either on the end tag of the stanza element or on the last event within the stanza that was read.
+	 * @param parser The parser positioned on the start tag of the stanza element.
+	 * @param detailTypes The detail types to extract.
+	 * @return A monitoring object containing the stanza type and the requested monitoring details
+	 * @throws Exception Thrown if the stanza cannot be read.
+	 */
+	protected Tx readTx(XmlPullParser parser, EnumSet<TxDetailType> detailTypes) throws Exception
+	{
+		return readTx(parser, detailTypes, new Tx());
+	}
+
+	/**
+	 * Reads the requested details of a stanza into a target monitoring object.  The parser must be positioned on the start tag of the
+	 * stanza element.  Reading stops as soon as every requested detail and the stanza type are resolved, so on return the parser is
+	 * positioned either on the end tag of the stanza element or on the last event within the stanza that was read.
+	 * @param parser The parser positioned on the start tag of the stanza element.
+	 * @param detailTypes The detail types to extract.
+	 * @param target The monitoring object that the stanza type and details are written to.  It must not contain any details.
+	 * @return The target monitoring object
+	 * @throws Exception Thrown if the stanza cannot be read.
+	 */
+	protected Tx readTx(XmlPullParser parser, EnumSet<TxDetailType> detailTypes, Tx target) throws Exception
+	{
+		final String stanzaElement = parser.getName();
+		final boolean isMessage = Message.ELEMENT.equals(stanzaElement);
+
+		if (!(isMessage || IQ.IQ_ELEMENT.equals(stanzaElement) || Presence.ELEMENT.equals(stanzaElement)))
+			throw new IllegalArgumentException("Can only parse message, iq or presence, not " + stanzaElement);
+
+		final Map<TxDetailType, TxDetail> details = target.getDetails();
+
+		// get the message id
+		final String msgId = detailTypes.contains(TxDetailType.MSG_ID) ? parser.getAttributeValue("", "id") : null;
+		if (!StringUtils.isEmpty(msgId))
+			putDetail(target, TxDetailType.MSG_ID, msgId);
+
+		// the room of a group chat message is derived from the source and destination
+		final boolean readRoom = isMessage && detailTypes.contains(TxDetailType.GROUP_CHAT_ROOM);
+
+		// get the source
+		final String from = (readRoom || detailTypes.contains(TxDetailType.FROM)) ? parser.getAttributeValue("", "from") : null;
+		final String fromJid = (from == null) ? null : toJidString(from);
+		if (fromJid != null && detailTypes.contains(TxDetailType.FROM))
+			putDetail(target, TxDetailType.FROM, fromJid);
+
+		// get the destination
+		final String to = (readRoom || detailTypes.contains(TxDetailType.RECIPIENTS)) ? parser.getAttributeValue("", "to") : null;
+		final String toJid = (to == null) ? null : toJidString(to);
+		if (toJid != null && detailTypes.contains(TxDetailType.RECIPIENTS))
+			putDetail(target, TxDetailType.RECIPIENTS, toJid);
+
+		// get the type attribute using the same defaults as the Smack stanza types
+		final String type = (readRoom || detailTypes.contains(TxDetailType.TYPE)) ? 
+				getTypeName(stanzaElement, parser.getAttributeValue("", "type")) : null;
+		if (detailTypes.contains(TxDetailType.TYPE))
+			putDetail(target, TxDetailType.TYPE, type);
+
+		// get the room of a group chat message
+		final String room = (readRoom && GROUPCHAT_TYPE.equals(type)) ? getGroupChatRoom(fromJid, toJid) : null;
+		if (room != null)
+			putDetail(target, TxDetailType.GROUP_CHAT_ROOM, room);
+
+		// the extractors of requested details and of the details that decide the stanza type that have not yet been resolved
+		final EnumSet<TxDetailType> extracted = withTypeDetails(detailTypes);
+		final TxDetailExtractorRegistry.Table table = extractorRegistry.getTable();
+		long pending = table.getPendingMask(stanzaElement, extracted);
+		final long requested = (extracted == detailTypes) ? pending : table.getPendingMask(stanzaElement, detailTypes);
+
+		if (pending != 0)
+		{
+			final TxDetailExtractionContext context = new TxDetailExtractionContext(null, stanzaElement, ParserUtils.getXmlLang(parser), 
+					extracted, target, jidCache);
+			final int depth = parser.getDepth();
+			context.setDepthLimit(depth + maxDepth);
+
+			int event = parser.next();
+			while (pending != 0 && !(event == XmlPullParser.END_TAG && parser.getDepth() == depth))
+			{
+				if (event == XmlPullParser.START_TAG)
+				{
+					// only the elements that are present are looked up, and elements without a pending extractor are skipped unread
+					final int index = table.indexOf(parser.getNamespace(), parser.getName());
+					if (index >= 0 && (pending & (1L << index)) != 0)
+					{
+						if (table.getExtractor(index).extract(parser, context))
+						{
+							pending &= ~(1L << index);
+
+							// an error decides the stanza type on its own, so only the extractors of requested details remain
+							if (details.containsKey(TxDetailType.ERROR_CONDITION))
+								pending &= requested;
+						}
+					}
+					else
+					{
+						skipElement(parser, context.getDepthLimit());
+					}
+				}
+
+				if (pending != 0)
+					event = parser.next();
+			}
+		}
+
+		target.setStanzaType(getStanzaType(stanzaElement, details));
+
+		if (extracted != detailTypes)
+			details.keySet().retainAll(detailTypes);
+
+		return target;
+	}
+
+	/**
+	 * Gets the normalized name of a stanza type attribute.  Missing message and presence types default to 'normal' and 'available'
+	 * respectively.
+	 * @param stanzaElement The stanza element name.
+	 * @param type The raw value of the type attribute.  May be null.
+	 * @return The normalized type name.
+	 */
+	protected String getTypeName(String stanzaElement, String type)
+	{
+		if (Message.ELEMENT.equals(stanzaElement))
+			return (type == null) ? Message.Type.normal.name() : Message.Type.fromString(type).name();
+		else if (IQ.IQ_ELEMENT.equals(stanzaElement))
+		{
+			if (type == null)
+				throw new IllegalArgumentException("IQ stanza does not contain a type attribute");
+
+			return IQ.Type.fromString(type).name();
+		}
+		else
+			return StringUtils.isEmpty(type) ? Presence.Type.available.name() : Presence.Type.fromString(type).name();
+	}
+
+	/**
+	 * Skips the current element and all of its content.  On return, the parser is positioned on the end tag of the element.
+	 * @param parser The parser positioned on the start tag of the element to skip.
+	 * @throws Exception Thrown if the element cannot be read.
+	 */
+	protected static void skipElement(XmlPullParser parser) throws Exception
+	{
+		ParserUtils.forwardToEndTagOfDepth(parser, parser.getDepth());
+	}
+
+	/**
+	 * Skips the current element and all of its content, failing on the first nested element that is deeper than a limit.  On return,
+	 * the parser is positioned on the end tag of the element.
+	 * @param parser The parser positioned on the start tag of the element to skip.
+	 * @param depthLimit The deepest parser depth that an element may have.
+	 * @throws IllegalArgumentException Thrown if an element is deeper than the limit.
+	 * @throws Exception Thrown if the element cannot be read.
+	 */
+	protected static void skipElement(XmlPullParser parser, int depthLimit) throws Exception
+	{
+		skipContent(parser, depthLimit);
+	}
+
+	/**
+	 * Skips the content of the current element without materializing it, failing on the first nested element that is deeper than a
+	 * limit.  On return, the parser is positioned on the end tag of the element.
+	 * @param parser The parser positioned on the start tag of the element.
+	 * @param depthLimit The deepest parser depth that an element may have.
+	 * @return True if the element has text content of its own, otherwise false.
+	 * @throws IllegalArgumentException Thrown if an element is deeper than the limit.
+	 * @throws Exception Thrown if the element cannot be read.
+	 */
+	protected static boolean skipContent(XmlPullParser parser, int depthLimit) throws Exception
+	{
+		final int depth = parser.getDepth();
+		boolean retVal = false;
+
+		int event = parser.getEventType();
+		do
+		{
+			if (event == XmlPullParser.START_TAG && parser.getDepth() > depthLimit)
+				throw new IllegalArgumentException("Stanza exceeds the maximum element depth");
+
+			// text is reported without being copied into a string
+			retVal |= event == XmlPullParser.TEXT && parser.getDepth() == depth;
+
+			event = parser.next();
+		}
+		while (!(event == XmlPullParser.END_TAG && parser.getDepth() == depth));
+
+		return retVal;
+	}
+}
@@ -0,0 +1,357 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+/**
+ * Decides which raw stanzas are parsed while the parser is overloaded.  During message storms, chat state notifications and presence
+ * can outnumber real message traffic many times over and starve the parser, so under overload each stanza type is handled by its
+ * {@link Policy}: parsed, sampled, or only counted.  Stanza types are determined by a cheap pre-classification such as
+ * {@link TxStanzaClassifier}.  Stanzas that cannot be classified without a full parse are always parsed.
+ * <p>
+ * The controller is overloaded once the number of stanzas waiting for or undergoing a parse reaches the high queue depth watermark,
+ * or once the average time from submission to the end of a parse reaches the high latency watermark.  It leaves overload only when
+ * both have fallen to their low watermarks.  Callers report load with {@link #enter()} when a stanza is submitted for parsing and
+ * {@link #exit(long)} when its parse is done.  While the controller is not overloaded every stanza is parsed.
+ * <p>
+ * MESSAGE, AMP, and MESSAGE_ERROR stanzas carry clinically relevant messages and their delivery receipts, so they are always parsed and
+ * their policy cannot be changed.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxAdmissionController
+{
+	/**
+	 * How a stanza type is handled while the controller is overloaded.
+	 */
+	public enum Policy
+	{
+		/**
+		 * Every stanza is parsed.
+		 */
+		PARSE,
+
+		/**
+		 * One in every N stanzas is parsed; the others are counted and shed.
+		 */
+		SAMPLE,
+
+		/**
+		 * Stanzas are counted and shed without being parsed.
+		 */
+		COUNT
+	}
+
+	/**
+	 * The default sample rate of stanza types with the SAMPLE policy.
+	 */
+	public static final int DEFAULT_SAMPLE_RATE = 10;
+
+	private static final TxStanzaType[] STANZA_TYPES = TxStanzaType.values();
+
+	private static final Rule PARSE_RULE = new Rule(Policy.PARSE, 1);
+
+	protected final int highWatermark;
+
+	protected final int lowWatermark;
+
+	protected final AtomicReferenceArray<Rule> rules;
+
+	protected final AtomicLong[] arrivals;
+
+	protected final LongAdder[] admitted;
+
+	protected final LongAdder[] shed;
+
+	protected final AtomicInteger depth;
+
+	protected final LongAdder overloadCount;
+
+	protected long highLatencyWatermark;
+
+	protected long lowLatencyWatermark;
+
+	protected volatile long averageLatency;
+
+	protected volatile boolean overloaded;
+
+	/**
+	 * Constructor.  Latency watermarks are disabled.  Under overload chat state notifications are only counted, presence and IQ
+	 * stanzas are sampled at the default sample rate, and all other stanza types are parsed.
+	 * @param highWatermark The queue depth at which the controller becomes overloaded.
+	 * @param lowWatermark The queue depth at or below which the controller stops being overloaded.
+	 */
+	public TxAdmissionController(int highWatermark, int lowWatermark)
+	{
+		if (highWatermark < 1)
+			throw new IllegalArgumentException("High watermark must be at least 1");
+
+		if (lowWatermark < 0 || lowWatermark >= highWatermark)
+			throw new IllegalArgumentException("Low watermark must be at least 0 and less than the high watermark");
+
+		this.highWatermark = highWatermark;
+		this.lowWatermark = lowWatermark;
+		this.rules = new AtomicReferenceArray<>(STANZA_TYPES.length);
+		this.arrivals = new AtomicLong[STANZA_TYPES.length];
+		this.admitted = new LongAdder[STANZA_TYPES.length];
+		this.shed = new LongAdder[STANZA_TYPES.length];
+		this.depth = new AtomicInteger();
+		this.overloadCount = new LongAdder();
+
+		for (int i = 0; i < STANZA_TYPES.length; ++i)
+		{
+			rules.set(i, PARSE_RULE);
+			arrivals[i] = new AtomicLong();
+			admitted[i] = new LongAdder();
+			shed[i] = new LongAdder();
+		}
+
+		setPolicy(TxStanzaType.MESSAGE_CHAT_STATE, Policy.COUNT, 1);
+		setPolicy(TxStanzaType.PRESENSE, Policy.SAMPLE, DEFAULT_SAMPLE_RATE);
+		setPolicy(TxStanzaType.IQ, Policy.SAMPLE, DEFAULT_SAMPLE_RATE);
+	}
+
+	/**
+	 * Sets how a stanza type is handled while the controller is overloaded.
+	 * @param stanzaType The stanza type.  The policy of MESSAGE, AMP, and MESSAGE_ERROR stanzas is always PARSE.
+	 * @param policy The policy.
+	 * @param sampleRate The N of the SAMPLE policy; one in every N stanzas is parsed.  Ignored by other policies.
+	 */
+	public void setPolicy(TxStanzaType stanzaType, Policy policy, int sampleRate)
+	{
+		if (stanzaType == null)
+			throw new IllegalArgumentException("Stanza type cannot be null");
+
+		if (policy == null)
+			throw new IllegalArgumentException("Policy cannot be null");
+
+		if (policy == Policy.SAMPLE && sampleRate < 1)
+			throw new IllegalArgumentException("Sample rate must be at least 1");
+
+		if (isProtected(stanzaType) && policy != Policy.PARSE)
+			throw new IllegalArgumentException(stanzaType + " stanzas are always parsed");
+
+		rules.set(stanzaType.ordinal(), (policy == Policy.PARSE) ? PARSE_RULE : new Rule(policy, (policy == Policy.SAMPLE) ? sampleRate : 1));
+	}
+
+	/**
+	 * Gets how a stanza type is handled while the controller is overloaded.
+	 * @param stanzaType The stanza type.
+	 * @return The policy.
+	 */
+	public Policy getPolicy(TxStanzaType stanzaType)
+	{
+		return rules.get(stanzaType.ordinal()).policy;
+	}
+
+	/**
+	 * Gets the sample rate of a stanza type with the SAMPLE policy.
+	 * @param stanzaType The stanza type.
+	 * @return The N of one in every N stanzas that are parsed, or 1 if the stanza type is not sampled.
+	 */
+	public int getSampleRate(TxStanzaType stanzaType)
+	{
+		return rules.get(stanzaType.ordinal()).sampleRate;
+	}
+
+	/**
+	 * Sets the average latency watermarks.  Latency is measured from the submission of a stanza to the end of its parse, so it
+	 * includes the time the stanza waits for a parser thread.
+	 * @param highLatencyWatermark The average latency at which the controller becomes overloaded, or 0 to disable latency watermarks.
+	 * @param lowLatencyWatermark The average latency at or below which the controller stops being overloaded.
+	 * @param unit The unit of the watermarks.
+	 */
+	public void setLatencyWatermarks(long highLatencyWatermark, long lowLatencyWatermark, TimeUnit unit)
+	{
+		if (unit == null)
+			throw new IllegalArgumentException("Unit cannot be null");
+
+		if (highLatencyWatermark < 0 || lowLatencyWatermark < 0 || (highLatencyWatermark > 0 && lowLatencyWatermark >= highLatencyWatermark))
+			throw new IllegalArgumentException("Low latency watermark must be at least 0 and less than the high latency watermark");
+
+		this.highLatencyWatermark = unit.toNanos(highLatencyWatermark);
+		this.lowLatencyWatermark = unit.toNanos(lowLatencyWatermark);
+	}
+
+	/**
+	 * Decides if a stanza is parsed.
+	 * @param stanzaType The pre-classified stanza type, or null if the stanza could not be classified without a full parse.
+	 * @return True if the stanza is to be parsed, false if it is shed.
+	 */
+	public boolean admit(TxStanzaType stanzaType)
+	{
+		if (stanzaType == null)
+			return true;
+
+		final int index = stanzaType.ordinal();
+		final Rule rule = rules.get(index);
+
+		boolean retVal = true;
+		if (rule != PARSE_RULE && isOverloaded())
+			retVal = rule.policy == Policy.SAMPLE && arrivals[index].getAndIncrement() % rule.sampleRate == 0;
+
+		(retVal ? admitted : shed)[index].increment();
+
+		return retVal;
+	}
+
+	/**
+	 * Records that a stanza was submitted for parsing.
+	 * @return The time stamp to pass to {@link #exit(long)} when the parse is done.
+	 */
+	public long enter()
+	{
+		depth.incrementAndGet();
+
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records that the parse of a stanza is done.
+	 * @param enteredAt The time stamp returned by {@link #enter()}.
+	 */
+	public void exit(long enteredAt)
+	{
+		depth.decrementAndGet();
+
+		// exponentially weighted moving average over roughly the last 16 parses; concurrent updates may lose a sample
+		final long latency = System.nanoTime() - enteredAt;
+		final long average = averageLatency;
+		averageLatency = average + ((latency - average) >> 4);
+	}
+
+	/**
+	 * Determines if the controller is overloaded, applying the watermarks to the current queue depth and average latency.
+	 * @return True if stanza types are handled by their policies, false if every stanza is parsed.
+	 */
+	public boolean isOverloaded()
+	{
+		final int queueDepth = depth.get();
+		final long latency = averageLatency;
+		final long highLatency = highLatencyWatermark;
+
+		if (overloaded)
+		{
+			// the average is not updated while everything is shed, so an empty queue ends overload regardless of latency
+			if (queueDepth <= lowWatermark && (highLatency == 0 || latency <= lowLatencyWatermark || queueDepth == 0))
+				overloaded = false;
+		}
+		else if (queueDepth >= highWatermark || (highLatency > 0 && latency >= highLatency))
+		{
+			overloaded = true;
+			overloadCount.increment();
+		}
+
+		return overloaded;
+	}
+
+	/**
+	 * Gets the number of stanzas submitted for parsing whose parse is not done.
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth()
+	{
+		return depth.get();
+	}
+
+	/**
+	 * Gets the average time from the submission of a stanza to the end of its parse.
+	 * @param unit The unit of the returned latency.
+	 * @return The average latency.
+	 */
+	public long getAverageLatency(TimeUnit unit)
+	{
+		return unit.convert(averageLatency, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the queue depth at which the controller becomes overloaded.
+	 * @return The high watermark.
+	 */
+	public int getHighWatermark()
+	{
+		return highWatermark;
+	}
+
+	/**
+	 * Gets the queue depth at or below which the controller stops being overloaded.
+	 * @return The low watermark.
+	 */
+	public int getLowWatermark()
+	{
+		return lowWatermark;
+	}
+
+	/**
+	 * Gets the number of times the controller became overloaded.
+	 * @return The number of overload episodes.
+	 */
+	public long getOverloadCount()
+	{
+		return overloadCount.sum();
+	}
+
+	/**
+	 * Gets the number of stanzas of a type that were admitted for parsing.
+	 * @param stanzaType The stanza type.
+	 * @return The number of admitted stanzas.
+	 */
+	public long getAdmittedCount(TxStanzaType stanzaType)
+	{
+		return admitted[stanzaType.ordinal()].sum();
+	}
+
+	/**
+	 * Gets the number of stanzas of a type that were shed without being parsed.
+	 * @param stanzaType The stanza type.
+	 * @return The number of shed stanzas.
+	 */
+	public long getShedCount(TxStanzaType stanzaType)
+	{
+		return shed[stanzaType.ordinal()].sum();
+	}
+
+	/**
+	 * Gets the number of stanzas of all types that were shed without being parsed.
+	 * @return The number of shed stanzas.
+	 */
+	public long getShedCount()
+	{
+		long retVal = 0;
+		for (LongAdder count : shed)
+			retVal += count.sum();
+
+		return retVal;
+	}
+
+	/**
+	 * Determines if a stanza type is always parsed regardless of its policy.
+	 * @param stanzaType The stanza type.
+	 * @return True for MESSAGE, AMP, and MESSAGE_ERROR stanzas.
+	 */
+	public static boolean isProtected(TxStanzaType stanzaType)
+	{
+		return stanzaType == TxStanzaType.MESSAGE || stanzaType == TxStanzaType.AMP || stanzaType == TxStanzaType.MESSAGE_ERROR;
+	}
+
+	/**
+	 * The policy and sample rate of a stanza type.
+	 */
+	protected static class Rule
+	{
+		protected final Policy policy;
+
+		protected final int sampleRate;
+
+		protected Rule(Policy policy, int sampleRate)
+		{
+			this.policy = policy;
+			this.sampleRate = sampleRate;
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays archive files of raw stanzas through a TxParser.  Archives are memory mapped in windowed segments and stanza boundaries are
+ * located by a byte level scan of the mapped window, so each stanza is handed to the parser as a slice of the mapped file without being
+ * copied.  This is most effective with a parser that decodes ByteBuffers in place such as the {@link PullTxParser}.
+ * <p>
+ * An archive is a sequence of message, iq, and presence elements that may optionally be wrapped in a &lt;stream:stream&gt; element
+ * and separated by whitespace or other elements.  Stanzas nested inside other stanzas, such as forwarded messages, are part of the
+ * enclosing stanza.  Archives are expected to be UTF-8 encoded.
+ * <p>
+ * Stanzas may optionally be parsed by several threads.  Monitoring objects are always delivered to the consumer in archive order on
+ * the calling thread.  Stanzas that cannot be parsed are skipped.  An incomplete stanza at the end of an archive, such as one that was
+ * truncated or is still being written, is skipped with a warning.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxArchiveReplayer
+{
+	/**
+	 * The default size of each mapped window of an archive.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TxArchiveReplayer.class);
+
+	private static final byte[][] STANZA_ELEMENTS = {"message".getBytes(StandardCharsets.US_ASCII), "iq".getBytes(StandardCharsets.US_ASCII), 
+		"presence".getBytes(StandardCharsets.US_ASCII)};
+
+	protected final TxParser parser;
+
+	protected int windowSize;
+
+	protected int parallelism;
+
+	/**
+	 * Constructor
+	 * @param parser The parser used to parse each stanza of an archive.
+	 */
+	public TxArchiveReplayer(TxParser parser)
+	{
+		if (parser == null)
+			throw new IllegalArgumentException("Parser cannot be null");
+
+		this.parser = parser;
+		this.windowSize = DEFAULT_WINDOW_SIZE;
+		this.parallelism = 1;
+	}
+
+	/**
+	 * Sets the size of each mapped window.  A window is automatically enlarged if a single stanza does not fit within it.
+	 * @param windowSize The window size in bytes.
+	 */
+	public void setWindowSize(int windowSize)
+	{
+		if (windowSize < 1)
+			throw new IllegalArgumentException("Window size must be at least 1");
+
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Gets the size of each mapped window.
+	 * @return The window size in bytes.
+	 */
+	public int getWindowSize()
+	{
+		return windowSize;
+	}
+
+	/**
+	 * Sets the number of threads used to parse the stanzas of each window.
+	 * @param parallelism The number of parsing threads.  A value of 1 parses on the calling thread.
+	 */
+	public void setParallelism(int parallelism)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Gets the number of threads used to parse the stanzas of each window.
+	 * @return The number of parsing threads.
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Replays an archive file, passing a monitoring object for each stanza to a consumer in archive order.
+	 * @param archive The archive file.
+	 * @param consumer The consumer that receives each monitoring object.
+	 * @return The number of monitoring objects passed to the consumer.
+	 * @throws IOException Thrown if the archive cannot be read.
+	 */
+	public long replay(Path archive, Consumer<Tx> consumer) throws IOException
+	{
+		final ExecutorService executor = (parallelism > 1) ? Executors.newFixedThreadPool(parallelism) : null;
+
+		try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ))
+		{
+			final long fileSize = channel.size();
+			final List<ByteBuffer> slices = new ArrayList<>();
+
+			long count = 0;
+			long offset = 0;
+			int mapSize = windowSize;
+			while (offset < fileSize)
+			{
+				final int length = (int)Math.min(mapSize, fileSize - offset);
+				final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				final boolean lastWindow = offset + length >= fileSize;
+
+				slices.clear();
+				final int consumed = findStanzas(window, slices);
+
+				count += parse(slices, executor, consumer);
+
+				if (consumed == 0 && !lastWindow)
+				{
+					// a single stanza is larger than the window; enlarge the window until the stanza fits
+					if (mapSize == Integer.MAX_VALUE)
+						throw new IOException("Stanza at offset " + offset + " exceeds the maximum window size");
+
+					mapSize = (int)Math.min(Integer.MAX_VALUE, 2L * mapSize);
+				}
+				else
+				{
+					if (lastWindow && consumed < length)
+						LOGGER.warn("Skipped incomplete stanza data at the end of archive " + archive + ": " + (length - consumed) + 
+								" bytes at offset " + (offset + consumed));
+
+					offset = lastWindow ? fileSize : offset + consumed;
+					mapSize = windowSize;
+				}
+			}
+
+			return count;
+		}
+		finally
+		{
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Locates the complete top level stanzas within a window and adds a slice of the window for each stanza to a list.
+	 * @param window The mapped window.
+	 * @param slices The list that stanza slices are added to.
+	 * @return The number of bytes of the window that were fully processed.  The next window starts at this offset.
+	 */
+	protected int findStanzas(ByteBuffer window, List<ByteBuffer> slices)
+	{
+		final int limit = window.limit();
+
+		int consumed = 0;
+		int stanzaStart = -1;
+		int depth = 0;
+		int pos = 0;
+		while (true)
+		{
+			final int tagStart = indexOf(window, (byte)'<', pos, limit);
+			if (tagStart < 0)
+				return (stanzaStart < 0) ? limit : consumed;
+
+			if (tagStart + 1 >= limit)
+				return consumed;
+
+			final byte next = window.get(tagStart + 1);
+			int tagEnd;
+			if (next == '?')
+				tagEnd = indexOf(window, "?>", tagStart + 2, limit);
+			else if (next == '!')
+			{
+				if (startsWith(window, tagStart, limit, "<!--"))
+					tagEnd = indexOf(window, "-->", tagStart + 4, limit);
+				else if (startsWith(window, tagStart, limit, "<![CDATA["))
+					tagEnd = indexOf(window, "]]>", tagStart + 9, limit);
+				else
+					tagEnd = indexOf(window, (byte)'>', tagStart + 2, limit);
+			}
+			else
+				tagEnd = indexOfTagEnd(window, tagStart + 1, limit);
+
+			if (tagEnd < 0)
+				return consumed;
+
+			if (next == '/')
+			{
+				--depth;
+				if (stanzaStart >= 0 && depth == 0)
+				{
+					slices.add(slice(window, stanzaStart, tagEnd + 1));
+					stanzaStart = -1;
+					consumed = tagEnd + 1;
+				}
+			}
+			else if (next != '?' && next != '!')
+			{
+				final boolean selfClosing = window.get(tagEnd - 1) == '/';
+				if (stanzaStart < 0)
+				{
+					if (isStanzaElement(window, tagStart + 1, tagEnd))
+					{
+						if (selfClosing)
+						{
+							slices.add(slice(window, tagStart, tagEnd + 1));
+							consumed = tagEnd + 1;
+						}
+						else
+						{
+							stanzaStart = tagStart;
+							depth = 1;
+						}
+					}
+					else
+						// elements outside of stanzas such as the stream element are not tracked
+						consumed = tagEnd + 1;
+				}
+				else if (!selfClosing)
+					++depth;
+			}
+			else if (stanzaStart < 0)
+				consumed = tagEnd + 1;
+
+			pos = tagEnd + 1;
+		}
+	}
+
+	/**
+	 * Parses a list of stanza slices and passes the results to a consumer in order.
+	 * @param slices The stanza slices.
+	 * @param executor The executor used to parse the slices or null to parse on the calling thread.
+	 * @param consumer The consumer that receives each monitoring object.
+	 * @return The number of monitoring objects passed to the consumer.
+	 * @throws IOException Thrown if parsing is interrupted.
+	 */
+	protected long parse(List<ByteBuffer> slices, ExecutorService executor, Consumer<Tx> consumer) throws IOException
+	{
+		long count = 0;
+		if (executor == null || slices.size() < 2)
+		{
+			for (ByteBuffer slice : slices)
+				count += accept(parser.parseStanza(slice), consumer);
+
+			return count;
+		}
+
+		final int chunkSize = Math.max(1, (slices.size() + parallelism * 4 - 1) / (parallelism * 4));
+		final List<Callable<Tx[]>> tasks = new ArrayList<>();
+		for (int start = 0; start < slices.size(); start += chunkSize)
+		{
+			final List<ByteBuffer> chunk = slices.subList(start, Math.min(start + chunkSize, slices.size()));
+			tasks.add(() ->
+			{
+				final Tx[] retVal = new Tx[chunk.size()];
+				for (int i = 0; i < retVal.length; ++i)
+					retVal[i] = parser.parseStanza(chunk.get(i));
+
+				return retVal;
+			});
+		}
+
+		try
+		{
+			for (Future<Tx[]> future : executor.invokeAll(tasks))
+				for (Tx tx : future.get())
+					count += accept(tx, consumer);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Archive replay was interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Failed to parse archive stanzas", e.getCause());
+		}
+
+		return count;
+	}
+
+	private static int accept(Tx tx, Consumer<Tx> consumer)
+	{
+		if (tx == null)
+			return 0;
+
+		consumer.accept(tx);
+		return 1;
+	}
+
+	private static ByteBuffer slice(ByteBuffer window, int start, int end)
+	{
+		final ByteBuffer retVal = window.duplicate();
+		retVal.limit(end).position(start);
+
+		return retVal.slice();
+	}
+
+	private static boolean isStanzaElement(ByteBuffer window, int nameStart, int tagEnd)
+	{
+		int nameEnd = nameStart;
+		while (nameEnd < tagEnd)
+		{
+			final byte b = window.get(nameEnd);
+			if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>')
+				break;
+
+			++nameEnd;
+		}
+
+		for (byte[] element : STANZA_ELEMENTS)
+		{
+			if (element.length != nameEnd - nameStart)
+				continue;
+
+			boolean match = true;
+			for (int i = 0; i < element.length && match; ++i)
+				match = window.get(nameStart + i) == element[i];
+
+			if (match)
+				return true;
+		}
+
+		return false;
+	}
+
+	private static int indexOfTagEnd(ByteBuffer window, int from, int limit)
+	{
+		byte quote = 0;
+		for (int i = from; i < limit; ++i)
+		{
+			final byte b = window.get(i);
+			if (quote != 0)
+			{
+				if (b == quote)
+					quote = 0;
+			}
+			else if (b == '\'' || b == '"')
+				quote = b;
+			else if (b == '>')
+				return i;
+		}
+
+		return -1;
+	}
+
+	private static int indexOf(ByteBuffer window, byte match, int from, int limit)
+	{
+		for (int i = from; i < limit; ++i)
+			if (window.get(i) == match)
+				return i;
+
+		return -1;
+	}
+
+	private static int indexOf(ByteBuffer window, String match, int from, int limit)
+	{
+		for (int i = from; i <= limit - match.length(); ++i)
+			if (startsWith(window, i, limit, match))
+				return i + match.length() - 1;
+
+		return -1;
+	}
+
+	private static boolean startsWith(ByteBuffer window, int from, int limit, String match)
+	{
+		if (limit - from < match.length())
+			return false;
+
+		for (int i = 0; i < match.length(); ++i)
+			if (window.get(from + i) != match.charAt(i))
+				return false;
+
+		return true;
+	}
+}
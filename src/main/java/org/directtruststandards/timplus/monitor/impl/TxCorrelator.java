@@ -0,0 +1,665 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.directtruststandards.timplus.monitor.tx.TxCorrelationListener;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+/**
+ * Correlates messages with their AMP delivery notifications and message errors.  Messages are held in an index keyed by MSG_ID with
+ * one pending entry for each recipient.  An AMP notification matches the pending recipient named by its ORIGINAL_RECIPIENT detail and a
+ * message error matches the pending recipient that sent the error, or the only pending recipient in the error sender's domain when the
+ * error was generated by a server.  Recipients are compared as bare JIDs.
+ * <p>
+ * Responses may reach the monitor before their message, especially when monitoring is distributed across several JVMs.  A response
+ * without a pending message is held under its MSG_ID until the message arrives or the response expires, at which point it is reported
+ * as unmatched.
+ * <p>
+ * The index is split into lock striped segments, so correlation scales across cores without a global lock.  Memory is bounded both by
+ * a maximum number of indexed MSG_IDs and by a time to live.  Each segment evicts its oldest entries when it is full or when
+ * {@link #expire()} finds they have outlived the time to live.  Listener callbacks are made on the calling thread after the segment
+ * lock has been released.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxCorrelator
+{
+	/**
+	 * The default maximum number of indexed MSG_IDs.
+	 */
+	public static final int DEFAULT_MAX_PENDING = 1024 * 1024;
+
+	/**
+	 * The default time to live of an indexed MSG_ID in milliseconds.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+
+	protected final TxCorrelationListener listener;
+
+	protected final Segment[] segments;
+
+	protected final int maxPending;
+
+	protected final long timeToLive;
+
+	protected final LongAdder matched;
+
+	protected final LongAdder unmatched;
+
+	protected final LongAdder expired;
+
+	protected Clock clock;
+
+	/**
+	 * Constructor.  Creates a correlator with the default maximum size and time to live.
+	 * @param listener The listener that receives correlation results.
+	 */
+	public TxCorrelator(TxCorrelationListener listener)
+	{
+		this(listener, DEFAULT_MAX_PENDING, DEFAULT_TIME_TO_LIVE);
+	}
+
+	/**
+	 * Constructor
+	 * @param listener The listener that receives correlation results.
+	 * @param maxPending The maximum number of indexed MSG_IDs.  The bound is spread evenly across the segments of the index, rounding
+	 * up to at least one entry per segment.
+	 * @param timeToLive The time in milliseconds that a MSG_ID stays indexed before it is expired.
+	 */
+	public TxCorrelator(TxCorrelationListener listener, int maxPending, long timeToLive)
+	{
+		if (listener == null)
+			throw new IllegalArgumentException("Listener cannot be null");
+
+		if (maxPending < 1)
+			throw new IllegalArgumentException("Max pending must be at least 1");
+
+		if (timeToLive < 1)
+			throw new IllegalArgumentException("Time to live must be at least 1");
+
+		this.listener = listener;
+		this.maxPending = maxPending;
+		this.timeToLive = timeToLive;
+		this.matched = new LongAdder();
+		this.unmatched = new LongAdder();
+		this.expired = new LongAdder();
+		this.clock = Clock.systemUTC();
+
+		// several segments per core keep contention low; small indexes use fewer segments so the bound stays meaningful
+		int segmentCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+		while (segmentCount > 1 && segmentCount > maxPending)
+			segmentCount >>>= 1;
+
+		final int segmentMax = Math.max(1, (maxPending + segmentCount - 1) / segmentCount);
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; ++i)
+			segments[i] = new Segment(segmentMax, timeToLive);
+	}
+
+	/**
+	 * Sets the clock used to time stamp and expire indexed MSG_IDs.
+	 * @param clock The clock.
+	 */
+	public void setClock(Clock clock)
+	{
+		if (clock == null)
+			throw new IllegalArgumentException("Clock cannot be null");
+
+		this.clock = clock;
+	}
+
+	/**
+	 * Gets the clock used to time stamp and expire indexed MSG_IDs.
+	 * @return The clock.
+	 */
+	public Clock getClock()
+	{
+		return clock;
+	}
+
+	/**
+	 * Submits a monitoring object for correlation.  Messages are indexed, AMP notifications and message errors are matched against
+	 * indexed messages, and all other monitoring objects are ignored.  Monitoring objects without a MSG_ID are ignored as well.
+	 * @param tx The monitoring object.
+	 * @return True if the monitoring object was indexed or correlated, false if it was ignored.
+	 */
+	public boolean accept(Tx tx)
+	{
+		if (tx == null)
+			throw new IllegalArgumentException("Tx cannot be null");
+
+		final TxStanzaType stanzaType = tx.getStanzaType();
+		if (stanzaType != TxStanzaType.MESSAGE && stanzaType != TxStanzaType.AMP && stanzaType != TxStanzaType.MESSAGE_ERROR)
+			return false;
+
+		final String msgId = detailValue(tx, TxDetailType.MSG_ID);
+		if (msgId == null || msgId.isEmpty())
+			return false;
+
+		final Segment segment = segmentFor(msgId);
+		final long now = clock.millis();
+
+		final List<Event> events;
+		if (stanzaType == TxStanzaType.MESSAGE)
+		{
+			final Set<String> recipients = recipientsOf(tx);
+			if (recipients.isEmpty())
+				return false;
+
+			synchronized (segment)
+			{
+				events = segment.register(msgId, tx, recipients, now);
+			}
+		}
+		else
+		{
+			synchronized (segment)
+			{
+				events = segment.respond(msgId, tx, now);
+			}
+		}
+
+		notify(events);
+
+		return true;
+	}
+
+	/**
+	 * Expires every indexed MSG_ID that has outlived the time to live.  Messages with pending recipients are reported as expired and
+	 * held responses are reported as unmatched.  This method is expected to be called periodically; segments also expire their oldest
+	 * entries whenever a monitoring object is indexed in them.
+	 * @return The number of expired MSG_IDs.
+	 */
+	public int expire()
+	{
+		final long now = clock.millis();
+
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			final List<Event> events;
+			synchronized (segment)
+			{
+				final int sizeBefore = segment.size();
+				events = segment.expire(now);
+				retVal += sizeBefore - segment.size();
+			}
+
+			notify(events);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Gets the number of responses that were matched to a message recipient.
+	 * @return The matched count.
+	 */
+	public long getMatchedCount()
+	{
+		return matched.sum();
+	}
+
+	/**
+	 * Gets the number of responses that were reported as unmatched.
+	 * @return The unmatched count.
+	 */
+	public long getUnmatchedCount()
+	{
+		return unmatched.sum();
+	}
+
+	/**
+	 * Gets the number of messages that were evicted with pending recipients.
+	 * @return The expired count.
+	 */
+	public long getExpiredCount()
+	{
+		return expired.sum();
+	}
+
+	/**
+	 * Gets the maximum number of indexed MSG_IDs.
+	 * @return The maximum size of the index.
+	 */
+	public int getMaxPending()
+	{
+		return maxPending;
+	}
+
+	/**
+	 * Gets the time that a MSG_ID stays indexed before it is expired.
+	 * @return The time to live in milliseconds.
+	 */
+	public long getTimeToLive()
+	{
+		return timeToLive;
+	}
+
+	/**
+	 * Gets the number of indexed MSG_IDs.
+	 * @return The number of MSG_IDs with a pending message or held responses.
+	 */
+	public int size()
+	{
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				retVal += segment.size();
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Removes all indexed MSG_IDs without reporting them and resets the counts.
+	 */
+	public void clear()
+	{
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				segment.clear();
+			}
+		}
+
+		matched.reset();
+		unmatched.reset();
+		expired.reset();
+	}
+
+	/**
+	 * Gets the segment that holds a given MSG_ID.
+	 * @param msgId The MSG_ID.
+	 * @return The segment of the index for the MSG_ID.
+	 */
+	protected Segment segmentFor(String msgId)
+	{
+		final int hash = msgId.hashCode();
+
+		return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+	}
+
+	/**
+	 * Gets the bare JIDs of the recipients of a message.
+	 * @param tx The monitoring object of the message.
+	 * @return The distinct bare JIDs of the recipients in the order they were added.
+	 */
+	protected Set<String> recipientsOf(Tx tx)
+	{
+		return bareRecipientsOf(tx);
+	}
+
+	/**
+	 * Gets the distinct bare JIDs of the recipients of a message.
+	 * @param tx The monitoring object of the message.
+	 * @return The distinct bare JIDs of the recipients in the order they were added.
+	 */
+	protected static Set<String> bareRecipientsOf(Tx tx)
+	{
+		final List<String> recipients = tx.getRecipients();
+
+		final Set<String> retVal = new LinkedHashSet<>();
+		for (String recipient : recipients)
+		{
+			final String bareRecipient = toBareJid(recipient.trim());
+			if (!bareRecipient.isEmpty())
+				retVal.add(bareRecipient);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Delivers correlation events to the listener.  Must not be called while holding a segment lock.
+	 * @param events The events or null if there are none.
+	 */
+	protected void notify(List<Event> events)
+	{
+		if (events == null)
+			return;
+
+		for (Event event : events)
+		{
+			if (event.recipient != null)
+			{
+				matched.increment();
+				listener.onMatched(event.message, event.response, event.recipient);
+			}
+			else if (event.message == null)
+			{
+				unmatched.increment();
+				listener.onUnmatched(event.response);
+			}
+			else
+			{
+				expired.increment();
+				listener.onExpired(event.message, event.pendingRecipients);
+			}
+		}
+	}
+
+	private static String detailValue(Tx tx, TxDetailType detailType)
+	{
+		final TxDetail detail = tx.getDetail(detailType);
+
+		return (detail == null) ? null : detail.getDetailValue();
+	}
+
+	private static String toBareJid(String jid)
+	{
+		final int slash = jid.indexOf('/');
+
+		return (slash < 0) ? jid : jid.substring(0, slash);
+	}
+
+	private static String domainOf(String bareJid)
+	{
+		final int at = bareJid.indexOf('@');
+
+		return (at < 0) ? bareJid : bareJid.substring(at + 1);
+	}
+
+	/**
+	 * Removes and returns the pending recipient of a message that a response applies to.  An AMP notification applies to the recipient
+	 * named by its ORIGINAL_RECIPIENT detail and a message error to the recipient that sent it, or to the only pending recipient in the
+	 * domain of a server that sent it.  A response without either detail applies to the only pending recipient.
+	 * @param pendingRecipients The bare JIDs of the pending recipients.  May be null.
+	 * @param response The AMP notification or message error.
+	 * @return The matched recipient or null if the response does not match a pending recipient.
+	 */
+	protected static String matchRecipient(Set<String> pendingRecipients, Tx response)
+	{
+		if (pendingRecipients == null || pendingRecipients.isEmpty())
+			return null;
+
+		String recipient = null;
+		if (response.getStanzaType() == TxStanzaType.AMP)
+		{
+			final String originalRecipient = detailValue(response, TxDetailType.ORIGINAL_RECIPIENT);
+			if (originalRecipient != null)
+			{
+				final String bareRecipient = toBareJid(originalRecipient);
+				if (pendingRecipients.contains(bareRecipient))
+					recipient = bareRecipient;
+			}
+			else if (pendingRecipients.size() == 1)
+				recipient = pendingRecipients.iterator().next();
+		}
+		else
+		{
+			final String from = detailValue(response, TxDetailType.FROM);
+			if (from != null)
+			{
+				final String bareFrom = toBareJid(from);
+				if (pendingRecipients.contains(bareFrom))
+					recipient = bareFrom;
+				else if (bareFrom.indexOf('@') < 0)
+					recipient = matchDomain(pendingRecipients, bareFrom);
+			}
+			else if (pendingRecipients.size() == 1)
+				recipient = pendingRecipients.iterator().next();
+		}
+
+		if (recipient != null)
+			pendingRecipients.remove(recipient);
+
+		return recipient;
+	}
+
+	private static String matchDomain(Set<String> pendingRecipients, String domain)
+	{
+		// a server generated error is only attributable when a single pending recipient lives in that domain
+		String retVal = null;
+		for (String pendingRecipient : pendingRecipients)
+		{
+			if (domainOf(pendingRecipient).equals(domain))
+			{
+				if (retVal != null)
+					return null;
+
+				retVal = pendingRecipient;
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * The correlation state of a single MSG_ID.
+	 */
+	protected static class Correlation
+	{
+		protected final long created;
+
+		protected Tx message;
+
+		protected Set<String> pendingRecipients;
+
+		protected List<Tx> heldResponses;
+
+		protected Correlation(long created)
+		{
+			this.created = created;
+		}
+
+		/**
+		 * Removes and returns the pending recipient that a response applies to.
+		 * @param response The response.
+		 * @return The matched recipient or null if the response does not match a pending recipient.
+		 */
+		protected String match(Tx response)
+		{
+			return matchRecipient(pendingRecipients, response);
+		}
+
+		protected boolean isComplete()
+		{
+			return message != null && pendingRecipients.isEmpty() && (heldResponses == null || heldResponses.isEmpty());
+		}
+	}
+
+	/**
+	 * A correlation result that is waiting to be reported to the listener.
+	 */
+	protected static class Event
+	{
+		protected final Tx message;
+
+		protected final Tx response;
+
+		protected final String recipient;
+
+		protected final List<String> pendingRecipients;
+
+		private Event(Tx message, Tx response, String recipient, List<String> pendingRecipients)
+		{
+			this.message = message;
+			this.response = response;
+			this.recipient = recipient;
+			this.pendingRecipients = pendingRecipients;
+		}
+
+		protected static Event matched(Tx message, Tx response, String recipient)
+		{
+			return new Event(message, response, recipient, null);
+		}
+
+		protected static Event unmatched(Tx response)
+		{
+			return new Event(null, response, null, null);
+		}
+
+		protected static Event expired(Tx message, List<String> pendingRecipients)
+		{
+			return new Event(message, null, null, pendingRecipients);
+		}
+	}
+
+	/**
+	 * Insertion ordered segment of the index.  Entries are never reordered, so the eldest entry is always the oldest.  Access must be
+	 * synchronized on the segment.  Correlation results are returned as events so that they can be reported after the
+	 * lock is released.
+	 */
+	protected static class Segment extends LinkedHashMap<String, Correlation>
+	{
+		private static final long serialVersionUID = -4179465129750186364L;
+
+		protected final int segmentMax;
+
+		protected final long timeToLive;
+
+		protected Segment(int segmentMax, long timeToLive)
+		{
+			super(16, 0.75f, false);
+
+			this.segmentMax = segmentMax;
+			this.timeToLive = timeToLive;
+		}
+
+		protected List<Event> register(String msgId, Tx message, Set<String> recipients, long now)
+		{
+			List<Event> events = expire(now);
+
+			Correlation correlation = get(msgId);
+			if (correlation == null)
+			{
+				events = evictForInsert(events);
+
+				correlation = new Correlation(now);
+				put(msgId, correlation);
+			}
+
+			if (correlation.message == null)
+			{
+				correlation.message = message;
+				correlation.pendingRecipients = recipients;
+			}
+			else
+			{
+				// group chat copies share a MSG_ID; fold the additional recipients into the first message
+				correlation.pendingRecipients.addAll(recipients);
+			}
+
+			if (correlation.heldResponses != null)
+			{
+				final Iterator<Tx> iter = correlation.heldResponses.iterator();
+				while (iter.hasNext())
+				{
+					final Tx response = iter.next();
+					final String recipient = correlation.match(response);
+					if (recipient != null)
+					{
+						events = add(events, Event.matched(correlation.message, response, recipient));
+						iter.remove();
+					}
+				}
+			}
+
+			if (correlation.isComplete())
+				remove(msgId);
+
+			return events;
+		}
+
+		protected List<Event> respond(String msgId, Tx response, long now)
+		{
+			List<Event> events = expire(now);
+
+			Correlation correlation = get(msgId);
+			if (correlation == null)
+			{
+				events = evictForInsert(events);
+
+				correlation = new Correlation(now);
+				put(msgId, correlation);
+			}
+
+			if (correlation.message == null)
+			{
+				if (correlation.heldResponses == null)
+					correlation.heldResponses = new ArrayList<>(1);
+
+				correlation.heldResponses.add(response);
+
+				return events;
+			}
+
+			final String recipient = correlation.match(response);
+			if (recipient != null)
+				events = add(events, Event.matched(correlation.message, response, recipient));
+			else
+				events = add(events, Event.unmatched(response));
+
+			if (correlation.isComplete())
+				remove(msgId);
+
+			return events;
+		}
+
+		protected List<Event> expire(long now)
+		{
+			List<Event> events = null;
+
+			final Iterator<Correlation> iter = values().iterator();
+			while (iter.hasNext())
+			{
+				final Correlation correlation = iter.next();
+				if (now - correlation.created < timeToLive)
+					break;
+
+				iter.remove();
+				events = evicted(events, correlation);
+			}
+
+			return events;
+		}
+
+		private List<Event> evictForInsert(List<Event> events)
+		{
+			if (size() < segmentMax)
+				return events;
+
+			final Iterator<Correlation> iter = values().iterator();
+			final Correlation eldest = iter.next();
+			iter.remove();
+
+			return evicted(events, eldest);
+		}
+
+		private static List<Event> evicted(List<Event> events, Correlation correlation)
+		{
+			if (correlation.message != null && !correlation.pendingRecipients.isEmpty())
+				events = add(events, Event.expired(correlation.message, new ArrayList<>(correlation.pendingRecipients)));
+
+			if (correlation.heldResponses != null)
+				for (Tx response : correlation.heldResponses)
+					events = add(events, Event.unmatched(response));
+
+			return events;
+		}
+
+		private static List<Event> add(List<Event> events, Event event)
+		{
+			final List<Event> retVal = (events == null) ? new ArrayList<>(2) : events;
+			retVal.add(event);
+
+			return retVal;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.EnumSet;
+
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * The state of a single stanza parse that is handed to each {@link TxDetailExtractor}.  It exposes the stanza being parsed and the
+ * requested detail types, and collects the extracted details into the monitoring object of the parse.
+ * <p>
+ * A context is owned by the thread that parses the stanza and must not be kept by an extractor after it returns.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxDetailExtractionContext
+{
+	protected final Stanza stanza;
+
+	protected final String stanzaElement;
+
+	protected final String language;
+
+	protected final EnumSet<TxDetailType> detailTypes;
+
+	protected final Tx target;
+
+	protected final JidCache jidCache;
+
+	protected int depthLimit;
+
+	/**
+	 * Constructor
+	 * @param stanza The Smack stanza object being parsed, or null if a raw stanza is being read.
+	 * @param stanzaElement The name of the stanza element: message, iq, or presence.
+	 * @param language The language of the stanza.  May be null.
+	 * @param detailTypes The requested detail types.
+	 * @param target The monitoring object that details are added to.
+	 * @param jidCache The cache used to normalize JIDs.
+	 */
+	public TxDetailExtractionContext(Stanza stanza, String stanzaElement, String language, EnumSet<TxDetailType> detailTypes, Tx target,
+			JidCache jidCache)
+	{
+		if (stanzaElement == null)
+			throw new IllegalArgumentException("Stanza element cannot be null");
+
+		if (detailTypes == null)
+			throw new IllegalArgumentException("Detail types cannot be null");
+
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+
+		if (jidCache == null)
+			throw new IllegalArgumentException("JID cache cannot be null");
+
+		this.stanza = stanza;
+		this.stanzaElement = stanzaElement;
+		this.language = language;
+		this.detailTypes = detailTypes;
+		this.target = target;
+		this.jidCache = jidCache;
+		this.depthLimit = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Sets the deepest parser depth that an element of a raw stanza may have.  Extractors that read nested elements skip them with
+	 * {@link PullTxParser#skipElement(org.xmlpull.v1.XmlPullParser, int)} using this limit.
+	 * @param depthLimit The depth limit.
+	 */
+	public void setDepthLimit(int depthLimit)
+	{
+		if (depthLimit < 1)
+			throw new IllegalArgumentException("Depth limit must be at least 1");
+
+		this.depthLimit = depthLimit;
+	}
+
+	/**
+	 * Gets the deepest parser depth that an element of a raw stanza may have.
+	 * @return The depth limit.
+	 */
+	public int getDepthLimit()
+	{
+		return depthLimit;
+	}
+
+	/**
+	 * Gets the Smack stanza object being parsed.
+	 * @return The stanza, or null if a raw stanza is being read.
+	 */
+	public Stanza getStanza()
+	{
+		return stanza;
+	}
+
+	/**
+	 * Gets the name of the stanza element.
+	 * @return The stanza element name: message, iq, or presence.
+	 */
+	public String getStanzaElement()
+	{
+		return stanzaElement;
+	}
+
+	/**
+	 * Gets the language of the stanza, which is the default language of its child elements.
+	 * @return The xml:lang of the stanza, or null if it is not declared.
+	 */
+	public String getLanguage()
+	{
+		return language;
+	}
+
+	/**
+	 * Gets the requested detail types.
+	 * @return The requested detail types.
+	 */
+	public EnumSet<TxDetailType> getDetailTypes()
+	{
+		return detailTypes;
+	}
+
+	/**
+	 * Indicates if a detail type is requested.
+	 * @param detailType The detail type.
+	 * @return True if the detail type is requested.
+	 */
+	public boolean isRequested(TxDetailType detailType)
+	{
+		return detailTypes.contains(detailType);
+	}
+
+	/**
+	 * Indicates if a detail has already been extracted.
+	 * @param detailType The detail type.
+	 * @return True if the monitoring object contains the detail.
+	 */
+	public boolean hasDetail(TxDetailType detailType)
+	{
+		return target.getDetails().containsKey(detailType);
+	}
+
+	/**
+	 * Adds a detail to the monitoring object of the parse.
+	 * @param detailType The detail type.
+	 * @param detailValue The detail value.  A RECIPIENTS value is a single recipient.
+	 */
+	public void putDetail(TxDetailType detailType, String detailValue)
+	{
+		putDetail(target, detailType, detailValue);
+	}
+
+	/**
+	 * Converts a raw JID string into its normalized string representation.
+	 * @param jid The raw JID.
+	 * @return The normalized JID string.
+	 * @throws XmppStringprepException Thrown if the raw value is not a valid JID.
+	 */
+	public String toJidString(String jid) throws XmppStringprepException
+	{
+		return jidCache.toJidString(jid);
+	}
+
+	/**
+	 * Adds a detail to a monitoring object.  The reusable detail objects of a {@link MutableTx} are filled in place; other monitoring objects
+	 * receive new detail objects.
+	 * @param target The monitoring object.
+	 * @param detailType The detail type.
+	 * @param detailValue The detail value.  A RECIPIENTS value is a single recipient.
+	 */
+	public static void putDetail(Tx target, TxDetailType detailType, String detailValue)
+	{
+		if (target instanceof MutableTx)
+		{
+			if (detailType == TxDetailType.RECIPIENTS)
+				((MutableTx)target).setRecipient(detailValue);
+			else
+				((MutableTx)target).setDetail(detailType, detailValue);
+		}
+		else
+			target.getDetails().put(detailType, new TxDetail(detailType, detailValue));
+	}
+}
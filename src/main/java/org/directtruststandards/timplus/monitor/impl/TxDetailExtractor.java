@@ -0,0 +1,76 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Set;
+
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.packet.StreamOpen;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Extracts monitoring details from a child element of a stanza.  Extractors are registered in a {@link TxDetailExtractorRegistry} by
+ * the namespace and, optionally, the name of the elements they read.  The parsers look up the extractor of each child element that is
+ * present in a stanza, so an extractor is only invoked for stanzas that contain its elements.
+ * <p>
+ * Child elements in the namespace of the stanza itself, such as the body and error elements, are registered under the
+ * {@link StreamOpen#CLIENT_NAMESPACE jabber:client} namespace regardless of the namespace that is declared on the stanza.
+ * <p>
+ * An extractor is invoked for each of its elements in a stanza until it reports that its details are resolved, and only when at least
+ * one of its detail types is requested.  Extractors are shared by all parsing threads and must not hold per stanza state.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public interface TxDetailExtractor
+{
+	/**
+	 * Gets the namespace of the elements that this extractor reads.
+	 * @return The element namespace.
+	 */
+	public String getNamespace();
+
+	/**
+	 * Gets the name of the element that this extractor reads.
+	 * @return The element name, or null to read every element of the namespace.
+	 */
+	public default String getElementName()
+	{
+		return null;
+	}
+
+	/**
+	 * Gets the detail types that this extractor can produce.
+	 * @return The detail types.
+	 */
+	public Set<TxDetailType> getDetailTypes();
+
+	/**
+	 * Indicates if this extractor applies to a kind of stanza.
+	 * @param stanzaElement The name of the stanza element: message, iq, or presence.
+	 * @return True if the extractor should be invoked for child elements of the stanza.
+	 */
+	public default boolean isApplicable(String stanzaElement)
+	{
+		return true;
+	}
+
+	/**
+	 * Extracts details from an element of a Smack stanza object.
+	 * @param element The element.  The body and error of a stanza are passed as their Smack {@link Message.Body} and
+	 * {@link StanzaError} objects.
+	 * @param context The stanza being parsed and the monitoring object that details are added to.
+	 * @return True if the details of this extractor are resolved and it should not be invoked for further elements of the stanza.
+	 * @throws Exception Thrown if the element cannot be read.
+	 */
+	public boolean extract(ExtensionElement element, TxDetailExtractionContext context) throws Exception;
+
+	/**
+	 * Extracts details from an element of a raw stanza.  On return, the parser must be positioned on the end tag of the element.
+	 * @param parser The parser positioned on the start tag of the element.
+	 * @param context The stanza being parsed and the monitoring object that details are added to.
+	 * @return True if the details of this extractor are resolved and it should not be invoked for further elements of the stanza.
+	 * @throws Exception Thrown if the element cannot be read.
+	 */
+	public boolean extract(XmlPullParser parser, TxDetailExtractionContext context) throws Exception;
+}
@@ -0,0 +1,281 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.jivesoftware.smack.packet.StreamOpen;
+
+/**
+ * Registry of {@link TxDetailExtractor extractors} keyed by the namespace and name of the elements they read.
+ * <p>
+ * The registry is compiled into an immutable hash table of namespaces, each holding an optional extractor for every element of the
+ * namespace and an optional table of element names.  Parsers look up only the elements that are present in a stanza, so dispatch costs
+ * one or two hash lookups per child element regardless of the number of registered extractors.  Registering or removing an extractor
+ * builds a new table that is published atomically; parses in flight keep using the table they started with, so the registry may be
+ * modified while it is shared by parsing threads.
+ * <p>
+ * The default registry contains the built in extractors for the AMP, chat state, error, and body elements.  Registering an extractor
+ * for the same namespace and element name as an existing extractor replaces it.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxDetailExtractorRegistry
+{
+	/**
+	 * The maximum number of extractors in a registry.
+	 */
+	public static final int MAX_EXTRACTORS = Long.SIZE;
+
+	protected volatile Table table;
+
+	/**
+	 * Empty constructor.  Creates a registry that contains the built in extractors.
+	 */
+	public TxDetailExtractorRegistry()
+	{
+		this(getBuiltInExtractors());
+	}
+
+	/**
+	 * Constructor
+	 * @param extractors The extractors of the registry.
+	 */
+	public TxDetailExtractorRegistry(Collection<? extends TxDetailExtractor> extractors)
+	{
+		if (extractors == null)
+			throw new IllegalArgumentException("Extractors cannot be null");
+
+		List<TxDetailExtractor> registered = new ArrayList<>();
+		for (TxDetailExtractor extractor : extractors)
+			registered = add(registered, extractor);
+
+		table = new Table(registered);
+	}
+
+	/**
+	 * Creates new instances of the built in extractors.
+	 * @return The AMP, chat state, error, and body extractors.
+	 */
+	public static List<TxDetailExtractor> getBuiltInExtractors()
+	{
+		return Arrays.asList(new AMPTxDetailExtractor(), new ChatStateTxDetailExtractor(), new ErrorTxDetailExtractor(),
+				new BodyTxDetailExtractor());
+	}
+
+	/**
+	 * Registers an extractor, replacing any extractor of the same namespace and element name.
+	 * @param extractor The extractor.
+	 */
+	public synchronized void register(TxDetailExtractor extractor)
+	{
+		table = new Table(add(new ArrayList<>(table.extractorList), extractor));
+	}
+
+	/**
+	 * Removes the extractor of a namespace and element name.
+	 * @param namespace The element namespace.
+	 * @param elementName The element name, or null for the extractor of every element of the namespace.
+	 * @return The removed extractor, or null if no extractor is registered.
+	 */
+	public synchronized TxDetailExtractor unregister(String namespace, String elementName)
+	{
+		final List<TxDetailExtractor> registered = new ArrayList<>(table.extractorList);
+
+		final int index = indexOf(registered, namespace, elementName);
+		if (index < 0)
+			return null;
+
+		final TxDetailExtractor retVal = registered.remove(index);
+		table = new Table(registered);
+
+		return retVal;
+	}
+
+	/**
+	 * Gets the registered extractors.
+	 * @return An unmodifiable list of the extractors in the order they were registered.
+	 */
+	public List<TxDetailExtractor> getExtractors()
+	{
+		return table.extractorList;
+	}
+
+	/**
+	 * Gets the extractor of an element.  An extractor registered for the element name takes precedence over an extractor registered for
+	 * every element of the namespace.
+	 * @param namespace The element namespace.  An empty namespace and the jabber:server namespace are treated as jabber:client.
+	 * @param elementName The element name.
+	 * @return The extractor, or null if no extractor reads the element.
+	 */
+	public TxDetailExtractor getExtractor(String namespace, String elementName)
+	{
+		final Table current = table;
+		final int index = current.indexOf(namespace, elementName);
+
+		return (index < 0) ? null : current.extractors[index];
+	}
+
+	/**
+	 * Gets the current compiled table.  Parsers read one table for the whole of a stanza.
+	 * @return The current table.
+	 */
+	protected Table getTable()
+	{
+		return table;
+	}
+
+	private static List<TxDetailExtractor> add(List<TxDetailExtractor> registered, TxDetailExtractor extractor)
+	{
+		if (extractor == null)
+			throw new IllegalArgumentException("Extractor cannot be null");
+
+		if (extractor.getNamespace() == null)
+			throw new IllegalArgumentException("Extractor namespace cannot be null");
+
+		final Set<TxDetailType> detailTypes = extractor.getDetailTypes();
+		if (detailTypes == null || detailTypes.isEmpty())
+			throw new IllegalArgumentException("Extractor must produce at least one detail type");
+
+		final int index = indexOf(registered, extractor.getNamespace(), extractor.getElementName());
+		if (index >= 0)
+			registered.set(index, extractor);
+		else if (registered.size() == MAX_EXTRACTORS)
+			throw new IllegalStateException("A registry cannot hold more than " + MAX_EXTRACTORS + " extractors");
+		else
+			registered.add(extractor);
+
+		return registered;
+	}
+
+	private static int indexOf(List<TxDetailExtractor> registered, String namespace, String elementName)
+	{
+		final String key = toNamespaceKey(namespace);
+		for (int i = 0; i < registered.size(); ++i)
+		{
+			final TxDetailExtractor extractor = registered.get(i);
+			if (key.equals(toNamespaceKey(extractor.getNamespace())) &&
+					(elementName == null ? extractor.getElementName() == null : elementName.equals(extractor.getElementName())))
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Maps the namespaces that a child element of a stanza may carry for the namespace of the stanza itself onto jabber:client.
+	 */
+	private static String toNamespaceKey(String namespace)
+	{
+		if (namespace == null || namespace.isEmpty() || StreamOpen.SERVER_NAMESPACE.equals(namespace))
+			return StreamOpen.CLIENT_NAMESPACE;
+
+		return namespace;
+	}
+
+	/**
+	 * Immutable compiled form of the registry.  Extractors are identified by their position in the table, which is at most
+	 * {@link #MAX_EXTRACTORS}, so that the extractors that are still pending for a stanza can be tracked in a single long.
+	 */
+	protected static class Table
+	{
+		protected final List<TxDetailExtractor> extractorList;
+
+		protected final TxDetailExtractor[] extractors;
+
+		protected final TxDetailType[][] detailTypes;
+
+		protected final Map<String, NamespaceEntry> namespaces;
+
+		protected Table(List<TxDetailExtractor> registered)
+		{
+			extractorList = Collections.unmodifiableList(new ArrayList<>(registered));
+			extractors = registered.toArray(new TxDetailExtractor[registered.size()]);
+			detailTypes = new TxDetailType[extractors.length][];
+			namespaces = new HashMap<>();
+
+			for (int i = 0; i < extractors.length; ++i)
+			{
+				final TxDetailExtractor extractor = extractors[i];
+				detailTypes[i] = extractor.getDetailTypes().toArray(new TxDetailType[0]);
+
+				final NamespaceEntry entry = namespaces.computeIfAbsent(toNamespaceKey(extractor.getNamespace()), key -> new NamespaceEntry());
+				if (extractor.getElementName() == null)
+					entry.anyElement = i;
+				else
+					entry.elements.put(extractor.getElementName(), i);
+			}
+		}
+
+		/**
+		 * Gets the position of the extractor of an element.
+		 * @param namespace The element namespace.
+		 * @param elementName The element name.
+		 * @return The position of the extractor, or -1 if no extractor reads the element.
+		 */
+		protected int indexOf(String namespace, String elementName)
+		{
+			final NamespaceEntry entry = namespaces.get(toNamespaceKey(namespace));
+			if (entry == null)
+				return -1;
+
+			final Integer index = entry.elements.isEmpty() ? null : entry.elements.get(elementName);
+
+			return (index == null) ? entry.anyElement : index;
+		}
+
+		/**
+		 * Gets the extractor at a position.
+		 * @param index The position of the extractor.
+		 * @return The extractor.
+		 */
+		protected TxDetailExtractor getExtractor(int index)
+		{
+			return extractors[index];
+		}
+
+		/**
+		 * Gets the extractors that apply to a stanza and produce at least one requested detail type.
+		 * @param stanzaElement The name of the stanza element.
+		 * @param requested The requested detail types.
+		 * @return A bit mask of the positions of the extractors.
+		 */
+		protected long getPendingMask(String stanzaElement, EnumSet<TxDetailType> requested)
+		{
+			long retVal = 0;
+			for (int i = 0; i < extractors.length; ++i)
+			{
+				if (!extractors[i].isApplicable(stanzaElement))
+					continue;
+
+				for (TxDetailType detailType : detailTypes[i])
+				{
+					if (requested.contains(detailType))
+					{
+						retVal |= 1L << i;
+						break;
+					}
+				}
+			}
+
+			return retVal;
+		}
+	}
+
+	/**
+	 * The extractors of a single namespace.
+	 */
+	protected static class NamespaceEntry
+	{
+		protected int anyElement = -1;
+
+		protected final Map<String, Integer> elements = new HashMap<>();
+	}
+}
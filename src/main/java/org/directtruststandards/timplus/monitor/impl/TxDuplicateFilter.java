@@ -0,0 +1,337 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops copies of a stanza that has already been seen.  The same stanza is often captured several times along its route, for example
+ * when it is reported by both the sending and the receiving server, and each copy would otherwise be fully parsed and counted again.
+ * Stanzas are identified by a 64 bit identity hash, normally computed by {@link TxStanzaClassifier#identityHash(CharSequence)} from the
+ * stanza element, type, id, from, and to attributes without a full parse.
+ * <p>
+ * Identity hashes are remembered in a time rotating pair of Bloom filters.  New hashes are added to the current generation; when the
+ * current generation has existed for the rotation interval, or has received as many hashes as it can hold at the configured false
+ * positive rate, it becomes the previous generation and the old previous generation is discarded.  A stanza is a duplicate if its hash
+ * is found in either generation, so a hash is remembered for at least one and at most two rotation intervals.  Hashes found only in the
+ * previous generation are added to the current one so that a steady stream of copies stays detected.
+ * <p>
+ * Bloom filters have no false negatives, but a new stanza may be wrongly dropped as a duplicate.  Each generation is sized to hold
+ * its capacity at the configured false positive rate, and as both generations are checked the overall rate stays below twice the
+ * configured rate.  The memory budget is split evenly between the two generations.  The filter is lock free except when it rotates.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxDuplicateFilter
+{
+	/**
+	 * The default memory budget of both generations in bytes.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 8L * 1024 * 1024;
+
+	/**
+	 * The default false positive rate.
+	 */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+	/**
+	 * The default rotation interval in milliseconds.
+	 */
+	public static final long DEFAULT_ROTATION_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * The largest supported memory budget in bytes.
+	 */
+	public static final long MAX_MEMORY_BUDGET = 1L << 32;
+
+	private static final double LN2 = Math.log(2);
+
+	protected final long memoryBudget;
+
+	protected final double falsePositiveRate;
+
+	protected final long rotationInterval;
+
+	protected final long bitsPerGeneration;
+
+	protected final int hashCount;
+
+	protected final long capacity;
+
+	protected final LongAdder duplicates;
+
+	protected final LongAdder passed;
+
+	protected volatile Generation current;
+
+	protected volatile Generation previous;
+
+	protected Clock clock;
+
+	/**
+	 * Constructor.  Creates a filter with the default memory budget, false positive rate, and rotation interval.
+	 */
+	public TxDuplicateFilter()
+	{
+		this(DEFAULT_MEMORY_BUDGET, DEFAULT_FALSE_POSITIVE_RATE, DEFAULT_ROTATION_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * @param memoryBudget The memory used by the bits of both generations in bytes.  Must be at least 16 bytes and at most
+	 * {@link #MAX_MEMORY_BUDGET}.
+	 * @param falsePositiveRate The rate at which new stanzas may be wrongly reported as duplicates.  Must be between 0 and 1 exclusive.
+	 * @param rotationInterval The time in milliseconds after which the current generation is rotated.
+	 */
+	public TxDuplicateFilter(long memoryBudget, double falsePositiveRate, long rotationInterval)
+	{
+		if (memoryBudget < 16 || memoryBudget > MAX_MEMORY_BUDGET)
+			throw new IllegalArgumentException("Memory budget must be between 16 and " + MAX_MEMORY_BUDGET + " bytes");
+
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1 exclusive");
+
+		if (rotationInterval < 1)
+			throw new IllegalArgumentException("Rotation interval must be at least 1");
+
+		this.memoryBudget = memoryBudget;
+		this.falsePositiveRate = falsePositiveRate;
+		this.rotationInterval = rotationInterval;
+		this.duplicates = new LongAdder();
+		this.passed = new LongAdder();
+		this.clock = Clock.systemUTC();
+
+		// each generation gets half of the budget in whole words; the hash count and capacity are the optimum for the error rate
+		bitsPerGeneration = (memoryBudget / 2 / Long.BYTES) * Long.SIZE;
+		hashCount = (int)Math.max(1, Math.round(-Math.log(falsePositiveRate) / LN2));
+		capacity = Math.max(1, (long)(bitsPerGeneration * LN2 * LN2 / -Math.log(falsePositiveRate)));
+
+		current = new Generation(bitsPerGeneration, clock.millis());
+	}
+
+	/**
+	 * Sets the clock used to time the rotation of generations.
+	 * @param clock The clock.
+	 */
+	public void setClock(Clock clock)
+	{
+		if (clock == null)
+			throw new IllegalArgumentException("Clock cannot be null");
+
+		this.clock = clock;
+	}
+
+	/**
+	 * Gets the clock used to time the rotation of generations.
+	 * @return The clock.
+	 */
+	public Clock getClock()
+	{
+		return clock;
+	}
+
+	/**
+	 * Checks if a stanza identity has been seen before and remembers it.
+	 * @param hash The identity hash of the stanza.  A hash of 0 denotes a stanza without an identity, which is never a duplicate.
+	 * @return True if the identity was seen within the remembered generations, otherwise false.
+	 */
+	public boolean isDuplicate(long hash)
+	{
+		if (hash == 0)
+			return false;
+
+		Generation gen = current;
+		if (clock.millis() - gen.started >= rotationInterval)
+			gen = rotate(gen);
+
+		// double hashing with the two halves of the identity hash; the bit count is a multiple of 64, so an odd stride keeps the probes
+		// of a hash from falling on a short cycle
+		final int hash1 = (int)hash;
+		final int hash2 = (int)(hash >>> 32) | 1;
+
+		if (gen.add(hash1, hash2, hashCount))
+		{
+			if (gen.count.incrementAndGet() >= capacity)
+				rotate(gen);
+
+			final Generation prev = previous;
+			if (prev == null || !prev.contains(hash1, hash2, hashCount))
+			{
+				passed.increment();
+				return false;
+			}
+		}
+
+		duplicates.increment();
+		return true;
+	}
+
+	/**
+	 * Forgets all remembered stanza identities.
+	 */
+	public synchronized void clear()
+	{
+		previous = null;
+		current = new Generation(bitsPerGeneration, clock.millis());
+	}
+
+	/**
+	 * Replaces the current generation if it has not already been replaced by another thread.
+	 * @param expected The generation that is due for rotation.
+	 * @return The current generation after rotation.
+	 */
+	protected synchronized Generation rotate(Generation expected)
+	{
+		if (current == expected)
+		{
+			previous = expected;
+			current = new Generation(bitsPerGeneration, clock.millis());
+		}
+
+		return current;
+	}
+
+	/**
+	 * Gets the memory budget of both generations in bytes.
+	 * @return The memory budget.
+	 */
+	public long getMemoryBudget()
+	{
+		return memoryBudget;
+	}
+
+	/**
+	 * Gets the configured false positive rate.
+	 * @return The false positive rate.
+	 */
+	public double getFalsePositiveRate()
+	{
+		return falsePositiveRate;
+	}
+
+	/**
+	 * Gets the time in milliseconds after which the current generation is rotated.
+	 * @return The rotation interval.
+	 */
+	public long getRotationInterval()
+	{
+		return rotationInterval;
+	}
+
+	/**
+	 * Gets the number of bits of each generation.
+	 * @return The number of bits per generation.
+	 */
+	public long getBitsPerGeneration()
+	{
+		return bitsPerGeneration;
+	}
+
+	/**
+	 * Gets the number of bits set for each stanza identity.
+	 * @return The number of hash functions.
+	 */
+	public int getHashCount()
+	{
+		return hashCount;
+	}
+
+	/**
+	 * Gets the number of stanza identities a generation receives before it is rotated early to keep the false positive rate.
+	 * @return The capacity of a generation.
+	 */
+	public long getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of stanzas reported as duplicates.
+	 * @return The number of duplicates.
+	 */
+	public long getDuplicateCount()
+	{
+		return duplicates.sum();
+	}
+
+	/**
+	 * Gets the number of stanzas with an identity that were not reported as duplicates.
+	 * @return The number of passed stanzas.
+	 */
+	public long getPassedCount()
+	{
+		return passed.sum();
+	}
+
+	/**
+	 * A generation of remembered stanza identities.
+	 */
+	protected static class Generation
+	{
+		protected final AtomicLongArray bits;
+
+		protected final long bitCount;
+
+		protected final long started;
+
+		protected final AtomicLong count;
+
+		protected Generation(long bitCount, long started)
+		{
+			this.bits = new AtomicLongArray((int)(bitCount / Long.SIZE));
+			this.bitCount = bitCount;
+			this.started = started;
+			this.count = new AtomicLong();
+		}
+
+		/**
+		 * Sets the bits of an identity.
+		 * @return True if at least one bit was not already set.
+		 */
+		protected boolean add(int hash1, int hash2, int hashCount)
+		{
+			boolean retVal = false;
+			for (int i = 0; i < hashCount; ++i)
+			{
+				final long index = index(hash1, hash2, i);
+				final int word = (int)(index >>> 6);
+				final long mask = 1L << index;
+
+				long value = bits.get(word);
+				while ((value & mask) == 0)
+				{
+					if (bits.compareAndSet(word, value, value | mask))
+					{
+						retVal = true;
+						break;
+					}
+					value = bits.get(word);
+				}
+			}
+
+			return retVal;
+		}
+
+		/**
+		 * Checks if all bits of an identity are set.
+		 */
+		protected boolean contains(int hash1, int hash2, int hashCount)
+		{
+			for (int i = 0; i < hashCount; ++i)
+			{
+				final long index = index(hash1, hash2, i);
+				if ((bits.get((int)(index >>> 6)) & (1L << index)) == 0)
+					return false;
+			}
+
+			return true;
+		}
+
+		private long index(int hash1, int hash2, int i)
+		{
+			return ((hash1 & 0xffffffffL) + i * (hash2 & 0xffffffffL)) % bitCount;
+		}
+	}
+}
@@ -0,0 +1,518 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxRecipientsDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+/**
+ * Collapses the fan out of group chat messages.  A room reflects every group chat message to each of its occupants with the MSG_ID of
+ * the original message, so a single message in a busy room is otherwise recorded as one monitoring object per occupant.
+ * <p>
+ * Messages and chat state messages with a GROUP_CHAT_ROOM and a MSG_ID are held for a short window keyed by room and MSG_ID.  Copies that
+ * arrive within the window are folded into a single monitoring object whose RECIPIENTS detail holds the distinct recipients of all
+ * copies.  The copy that an occupant sent to the room itself supplies the FROM detail, since the reflected copies come from the
+ * occupant JID of the sender; the room is not added as a recipient.  Every other monitoring object, including AMP notifications and
+ * errors, which are answered per recipient, is passed downstream immediately.
+ * <p>
+ * Aggregates are emitted when their window has passed, either when another monitoring object lands in the same segment or when
+ * {@link #expire()} is called, typically from a scheduled executor with {@link #start(ScheduledExecutorService)}.  Aggregates are held
+ * in lock striped segments bounded by a maximum number of pending aggregates; a full segment emits its oldest aggregate early.  The
+ * downstream consumer is called on the calling thread after the segment lock has been released.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxGroupChatAggregator implements Consumer<Tx>
+{
+	/**
+	 * The default time in milliseconds that copies of a group chat message are collected.
+	 */
+	public static final long DEFAULT_WINDOW = 1000;
+
+	/**
+	 * The default maximum number of pending aggregates.
+	 */
+	public static final int DEFAULT_MAX_PENDING = 64 * 1024;
+
+	private static final int SEGMENT_COUNT = 16;
+
+	protected final Consumer<Tx> downstream;
+
+	protected final long window;
+
+	protected final int maxPending;
+
+	protected final Segment[] segments;
+
+	protected final LongAdder collapsed;
+
+	protected final LongAdder emitted;
+
+	protected Clock clock;
+
+	/**
+	 * Constructor.  Creates an aggregator with the default window and maximum size.
+	 * @param downstream The consumer of aggregated and passed through monitoring objects.
+	 */
+	public TxGroupChatAggregator(Consumer<Tx> downstream)
+	{
+		this(downstream, DEFAULT_WINDOW, DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * Constructor
+	 * @param downstream The consumer of aggregated and passed through monitoring objects.
+	 * @param window The time in milliseconds, measured from the first copy, that copies of a group chat message are collected.
+	 * @param maxPending The maximum number of pending aggregates.  The bound is spread evenly across the segments, rounding up to at
+	 * least one aggregate per segment.
+	 */
+	public TxGroupChatAggregator(Consumer<Tx> downstream, long window, int maxPending)
+	{
+		if (downstream == null)
+			throw new IllegalArgumentException("Downstream consumer cannot be null");
+
+		if (window < 1)
+			throw new IllegalArgumentException("Window must be at least 1");
+
+		if (maxPending < 1)
+			throw new IllegalArgumentException("Max pending must be at least 1");
+
+		this.downstream = downstream;
+		this.window = window;
+		this.maxPending = maxPending;
+		this.collapsed = new LongAdder();
+		this.emitted = new LongAdder();
+		this.clock = Clock.systemUTC();
+
+		final int segmentMax = Math.max(1, (maxPending + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; ++i)
+			segments[i] = new Segment(segmentMax, window);
+	}
+
+	/**
+	 * Sets the clock used to time the aggregation window.
+	 * @param clock The clock.
+	 */
+	public void setClock(Clock clock)
+	{
+		if (clock == null)
+			throw new IllegalArgumentException("Clock cannot be null");
+
+		this.clock = clock;
+	}
+
+	/**
+	 * Gets the clock used to time the aggregation window.
+	 * @return The clock.
+	 */
+	public Clock getClock()
+	{
+		return clock;
+	}
+
+	/**
+	 * Submits a monitoring object.  Copies of a group chat message are held for aggregation; all other monitoring objects are passed
+	 * downstream.  The monitoring object may be a reused {@link org.directtruststandards.timplus.monitor.tx.model.MutableTx}, since held
+	 * copies are not referenced after this method returns.
+	 * @param tx The monitoring object.
+	 */
+	@Override
+	public void accept(Tx tx)
+	{
+		if (tx == null)
+			throw new IllegalArgumentException("Tx cannot be null");
+
+		final String room = detailValue(tx, TxDetailType.GROUP_CHAT_ROOM);
+		final String msgId = detailValue(tx, TxDetailType.MSG_ID);
+		if (room == null || room.isEmpty() || msgId == null || msgId.isEmpty() ||
+				(tx.getStanzaType() != TxStanzaType.MESSAGE && tx.getStanzaType() != TxStanzaType.MESSAGE_CHAT_STATE))
+		{
+			downstream.accept(tx);
+			return;
+		}
+
+		final Key key = new Key(room, msgId);
+		final Segment segment = segmentFor(key);
+		final long now = clock.millis();
+
+		List<Tx> ready;
+		boolean folded = false;
+		synchronized (segment)
+		{
+			ready = segment.expire(now, null);
+
+			final Aggregate aggregate = segment.get(key);
+			if (aggregate != null)
+			{
+				aggregate.merge(tx);
+				folded = true;
+			}
+			else
+				ready = segment.insert(key, new Aggregate(now, tx, room), ready);
+		}
+
+		if (folded)
+			collapsed.increment();
+
+		emit(ready);
+	}
+
+	/**
+	 * Emits every aggregate whose window has passed.  This method is expected to be called periodically; segments also emit their
+	 * expired aggregates whenever a monitoring object is held in them.
+	 * @return The number of emitted aggregates.
+	 */
+	public int expire()
+	{
+		final long now = clock.millis();
+
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			final List<Tx> ready;
+			synchronized (segment)
+			{
+				ready = segment.expire(now, null);
+			}
+
+			retVal += emit(ready);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Emits every pending aggregate regardless of its window, for example before shutting down.
+	 * @return The number of emitted aggregates.
+	 */
+	public int flush()
+	{
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			final List<Tx> ready;
+			synchronized (segment)
+			{
+				ready = segment.expire(Long.MAX_VALUE, null);
+			}
+
+			retVal += emit(ready);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Starts emitting expired aggregates on a scheduled executor.  The executor checks for expired aggregates four times per window.
+	 * @param executor The executor that emits expired aggregates.
+	 * @return The future of the scheduled task.  Cancel the future to stop emitting.
+	 */
+	public ScheduledFuture<?> start(ScheduledExecutorService executor)
+	{
+		if (executor == null)
+			throw new IllegalArgumentException("Executor cannot be null");
+
+		final long period = Math.max(1, window / 4);
+
+		return executor.scheduleAtFixedRate(this::expire, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the time that copies of a group chat message are collected.
+	 * @return The window in milliseconds.
+	 */
+	public long getWindow()
+	{
+		return window;
+	}
+
+	/**
+	 * Gets the maximum number of pending aggregates.
+	 * @return The maximum number of pending aggregates.
+	 */
+	public int getMaxPending()
+	{
+		return maxPending;
+	}
+
+	/**
+	 * Gets the number of copies that were folded into an existing aggregate instead of being passed downstream.
+	 * @return The collapsed count.
+	 */
+	public long getCollapsedCount()
+	{
+		return collapsed.sum();
+	}
+
+	/**
+	 * Gets the number of aggregates that were emitted downstream.
+	 * @return The emitted count.
+	 */
+	public long getEmittedCount()
+	{
+		return emitted.sum();
+	}
+
+	/**
+	 * Gets the number of pending aggregates.
+	 * @return The number of aggregates waiting for their window to pass.
+	 */
+	public int size()
+	{
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				retVal += segment.size();
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Gets the segment that holds a given aggregate.
+	 * @param key The room and MSG_ID of the aggregate.
+	 * @return The segment for the key.
+	 */
+	protected Segment segmentFor(Key key)
+	{
+		final int hash = key.hashCode();
+
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+	}
+
+	/**
+	 * Passes aggregates downstream.  Must not be called while holding a segment lock.
+	 * @param ready The aggregates or null if there are none.
+	 * @return The number of emitted aggregates.
+	 */
+	protected int emit(List<Tx> ready)
+	{
+		if (ready == null)
+			return 0;
+
+		for (Tx tx : ready)
+		{
+			emitted.increment();
+			downstream.accept(tx);
+		}
+
+		return ready.size();
+	}
+
+	private static String detailValue(Tx tx, TxDetailType detailType)
+	{
+		final TxDetail detail = tx.getDetail(detailType);
+
+		return (detail == null) ? null : detail.getDetailValue();
+	}
+
+	private static String toBareJid(String jid)
+	{
+		final int slash = jid.indexOf('/');
+
+		return (slash < 0) ? jid : jid.substring(0, slash);
+	}
+
+	/**
+	 * The room and MSG_ID of a group chat message.
+	 */
+	protected static class Key
+	{
+		protected final String room;
+
+		protected final String msgId;
+
+		protected final int hash;
+
+		protected Key(String room, String msgId)
+		{
+			this.room = room;
+			this.msgId = msgId;
+			this.hash = 31 * room.hashCode() + msgId.hashCode();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+
+			if (!(obj instanceof Key))
+				return false;
+
+			final Key other = (Key)obj;
+
+			return hash == other.hash && msgId.equals(other.msgId) && room.equals(other.room);
+		}
+	}
+
+	/**
+	 * The copies of a group chat message collected so far.  Only the details of the first copy, the sender, and the recipients are
+	 * kept; the copies themselves are not referenced.
+	 */
+	protected static class Aggregate
+	{
+		protected final long created;
+
+		protected final TxStanzaType stanzaType;
+
+		protected final Map<TxDetailType, TxDetail> details;
+
+		protected final Set<String> recipients;
+
+		protected final String room;
+
+		protected Aggregate(long created, Tx first, String room)
+		{
+			this.created = created;
+			this.stanzaType = first.getStanzaType();
+			this.room = room;
+			this.recipients = new LinkedHashSet<>();
+
+			// copy the details, as the first copy may be a reused MutableTx
+			details = new Tx().getDetails();
+			for (TxDetail detail : first.getDetails().values())
+				if (detail.getDetailType() != TxDetailType.RECIPIENTS)
+					details.put(detail.getDetailType(), new TxDetail(detail.getDetailType(), detail.getDetailValue()));
+
+			merge(first);
+		}
+
+		/**
+		 * Folds a copy of the message into the aggregate.
+		 * @param copy The copy.
+		 */
+		protected void merge(Tx copy)
+		{
+			for (String recipient : copy.getRecipients())
+			{
+				if (room.equals(toBareJid(recipient)))
+				{
+					// the copy sent to the room carries the real JID of the sender
+					final String from = detailValue(copy, TxDetailType.FROM);
+					if (from != null)
+						details.put(TxDetailType.FROM, new TxDetail(TxDetailType.FROM, from));
+				}
+				else
+					recipients.add(recipient);
+			}
+		}
+
+		/**
+		 * Creates the monitoring object of the aggregate.
+		 * @return The collapsed monitoring object.
+		 */
+		protected Tx toTx()
+		{
+			final Tx retVal = new Tx();
+			retVal.setStanzaType(stanzaType);
+			retVal.getDetails().putAll(details);
+
+			retVal.getDetails().put(TxDetailType.RECIPIENTS, TxRecipientsDetail.valueOf(recipients.isEmpty() ?
+					Collections.singletonList(room) : recipients));
+
+			return retVal;
+		}
+	}
+
+	/**
+	 * Insertion ordered segment of pending aggregates.  Entries are never reordered, so the eldest entry is always the oldest.  Access
+	 * must be synchronized on the segment.  Aggregates that are ready are returned so that they can be emitted after the lock is
+	 * released.
+	 */
+	protected static class Segment extends LinkedHashMap<Key, Aggregate>
+	{
+		private static final long serialVersionUID = 2470160958711650274L;
+
+		protected final int segmentMax;
+
+		protected final long window;
+
+		protected Segment(int segmentMax, long window)
+		{
+			super(16, 0.75f, false);
+
+			this.segmentMax = segmentMax;
+			this.window = window;
+		}
+
+		/**
+		 * Adds a new aggregate.  A full segment emits its oldest aggregate early.
+		 * @param key The room and MSG_ID of the aggregate.
+		 * @param aggregate The aggregate.
+		 * @param ready The aggregates that are already ready, or null.
+		 * @return The aggregates that are ready to be emitted, or null if there are none.
+		 */
+		protected List<Tx> insert(Key key, Aggregate aggregate, List<Tx> ready)
+		{
+			if (size() >= segmentMax)
+			{
+				final Iterator<Aggregate> iter = values().iterator();
+				ready = add(ready, iter.next().toTx());
+				iter.remove();
+			}
+
+			put(key, aggregate);
+
+			return ready;
+		}
+
+		/**
+		 * Removes the aggregates whose window has passed.
+		 * @param now The current time.
+		 * @param ready The aggregates that are already ready, or null.
+		 * @return The aggregates that are ready to be emitted, or null if there are none.
+		 */
+		protected List<Tx> expire(long now, List<Tx> ready)
+		{
+			final Iterator<Aggregate> iter = values().iterator();
+			while (iter.hasNext())
+			{
+				final Aggregate aggregate = iter.next();
+				if (now - aggregate.created < window)
+					break;
+
+				ready = add(ready, aggregate.toTx());
+				iter.remove();
+			}
+
+			return ready;
+		}
+
+		private static List<Tx> add(List<Tx> ready, Tx tx)
+		{
+			if (ready == null)
+				ready = new ArrayList<>();
+
+			ready.add(tx);
+
+			return ready;
+		}
+	}
+}
@@ -0,0 +1,407 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Reactive streams processor that parses raw stanzas published upstream into monitoring objects published downstream.  Stanzas are
+ * parsed concurrently on an executor, but monitoring objects are emitted in the order the stanzas were received.
+ * <p>
+ * The processor never holds more than a fixed window of stanzas at once.  It requests the window from upstream once a downstream
+ * subscriber is present and afterwards only requests one stanza for each stanza that leaves the window, so a slow downstream
+ * subscriber or a backlog of parsing work pushes back on the publisher instead of growing an unbounded queue.  Stanzas that cannot be
+ * parsed are dropped.
+ * <p>
+ * When an admission controller is supplied, each stanza is pre-classified on the publishing thread and stanzas that the controller
+ * sheds are dropped without being parsed.  Shed stanzas still pass through the window in order, so they are replenished from upstream
+ * like any other stanza.  The queue depth and latency reported to the controller cover the parse tasks of the processor.
+ * <p>
+ * The processor supports a single downstream subscriber.
+ * @param <T> The raw stanza type.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxParseProcessor<T> implements Processor<T, Tx>, Subscription
+{
+	protected final Function<T, Tx> parseFunction;
+
+	protected final Function<T, TxStanzaType> classifyFunction;
+
+	protected final TxAdmissionController admissionController;
+
+	protected final Executor executor;
+
+	protected final int maxInFlight;
+
+	protected final Queue<CompletableFuture<Tx>> window;
+
+	protected final AtomicInteger wip;
+
+	protected final AtomicLong requested;
+
+	protected final AtomicBoolean started;
+
+	protected volatile Subscription upstream;
+
+	protected volatile Subscriber<? super Tx> downstream;
+
+	protected volatile boolean upstreamDone;
+
+	protected volatile Throwable error;
+
+	protected volatile boolean cancelled;
+
+	protected boolean terminated;
+
+	/**
+	 * Constructor
+	 * @param parseFunction The function that parses a raw stanza.  The function returns null for stanzas that cannot be parsed.
+	 * @param executor The executor that parsing is performed on.
+	 * @param maxInFlight The maximum number of stanzas that are requested from upstream but not yet emitted downstream.
+	 */
+	public TxParseProcessor(Function<T, Tx> parseFunction, Executor executor, int maxInFlight)
+	{
+		this(parseFunction, null, null, executor, maxInFlight);
+	}
+
+	/**
+	 * Constructor
+	 * @param parseFunction The function that parses a raw stanza.  The function returns null for stanzas that cannot be parsed.
+	 * @param classifyFunction The function that cheaply pre-classifies a raw stanza for admission control.  The function returns null
+	 * for stanzas that cannot be classified without a full parse.  May be null if no admission controller is supplied.
+	 * @param admissionController The controller that decides which stanzas are parsed, or null to parse every stanza.
+	 * @param executor The executor that parsing is performed on.
+	 * @param maxInFlight The maximum number of stanzas that are requested from upstream but not yet emitted downstream.
+	 */
+	public TxParseProcessor(Function<T, Tx> parseFunction, Function<T, TxStanzaType> classifyFunction,
+			TxAdmissionController admissionController, Executor executor, int maxInFlight)
+	{
+		if (parseFunction == null)
+			throw new IllegalArgumentException("Parse function cannot be null");
+
+		if (admissionController != null && classifyFunction == null)
+			throw new IllegalArgumentException("Classify function cannot be null when an admission controller is supplied");
+
+		if (executor == null)
+			throw new IllegalArgumentException("Executor cannot be null");
+
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("Max in flight must be at least 1");
+
+		this.parseFunction = parseFunction;
+		this.classifyFunction = classifyFunction;
+		this.admissionController = admissionController;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.window = new ConcurrentLinkedQueue<>();
+		this.wip = new AtomicInteger();
+		this.requested = new AtomicLong();
+		this.started = new AtomicBoolean();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void subscribe(Subscriber<? super Tx> subscriber)
+	{
+		if (subscriber == null)
+			throw new NullPointerException("Subscriber cannot be null");
+
+		synchronized (this)
+		{
+			if (downstream != null)
+			{
+				subscriber.onSubscribe(new Subscription()
+				{
+					@Override
+					public void request(long n) {}
+
+					@Override
+					public void cancel() {}
+				});
+				subscriber.onError(new IllegalStateException("Processor supports only a single subscriber"));
+				return;
+			}
+
+			downstream = subscriber;
+		}
+
+		subscriber.onSubscribe(this);
+
+		start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onSubscribe(Subscription subscription)
+	{
+		if (subscription == null)
+			throw new NullPointerException("Subscription cannot be null");
+
+		if (upstream != null)
+		{
+			subscription.cancel();
+			return;
+		}
+
+		upstream = subscription;
+
+		if (cancelled)
+			subscription.cancel();
+		else
+			start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onNext(T stanza)
+	{
+		if (stanza == null)
+			throw new NullPointerException("Stanza cannot be null");
+
+		if (cancelled)
+			return;
+
+		CompletableFuture<Tx> future;
+		if (admissionController == null)
+		{
+			try
+			{
+				future = CompletableFuture.supplyAsync(() -> parseFunction.apply(stanza), executor);
+			}
+			catch (RejectedExecutionException e)
+			{
+				future = rejected(e);
+			}
+		}
+		else if (admissionController.admit(classifyFunction.apply(stanza)))
+		{
+			final long enteredAt = admissionController.enter();
+			try
+			{
+				future = CompletableFuture.supplyAsync(() ->
+				{
+					try
+					{
+						return parseFunction.apply(stanza);
+					}
+					finally
+					{
+						admissionController.exit(enteredAt);
+					}
+				}, executor);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the task that exits the controller never runs
+				admissionController.exit(enteredAt);
+				future = rejected(e);
+			}
+		}
+		else
+			// a shed stanza is emitted as an unparseable stanza
+			future = CompletableFuture.completedFuture(null);
+
+		window.offer(future);
+
+		future.whenComplete((tx, e) -> drain());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onError(Throwable throwable)
+	{
+		if (throwable == null)
+			throw new NullPointerException("Throwable cannot be null");
+
+		error = throwable;
+		upstreamDone = true;
+
+		drain();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onComplete()
+	{
+		upstreamDone = true;
+
+		drain();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void request(long n)
+	{
+		if (n <= 0)
+		{
+			error = new IllegalArgumentException("Requested amount must be positive (rule 3.9)");
+			upstreamDone = true;
+			window.clear();
+			cancelUpstream();
+		}
+		else
+		{
+			long current;
+			long next;
+			do
+			{
+				current = requested.get();
+				next = (current + n < 0) ? Long.MAX_VALUE : current + n;
+			}
+			while (!requested.compareAndSet(current, next));
+		}
+
+		drain();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void cancel()
+	{
+		cancelled = true;
+
+		cancelUpstream();
+
+		drain();
+	}
+
+	/**
+	 * Requests the initial window from upstream once both the upstream subscription and the downstream subscriber are present.
+	 */
+	protected void start()
+	{
+		if (upstream != null && downstream != null && started.compareAndSet(false, true))
+			upstream.request(maxInFlight);
+	}
+
+	/**
+	 * Emits parsed monitoring objects downstream in order while there is demand, and replenishes the window from upstream.  Emission
+	 * is serialized; concurrent callers only mark that another pass is needed.
+	 */
+	protected void drain()
+	{
+		if (wip.getAndIncrement() != 0)
+			return;
+
+		int missed = 1;
+		do
+		{
+			if (terminated)
+				return;
+
+			if (cancelled)
+			{
+				window.clear();
+				terminated = true;
+				return;
+			}
+
+			final Subscriber<? super Tx> subscriber = downstream;
+			if (subscriber != null)
+			{
+				final long demand = requested.get();
+				long emitted = 0;
+				long released = 0;
+
+				while (emitted != demand && !cancelled)
+				{
+					final CompletableFuture<Tx> head = window.peek();
+					if (head == null || !head.isDone())
+						break;
+
+					window.poll();
+					++released;
+
+					final Tx tx;
+					try
+					{
+						tx = head.join();
+					}
+					catch (Exception e)
+					{
+						// the executor rejected or failed the parse task
+						terminated = true;
+						window.clear();
+						cancelUpstream();
+						subscriber.onError(e.getCause() == null ? e : e.getCause());
+						return;
+					}
+
+					if (tx != null)
+					{
+						subscriber.onNext(tx);
+						++emitted;
+					}
+				}
+
+				if (emitted != 0 && demand != Long.MAX_VALUE)
+					requested.addAndGet(-emitted);
+
+				if (upstreamDone && window.isEmpty() && !cancelled)
+				{
+					terminated = true;
+					if (error != null)
+						subscriber.onError(error);
+					else
+						subscriber.onComplete();
+
+					return;
+				}
+
+				if (released != 0 && !upstreamDone && !cancelled)
+					upstream.request(released);
+			}
+
+			missed = wip.addAndGet(-missed);
+		}
+		while (missed != 0);
+	}
+
+	/**
+	 * Creates the future of a stanza whose parse task was rejected by the executor.  The rejection is signaled downstream in order
+	 * instead of being thrown to the publisher.
+	 * @param e The rejection.
+	 * @return A future completed exceptionally with the rejection.
+	 */
+	protected CompletableFuture<Tx> rejected(RejectedExecutionException e)
+	{
+		final CompletableFuture<Tx> retVal = new CompletableFuture<>();
+		retVal.completeExceptionally(e);
+
+		return retVal;
+	}
+
+	private void cancelUpstream()
+	{
+		final Subscription subscription = upstream;
+		if (subscription != null)
+			subscription.cancel();
+	}
+}
@@ -0,0 +1,782 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.directtruststandards.timplus.monitor.util.XmlCharsetUtils;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smackx.amp.AMPDeliverCondition;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.jivesoftware.smackx.chatstates.ChatState;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+
+/**
+ * Determines the monitoring stanza type of a raw stanza by scanning its markup without building a parser or decoding any text.  Only
+ * tags are examined; text content is skipped with a plain character search.
+ * <p>
+ * The scan stops at the first decisive element, such as the error element of a stanza, or at the end tag of the stanza.  Whenever
+ * the markup is ambiguous, for example namespace prefixes, language tagged bodies, entity references in relevant attributes, or
+ * stanzas longer than the maximum scan length, the scan gives up and returns null so that the caller can fall back to a full parse.
+ * The stanza types decided by the scan match those of the {@link DefaultTxParser}.  The part of a stanza after the decisive element
+ * is not checked for well formedness.
+ * <p>
+ * The classifier holds no per stanza state and is safe to share across threads.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxStanzaClassifier
+{
+	/**
+	 * The default maximum number of characters that are scanned.
+	 */
+	public static final int DEFAULT_MAX_SCAN_LENGTH = 64 * 1024;
+
+	private static final String ERROR_ELEMENT = StanzaError.ERROR;
+
+	private static final String RULE_ELEMENT = "rule";
+
+	private static final String XMLNS_ATTRIBUTE = "xmlns";
+
+	private static final String LANG_ATTRIBUTE = "xml:lang";
+
+	protected int maxScanLength;
+
+	public TxStanzaClassifier()
+	{
+		maxScanLength = DEFAULT_MAX_SCAN_LENGTH;
+	}
+
+	/**
+	 * Sets the maximum number of characters that are scanned.  Stanzas that cannot be classified within this length are left to the
+	 * full parser.
+	 * @param maxScanLength The maximum scan length.
+	 */
+	public void setMaxScanLength(int maxScanLength)
+	{
+		if (maxScanLength < 1)
+			throw new IllegalArgumentException("Max scan length must be at least 1");
+
+		this.maxScanLength = maxScanLength;
+	}
+
+	/**
+	 * Gets the maximum number of characters that are scanned.
+	 * @return The maximum scan length.
+	 */
+	public int getMaxScanLength()
+	{
+		return maxScanLength;
+	}
+
+	/**
+	 * Classifies a raw stanza held in a character sequence.
+	 * @param stanza The raw stanza.
+	 * @return The stanza type or null if the stanza cannot be classified without a full parse.
+	 */
+	public TxStanzaType classify(CharSequence stanza)
+	{
+		return classify(new Scanner(stanza, Math.min(stanza.length(), maxScanLength)));
+	}
+
+	/**
+	 * Classifies the raw stanza held in the remaining bytes of a buffer.  Only stanzas in ASCII compatible encodings are scanned.  The
+	 * position of the buffer is not modified.
+	 * @param stanza The buffer containing the raw stanza.
+	 * @return The stanza type or null if the stanza cannot be classified without a full parse.
+	 */
+	public TxStanzaType classify(ByteBuffer stanza)
+	{
+		final Charset charset = XmlCharsetUtils.detectCharset(stanza);
+		if (!(StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset)))
+			return null;
+
+		return classify(new ByteSequence(stanza));
+	}
+
+	/**
+	 * Computes a hash of the identity of a raw stanza held in a character sequence.  Only the start tag of the stanza is read: the
+	 * identity is the stanza element name and the raw values of its type, id, from, and to attributes.  Copies of a stanza that are
+	 * captured at several points of its route have the same identity hash as long as their stanza attributes are unchanged.
+	 * @param stanza The raw stanza.
+	 * @return The identity hash, or 0 if the stanza has no id or its start tag is not found within the scan length.
+	 */
+	public long identityHash(CharSequence stanza)
+	{
+		return identityHash(new Scanner(stanza, Math.min(stanza.length(), maxScanLength)));
+	}
+
+	/**
+	 * Computes a hash of the identity of the raw stanza held in the remaining bytes of a buffer.  Only stanzas in ASCII compatible
+	 * encodings are scanned.  The position of the buffer is not modified.
+	 * @param stanza The buffer containing the raw stanza.
+	 * @return The identity hash, or 0 if the stanza is not scanned, has no id, or its start tag is not found within the scan length.
+	 */
+	public long identityHash(ByteBuffer stanza)
+	{
+		final Charset charset = XmlCharsetUtils.detectCharset(stanza);
+		if (!(StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset)))
+			return 0;
+
+		return identityHash(new Scanner(new ByteSequence(stanza), Math.min(stanza.remaining(), maxScanLength)));
+	}
+
+	/**
+	 * Hashes the start tag of a stanza.
+	 * @param scanner The scanner over the stanza.
+	 * @return The identity hash or 0.
+	 */
+	protected long identityHash(Scanner scanner)
+	{
+		// find the stanza element
+		int tag;
+		do
+		{
+			tag = scanner.nextTag();
+			if (tag == Scanner.NONE || tag == Scanner.END)
+				return 0;
+		}
+		while (tag == Scanner.OTHER);
+
+		if (scanner.attributeStart("id") < 0)
+			return 0;
+
+		long retVal = scanner.hashName(Scanner.HASH_SEED);
+		retVal = scanner.hashAttribute("type", retVal);
+		retVal = scanner.hashAttribute("id", retVal);
+		retVal = scanner.hashAttribute("from", retVal);
+		retVal = scanner.hashAttribute("to", retVal);
+
+		// 0 is reserved for stanzas without an identity
+		retVal = Scanner.finishHash(retVal);
+
+		return (retVal == 0) ? 1 : retVal;
+	}
+
+	/**
+	 * Scans a stanza to its first decisive element.
+	 * @param scanner The scanner over the stanza.
+	 * @return The stanza type or null if the stanza is ambiguous.
+	 */
+	protected TxStanzaType classify(Scanner scanner)
+	{
+		// find the stanza element
+		int tag;
+		do
+		{
+			tag = scanner.nextTag();
+			if (tag == Scanner.NONE || tag == Scanner.END)
+				return null;
+		}
+		while (tag == Scanner.OTHER);
+
+		final boolean isMessage = scanner.nameEquals(Message.ELEMENT);
+		final boolean isIQ = !isMessage && scanner.nameEquals(IQ.IQ_ELEMENT);
+		if (!(isMessage || isIQ || scanner.nameEquals(Presence.ELEMENT)))
+			return null;
+
+		// an invalid type attribute fails the full parse
+		final String type = scanner.attributeValue("type");
+		if (!isValidType(isMessage, isIQ, type))
+			return null;
+
+		final boolean errorType = IQ.Type.error.name().equals(type);
+
+		boolean bodyResolved = false;
+		boolean bodyFound = false;
+		boolean chatStateFound = false;
+		boolean ampResolved = false;
+		boolean ampFound = false;
+
+		int depth = (tag == Scanner.EMPTY) ? 0 : 1;
+		while (depth > 0)
+		{
+			tag = scanner.nextTag();
+			if (tag == Scanner.NONE)
+				return null;
+			else if (tag == Scanner.END)
+				--depth;
+			else if (tag != Scanner.OTHER)
+			{
+				if (depth == 1)
+				{
+					// the namespace of prefixed elements is not tracked
+					if (scanner.namePrefixed())
+						return null;
+
+					if (scanner.nameEquals(ERROR_ELEMENT))
+					{
+						// an error element is decisive as long as it contains a valid condition
+						if (tag == Scanner.EMPTY || !readErrorCondition(scanner) || scanner.ambiguous)
+							return null;
+
+						return isMessage ? TxStanzaType.MESSAGE_ERROR : isIQ ? TxStanzaType.IQ_ERROR : TxStanzaType.PRESENSE_ERROR;
+					}
+					else if (isMessage && scanner.nameEquals(Message.BODY))
+					{
+						// a language on the body requires matching it with the language of the stanza
+						if (bodyResolved || scanner.attributeValue(LANG_ATTRIBUTE) != null)
+							return null;
+
+						bodyResolved = true;
+						if (tag == Scanner.START)
+						{
+							// markup within the body such as CDATA hides whether the body is empty
+							final int content = scanner.contentStart();
+							if (content == Scanner.NONE || content == Scanner.OTHER)
+								return null;
+
+							bodyFound = (content == Scanner.START);
+						}
+					}
+					else if (isMessage && scanner.attributeEquals(XMLNS_ATTRIBUTE, ChatStateExtension.NAMESPACE))
+					{
+						chatStateFound |= isChatState(scanner);
+					}
+					else if (isMessage && scanner.nameEquals(AMPExtension.ELEMENT) && scanner.attributeEquals(XMLNS_ATTRIBUTE, AMPExtension.NAMESPACE))
+					{
+						if (ampResolved)
+							return null;
+
+						ampResolved = true;
+						if (tag == Scanner.START)
+						{
+							ampFound = readAMP(scanner);
+							continue;
+						}
+					}
+				}
+
+				if (tag == Scanner.START)
+					++depth;
+			}
+		}
+
+		if (scanner.ambiguous)
+			return null;
+
+		if (isMessage)
+		{
+			if (ampFound)
+				return TxStanzaType.AMP;
+
+			return (chatStateFound && !bodyFound) ? TxStanzaType.MESSAGE_CHAT_STATE : TxStanzaType.MESSAGE;
+		}
+		else if (isIQ)
+		{
+			// an error IQ without an error element fails the full parse
+			return errorType ? null : TxStanzaType.IQ;
+		}
+		else
+			return TxStanzaType.PRESENSE;
+	}
+
+	/**
+	 * Reads the content of an error element up to its condition.
+	 * @param scanner The scanner positioned on the start tag of the error element.
+	 * @return True if the error element contains a valid condition.
+	 */
+	protected boolean readErrorCondition(Scanner scanner)
+	{
+		int depth = 1;
+		while (depth > 0)
+		{
+			final int tag = scanner.nextTag();
+			if (tag == Scanner.NONE)
+				return false;
+			else if (tag == Scanner.END)
+				--depth;
+			else if (tag != Scanner.OTHER)
+			{
+				if (depth == 1 && scanner.attributeEquals(XMLNS_ATTRIBUTE, StanzaError.ERROR_CONDITION_AND_TEXT_NAMESPACE) &&
+						!scanner.nameEquals(Stanza.TEXT))
+				{
+					try
+					{
+						StanzaError.Condition.fromString(scanner.name());
+						return true;
+					}
+					catch (Exception e)
+					{
+						return false;
+					}
+				}
+
+				if (tag == Scanner.START)
+					++depth;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads an AMP element through its end tag.
+	 * @param scanner The scanner positioned on the start tag of the AMP element.
+	 * @return True if the AMP element has the notify status and contains a notify on deliver rule.
+	 */
+	protected boolean readAMP(Scanner scanner)
+	{
+		// TIM+ message delivery falls under the status of "notify"
+		final boolean notify = scanner.attributeEquals("status", AMPExtension.Status.notify.name());
+
+		boolean retVal = false;
+		int depth = 1;
+		while (depth > 0)
+		{
+			final int tag = scanner.nextTag();
+			if (tag == Scanner.NONE)
+				return false;
+			else if (tag == Scanner.END)
+				--depth;
+			else if (tag != Scanner.OTHER)
+			{
+				// TIM+ message delivery uses the "action" of "notify" and the "condition" of "deliver"
+				if (notify && depth == 1 && scanner.nameEquals(RULE_ELEMENT) && scanner.attributeEquals("action", AMPExtension.Action.notify.name()) &&
+						scanner.attributeEquals("condition", AMPDeliverCondition.NAME))
+				{
+					final String value = scanner.attributeValue("value");
+					for (AMPDeliverCondition.Value deliverValue : AMPDeliverCondition.Value.values())
+						retVal |= deliverValue.name().equals(value);
+				}
+
+				if (tag == Scanner.START)
+					++depth;
+			}
+		}
+
+		return retVal;
+	}
+
+	private static boolean isChatState(Scanner scanner)
+	{
+		for (ChatState state : ChatState.values())
+			if (scanner.nameEquals(state.name()))
+				return true;
+
+		return false;
+	}
+
+	private static boolean isValidType(boolean isMessage, boolean isIQ, String type)
+	{
+		try
+		{
+			if (isMessage)
+			{
+				if (type != null)
+					Message.Type.fromString(type);
+			}
+			else if (isIQ)
+				IQ.Type.fromString(type);
+			else if (type != null && !type.isEmpty())
+				Presence.Type.fromString(type);
+
+			return true;
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Forward only scanner over the tags of a stanza.  Tag names and attributes are compared in place.
+	 */
+	protected static class Scanner
+	{
+		/**
+		 * No further complete tag within the scan length.
+		 */
+		public static final int NONE = -1;
+
+		/**
+		 * A start tag.
+		 */
+		public static final int START = 0;
+
+		/**
+		 * A self closing tag.
+		 */
+		public static final int EMPTY = 1;
+
+		/**
+		 * An end tag.
+		 */
+		public static final int END = 2;
+
+		/**
+		 * A processing instruction, comment, CDATA section, or declaration.
+		 */
+		public static final int OTHER = 3;
+
+		/**
+		 * The offset basis of the identity hash.
+		 */
+		protected static final long HASH_SEED = 0xcbf29ce484222325L;
+
+		private static final long HASH_PRIME = 0x100000001b3L;
+
+		private static final int FIELD_MARK = 0x10000;
+
+		private static final int ABSENT_MARK = 0x10001;
+
+		protected final CharSequence stanza;
+
+		protected final int limit;
+
+		protected int pos;
+
+		protected int nameStart;
+
+		protected int nameEnd;
+
+		protected int tagEnd;
+
+		/**
+		 * Set if an attribute value that was read contains an entity reference.
+		 */
+		protected boolean ambiguous;
+
+		protected Scanner(CharSequence stanza, int limit)
+		{
+			this.stanza = stanza;
+			this.limit = limit;
+		}
+
+		/**
+		 * Moves to the next tag.
+		 * @return The kind of tag or NONE.
+		 */
+		protected int nextTag()
+		{
+			final int tagStart = indexOf('<', pos);
+			if (tagStart < 0 || tagStart + 1 >= limit)
+				return NONE;
+
+			final char next = stanza.charAt(tagStart + 1);
+			int kind;
+			if (next == '?')
+			{
+				tagEnd = indexOf("?>", tagStart + 2);
+				kind = OTHER;
+			}
+			else if (next == '!')
+			{
+				if (startsWith("<!--", tagStart))
+					tagEnd = indexOf("-->", tagStart + 4);
+				else if (startsWith("<![CDATA[", tagStart))
+					tagEnd = indexOf("]]>", tagStart + 9);
+				else
+					tagEnd = indexOf('>', tagStart + 2);
+
+				kind = OTHER;
+			}
+			else
+			{
+				nameStart = (next == '/') ? tagStart + 2 : tagStart + 1;
+				nameEnd = nameStart;
+				while (nameEnd < limit && !isNameEnd(stanza.charAt(nameEnd)))
+					++nameEnd;
+
+				tagEnd = indexOfTagEnd(nameEnd);
+				kind = (next == '/') ? END : (tagEnd > 0 && stanza.charAt(tagEnd - 1) == '/') ? EMPTY : START;
+			}
+
+			if (tagEnd < 0)
+				return NONE;
+
+			pos = tagEnd + 1;
+
+			return kind;
+		}
+
+		/**
+		 * Determines what follows the current start tag.
+		 * @return START if text follows the tag, END if the end tag immediately follows, OTHER for any other markup, or NONE if
+		 * the content is beyond the scan length.
+		 */
+		protected int contentStart()
+		{
+			if (pos >= limit)
+				return NONE;
+
+			if (stanza.charAt(pos) != '<')
+				return START;
+
+			return (pos + 1 < limit && stanza.charAt(pos + 1) == '/') ? END : OTHER;
+		}
+
+		/**
+		 * Gets the name of the current tag.
+		 * @return The tag name.
+		 */
+		protected String name()
+		{
+			return stanza.subSequence(nameStart, nameEnd).toString();
+		}
+
+		/**
+		 * Determines if the name of the current tag has a namespace prefix.
+		 * @return True if the name is prefixed.
+		 */
+		protected boolean namePrefixed()
+		{
+			for (int i = nameStart; i < nameEnd; ++i)
+				if (stanza.charAt(i) == ':')
+					return true;
+
+			return false;
+		}
+
+		/**
+		 * Determines if the current tag has a given name.
+		 * @param name The name.
+		 * @return True if the tag has the name.
+		 */
+		protected boolean nameEquals(String name)
+		{
+			return regionEquals(nameStart, nameEnd, name);
+		}
+
+		/**
+		 * Determines if an attribute of the current tag has a given value.
+		 * @param name The attribute name.
+		 * @param value The expected value.
+		 * @return True if the attribute is present with the value.
+		 */
+		protected boolean attributeEquals(String name, String value)
+		{
+			final int valueStart = attributeStart(name);
+			if (valueStart < 0)
+				return false;
+
+			final int valueEnd = indexOf(stanza.charAt(valueStart - 1), valueStart);
+
+			return regionEquals(valueStart, valueEnd, value);
+		}
+
+		/**
+		 * Gets the value of an attribute of the current tag.
+		 * @param name The attribute name.
+		 * @return The raw attribute value or null if the attribute is not present.
+		 */
+		protected String attributeValue(String name)
+		{
+			final int valueStart = attributeStart(name);
+			if (valueStart < 0)
+				return null;
+
+			final int valueEnd = indexOf(stanza.charAt(valueStart - 1), valueStart);
+
+			return stanza.subSequence(valueStart, valueEnd).toString();
+		}
+
+		/**
+		 * Folds the name of the current tag into a hash.
+		 * @param hash The hash so far.
+		 * @return The updated hash.
+		 */
+		protected long hashName(long hash)
+		{
+			return hashRegion(hash, nameStart, nameEnd);
+		}
+
+		/**
+		 * Folds the raw value of an attribute of the current tag into a hash.  A missing attribute hashes differently from an empty one.
+		 * @param name The attribute name.
+		 * @param hash The hash so far.
+		 * @return The updated hash.
+		 */
+		protected long hashAttribute(String name, long hash)
+		{
+			final int valueStart = attributeStart(name);
+			if (valueStart < 0)
+				return (hash ^ ABSENT_MARK) * HASH_PRIME;
+
+			return hashRegion(hash, valueStart, indexOf(stanza.charAt(valueStart - 1), valueStart));
+		}
+
+		private long hashRegion(long hash, int start, int end)
+		{
+			// FNV-1a over the characters, terminated by a value outside of the char range so that adjacent fields do not run together
+			for (int i = start; i < end; ++i)
+				hash = (hash ^ stanza.charAt(i)) * HASH_PRIME;
+
+			return (hash ^ FIELD_MARK) * HASH_PRIME;
+		}
+
+		/**
+		 * Spreads the bits of an FNV hash so that both of its halves can be used as independent hashes.
+		 * @param hash The FNV hash.
+		 * @return The final hash.
+		 */
+		protected static long finishHash(long hash)
+		{
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+			hash *= 0xc4ceb9fe1a85ec53L;
+			hash ^= hash >>> 33;
+
+			return hash;
+		}
+
+		private int attributeStart(String name)
+		{
+			int i = nameEnd;
+			while (i < tagEnd)
+			{
+				while (i < tagEnd && isNameEnd(stanza.charAt(i)))
+					++i;
+
+				final int attrStart = i;
+				while (i < tagEnd && stanza.charAt(i) != '=' && !isNameEnd(stanza.charAt(i)))
+					++i;
+
+				final int attrEnd = i;
+				while (i < tagEnd && (stanza.charAt(i) == '=' || Character.isWhitespace(stanza.charAt(i))))
+					++i;
+
+				if (i >= tagEnd)
+					return -1;
+
+				final char quote = stanza.charAt(i);
+				final int valueStart = i + 1;
+				final int valueEnd = indexOf(quote, valueStart);
+				if (valueEnd < 0 || valueEnd > tagEnd)
+					return -1;
+
+				if (regionEquals(attrStart, attrEnd, name))
+				{
+					// entity references are not resolved
+					for (int j = valueStart; j < valueEnd; ++j)
+						ambiguous |= stanza.charAt(j) == '&';
+
+					return valueStart;
+				}
+
+				i = valueEnd + 1;
+			}
+
+			return -1;
+		}
+
+		private int indexOfTagEnd(int from)
+		{
+			char quote = 0;
+			for (int i = from; i < limit; ++i)
+			{
+				final char c = stanza.charAt(i);
+				if (quote != 0)
+				{
+					if (c == quote)
+						quote = 0;
+				}
+				else if (c == '\'' || c == '"')
+					quote = c;
+				else if (c == '>')
+					return i;
+			}
+
+			return -1;
+		}
+
+		private int indexOf(char match, int from)
+		{
+			for (int i = from; i < limit; ++i)
+				if (stanza.charAt(i) == match)
+					return i;
+
+			return -1;
+		}
+
+		private int indexOf(String match, int from)
+		{
+			for (int i = from; i <= limit - match.length(); ++i)
+				if (startsWith(match, i))
+					return i + match.length() - 1;
+
+			return -1;
+		}
+
+		private boolean startsWith(String match, int from)
+		{
+			return from + match.length() <= limit && regionEquals(from, from + match.length(), match);
+		}
+
+		private boolean regionEquals(int start, int end, String match)
+		{
+			if (end - start != match.length())
+				return false;
+
+			for (int i = 0; i < match.length(); ++i)
+				if (stanza.charAt(start + i) != match.charAt(i))
+					return false;
+
+			return true;
+		}
+
+		private static boolean isNameEnd(char c)
+		{
+			return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '/' || c == '>';
+		}
+	}
+
+	/**
+	 * Character view of the remaining bytes of a buffer in an ASCII compatible encoding.  Bytes outside of the ASCII range never match
+	 * markup characters, so multi byte characters do not need to be decoded.
+	 */
+	private static class ByteSequence implements CharSequence
+	{
+		private final ByteBuffer buffer;
+
+		private final int offset;
+
+		private final int length;
+
+		private ByteSequence(ByteBuffer buffer)
+		{
+			this(buffer, buffer.position(), buffer.remaining());
+		}
+
+		private ByteSequence(ByteBuffer buffer, int offset, int length)
+		{
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return (char)(buffer.get(offset + index) & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			return new ByteSequence(buffer, offset + start, end - start);
+		}
+
+		@Override
+		public String toString()
+		{
+			final byte[] bytes = new byte[length];
+			for (int i = 0; i < length; ++i)
+				bytes[i] = buffer.get(offset + i);
+
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.io.EOFException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.ParserUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Iterator that incrementally reads the top level stanzas of an XMPP stream into monitoring objects.  A single pull parser is
+ * kept open over the stream, so only the stanza currently being read is held in memory.
+ * <p>
+ * Top level stanzas are message, iq, and presence elements that are either the root element of the stream or direct children of the
+ * root (&lt;stream:stream&gt;) element.  All other elements such as stream features and dialback elements are skipped.  Streams that
+ * end without a closing stream element, as is common in captures, end the iteration normally.
+ * <p>
+ * This class is not thread safe.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxStreamIterator implements Iterator<Tx>
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(TxStreamIterator.class);
+
+	protected final PullTxParser txParser;
+
+	protected final Reader reader;
+
+	protected XmlPullParser parser;
+
+	protected Tx next;
+
+	protected boolean done;
+
+	/**
+	 * Constructor
+	 * @param txParser The parser used to read each stanza.
+	 * @param reader The reader containing the XMPP stream.
+	 */
+	public TxStreamIterator(PullTxParser txParser, Reader reader)
+	{
+		if (txParser == null)
+			throw new IllegalArgumentException("Parser cannot be null");
+
+		if (reader == null)
+			throw new IllegalArgumentException("Reader cannot be null");
+
+		this.txParser = txParser;
+		this.reader = reader;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean hasNext()
+	{
+		if (next == null && !done)
+			next = readNext();
+
+		return next != null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Tx next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		final Tx retVal = next;
+		next = null;
+
+		return retVal;
+	}
+
+	/**
+	 * Reads forward to the next top level stanza that can be parsed.
+	 * @return The next monitoring object or null if the end of the stream has been reached.
+	 */
+	protected Tx readNext()
+	{
+		try
+		{
+			if (parser == null)
+				parser = PacketParserUtils.newXmppParser(reader);
+
+			int event = parser.next();
+			while (event != XmlPullParser.END_DOCUMENT)
+			{
+				if (event == XmlPullParser.START_TAG)
+				{
+					if (isTopLevelStanza())
+					{
+						final int depth = parser.getDepth();
+						final long start = System.nanoTime();
+						try
+						{
+							return txParser.recordParse(txParser.readTx(parser), start);
+						}
+						catch (XmlPullParserException | EOFException e)
+						{
+							// the stream itself is malformed or truncated; there is no way to recover
+							throw e;
+						}
+						catch (Exception e)
+						{
+							txParser.getMetrics().recordFailure(e);
+							LOGGER.warn("Failed to retrieve stanza details.  Skipping stanza.", e);
+
+							ParserUtils.forwardToEndTagOfDepth(parser, depth);
+						}
+					}
+					else if (parser.getDepth() > 1)
+						PullTxParser.skipElement(parser);
+				}
+
+				event = parser.next();
+			}
+		}
+		catch (XmlPullParserException | EOFException e)
+		{
+			// an unterminated stream between stanzas is the normal end of a capture
+			if (parser != null && parser.getDepth() <= 1)
+				LOGGER.debug("XMPP stream ended without a closing stream element.");
+			else
+				LOGGER.warn("Failed to read XMPP stream.", e);
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Failed to read XMPP stream.", e);
+		}
+
+		done = true;
+
+		return null;
+	}
+
+	/**
+	 * Determines if the parser is positioned on the start tag of a top level stanza.
+	 * @return True if the current element is a top level stanza.
+	 */
+	protected boolean isTopLevelStanza()
+	{
+		if (parser.getDepth() > 2)
+			return false;
+
+		final String name = parser.getName();
+
+		return Message.ELEMENT.equals(name) || IQ.IQ_ELEMENT.equals(name) || Presence.ELEMENT.equals(name);
+	}
+}
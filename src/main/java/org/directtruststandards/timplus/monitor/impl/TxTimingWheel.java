@@ -0,0 +1,523 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.directtruststandards.timplus.monitor.tx.TxTimeoutListener;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+
+/**
+ * Hashed timing wheel that detects messages which do not receive a delivery response before a deadline.  Messages are scheduled by
+ * MSG_ID and their recipients are cancelled by the AMP notifications and message errors with the same MSG_ID.  Scheduling and cancelling
+ * are constant time.  Each pending message costs a single wheel entry and an index entry regardless of its timeout.
+ * <p>
+ * Like the {@link TxCorrelator}, the wheel tracks the pending recipients of each message.  The copies of a multi recipient or group chat
+ * message share a MSG_ID and add their recipients to the scheduled message.  An AMP notification cancels the recipient named by its
+ * ORIGINAL_RECIPIENT detail and a message error the recipient that sent it, and a message is only unscheduled once no recipient is
+ * pending.  A message that times out is reported with the recipients that are still pending.
+ * <p>
+ * Time is divided into ticks of a fixed duration.  Each entry is linked into the wheel bucket of its deadline tick; deadlines further
+ * out than one revolution of the wheel share buckets with nearer deadlines and are skipped until their tick comes around.  Advancing
+ * the wheel expires whole buckets at once, so timeout detection is accurate to one tick.  The wheel is not driven by its own thread:
+ * {@link #advance()} must be called periodically, either by the application or by a task created with
+ * {@link #start(ScheduledExecutorService)}.
+ * <p>
+ * The wheel is split into lock striped segments by MSG_ID, each with its own buckets, so scheduling and cancelling from many threads do
+ * not contend on a single lock.  Timeout callbacks are made after the segment lock has been released.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxTimingWheel
+{
+	/**
+	 * The default tick duration in milliseconds.
+	 */
+	public static final long DEFAULT_TICK_DURATION = 100;
+
+	/**
+	 * The default number of buckets of each wheel segment.
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final int SEGMENT_COUNT = 16;
+
+	protected final TxTimeoutListener listener;
+
+	protected final long timeout;
+
+	protected final long tickDuration;
+
+	protected final Segment[] segments;
+
+	protected final LongAdder expired;
+
+	protected Clock clock;
+
+	protected long startTime;
+
+	/**
+	 * Constructor.  Creates a wheel with the default tick duration and wheel size.
+	 * @param listener The listener that receives timed out messages.
+	 * @param timeout The default time in milliseconds that a message may wait for a response.
+	 */
+	public TxTimingWheel(TxTimeoutListener listener, long timeout)
+	{
+		this(listener, timeout, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 * @param listener The listener that receives timed out messages.
+	 * @param timeout The default time in milliseconds that a message may wait for a response.
+	 * @param tickDuration The duration of a tick in milliseconds.  This is the resolution of timeout detection.
+	 * @param wheelSize The number of buckets of each wheel segment.  Rounded up to a power of two.
+	 */
+	public TxTimingWheel(TxTimeoutListener listener, long timeout, long tickDuration, int wheelSize)
+	{
+		if (listener == null)
+			throw new IllegalArgumentException("Listener cannot be null");
+
+		if (timeout < 1)
+			throw new IllegalArgumentException("Timeout must be at least 1");
+
+		if (tickDuration < 1)
+			throw new IllegalArgumentException("Tick duration must be at least 1");
+
+		if (wheelSize < 1 || wheelSize > (1 << 30))
+			throw new IllegalArgumentException("Wheel size must be between 1 and 2^30");
+
+		this.listener = listener;
+		this.timeout = timeout;
+		this.tickDuration = tickDuration;
+		this.expired = new LongAdder();
+		this.clock = Clock.systemUTC();
+		this.startTime = clock.millis();
+
+		final int bucketCount = (wheelSize == 1) ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; ++i)
+			segments[i] = new Segment(bucketCount);
+	}
+
+	/**
+	 * Sets the clock used to compute deadlines and advance the wheel.  The clock may only be set while the wheel is empty, and
+	 * restarts the wheel's notion of time at the clock's current time.
+	 * @param clock The clock.
+	 */
+	public void setClock(Clock clock)
+	{
+		if (clock == null)
+			throw new IllegalArgumentException("Clock cannot be null");
+
+		if (size() > 0)
+			throw new IllegalStateException("Clock cannot be changed while messages are scheduled");
+
+		this.clock = clock;
+		this.startTime = clock.millis();
+
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				segment.tick = 0;
+			}
+		}
+	}
+
+	/**
+	 * Gets the clock used to compute deadlines and advance the wheel.
+	 * @return The clock.
+	 */
+	public Clock getClock()
+	{
+		return clock;
+	}
+
+	/**
+	 * Submits a monitoring object to the wheel.  Messages are scheduled with the default timeout and AMP notifications and message
+	 * errors cancel the recipient of the message with the same MSG_ID that they apply to.  A message error is a definitive delivery
+	 * result, so its recipient is no longer waiting for a deliver notification.
+	 * @param tx The monitoring object.
+	 * @return True if a message was scheduled or a recipient was cancelled.
+	 */
+	public boolean accept(Tx tx)
+	{
+		if (tx == null)
+			throw new IllegalArgumentException("Tx cannot be null");
+
+		switch (tx.getStanzaType())
+		{
+			case MESSAGE:
+				return schedule(tx);
+			case AMP:
+			case MESSAGE_ERROR:
+				return respond(tx);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Schedules a message with the default timeout.
+	 * @param tx The monitoring object of the message.
+	 * @return True if the message was scheduled or added recipients to the scheduled message with the same MSG_ID, as do the additional
+	 * copies of a group chat message.  False if it has no MSG_ID or adds no recipients.
+	 */
+	public boolean schedule(Tx tx)
+	{
+		return schedule(tx, timeout);
+	}
+
+	/**
+	 * Schedules a message with a specific timeout.
+	 * @param tx The monitoring object of the message.
+	 * @param timeout The time in milliseconds that the message may wait for a response.
+	 * @return True if the message was scheduled or added recipients to the scheduled message with the same MSG_ID.  False if it has no
+	 * MSG_ID or adds no recipients.  The deadline of a scheduled message is not changed by its additional copies.
+	 */
+	public boolean schedule(Tx tx, long timeout)
+	{
+		if (tx == null)
+			throw new IllegalArgumentException("Tx cannot be null");
+
+		if (timeout < 0)
+			throw new IllegalArgumentException("Timeout cannot be negative");
+
+		final String msgId = msgIdOf(tx);
+		if (msgId == null || msgId.isEmpty())
+			return false;
+
+		// deadlines round up to the next tick so that a message is never reported before its timeout has elapsed
+		final long deadline = clock.millis() + timeout - startTime;
+		final long deadlineTick = (deadline <= 0) ? 0 : (deadline + tickDuration - 1) / tickDuration;
+
+		final Set<String> recipients = TxCorrelator.bareRecipientsOf(tx);
+
+		final Segment segment = segmentFor(msgId);
+		synchronized (segment)
+		{
+			return segment.schedule(msgId, tx, recipients, deadlineTick);
+		}
+	}
+
+	/**
+	 * Cancels the recipient of a scheduled message that an AMP notification or message error applies to.  The message is unscheduled
+	 * once no recipient is pending, or by any response if it has no recipients.
+	 * @param response The monitoring object of the AMP notification or message error.
+	 * @return True if a recipient was cancelled.  False if no message with the MSG_ID is scheduled or the response does not match a
+	 * pending recipient.
+	 */
+	public boolean respond(Tx response)
+	{
+		if (response == null)
+			throw new IllegalArgumentException("Response cannot be null");
+
+		final String msgId = msgIdOf(response);
+		if (msgId == null || msgId.isEmpty())
+			return false;
+
+		final Segment segment = segmentFor(msgId);
+		synchronized (segment)
+		{
+			return segment.respond(msgId, response);
+		}
+	}
+
+	/**
+	 * Cancels a scheduled message with all of its pending recipients.
+	 * @param msgId The MSG_ID of the message.
+	 * @return The monitoring object of the cancelled message or null if no message with the MSG_ID is scheduled.
+	 */
+	public Tx cancel(String msgId)
+	{
+		if (msgId == null || msgId.isEmpty())
+			return null;
+
+		final Segment segment = segmentFor(msgId);
+		synchronized (segment)
+		{
+			return segment.cancel(msgId);
+		}
+	}
+
+	/**
+	 * Advances the wheel to the current time, reporting every message whose deadline tick has passed to the listener.
+	 * @return The number of timed out messages.
+	 */
+	public int advance()
+	{
+		final long elapsed = clock.millis() - startTime;
+		if (elapsed < 0)
+			return 0;
+
+		final long targetTick = elapsed / tickDuration;
+
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			Entry expiredEntries;
+			synchronized (segment)
+			{
+				expiredEntries = segment.advance(targetTick);
+			}
+
+			while (expiredEntries != null)
+			{
+				final Entry next = expiredEntries.next;
+				expiredEntries.next = null;
+
+				++retVal;
+				expired.increment();
+				listener.onTimeout(expiredEntries.tx, new ArrayList<>(expiredEntries.pendingRecipients));
+
+				expiredEntries = next;
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Starts advancing the wheel once per tick on a scheduled executor.
+	 * @param executor The executor that advances the wheel.
+	 * @return The future of the scheduled task.  Cancel the future to stop advancing the wheel.
+	 */
+	public ScheduledFuture<?> start(ScheduledExecutorService executor)
+	{
+		if (executor == null)
+			throw new IllegalArgumentException("Executor cannot be null");
+
+		return executor.scheduleAtFixedRate(this::advance, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the default time that a message may wait for a response.
+	 * @return The default timeout in milliseconds.
+	 */
+	public long getTimeout()
+	{
+		return timeout;
+	}
+
+	/**
+	 * Gets the duration of a tick.
+	 * @return The tick duration in milliseconds.
+	 */
+	public long getTickDuration()
+	{
+		return tickDuration;
+	}
+
+	/**
+	 * Gets the number of messages that timed out.
+	 * @return The timed out count.
+	 */
+	public long getExpiredCount()
+	{
+		return expired.sum();
+	}
+
+	/**
+	 * Gets the number of scheduled messages.
+	 * @return The number of scheduled messages.
+	 */
+	public int size()
+	{
+		int retVal = 0;
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				retVal += segment.index.size();
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Gets the segment that holds a given MSG_ID.
+	 * @param msgId The MSG_ID.
+	 * @return The segment of the wheel for the MSG_ID.
+	 */
+	protected Segment segmentFor(String msgId)
+	{
+		final int hash = msgId.hashCode();
+
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+	}
+
+	private static String msgIdOf(Tx tx)
+	{
+		final TxDetail detail = tx.getDetail(TxDetailType.MSG_ID);
+
+		return (detail == null) ? null : detail.getDetailValue();
+	}
+
+	/**
+	 * A scheduled message.  Entries are linked into a doubly linked list per bucket so they can be unlinked in constant time.
+	 */
+	protected static class Entry
+	{
+		protected final String msgId;
+
+		protected final Tx tx;
+
+		protected final Set<String> pendingRecipients;
+
+		protected final long deadlineTick;
+
+		protected Entry prev;
+
+		protected Entry next;
+
+		protected Entry(String msgId, Tx tx, Set<String> pendingRecipients, long deadlineTick)
+		{
+			this.msgId = msgId;
+			this.tx = tx;
+			this.pendingRecipients = pendingRecipients;
+			this.deadlineTick = deadlineTick;
+		}
+	}
+
+	/**
+	 * A segment of the wheel with its own buckets, MSG_ID index, and current tick.  Access must be synchronized on the segment.
+	 */
+	protected static class Segment
+	{
+		protected final Entry[] buckets;
+
+		protected final int mask;
+
+		protected final HashMap<String, Entry> index;
+
+		/**
+		 * The next tick to be processed.
+		 */
+		protected long tick;
+
+		protected Segment(int bucketCount)
+		{
+			this.buckets = new Entry[bucketCount];
+			this.mask = bucketCount - 1;
+			this.index = new HashMap<>();
+		}
+
+		protected boolean schedule(String msgId, Tx tx, Set<String> recipients, long deadlineTick)
+		{
+			final Entry existing = index.get(msgId);
+			if (existing != null)
+			{
+				// group chat copies share a MSG_ID; fold the additional recipients into the first message
+				return existing.pendingRecipients.addAll(recipients);
+			}
+
+			// a deadline in an already processed tick fires on the next advance
+			final Entry entry = new Entry(msgId, tx, recipients, Math.max(deadlineTick, tick));
+			index.put(msgId, entry);
+
+			final int bucket = (int)(entry.deadlineTick & mask);
+			entry.next = buckets[bucket];
+			if (entry.next != null)
+				entry.next.prev = entry;
+
+			buckets[bucket] = entry;
+
+			return true;
+		}
+
+		protected boolean respond(String msgId, Tx response)
+		{
+			final Entry entry = index.get(msgId);
+			if (entry == null)
+				return false;
+
+			if (!entry.pendingRecipients.isEmpty())
+			{
+				if (TxCorrelator.matchRecipient(entry.pendingRecipients, response) == null)
+					return false;
+
+				if (!entry.pendingRecipients.isEmpty())
+					return true;
+			}
+
+			index.remove(msgId);
+			unlink(entry);
+
+			return true;
+		}
+
+		protected Tx cancel(String msgId)
+		{
+			final Entry entry = index.remove(msgId);
+			if (entry == null)
+				return null;
+
+			unlink(entry);
+
+			return entry.tx;
+		}
+
+		/**
+		 * Processes every tick up to and including the target tick.
+		 * @param targetTick The last tick to process.
+		 * @return A chain of the expired entries linked through their next fields or null if no entries expired.
+		 */
+		protected Entry advance(long targetTick)
+		{
+			if (targetTick < tick)
+				return null;
+
+			Entry retVal = null;
+
+			// after a long pause every bucket is visited once rather than once per elapsed tick
+			final long ticks = Math.min(targetTick - tick + 1, buckets.length);
+			for (long i = 0; i < ticks; ++i)
+			{
+				final int bucket = (int)((tick + i) & mask);
+
+				Entry entry = buckets[bucket];
+				while (entry != null)
+				{
+					final Entry next = entry.next;
+					if (entry.deadlineTick <= targetTick)
+					{
+						index.remove(entry.msgId);
+						unlink(entry);
+
+						entry.next = retVal;
+						retVal = entry;
+					}
+
+					entry = next;
+				}
+			}
+
+			tick = targetTick + 1;
+
+			return retVal;
+		}
+
+		private void unlink(Entry entry)
+		{
+			if (entry.prev != null)
+				entry.prev.next = entry.next;
+			else
+				buckets[(int)(entry.deadlineTick & mask)] = entry.next;
+
+			if (entry.next != null)
+				entry.next.prev = entry.prev;
+
+			entry.prev = null;
+			entry.next = null;
+		}
+	}
+}
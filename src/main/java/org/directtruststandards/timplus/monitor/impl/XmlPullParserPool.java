@@ -0,0 +1,177 @@
+package org.directtruststandards.timplus.monitor.impl;
+
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Pool of configured XMPP pull parsers.  Creating a parser looks up the parser factory and configures namespace processing, and the
+ * new parser allocates its internal buffers; a pooled parser is only reset onto each new input.
+ * <p>
+ * By default each thread owns one parser.  Applications that parse on many short lived threads can instead create a pool with a fixed
+ * capacity, which is a ring of parsers shared by all threads that are claimed and returned with compare and set operations.  In both
+ * modes a parser is owned by one caller between {@link #acquire(Reader)} and {@link #release(XmlPullParser)}; a nested acquire on a
+ * thread that already owns its parser, or an acquire from an empty ring, creates an unpooled parser instead of blocking.
+ * <p>
+ * Released parsers drop their reference to the input, but keep internal buffers sized for the largest stanza they have parsed.  The
+ * maximum stanza size of a {@link DefaultTxParser} bounds that size.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class XmlPullParserPool
+{
+	protected final ThreadLocal<PooledParser> threadParser;
+
+	protected final AtomicReferenceArray<XmlPullParser> slots;
+
+	protected final LongAdder created;
+
+	/**
+	 * Empty constructor.  Creates a pool that keeps one parser per thread.
+	 */
+	public XmlPullParserPool()
+	{
+		this.threadParser = ThreadLocal.withInitial(PooledParser::new);
+		this.slots = null;
+		this.created = new LongAdder();
+	}
+
+	/**
+	 * Constructor.  Creates a pool of parsers shared by all threads.
+	 * @param capacity The maximum number of pooled parsers.
+	 */
+	public XmlPullParserPool(int capacity)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+
+		this.threadParser = null;
+		this.slots = new AtomicReferenceArray<>(capacity);
+		this.created = new LongAdder();
+	}
+
+	/**
+	 * Takes a parser from the pool and sets its input.
+	 * @param reader The input of the parser.
+	 * @return A parser positioned at the start of the input, owned by the caller until it is released.
+	 * @throws XmlPullParserException Thrown if a parser cannot be created.
+	 */
+	public XmlPullParser acquire(Reader reader) throws XmlPullParserException
+	{
+		XmlPullParser retVal = null;
+
+		if (threadParser != null)
+		{
+			final PooledParser pooled = threadParser.get();
+			if (!pooled.inUse)
+			{
+				if (pooled.parser == null)
+					pooled.parser = newParser();
+
+				pooled.inUse = true;
+				retVal = pooled.parser;
+			}
+		}
+		else
+		{
+			final int capacity = slots.length();
+			final int start = startSlot(capacity);
+			for (int i = 0; i < capacity && retVal == null; ++i)
+			{
+				final int slot = (start + i) % capacity;
+				final XmlPullParser parser = slots.get(slot);
+				if (parser != null && slots.compareAndSet(slot, parser, null))
+					retVal = parser;
+			}
+		}
+
+		if (retVal == null)
+			retVal = newParser();
+
+		retVal.setInput(reader);
+
+		return retVal;
+	}
+
+	/**
+	 * Returns a parser to the pool.  The caller must not use the parser after releasing it.
+	 * @param parser The parser to return.
+	 */
+	public void release(XmlPullParser parser)
+	{
+		if (parser == null)
+			return;
+
+		try
+		{
+			// drops the reference to the input so that the stanza can be collected
+			parser.setInput(null);
+		}
+		catch (XmlPullParserException e)
+		{
+			// the parser is not reusable
+			return;
+		}
+
+		if (threadParser != null)
+		{
+			final PooledParser pooled = threadParser.get();
+			if (pooled.parser == parser)
+				pooled.inUse = false;
+		}
+		else
+		{
+			final int capacity = slots.length();
+			final int start = startSlot(capacity);
+			for (int i = 0; i < capacity; ++i)
+			{
+				final int slot = (start + i) % capacity;
+				if (slots.get(slot) == null && slots.compareAndSet(slot, null, parser))
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of parsers that have been created by the pool, including unpooled parsers.
+	 * @return The created parser count.
+	 */
+	public long getCreatedCount()
+	{
+		return created.sum();
+	}
+
+	/**
+	 * Creates and configures a new parser.
+	 * @return The new parser.
+	 * @throws XmlPullParserException Thrown if a parser cannot be created.
+	 */
+	protected XmlPullParser newParser() throws XmlPullParserException
+	{
+		created.increment();
+
+		return PacketParserUtils.newXmppParser();
+	}
+
+	private static int startSlot(int capacity)
+	{
+		// threads start scanning at different slots so that they rarely contend for the same slot
+		final long id = Thread.currentThread().getId();
+
+		return (int)((id ^ (id >>> 32)) & Integer.MAX_VALUE) % capacity;
+	}
+
+	/**
+	 * The parser owned by a thread.
+	 */
+	protected static class PooledParser
+	{
+		protected XmlPullParser parser;
+
+		protected boolean inUse;
+	}
+}
@@ -0,0 +1,36 @@
+package org.directtruststandards.timplus.monitor.tx;
+
+import java.util.List;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+
+/**
+ * Receives the results of correlating messages with their delivery notifications and errors.  Callbacks may be invoked concurrently
+ * from any thread that submits monitoring objects to the correlator, but never while the correlator holds a lock.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public interface TxCorrelationListener
+{
+	/**
+	 * Called when a delivery notification or error is matched to a message recipient.
+	 * @param message The monitoring object of the original message.
+	 * @param response The monitoring object of the AMP delivery notification or message error.
+	 * @param recipient The bare JID of the message recipient that the response applies to.
+	 */
+	public default void onMatched(Tx message, Tx response, String recipient) {}
+	
+	/**
+	 * Called when a delivery notification or error does not match any outstanding message recipient.  Responses that arrive before their
+	 * message are held until the message arrives or the response expires.
+	 * @param response The monitoring object of the AMP delivery notification or message error.
+	 */
+	public default void onUnmatched(Tx response) {}
+	
+	/**
+	 * Called when a message is evicted from the correlator before every recipient received a response.
+	 * @param message The monitoring object of the original message.
+	 * @param pendingRecipients The bare JIDs of the recipients that did not receive a response.
+	 */
+	public default void onExpired(Tx message, List<String> pendingRecipients) {}
+}
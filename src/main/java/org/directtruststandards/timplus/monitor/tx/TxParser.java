@@ -1,15 +1,34 @@
 package org.directtruststandards.timplus.monitor.tx;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
 import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxBatch;
 import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
 import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.directtruststandards.timplus.monitor.util.XmlCharsetUtils;
 import org.jivesoftware.smack.packet.Stanza;
 
 /**
  * Interface for a parser the transforms a stanza into a monitoring object along with set of monitor details
+ * <p>
+ * Consumers that only need a few details may pass a projection of the detail types they require.  Implementations may skip the
+ * extraction of unrequested details and stop reading a stanza once every requested detail has been found.  A projection never changes
+ * the stanza type: the ERROR_CONDITION, AMP_CONDITION_VALUE, CHAT_STATE, and MESSAGE_BODY_IND details that decide it are always
+ * evaluated, but are only returned when requested.
+ * <p>
+ * High volume consumers may parse into a caller supplied {@link MutableTx} with the parseInto methods.  The target is reset and refilled
+ * on every call, so a parse loop that reuses one target per thread does not allocate a monitoring object for each stanza.  Analytics
+ * consumers may instead append parsed stanzas as rows of a columnar {@link TxBatch}.
  * @author Greg Meyer
  * @since 1.0
  */
@@ -23,12 +42,48 @@ public interface TxParser
 	public Tx parseStanza(String stanza);
 	
 	/**
-	 * Parses a stanza contained within an input stream into a monitoring object.
+	 * Parses a stanza contained within an input stream into a monitoring object.  The stream is decoded using the encoding of the
+	 * XML declaration if present, otherwise UTF-8.
 	 * @param stanza An input stream that contains the stanza
 	 * @return A monitoring object containing the stanza type and all relevant monitoring details
 	 */
 	public Tx parseStanza(InputStream stream);
 	
+	/**
+	 * Parses a stanza held in a character sequence into a monitoring object.  The default implementation converts the sequence to a string.
+	 * @param stanza A character sequence containing the stanza
+	 * @return A monitoring object containing the stanza type and all relevant monitoring details
+	 */
+	public default Tx parseStanza(CharSequence stanza)
+	{
+		return parseStanza(stanza.toString());
+	}
+	
+	/**
+	 * Parses a stanza held in a range of a byte array into a monitoring object.  The bytes are decoded using the encoding of the
+	 * XML declaration if present, otherwise UTF-8.
+	 * @param stanza The array containing the stanza
+	 * @param offset The offset of the stanza within the array
+	 * @param length The length of the stanza in bytes
+	 * @return A monitoring object containing the stanza type and all relevant monitoring details
+	 */
+	public default Tx parseStanza(byte[] stanza, int offset, int length)
+	{
+		return parseStanza(ByteBuffer.wrap(stanza, offset, length));
+	}
+	
+	/**
+	 * Parses the stanza held in the remaining bytes of a buffer into a monitoring object.  The bytes are decoded using the encoding of the
+	 * XML declaration if present, otherwise UTF-8.  The position of the buffer is not modified.  The default implementation decodes
+	 * the buffer into a string.
+	 * @param stanza The buffer containing the stanza
+	 * @return A monitoring object containing the stanza type and all relevant monitoring details
+	 */
+	public default Tx parseStanza(ByteBuffer stanza)
+	{
+		return parseStanza(XmlCharsetUtils.decode(stanza));
+	}
+	
 	/**
 	 * Parses a stanza object into a monitoring object.
 	 * @param stanza A stanza POJO representation
@@ -36,6 +91,266 @@ public interface TxParser
 	 */
 	public Tx parseStanza(Stanza stanza);
 	
+	/**
+	 * Parses a stanza in string format into a monitoring object containing only the requested details.  The default implementation
+	 * parses the full stanza and projects the result.
+	 * @param stanza A string representation of a stanza
+	 * @param detailTypes The detail types to extract
+	 * @return A monitoring object containing the stanza type and the requested monitoring details that are present in the stanza
+	 */
+	public default Tx parseStanza(String stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return project(parseStanza(stanza), detailTypes);
+	}
+	
+	/**
+	 * Parses a stanza contained within an input stream into a monitoring object containing only the requested details.  The default 
+	 * implementation parses the full stanza and projects the result.
+	 * @param stream An input stream that contains the stanza
+	 * @param detailTypes The detail types to extract
+	 * @return A monitoring object containing the stanza type and the requested monitoring details that are present in the stanza
+	 */
+	public default Tx parseStanza(InputStream stream, EnumSet<TxDetailType> detailTypes)
+	{
+		return project(parseStanza(stream), detailTypes);
+	}
+	
+	/**
+	 * Parses the stanza held in the remaining bytes of a buffer into a monitoring object containing only the requested details.  The 
+	 * position of the buffer is not modified.  The default implementation decodes the buffer into a string.
+	 * @param stanza The buffer containing the stanza
+	 * @param detailTypes The detail types to extract
+	 * @return A monitoring object containing the stanza type and the requested monitoring details that are present in the stanza
+	 */
+	public default Tx parseStanza(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return parseStanza(XmlCharsetUtils.decode(stanza), detailTypes);
+	}
+	
+	/**
+	 * Parses a stanza object into a monitoring object containing only the requested details.  The default implementation parses the 
+	 * full stanza and projects the result.
+	 * @param stanza A stanza POJO representation
+	 * @param detailTypes The detail types to extract
+	 * @return A monitoring object containing the stanza type and the requested monitoring details that are present in the stanza
+	 */
+	public default Tx parseStanza(Stanza stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return project(parseStanza(stanza), detailTypes);
+	}
+	
+	/**
+	 * Determines only the stanza type of a stanza in string format.  The default implementation parses the stanza with a projection of
+	 * the details that decide the stanza type.
+	 * @param stanza A string representation of a stanza
+	 * @return The stanza type or null if the stanza could not be parsed.
+	 */
+	public default TxStanzaType classify(String stanza)
+	{
+		final Tx tx = parseStanza(stanza, EnumSet.of(TxDetailType.TYPE, TxDetailType.ERROR_CONDITION, TxDetailType.AMP_CONDITION_VALUE, 
+				TxDetailType.CHAT_STATE, TxDetailType.MESSAGE_BODY_IND));
+		
+		return (tx == null) ? null : tx.getStanzaType();
+	}
+	
+	/**
+	 * Determines only the stanza type of the stanza held in the remaining bytes of a buffer.  The position of the buffer is not modified.
+	 * The default implementation parses the stanza with a projection of the details that decide the stanza type.
+	 * @param stanza The buffer containing the stanza
+	 * @return The stanza type or null if the stanza could not be parsed.
+	 */
+	public default TxStanzaType classify(ByteBuffer stanza)
+	{
+		final Tx tx = parseStanza(stanza, EnumSet.of(TxDetailType.TYPE, TxDetailType.ERROR_CONDITION, TxDetailType.AMP_CONDITION_VALUE, 
+				TxDetailType.CHAT_STATE, TxDetailType.MESSAGE_BODY_IND));
+		
+		return (tx == null) ? null : tx.getStanzaType();
+	}
+	
+	/**
+	 * Parses a stanza in string format into a caller supplied monitoring object that is reused across parses.  The default implementation
+	 * parses the stanza and copies the result into the target.
+	 * @param stanza A string representation of a stanza
+	 * @param target The monitoring object that receives the stanza type and all relevant monitoring details.  It is reset before parsing.
+	 * @return True if the stanza was parsed.  False if the stanza could not be parsed, in which case the target is left empty.
+	 */
+	public default boolean parseInto(String stanza, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+		
+		target.reset();
+		
+		final Tx tx = parseStanza(stanza);
+		if (tx == null)
+			return false;
+		
+		target.copyFrom(tx);
+		
+		return true;
+	}
+	
+	/**
+	 * Parses the requested details of a stanza in string format into a caller supplied monitoring object that is reused across parses.
+	 * The default implementation parses the stanza and copies the result into the target.
+	 * @param stanza A string representation of a stanza
+	 * @param detailTypes The detail types to extract
+	 * @param target The monitoring object that receives the stanza type and the requested monitoring details.  It is reset before parsing.
+	 * @return True if the stanza was parsed.  False if the stanza could not be parsed, in which case the target is left empty.
+	 */
+	public default boolean parseInto(String stanza, EnumSet<TxDetailType> detailTypes, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+		
+		target.reset();
+		
+		final Tx tx = parseStanza(stanza, detailTypes);
+		if (tx == null)
+			return false;
+		
+		target.copyFrom(tx);
+		
+		return true;
+	}
+	
+	/**
+	 * Parses the stanza held in the remaining bytes of a buffer into a caller supplied monitoring object that is reused across parses.  The
+	 * position of the buffer is not modified.  The default implementation parses the stanza and copies the result into the target.
+	 * @param stanza The buffer containing the stanza
+	 * @param target The monitoring object that receives the stanza type and all relevant monitoring details.  It is reset before parsing.
+	 * @return True if the stanza was parsed.  False if the stanza could not be parsed, in which case the target is left empty.
+	 */
+	public default boolean parseInto(ByteBuffer stanza, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+		
+		target.reset();
+		
+		final Tx tx = parseStanza(stanza);
+		if (tx == null)
+			return false;
+		
+		target.copyFrom(tx);
+		
+		return true;
+	}
+	
+	/**
+	 * Parses the requested details of the stanza held in the remaining bytes of a buffer into a caller supplied monitoring object that
+	 * is reused across parses.  The position of the buffer is not modified.  The default implementation parses the stanza and copies the
+	 * result into the target.
+	 * @param stanza The buffer containing the stanza
+	 * @param detailTypes The detail types to extract
+	 * @param target The monitoring object that receives the stanza type and the requested monitoring details.  It is reset before parsing.
+	 * @return True if the stanza was parsed.  False if the stanza could not be parsed, in which case the target is left empty.
+	 */
+	public default boolean parseInto(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes, MutableTx target)
+	{
+		if (target == null)
+			throw new IllegalArgumentException("Target cannot be null");
+		
+		target.reset();
+		
+		final Tx tx = parseStanza(stanza, detailTypes);
+		if (tx == null)
+			return false;
+		
+		target.copyFrom(tx);
+		
+		return true;
+	}
+	
+	/**
+	 * Parses a stanza in string format and appends it as a new row of a columnar batch.  The default implementation parses into the
+	 * reusable row buffer of the batch with {@link #parseInto(String, MutableTx)}, so no monitoring object is retained per stanza.
+	 * @param stanza A string representation of a stanza
+	 * @param batch The batch that receives the stanza type and all relevant monitoring details.
+	 * @return The index of the new row, or -1 if the stanza could not be parsed, in which case no row is added.
+	 */
+	public default int parseInto(String stanza, TxBatch batch)
+	{
+		if (batch == null)
+			throw new IllegalArgumentException("Batch cannot be null");
+		
+		return parseInto(stanza, batch.getRowBuffer()) ? batch.add(batch.getRowBuffer()) : -1;
+	}
+	
+	/**
+	 * Parses the requested details of a stanza in string format and appends them as a new row of a columnar batch.  The default
+	 * implementation parses into the reusable row buffer of the batch with {@link #parseInto(String, EnumSet, MutableTx)}.
+	 * @param stanza A string representation of a stanza
+	 * @param detailTypes The detail types to extract
+	 * @param batch The batch that receives the stanza type and the requested monitoring details.
+	 * @return The index of the new row, or -1 if the stanza could not be parsed, in which case no row is added.
+	 */
+	public default int parseInto(String stanza, EnumSet<TxDetailType> detailTypes, TxBatch batch)
+	{
+		if (batch == null)
+			throw new IllegalArgumentException("Batch cannot be null");
+		
+		return parseInto(stanza, detailTypes, batch.getRowBuffer()) ? batch.add(batch.getRowBuffer()) : -1;
+	}
+	
+	/**
+	 * Parses the stanza held in the remaining bytes of a buffer and appends it as a new row of a columnar batch.  The position of the
+	 * buffer is not modified.  The default implementation parses into the reusable row buffer of the batch with
+	 * {@link #parseInto(ByteBuffer, MutableTx)}.
+	 * @param stanza The buffer containing the stanza
+	 * @param batch The batch that receives the stanza type and all relevant monitoring details.
+	 * @return The index of the new row, or -1 if the stanza could not be parsed, in which case no row is added.
+	 */
+	public default int parseInto(ByteBuffer stanza, TxBatch batch)
+	{
+		if (batch == null)
+			throw new IllegalArgumentException("Batch cannot be null");
+		
+		return parseInto(stanza, batch.getRowBuffer()) ? batch.add(batch.getRowBuffer()) : -1;
+	}
+	
+	/**
+	 * Parses the requested details of the stanza held in the remaining bytes of a buffer and appends them as a new row of a columnar
+	 * batch.  The position of the buffer is not modified.  The default implementation parses into the reusable row buffer of the batch
+	 * with {@link #parseInto(ByteBuffer, EnumSet, MutableTx)}.
+	 * @param stanza The buffer containing the stanza
+	 * @param detailTypes The detail types to extract
+	 * @param batch The batch that receives the stanza type and the requested monitoring details.
+	 * @return The index of the new row, or -1 if the stanza could not be parsed, in which case no row is added.
+	 */
+	public default int parseInto(ByteBuffer stanza, EnumSet<TxDetailType> detailTypes, TxBatch batch)
+	{
+		if (batch == null)
+			throw new IllegalArgumentException("Batch cannot be null");
+		
+		return parseInto(stanza, detailTypes, batch.getRowBuffer()) ? batch.add(batch.getRowBuffer()) : -1;
+	}
+	
+	/**
+	 * Parses a batch of stanzas in string format into monitoring objects.  The default implementation parses each stanza sequentially
+	 * on the calling thread; implementations may parse the batch concurrently.
+	 * @param stanzas A list of string representations of stanzas
+	 * @return A list of monitoring objects in the same order as the input stanzas.  An entry is null if the corresponding stanza could not be parsed.
+	 */
+	public default List<Tx> parseStanzas(List<String> stanzas)
+	{
+		final List<Tx> retVal = new ArrayList<>(stanzas.size());
+		for (String stanza : stanzas)
+			retVal.add(parseStanza(stanza));
+		
+		return retVal;
+	}
+	
+	/**
+	 * Parses a batch of stanzas in string format into monitoring objects.
+	 * @param stanzas An array of string representations of stanzas
+	 * @return A list of monitoring objects in the same order as the input stanzas.  An entry is null if the corresponding stanza could not be parsed.
+	 */
+	public default List<Tx> parseStanzas(String... stanzas)
+	{
+		return parseStanzas(Arrays.asList(stanzas));
+	}
+	
 	/**
 	 * Parses a stanza in string format into set of monitoring details.
 	 * @param stanza A string representation of a stanza
@@ -56,4 +371,49 @@ public interface TxParser
 	 * @return A map containing all of the relevant monitoring details
 	 */
 	public Map<TxDetailType, TxDetail> getStanzaDetails(Stanza stanza);
+	
+	/**
+	 * Parses a stanza in string format into the requested monitoring details.
+	 * @param stanza A string representation of a stanza
+	 * @param detailTypes The detail types to extract
+	 * @return A map containing the requested monitoring details that are present in the stanza
+	 */
+	public default Map<TxDetailType, TxDetail> getStanzaDetails(String stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		final Tx tx = parseStanza(stanza, detailTypes);
+		
+		return (tx == null) ? null : tx.getDetails();
+	}
+	
+	/**
+	 * Parses a stanza object into the requested monitoring details.
+	 * @param stanza A stanza POJO representation
+	 * @param detailTypes The detail types to extract
+	 * @return A map containing the requested monitoring details that are present in the stanza
+	 */
+	public default Map<TxDetailType, TxDetail> getStanzaDetails(Stanza stanza, EnumSet<TxDetailType> detailTypes)
+	{
+		return parseStanza(stanza, detailTypes).getDetails();
+	}
+	
+	/**
+	 * Creates a copy of a monitoring object that only contains a subset of its details.  The stanza type is retained as is.
+	 * @param tx The monitoring object to project.  May be null.
+	 * @param detailTypes The detail types to retain
+	 * @return The projected monitoring object or null if the monitoring object is null.
+	 */
+	public static Tx project(Tx tx, Set<TxDetailType> detailTypes)
+	{
+		if (tx == null)
+			return null;
+		
+		final Tx retVal = new Tx();
+		retVal.setStanzaType(tx.getStanzaType());
+		
+		for (Map.Entry<TxDetailType, TxDetail> entry : tx.getDetails().entrySet())
+			if (detailTypes.contains(entry.getKey()))
+				retVal.getDetails().put(entry.getKey(), entry.getValue());
+		
+		return retVal;
+	}
 }
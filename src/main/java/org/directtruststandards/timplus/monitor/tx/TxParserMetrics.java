@@ -0,0 +1,47 @@
+package org.directtruststandards.timplus.monitor.tx;
+
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+/**
+ * Sink for parser instrumentation.  Parsers call the sink on their hot path, so implementations must be thread safe, must not block,
+ * and should not allocate when recording.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public interface TxParserMetrics
+{
+	/**
+	 * Metrics sink that discards all recordings.
+	 */
+	public static final TxParserMetrics NOOP = new TxParserMetrics()
+	{
+		@Override
+		public void recordParse(TxStanzaType stanzaType, long latencyNanos) {}
+
+		@Override
+		public void recordDetail(TxDetailType detailType) {}
+
+		@Override
+		public void recordFailure(Throwable cause) {}
+	};
+	
+	/**
+	 * Records a successfully parsed stanza.
+	 * @param stanzaType The type of the parsed stanza.
+	 * @param latencyNanos The time taken to parse the stanza in nanoseconds.
+	 */
+	public void recordParse(TxStanzaType stanzaType, long latencyNanos);
+	
+	/**
+	 * Records a detail that was extracted from a parsed stanza.
+	 * @param detailType The type of the extracted detail.
+	 */
+	public void recordDetail(TxDetailType detailType);
+	
+	/**
+	 * Records a stanza that could not be parsed.
+	 * @param cause The exception that caused the failure.
+	 */
+	public void recordFailure(Throwable cause);
+}
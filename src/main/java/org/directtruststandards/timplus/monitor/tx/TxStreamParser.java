@@ -0,0 +1,36 @@
+package org.directtruststandards.timplus.monitor.tx;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+
+/**
+ * Interface for a parser that transforms a continuous XMPP stream containing many stanzas into monitoring objects.  Stanzas are read
+ * incrementally, so memory usage is bounded by the size of the largest single stanza and not by the size of the stream.
+ * <p>
+ * The stream may either be a full XMPP stream (a &lt;stream:stream&gt; root element containing stanzas) or a single stanza.  The default
+ * namespace of the stream element is inherited by the contained stanzas.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public interface TxStreamParser
+{
+	/**
+	 * Creates an iterator that lazily parses each top level stanza of a stream into a monitoring object as the stream is read.  Stanzas 
+	 * that cannot be parsed are skipped.  The caller retains ownership of the input stream and is responsible for closing it.
+	 * @param stream An input stream containing an XMPP stream.
+	 * @return An iterator of monitoring objects in stream order.
+	 */
+	public Iterator<Tx> parseStream(InputStream stream);
+	
+	/**
+	 * Parses each top level stanza of a stream into a monitoring object and passes it to a consumer as soon as the stanza has been read.  
+	 * Stanzas that cannot be parsed are skipped.  The caller retains ownership of the input stream and is responsible for closing it.
+	 * @param stream An input stream containing an XMPP stream.
+	 * @param consumer The consumer that receives each monitoring object in stream order.
+	 * @return The number of monitoring objects passed to the consumer.
+	 */
+	public long parseStream(InputStream stream, Consumer<Tx> consumer);
+}
@@ -0,0 +1,32 @@
+package org.directtruststandards.timplus.monitor.tx;
+
+import java.util.List;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+
+/**
+ * Receives messages whose delivery deadline passed without a response.  Callbacks are made on the thread that advances the timer and
+ * never while the timer holds a lock.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+@FunctionalInterface
+public interface TxTimeoutListener
+{
+	/**
+	 * Called when a scheduled message times out.
+	 * @param tx The monitoring object of the message.
+	 */
+	public void onTimeout(Tx tx);
+	
+	/**
+	 * Called when a scheduled message times out before every recipient received a response.  By default the pending recipients are
+	 * ignored and {@link #onTimeout(Tx)} is called.
+	 * @param tx The monitoring object of the message.
+	 * @param pendingRecipients The bare JIDs of the recipients that did not receive a response.  Empty if the message has no recipients.
+	 */
+	public default void onTimeout(Tx tx, List<String> pendingRecipients)
+	{
+		onTimeout(tx);
+	}
+}
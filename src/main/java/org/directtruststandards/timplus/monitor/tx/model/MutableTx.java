@@ -0,0 +1,159 @@
+package org.directtruststandards.timplus.monitor.tx.model;
+
+import java.util.Map;
+
+/**
+ * Reusable monitoring object for allocation free parsing.  Each detail type is backed by a detail object that is created once and
+ * reused on every parse, so refilling a MutableTx allocates nothing beyond the detail values themselves.
+ * <p>
+ * A MutableTx is owned by a single thread at a time.  The details returned by {@link #getDetail(TxDetailType)} and {@link #getDetails()}
+ * are overwritten by the next parse into the same object; use {@link #toTx()} to keep a copy that outlives the next parse.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class MutableTx extends Tx
+{
+	private static final long serialVersionUID = 8306419183012475262L;
+
+	private static final TxDetailType[] DETAIL_TYPES = TxDetailType.values();
+
+	protected final TxDetail[] reusableDetails;
+
+	/**
+	 * Empty constructor.  Creates an empty monitoring object of type UNKNOWN.
+	 */
+	public MutableTx()
+	{
+		super();
+
+		reusableDetails = new TxDetail[DETAIL_TYPES.length];
+		for (int i = 0; i < DETAIL_TYPES.length; ++i)
+			reusableDetails[i] = (DETAIL_TYPES[i] == TxDetailType.RECIPIENTS) ? new TxRecipientsDetail() : new TxDetail(DETAIL_TYPES[i], "");
+	}
+
+	/**
+	 * Clears the stanza type and all details so the object can be reused.
+	 */
+	public void reset()
+	{
+		stanzaType = TxStanzaType.UNKNOWN;
+		details.clear();
+	}
+
+	/**
+	 * Sets a detail using the reusable detail object of its type.
+	 * @param detailType The detail type
+	 * @param detailValue The detail value.  A RECIPIENTS value is treated as a comma separated list of recipients.
+	 */
+	public void setDetail(TxDetailType detailType, String detailValue)
+	{
+		if (detailType == null)
+			throw new IllegalArgumentException("Detail type cannot be null");
+
+		final TxDetail detail = reusableDetails[detailType.ordinal()];
+		detail.setDetailValue(detailValue);
+		details.put(detailType, detail);
+	}
+
+	/**
+	 * Sets the RECIPIENTS detail to a single recipient using the reusable detail object.
+	 * @param recipient The recipient
+	 */
+	public void setRecipient(String recipient)
+	{
+		final TxRecipientsDetail detail = (TxRecipientsDetail)reusableDetails[TxDetailType.RECIPIENTS.ordinal()];
+		detail.clear();
+		detail.addRecipient(recipient);
+		details.put(TxDetailType.RECIPIENTS, detail);
+	}
+
+	/**
+	 * {@inheritDoc}  Recipients are added to the reusable RECIPIENTS detail.
+	 */
+	@Override
+	public void addRecipient(String recip)
+	{
+		if (details.containsKey(TxDetailType.RECIPIENTS))
+			super.addRecipient(recip);
+		else
+			setRecipient(recip);
+	}
+
+	/**
+	 * Replaces the contents of this object with the stanza type and details of another monitoring object.  Detail values are copied into
+	 * the reusable detail objects.
+	 * @param tx The monitoring object to copy.
+	 */
+	public void copyFrom(Tx tx)
+	{
+		if (tx == null)
+			throw new IllegalArgumentException("Tx cannot be null");
+
+		reset();
+		stanzaType = tx.getStanzaType();
+		copyDetails(tx.getDetails());
+	}
+
+	/**
+	 * Creates a standalone copy of this object that is not affected by later parses.
+	 * @return A new monitoring object with copies of the stanza type and details.
+	 */
+	public Tx toTx()
+	{
+		final Tx retVal = new Tx();
+		retVal.setStanzaType(stanzaType);
+
+		for (TxDetail detail : details.values())
+		{
+			if (detail instanceof TxRecipientsDetail)
+				retVal.getDetails().put(TxDetailType.RECIPIENTS, TxRecipientsDetail.valueOf(((TxRecipientsDetail)detail).getRecipients()));
+			else
+				retVal.getDetails().put(detail.getDetailType(), new TxDetail(detail.getDetailType(), detail.getDetailValue()));
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * {@inheritDoc}  The details of a MutableTx are backed by its reusable detail objects, so the detail values are copied into them and
+	 * the supplied map is not retained.
+	 */
+	@Override
+	public void setDetails(Map<TxDetailType, TxDetail> details)
+	{
+		if (details == null)
+			throw new IllegalArgumentException("Details cannot be null");
+
+		if (details == this.details)
+			return;
+
+		this.details.clear();
+		copyDetails(details);
+	}
+
+	/**
+	 * Copies detail values into the reusable detail objects.
+	 * @param source The details to copy.
+	 */
+	protected void copyDetails(Map<TxDetailType, TxDetail> source)
+	{
+		for (Map.Entry<TxDetailType, TxDetail> entry : source.entrySet())
+		{
+			final TxDetail from = entry.getValue();
+			if (from instanceof TxRecipientsDetail)
+			{
+				final TxRecipientsDetail detail = (TxRecipientsDetail)reusableDetails[TxDetailType.RECIPIENTS.ordinal()];
+
+				detail.clear();
+				for (String recipient : ((TxRecipientsDetail)from).getRecipients())
+					detail.addRecipient(recipient);
+
+				details.put(TxDetailType.RECIPIENTS, detail);
+			}
+			else if (entry.getKey() == TxDetailType.RECIPIENTS && from.getDetailValue().indexOf(',') < 0)
+				setRecipient(from.getDetailValue());
+			else
+				setDetail(entry.getKey(), from.getDetailValue());
+		}
+	}
+}
@@ -2,14 +2,16 @@ package org.directtruststandards.timplus.monitor.tx.model;
 
 import java.io.Serializable;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 
 /**
- * Structure for stanza monitoring.  Contains the stanza type along with a map of relevant monitoring details.
+ * Structure for stanza monitoring.  Contains the stanza type along with a map of relevant monitoring details.  Details created by
+ * this class are held in an ordinal indexed EnumMap which keeps the per object footprint small and iterates in detail type order.
  * @author gm2552
  * @since 1.0
  */
@@ -22,12 +24,17 @@ public class Tx implements Serializable
 	protected Map<TxDetailType, TxDetail> details;
 	
 	/**
-	 * Empty constructor
+	 * True if the details are a read only view of a map supplied to the constructor.
+	 */
+	protected boolean detailsReadOnly;
+	
+	/**
+	 * Empty constructor.  Initializes an empty, modifiable map of details.
 	 */
 	public Tx()
 	{
 		stanzaType = TxStanzaType.UNKNOWN;
-		details = new HashMap<>();
+		details = new EnumMap<>(TxDetailType.class);
 	}
 	
 	/**
@@ -44,6 +51,7 @@ public class Tx implements Serializable
 			throw new IllegalArgumentException("Details cannot be null");
 		
 		this.details = Collections.unmodifiableMap(details);
+		this.detailsReadOnly = true;
 		this.stanzaType = stanzaType;
 	}
 	
@@ -78,6 +86,7 @@ public class Tx implements Serializable
 			throw new IllegalArgumentException("Details cannot be null");
 		
 		this.details = details;
+		this.detailsReadOnly = false;
 	}
 	
 	/**
@@ -109,6 +118,11 @@ public class Tx implements Serializable
 	 * Because each copy of the stanza in a groupchat uses the same message id, this mitigates race conditions where original monitoring messages
 	 * may be placed into the monitoring system after responses (AMP and error messages) are received.  This is especially true if the monitoring
 	 * service is distributed across multiple JVMs or availability zones.
+	 * <p>
+	 * The first recipient is held in a plain {@link TxDetail}.  Adding a further recipient upgrades the detail to a {@link TxRecipientsDetail}
+	 * so that adding a recipient is constant time and the comma separated detail value is only built when it is requested.  The details of
+	 * a Tx created with {@link #Tx(TxStanzaType, Map)} are read only, so a plain RECIPIENTS detail supplied by the caller is appended to in
+	 * place instead.
 	 * @param recip
 	 */
 	public void addRecipient(String recip)
@@ -116,17 +130,38 @@ public class Tx implements Serializable
 		final TxDetail detail = getDetail(TxDetailType.RECIPIENTS);
 		if (detail == null)
 			details.put(TxDetailType.RECIPIENTS, new TxDetail(TxDetailType.RECIPIENTS, recip));
+		else if (detail instanceof TxRecipientsDetail)
+			((TxRecipientsDetail)detail).addRecipient(recip);
+		else if (detail.getDetailValue().isEmpty())
+			detail.setDetailValue(recip);
+		else if (detailsReadOnly)
+		{
+			// the detail cannot be replaced, so the plain detail is appended to in place
+			detail.setDetailValue(new StringBuilder(detail.getDetailValue()).append(",").append(recip).toString());
+		}
 		else
 		{
-			if (detail.getDetailValue().isEmpty())
-				detail.setDetailValue(recip);
-			else
-			{
-				final StringBuilder builder = new StringBuilder(detail.getDetailValue()).append(",").append(recip);
-				detail.setDetailValue(builder.toString());
-			}
+			final TxRecipientsDetail recipients = new TxRecipientsDetail(detail.getDetailValue());
+			recipients.addRecipient(recip);
+			details.put(TxDetailType.RECIPIENTS, recipients);
 		}
+	}
+	
+	/**
+	 * Gets the recipients of the stanza.
+	 * @return The recipients in the order they were added, or an empty list if the Tx has no RECIPIENTS detail.
+	 */
+	@JsonIgnore
+	public List<String> getRecipients()
+	{
+		final TxDetail detail = getDetail(TxDetailType.RECIPIENTS);
+		if (detail == null)
+			return Collections.emptyList();
+		
+		if (detail instanceof TxRecipientsDetail)
+			return ((TxRecipientsDetail)detail).getRecipients();
 		
+		return new TxRecipientsDetail(detail.getDetailValue()).getRecipients();
 	}
 	
 	/**
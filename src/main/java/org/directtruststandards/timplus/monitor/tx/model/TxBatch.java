@@ -0,0 +1,598 @@
+package org.directtruststandards.timplus.monitor.tx.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Columnar container for a batch of monitoring objects.  Instead of one object graph per stanza, the batch holds a byte column of
+ * stanza type ordinals, a presence bitmap for each detail type, and an int column for each detail type whose entries are codes into a
+ * dictionary of detail values shared by all columns.  JIDs, types, and other repetitive values are stored once per batch, and scans over
+ * a single column touch contiguous memory.  RECIPIENTS are multi valued, so the codes of all recipients are held in one array with an
+ * offset per row.
+ * <p>
+ * Rows are appended with {@link #add(Tx)} or by the parseInto methods of a TxParser, and read either through the column accessors or
+ * through {@link #get(int)}, which returns a read only Tx view of a row that decodes its details on demand.  Columns are allocated for a
+ * detail type when the first row containing it is added.  {@link #clear()} empties the batch but keeps its arrays for reuse.
+ * <p>
+ * A batch is not thread safe.  Views remain valid until the batch is cleared.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxBatch implements Iterable<Tx>
+{
+	/**
+	 * The default number of rows a new batch has room for.
+	 */
+	public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+	private static final TxDetailType[] DETAIL_TYPES = TxDetailType.values();
+
+	private static final TxStanzaType[] STANZA_TYPES = TxStanzaType.values();
+
+	private static final int RECIPIENTS = TxDetailType.RECIPIENTS.ordinal();
+
+	protected int size;
+
+	protected byte[] stanzaTypes;
+
+	protected final long[][] presence;
+
+	protected final int[][] columns;
+
+	protected int[] recipientOffsets;
+
+	protected int[] recipientCodes;
+
+	protected String[] dictionary;
+
+	protected int dictionarySize;
+
+	protected final Map<String, Integer> codes;
+
+	protected final MutableTx rowBuffer;
+
+	/**
+	 * Empty constructor.  Creates a batch with the default initial capacity.
+	 */
+	public TxBatch()
+	{
+		this(DEFAULT_INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param initialCapacity The number of rows the batch has room for before its columns grow.
+	 */
+	public TxBatch(int initialCapacity)
+	{
+		if (initialCapacity < 1)
+			throw new IllegalArgumentException("Initial capacity must be at least 1");
+
+		this.stanzaTypes = new byte[initialCapacity];
+		this.presence = new long[DETAIL_TYPES.length][];
+		this.columns = new int[DETAIL_TYPES.length][];
+		this.recipientOffsets = new int[initialCapacity + 1];
+		this.recipientCodes = new int[initialCapacity];
+		this.dictionary = new String[64];
+		this.codes = new HashMap<>();
+		this.rowBuffer = new MutableTx();
+	}
+
+	/**
+	 * Appends a monitoring object as a new row.  The stanza type and details are copied, so the monitoring object may be reused.
+	 * @param tx The monitoring object.
+	 * @return The index of the new row.
+	 */
+	public int add(Tx tx)
+	{
+		if (tx == null)
+			throw new IllegalArgumentException("Tx cannot be null");
+
+		final int row = size;
+		ensureCapacity(row + 1);
+
+		stanzaTypes[row] = (byte)tx.getStanzaType().ordinal();
+
+		int recipientEnd = recipientOffsets[row];
+		for (Map.Entry<TxDetailType, TxDetail> entry : tx.getDetails().entrySet())
+		{
+			final int type = entry.getKey().ordinal();
+			presence(type)[row >>> 6] |= 1L << row;
+
+			if (type == RECIPIENTS)
+			{
+				for (String recipient : tx.getRecipients())
+				{
+					if (recipientEnd == recipientCodes.length)
+						recipientCodes = Arrays.copyOf(recipientCodes, recipientCodes.length * 2);
+
+					recipientCodes[recipientEnd++] = encode(recipient);
+				}
+			}
+			else
+				column(type)[row] = encode(entry.getValue().getDetailValue());
+		}
+
+		recipientOffsets[row + 1] = recipientEnd;
+		size = row + 1;
+
+		return row;
+	}
+
+	/**
+	 * Gets the reusable monitoring object that parsers fill before its contents are appended as a new row.  Its contents are
+	 * overwritten by every parse into the batch.
+	 * @return The row buffer.
+	 */
+	public MutableTx getRowBuffer()
+	{
+		return rowBuffer;
+	}
+
+	/**
+	 * Removes all rows and dictionary values.  The arrays of the batch are kept for reuse.
+	 */
+	public void clear()
+	{
+		for (long[] bits : presence)
+			if (bits != null)
+				Arrays.fill(bits, 0, Math.min(bits.length, (size + 63) >>> 6), 0L);
+
+		Arrays.fill(dictionary, 0, dictionarySize, null);
+		dictionarySize = 0;
+		codes.clear();
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of rows.
+	 * @return The number of rows.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the stanza type of a row.
+	 * @param row The row index.
+	 * @return The stanza type.
+	 */
+	public TxStanzaType getStanzaType(int row)
+	{
+		checkRow(row);
+
+		return STANZA_TYPES[stanzaTypes[row]];
+	}
+
+	/**
+	 * Determines if a row contains a detail.
+	 * @param row The row index.
+	 * @param detailType The detail type.
+	 * @return True if the row contains the detail.
+	 */
+	public boolean hasDetail(int row, TxDetailType detailType)
+	{
+		checkRow(row);
+
+		final long[] bits = presence[detailType.ordinal()];
+
+		return bits != null && (bits[row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Finds the next row that contains a detail using the presence bitmap of the detail type.
+	 * @param detailType The detail type.
+	 * @param fromRow The row index to start from, inclusive.
+	 * @return The index of the first row at or after fromRow that contains the detail, or -1 if there is none.
+	 */
+	public int nextRow(TxDetailType detailType, int fromRow)
+	{
+		final long[] bits = presence[detailType.ordinal()];
+		if (bits == null || fromRow >= size)
+			return -1;
+
+		int word = Math.max(0, fromRow) >>> 6;
+		long value = bits[word] & (-1L << Math.max(0, fromRow));
+		while (value == 0)
+		{
+			if (++word > (size - 1) >>> 6)
+				return -1;
+
+			value = bits[word];
+		}
+
+		return (word << 6) + Long.numberOfTrailingZeros(value);
+	}
+
+	/**
+	 * Gets the dictionary code of a single valued detail of a row.  Equal values have equal codes within a batch.
+	 * @param row The row index.
+	 * @param detailType The detail type.  RECIPIENTS are read with {@link #getRecipientCodes(int)}.
+	 * @return The code of the detail value, or -1 if the row does not contain the detail.
+	 */
+	public int getCode(int row, TxDetailType detailType)
+	{
+		if (detailType == TxDetailType.RECIPIENTS)
+			throw new IllegalArgumentException("RECIPIENTS are multi valued");
+
+		return hasDetail(row, detailType) ? columns[detailType.ordinal()][row] : -1;
+	}
+
+	/**
+	 * Gets the dictionary codes of the recipients of a row.
+	 * @param row The row index.
+	 * @return The codes of the recipients in order, or an empty array if the row has no recipients.
+	 */
+	public int[] getRecipientCodes(int row)
+	{
+		checkRow(row);
+
+		return Arrays.copyOfRange(recipientCodes, recipientOffsets[row], recipientOffsets[row + 1]);
+	}
+
+	/**
+	 * Gets the value of a detail of a row.
+	 * @param row The row index.
+	 * @param detailType The detail type.  The value of RECIPIENTS is comma separated.
+	 * @return The detail value, or null if the row does not contain the detail.
+	 */
+	public String getValue(int row, TxDetailType detailType)
+	{
+		if (!hasDetail(row, detailType))
+			return null;
+
+		if (detailType == TxDetailType.RECIPIENTS)
+			return String.join(",", getRecipients(row));
+
+		return dictionary[columns[detailType.ordinal()][row]];
+	}
+
+	/**
+	 * Gets the recipients of a row.
+	 * @param row The row index.
+	 * @return The recipients in order, or an empty list if the row has no recipients.
+	 */
+	public List<String> getRecipients(int row)
+	{
+		checkRow(row);
+
+		final int start = recipientOffsets[row];
+		final int end = recipientOffsets[row + 1];
+		if (start == end)
+			return Collections.emptyList();
+
+		final List<String> retVal = new ArrayList<>(end - start);
+		for (int i = start; i < end; ++i)
+			retVal.add(dictionary[recipientCodes[i]]);
+
+		return retVal;
+	}
+
+	/**
+	 * Gets the value of a dictionary code.
+	 * @param code The code.
+	 * @return The detail value.
+	 */
+	public String decode(int code)
+	{
+		if (code < 0 || code >= dictionarySize)
+			throw new IndexOutOfBoundsException("Invalid dictionary code " + code);
+
+		return dictionary[code];
+	}
+
+	/**
+	 * Gets the number of distinct detail values in the batch.
+	 * @return The dictionary size.
+	 */
+	public int getDictionarySize()
+	{
+		return dictionarySize;
+	}
+
+	/**
+	 * Gets a read only view of a row.  Details of the view are decoded when they are first read.  A view that is serialized is written
+	 * as a standalone copy.
+	 * @param row The row index.
+	 * @return The view of the row.
+	 */
+	public Tx get(int row)
+	{
+		checkRow(row);
+
+		return new TxView(this, row);
+	}
+
+	/**
+	 * Creates a standalone copy of a row that does not reference the batch.
+	 * @param row The row index.
+	 * @return A new monitoring object with the stanza type and details of the row.
+	 */
+	public Tx toTx(int row)
+	{
+		final Tx retVal = new Tx();
+		retVal.setStanzaType(getStanzaType(row));
+
+		for (TxDetailType detailType : DETAIL_TYPES)
+		{
+			if (detailType == TxDetailType.RECIPIENTS)
+			{
+				if (hasDetail(row, detailType))
+					retVal.getDetails().put(detailType, TxRecipientsDetail.valueOf(getRecipients(row)));
+			}
+			else
+			{
+				final String value = getValue(row, detailType);
+				if (value != null)
+					retVal.getDetails().put(detailType, new TxDetail(detailType, value));
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * {@inheritDoc}  The iterator returns a view of each row.
+	 */
+	@Override
+	public Iterator<Tx> iterator()
+	{
+		return new Iterator<Tx>()
+		{
+			private int row;
+
+			@Override
+			public boolean hasNext()
+			{
+				return row < size;
+			}
+
+			@Override
+			public Tx next()
+			{
+				if (row >= size)
+					throw new NoSuchElementException();
+
+				return get(row++);
+			}
+		};
+	}
+
+	/**
+	 * Gets the dictionary code of a value, adding the value to the dictionary if it is new.
+	 * @param value The detail value.
+	 * @return The code of the value.
+	 */
+	protected int encode(String value)
+	{
+		final Integer code = codes.get(value);
+		if (code != null)
+			return code;
+
+		if (dictionarySize == dictionary.length)
+			dictionary = Arrays.copyOf(dictionary, dictionary.length * 2);
+
+		dictionary[dictionarySize] = value;
+		codes.put(value, dictionarySize);
+
+		return dictionarySize++;
+	}
+
+	/**
+	 * Grows the row columns so that they have room for a number of rows.
+	 * @param capacity The required number of rows.
+	 */
+	protected void ensureCapacity(int capacity)
+	{
+		if (capacity <= stanzaTypes.length)
+			return;
+
+		final int newCapacity = Math.max(capacity, stanzaTypes.length * 2);
+		stanzaTypes = Arrays.copyOf(stanzaTypes, newCapacity);
+		recipientOffsets = Arrays.copyOf(recipientOffsets, newCapacity + 1);
+
+		for (int i = 0; i < DETAIL_TYPES.length; ++i)
+		{
+			if (presence[i] != null)
+				presence[i] = Arrays.copyOf(presence[i], (newCapacity + 63) >>> 6);
+
+			if (columns[i] != null)
+				columns[i] = Arrays.copyOf(columns[i], newCapacity);
+		}
+	}
+
+	private long[] presence(int type)
+	{
+		long[] retVal = presence[type];
+		if (retVal == null)
+		{
+			retVal = new long[(stanzaTypes.length + 63) >>> 6];
+			presence[type] = retVal;
+		}
+
+		return retVal;
+	}
+
+	private int[] column(int type)
+	{
+		int[] retVal = columns[type];
+		if (retVal == null)
+		{
+			retVal = new int[stanzaTypes.length];
+			columns[type] = retVal;
+		}
+
+		return retVal;
+	}
+
+	private void checkRow(int row)
+	{
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("Row " + row + " is out of range for a batch of " + size + " rows");
+	}
+
+	/**
+	 * Read only monitoring object backed by a row of a batch.
+	 */
+	protected static class TxView extends Tx
+	{
+		private static final long serialVersionUID = -2203596471722466154L;
+
+		protected final transient TxBatch batch;
+
+		protected final int row;
+
+		protected TxView(TxBatch batch, int row)
+		{
+			super(batch.getStanzaType(row), new RowDetails(batch, row));
+
+			this.batch = batch;
+			this.row = row;
+		}
+
+		/**
+		 * {@inheritDoc}  Views are read only.
+		 */
+		@Override
+		public void setStanzaType(TxStanzaType type)
+		{
+			throw new UnsupportedOperationException("Batch views are read only");
+		}
+
+		/**
+		 * {@inheritDoc}  Views are read only.
+		 */
+		@Override
+		public void setDetails(Map<TxDetailType, TxDetail> details)
+		{
+			throw new UnsupportedOperationException("Batch views are read only");
+		}
+
+		/**
+		 * {@inheritDoc}  Views are read only.
+		 */
+		@Override
+		public void addRecipient(String recip)
+		{
+			throw new UnsupportedOperationException("Batch views are read only");
+		}
+
+		/**
+		 * Replaces the view with a standalone copy when it is serialized.
+		 * @return The copy of the row.
+		 */
+		protected Object writeReplace()
+		{
+			return batch.toTx(row);
+		}
+	}
+
+	/**
+	 * Details of a row that are decoded when they are first read.
+	 */
+	protected static class RowDetails extends AbstractMap<TxDetailType, TxDetail>
+	{
+		protected final TxBatch batch;
+
+		protected final int row;
+
+		protected TxDetail[] decoded;
+
+		protected RowDetails(TxBatch batch, int row)
+		{
+			this.batch = batch;
+			this.row = row;
+		}
+
+		@Override
+		public TxDetail get(Object key)
+		{
+			if (!(key instanceof TxDetailType) || !batch.hasDetail(row, (TxDetailType)key))
+				return null;
+
+			final TxDetailType detailType = (TxDetailType)key;
+			if (decoded == null)
+				decoded = new TxDetail[DETAIL_TYPES.length];
+
+			TxDetail retVal = decoded[detailType.ordinal()];
+			if (retVal == null)
+			{
+				retVal = (detailType == TxDetailType.RECIPIENTS) ? TxRecipientsDetail.valueOf(batch.getRecipients(row)) :
+					new TxDetail(detailType, batch.getValue(row, detailType));
+				decoded[detailType.ordinal()] = retVal;
+			}
+
+			return retVal;
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return key instanceof TxDetailType && batch.hasDetail(row, (TxDetailType)key);
+		}
+
+		@Override
+		public Set<Map.Entry<TxDetailType, TxDetail>> entrySet()
+		{
+			return new AbstractSet<Map.Entry<TxDetailType, TxDetail>>()
+			{
+				@Override
+				public Iterator<Map.Entry<TxDetailType, TxDetail>> iterator()
+				{
+					return new Iterator<Map.Entry<TxDetailType, TxDetail>>()
+					{
+						private int next = advance(0);
+
+						@Override
+						public boolean hasNext()
+						{
+							return next < DETAIL_TYPES.length;
+						}
+
+						@Override
+						public Map.Entry<TxDetailType, TxDetail> next()
+						{
+							if (next >= DETAIL_TYPES.length)
+								throw new NoSuchElementException();
+
+							final TxDetailType detailType = DETAIL_TYPES[next];
+							next = advance(next + 1);
+
+							return new AbstractMap.SimpleImmutableEntry<>(detailType, get(detailType));
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					int retVal = 0;
+					for (TxDetailType detailType : DETAIL_TYPES)
+						if (batch.hasDetail(row, detailType))
+							++retVal;
+
+					return retVal;
+				}
+			};
+		}
+
+		private int advance(int from)
+		{
+			int retVal = from;
+			while (retVal < DETAIL_TYPES.length && !batch.hasDetail(row, DETAIL_TYPES[retVal]))
+				++retVal;
+
+			return retVal;
+		}
+	}
+}
@@ -89,7 +89,7 @@ public class TxDetail implements Serializable
 	@Override
 	public String toString()
 	{	
-		final StringBuilder builder = new StringBuilder(detailType.getType()).append("\r\n").append(detailValue);
+		final StringBuilder builder = new StringBuilder(detailType.getType()).append("\r\n").append(getDetailValue());
 		
 		return builder.toString();
 	}
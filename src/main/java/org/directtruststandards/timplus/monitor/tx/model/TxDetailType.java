@@ -1,7 +1,8 @@
 package org.directtruststandards.timplus.monitor.tx.model;
 
 /**
- * Enumeration of monitor detail types.
+ * Enumeration of monitor detail types.  Detail types are identified by ordinal in binary encodings, so new types must be appended
+ * to the end of the enumeration.
  * @author Greg Meyer
  * @since 1.0
  *
@@ -30,7 +31,8 @@ public enum TxDetailType
 	ORIGINAL_RECIPIENT("ORIGINAL_RECIPIENT"),
 	
 	/**
-	 * Group chat room name.  Needed for generating error messages that originated from a group chat.
+	 * Group chat room name.  Needed for generating error messages that originated from a group chat.  This is the bare JID of the room
+	 * of a 'groupchat' message, taken from the recipient of a message sent to the room or from the sender of a copy reflected by the room.
 	 */
 	GROUP_CHAT_ROOM("GROUP_CHAT_ROOM"),
 	
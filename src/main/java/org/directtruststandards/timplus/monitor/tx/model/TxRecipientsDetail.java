@@ -0,0 +1,172 @@
+package org.directtruststandards.timplus.monitor.tx.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Multi valued RECIPIENTS detail.  Recipients are held as a list so that adding a recipient is constant time and consumers can read the
+ * individual recipients without splitting a string.  The legacy comma separated detail value is only built when it is requested and is
+ * cached until the recipients change.
+ * <p>
+ * A stanza only has a single recipient, so a recipients detail is only created once a second recipient is added.  It is serialized as a
+ * plain {@link TxDetail} holding the comma separated value so serialized monitoring objects stay readable by older consumers.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxRecipientsDetail extends TxDetail
+{
+	private static final long serialVersionUID = 6021826853911347153L;
+
+	protected final List<String> recipients;
+
+	/**
+	 * Empty constructor.  Creates a detail without recipients.
+	 */
+	public TxRecipientsDetail()
+	{
+		super(TxDetailType.RECIPIENTS, "");
+
+		this.recipients = new ArrayList<>(1);
+	}
+
+	/**
+	 * Constructor
+	 * @param detailValue The comma separated recipients.
+	 */
+	public TxRecipientsDetail(String detailValue)
+	{
+		this();
+
+		setDetailValue(detailValue);
+	}
+
+	/**
+	 * Constructor
+	 * @param recipients The recipients.
+	 */
+	public TxRecipientsDetail(Collection<String> recipients)
+	{
+		super(TxDetailType.RECIPIENTS, "");
+
+		if (recipients == null)
+			throw new IllegalArgumentException("Recipients cannot be null");
+
+		this.recipients = new ArrayList<>(recipients);
+		this.detailValue = null;
+	}
+
+	/**
+	 * Creates a RECIPIENTS detail for the given recipients.
+	 * @param recipients The recipients.
+	 * @return A plain detail for zero or one recipients, otherwise a recipients detail.
+	 */
+	public static TxDetail valueOf(Collection<String> recipients)
+	{
+		if (recipients == null)
+			throw new IllegalArgumentException("Recipients cannot be null");
+
+		if (recipients.size() > 1)
+			return new TxRecipientsDetail(recipients);
+
+		return new TxDetail(TxDetailType.RECIPIENTS, recipients.isEmpty() ? "" : recipients.iterator().next());
+	}
+
+	/**
+	 * Adds a recipient.
+	 * @param recipient The recipient.
+	 */
+	public void addRecipient(String recipient)
+	{
+		if (recipient == null)
+			throw new IllegalArgumentException("Recipient cannot be null");
+
+		recipients.add(recipient);
+		detailValue = null;
+	}
+
+	/**
+	 * Removes all recipients.
+	 */
+	public void clear()
+	{
+		recipients.clear();
+		detailValue = "";
+	}
+
+	/**
+	 * Gets the recipients.
+	 * @return An unmodifiable view of the recipients in the order they were added.
+	 */
+	@JsonIgnore
+	public List<String> getRecipients()
+	{
+		return Collections.unmodifiableList(recipients);
+	}
+
+	/**
+	 * {@inheritDoc}  The detail type of a recipients detail is always RECIPIENTS.
+	 */
+	@Override
+	public void setDetailType(TxDetailType detailType)
+	{
+		if (detailType != TxDetailType.RECIPIENTS)
+			throw new IllegalArgumentException("Detail type of a recipients detail must be RECIPIENTS");
+	}
+
+	/**
+	 * Replaces the recipients with those of a comma separated detail value.
+	 * @param detailValue The comma separated recipients.
+	 */
+	@Override
+	public void setDetailValue(String detailValue)
+	{
+		if (detailValue == null)
+			throw new IllegalArgumentException("Detail value cannot be null");
+
+		recipients.clear();
+		if (!detailValue.isEmpty())
+		{
+			int start = 0;
+			int end;
+			while ((end = detailValue.indexOf(',', start)) >= 0)
+			{
+				recipients.add(detailValue.substring(start, end));
+				start = end + 1;
+			}
+
+			recipients.add(detailValue.substring(start));
+		}
+
+		this.detailValue = detailValue;
+	}
+
+	/**
+	 * Gets the recipients as a comma separated detail value.
+	 * @return The comma separated recipients.
+	 */
+	@Override
+	public String getDetailValue()
+	{
+		String retVal = detailValue;
+		if (retVal == null)
+		{
+			retVal = (recipients.size() == 1) ? recipients.get(0) : String.join(",", recipients);
+			detailValue = retVal;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Serializes the recipients as a plain detail with the comma separated detail value.
+	 * @return The plain detail.
+	 */
+	protected Object writeReplace()
+	{
+		return new TxDetail(TxDetailType.RECIPIENTS, getDetailValue());
+	}
+}
@@ -2,7 +2,8 @@ package org.directtruststandards.timplus.monitor.tx.model;
 
 /**
  * The type of stanza.  RFC 6120 defines three type of stanzas: message, presence, and information/query (IQ).  The monitoring system
- * sub-classifies these into more granular types to help identify errors and AMP (advanced message processes) types.
+ * sub-classifies these into more granular types to help identify errors and AMP (advanced message processes) types.  Stanza types
+ * are identified by ordinal in binary encodings, so new types must be appended to the end of the enumeration.
  * @author gm2552
  *
  */
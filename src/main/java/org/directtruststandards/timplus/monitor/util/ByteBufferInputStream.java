@@ -0,0 +1,107 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream that reads the remaining bytes of a ByteBuffer without copying them into an intermediate array.  The stream reads
+ * from a duplicate of the buffer, so the position of the source buffer is not modified.
+ * <p>
+ * This class is not thread safe.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class ByteBufferInputStream extends InputStream
+{
+	protected final ByteBuffer buffer;
+
+	protected int mark;
+
+	/**
+	 * Constructor
+	 * @param buffer The buffer to read.
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer)
+	{
+		if (buffer == null)
+			throw new IllegalArgumentException("Buffer cannot be null");
+
+		this.buffer = buffer.duplicate();
+		this.mark = this.buffer.position();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read()
+	{
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(byte[] bytes, int offset, int length)
+	{
+		if (length == 0)
+			return 0;
+
+		if (!buffer.hasRemaining())
+			return -1;
+
+		final int read = Math.min(length, buffer.remaining());
+		buffer.get(bytes, offset, read);
+
+		return read;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long skip(long count)
+	{
+		final int skipped = (int)Math.max(0, Math.min(count, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+
+		return skipped;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int available()
+	{
+		return buffer.remaining();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void mark(int readLimit)
+	{
+		mark = buffer.position();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset()
+	{
+		buffer.position(mark);
+	}
+}
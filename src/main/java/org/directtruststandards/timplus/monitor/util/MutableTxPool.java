@@ -0,0 +1,135 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+
+/**
+ * Pool of reusable {@link MutableTx} objects for parse loops that hand monitoring objects between threads.  The pool is a fixed ring of
+ * slots that are claimed and returned with compare and set operations, so acquiring and releasing neither lock nor allocate.  A new
+ * MutableTx is created only when the pool is empty, and a released MutableTx is dropped when the pool is full.
+ * <p>
+ * Parse loops that consume each monitoring object on the parsing thread can use {@link #forCurrentThread()} instead, which returns the
+ * same MutableTx for every call on a thread.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class MutableTxPool
+{
+	/**
+	 * The default number of pooled objects.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final ThreadLocal<MutableTx> THREAD_TX = ThreadLocal.withInitial(MutableTx::new);
+
+	protected final AtomicReferenceArray<MutableTx> slots;
+
+	/**
+	 * Empty constructor.  Creates a pool with the default capacity.
+	 */
+	public MutableTxPool()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity The maximum number of pooled objects.
+	 */
+	public MutableTxPool(int capacity)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+
+		slots = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * Gets the MutableTx of the calling thread.  The same object is returned on every call from a thread, so it must not be used after
+	 * the next call on that thread and must not be handed to another thread.
+	 * @return The reset MutableTx of the calling thread.
+	 */
+	public static MutableTx forCurrentThread()
+	{
+		final MutableTx retVal = THREAD_TX.get();
+		retVal.reset();
+
+		return retVal;
+	}
+
+	/**
+	 * Takes a MutableTx from the pool, creating one if the pool is empty.
+	 * @return A reset MutableTx that is owned by the caller until it is released.
+	 */
+	public MutableTx acquire()
+	{
+		final int capacity = slots.length();
+		final int start = startSlot(capacity);
+		for (int i = 0; i < capacity; ++i)
+		{
+			final int slot = (start + i) % capacity;
+			final MutableTx tx = slots.get(slot);
+			if (tx != null && slots.compareAndSet(slot, tx, null))
+			{
+				tx.reset();
+				return tx;
+			}
+		}
+
+		return new MutableTx();
+	}
+
+	/**
+	 * Returns a MutableTx to the pool.  The caller must not use the object after releasing it.
+	 * @param tx The MutableTx to return.
+	 * @return True if the object was pooled, false if the pool is full and the object was dropped.
+	 */
+	public boolean release(MutableTx tx)
+	{
+		if (tx == null)
+			throw new IllegalArgumentException("Tx cannot be null");
+
+		final int capacity = slots.length();
+		final int start = startSlot(capacity);
+		for (int i = 0; i < capacity; ++i)
+		{
+			final int slot = (start + i) % capacity;
+			if (slots.get(slot) == null && slots.compareAndSet(slot, null, tx))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the number of objects currently in the pool.
+	 * @return The number of pooled objects.
+	 */
+	public int size()
+	{
+		int retVal = 0;
+		for (int i = 0; i < slots.length(); ++i)
+			if (slots.get(i) != null)
+				++retVal;
+
+		return retVal;
+	}
+
+	/**
+	 * Gets the maximum number of pooled objects.
+	 * @return The capacity of the pool.
+	 */
+	public int getCapacity()
+	{
+		return slots.length();
+	}
+
+	private static int startSlot(int capacity)
+	{
+		// threads start scanning at different slots so that they rarely contend for the same slot
+		final long id = Thread.currentThread().getId();
+
+		return (int)((id ^ (id >>> 32)) & Integer.MAX_VALUE) % capacity;
+	}
+}
@@ -0,0 +1,120 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader that fails as soon as more than a maximum number of characters have been read from the underlying reader.  Unlike a reader
+ * that truncates its input, an oversized input is reported as an error instead of as a premature end of input, and no more than the
+ * maximum plus one read of the underlying reader is ever consumed.
+ * <p>
+ * This class is not thread safe.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class SizeLimitedReader extends FilterReader
+{
+	protected final long maxSize;
+
+	protected long count;
+
+	/**
+	 * Constructor
+	 * @param reader The underlying reader.
+	 * @param maxSize The maximum number of characters that may be read.
+	 */
+	public SizeLimitedReader(Reader reader, long maxSize)
+	{
+		super(reader);
+
+		if (maxSize < 0)
+			throw new IllegalArgumentException("Max size cannot be negative");
+
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @throws IllegalArgumentException Thrown if the input exceeds the maximum size.
+	 */
+	@Override
+	public int read() throws IOException
+	{
+		final int retVal = super.read();
+		if (retVal >= 0)
+			count(1);
+
+		return retVal;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @throws IllegalArgumentException Thrown if the input exceeds the maximum size.
+	 */
+	@Override
+	public int read(char[] chars, int offset, int length) throws IOException
+	{
+		// never ask for more than one character past the limit
+		final int retVal = super.read(chars, offset, (int)Math.min(length, maxSize - count + 1));
+		if (retVal > 0)
+			count(retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long skip(long n) throws IOException
+	{
+		final long retVal = super.skip(Math.min(n, maxSize - count + 1));
+		count(retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * {@inheritDoc}  Marks are not supported because characters that are read again would be counted twice.
+	 */
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void mark(int readAheadLimit) throws IOException
+	{
+		throw new IOException("Mark is not supported");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset() throws IOException
+	{
+		throw new IOException("Reset is not supported");
+	}
+
+	/**
+	 * Gets the number of characters read so far.
+	 * @return The character count.
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	private void count(long read)
+	{
+		count += read;
+		if (count > maxSize)
+			throw new IllegalArgumentException("Stanza exceeds the maximum size of " + maxSize + " characters");
+	}
+}
@@ -0,0 +1,372 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+/**
+ * Compact, versioned binary encoding of monitoring objects for moving them between nodes.  The encoding is a fraction of the size of
+ * default Java serialization and is considerably faster to write and read.
+ * <p>
+ * An encoded batch consists of a version byte followed by the number of monitoring objects.  Each monitoring object is encoded as the
+ * ordinal of its stanza type, the number of details, and the ordinal and value of each detail.  All integers are unsigned variable
+ * length integers.  Detail values are encoded through a dictionary that is built as the batch is written: the first occurrence of a
+ * value is written as a 0 followed by its UTF-8 length and bytes, and every later occurrence is written as its 1 based dictionary
+ * index.  Repeated JIDs and type values within a batch are therefore written only once.  A single monitoring object is encoded as a
+ * batch of one.
+ * <p>
+ * Stanza and detail types are identified by ordinal, so new types may only be appended to their enums.  Readers accept ordinals from
+ * newer writers: unknown stanza types are read as UNKNOWN and details of unknown types are dropped.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxBinaryCodec
+{
+	/**
+	 * The version of the encoding written by this codec.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The maximum length in bytes of an encoded detail value.
+	 */
+	public static final int MAX_VALUE_LENGTH = 16 * 1024 * 1024;
+
+	private static final TxStanzaType[] STANZA_TYPES = TxStanzaType.values();
+
+	private static final TxDetailType[] DETAIL_TYPES = TxDetailType.values();
+
+	private TxBinaryCodec()
+	{
+
+	}
+
+	/**
+	 * Writes a monitoring object to a data output.
+	 * @param tx The monitoring object.
+	 * @param out The output that the encoded object is written to.
+	 * @throws IOException Thrown if the output cannot be written.
+	 */
+	public static void writeTo(Tx tx, DataOutput out) throws IOException
+	{
+		writeBatch(Collections.singletonList(tx), out);
+	}
+
+	/**
+	 * Writes a monitoring object to a buffer at its current position.
+	 * @param tx The monitoring object.
+	 * @param buffer The buffer that the encoded object is written to.
+	 * @throws IOException Thrown if the object cannot be written.  A {@link java.nio.BufferOverflowException} is thrown if the buffer
+	 * does not have enough space remaining.
+	 */
+	public static void writeTo(Tx tx, ByteBuffer buffer) throws IOException
+	{
+		writeBatch(Collections.singletonList(tx), buffer);
+	}
+
+	/**
+	 * Writes a batch of monitoring objects to a data output.
+	 * @param txs The monitoring objects.
+	 * @param out The output that the encoded batch is written to.
+	 * @throws IOException Thrown if the output cannot be written.
+	 */
+	public static void writeBatch(Collection<Tx> txs, DataOutput out) throws IOException
+	{
+		new Writer(out::write, out::write).writeBatch(txs);
+	}
+
+	/**
+	 * Writes a batch of monitoring objects to a buffer at its current position.
+	 * @param txs The monitoring objects.
+	 * @param buffer The buffer that the encoded batch is written to.
+	 * @throws IOException Thrown if the batch cannot be written.  A {@link java.nio.BufferOverflowException} is thrown if the buffer
+	 * does not have enough space remaining.
+	 */
+	public static void writeBatch(Collection<Tx> txs, ByteBuffer buffer) throws IOException
+	{
+		new Writer(b -> buffer.put((byte)b), buffer::put).writeBatch(txs);
+	}
+
+	/**
+	 * Reads a single monitoring object from a data input.
+	 * @param in The input containing the encoded object.
+	 * @return The monitoring object.
+	 * @throws IOException Thrown if the input cannot be read or does not contain exactly one encoded monitoring object.
+	 */
+	public static Tx readFrom(DataInput in) throws IOException
+	{
+		return single(readBatch(in));
+	}
+
+	/**
+	 * Reads a single monitoring object from a buffer starting at its current position.  On return, the position of the buffer follows
+	 * the encoded object.
+	 * @param buffer The buffer containing the encoded object.
+	 * @return The monitoring object.
+	 * @throws IOException Thrown if the buffer does not contain exactly one encoded monitoring object.
+	 */
+	public static Tx readFrom(ByteBuffer buffer) throws IOException
+	{
+		return single(readBatch(buffer));
+	}
+
+	/**
+	 * Reads a batch of monitoring objects from a data input.
+	 * @param in The input containing the encoded batch.
+	 * @return The monitoring objects in the order they were written.
+	 * @throws IOException Thrown if the input cannot be read or contains an unsupported or invalid encoding.
+	 */
+	public static List<Tx> readBatch(DataInput in) throws IOException
+	{
+		return new Reader(in::readUnsignedByte, in::readFully, Integer.MAX_VALUE).readBatch();
+	}
+
+	/**
+	 * Reads a batch of monitoring objects from a buffer starting at its current position.  On return, the position of the buffer follows
+	 * the encoded batch.
+	 * @param buffer The buffer containing the encoded batch.
+	 * @return The monitoring objects in the order they were written.
+	 * @throws IOException Thrown if the buffer contains an unsupported, invalid, or truncated encoding.
+	 */
+	public static List<Tx> readBatch(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.remaining() < 1)
+			throw new IOException("Encoded batch is empty");
+
+		try
+		{
+			return new Reader(() -> buffer.get() & 0xFF, bytes ->
+			{
+				if (bytes.length > buffer.remaining())
+					throw new IOException("Encoded value exceeds the remaining buffer");
+
+				buffer.get(bytes);
+			}, buffer.remaining()).readBatch();
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("Encoded batch is truncated", e);
+		}
+	}
+
+	private static Tx single(List<Tx> txs) throws IOException
+	{
+		if (txs.size() != 1)
+			throw new IOException("Expected a single monitoring object but found " + txs.size());
+
+		return txs.get(0);
+	}
+
+	@FunctionalInterface
+	private interface ByteSink
+	{
+		void write(int b) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface BytesSink
+	{
+		void write(byte[] bytes) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface ByteSource
+	{
+		int read() throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface BytesSource
+	{
+		void read(byte[] bytes) throws IOException;
+	}
+
+	/**
+	 * Writes a single batch.
+	 */
+	private static class Writer
+	{
+		private final ByteSink byteSink;
+
+		private final BytesSink bytesSink;
+
+		private final Map<String, Integer> dictionary;
+
+		private Writer(ByteSink byteSink, BytesSink bytesSink)
+		{
+			this.byteSink = byteSink;
+			this.bytesSink = bytesSink;
+			this.dictionary = new HashMap<>();
+		}
+
+		private void writeBatch(Collection<Tx> txs) throws IOException
+		{
+			byteSink.write(VERSION);
+			writeVarInt(txs.size());
+
+			for (Tx tx : txs)
+			{
+				final Map<TxDetailType, TxDetail> details = tx.getDetails();
+
+				writeVarInt(tx.getStanzaType().ordinal());
+				writeVarInt(details.size());
+
+				for (Map.Entry<TxDetailType, TxDetail> entry : details.entrySet())
+				{
+					writeVarInt(entry.getKey().ordinal());
+					writeValue(entry.getValue().getDetailValue());
+				}
+			}
+		}
+
+		private void writeValue(String value) throws IOException
+		{
+			final Integer index = dictionary.get(value);
+			if (index != null)
+			{
+				writeVarInt(index);
+				return;
+			}
+
+			dictionary.put(value, dictionary.size() + 1);
+
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(0);
+			writeVarInt(bytes.length);
+			bytesSink.write(bytes);
+		}
+
+		private void writeVarInt(int value) throws IOException
+		{
+			int remaining = value;
+			while ((remaining & ~0x7F) != 0)
+			{
+				byteSink.write((remaining & 0x7F) | 0x80);
+				remaining >>>= 7;
+			}
+
+			byteSink.write(remaining);
+		}
+	}
+
+	/**
+	 * Reads a single batch.
+	 */
+	private static class Reader
+	{
+		private static final int MAX_INITIAL_CAPACITY = 1024;
+
+		private final ByteSource byteSource;
+
+		private final BytesSource bytesSource;
+
+		private final int maxCount;
+
+		private final List<String> dictionary;
+
+		private Reader(ByteSource byteSource, BytesSource bytesSource, int maxCount)
+		{
+			this.byteSource = byteSource;
+			this.bytesSource = bytesSource;
+			this.maxCount = maxCount;
+			this.dictionary = new ArrayList<>();
+		}
+
+		private List<Tx> readBatch() throws IOException
+		{
+			final int version = byteSource.read();
+			if (version != VERSION)
+				throw new IOException("Unsupported encoding version " + version);
+
+			// every encoded monitoring object takes at least two bytes, which bounds the count of a buffer
+			final int count = readVarInt();
+			if (count > maxCount)
+				throw new IOException("Invalid monitoring object count " + count);
+
+			// a stream does not bound the count, so the list grows with the objects that are actually read
+			final List<Tx> retVal = new ArrayList<>(Math.min(count, MAX_INITIAL_CAPACITY));
+			for (int i = 0; i < count; ++i)
+			{
+				final Tx tx = new Tx();
+
+				final int stanzaOrdinal = readVarInt();
+				tx.setStanzaType(stanzaOrdinal < STANZA_TYPES.length ? STANZA_TYPES[stanzaOrdinal] : TxStanzaType.UNKNOWN);
+
+				final int detailCount = readVarInt();
+				for (int j = 0; j < detailCount; ++j)
+				{
+					final int detailOrdinal = readVarInt();
+
+					// the value is always read so that the dictionary stays aligned with the writer
+					final String value = readValue();
+					if (detailOrdinal < DETAIL_TYPES.length)
+					{
+						final TxDetailType detailType = DETAIL_TYPES[detailOrdinal];
+						tx.getDetails().put(detailType, new TxDetail(detailType, value));
+					}
+				}
+
+				retVal.add(tx);
+			}
+
+			return retVal;
+		}
+
+		private String readValue() throws IOException
+		{
+			final int index = readVarInt();
+			if (index > 0)
+			{
+				if (index > dictionary.size())
+					throw new IOException("Invalid dictionary reference " + index);
+
+				return dictionary.get(index - 1);
+			}
+
+			final int length = readVarInt();
+			if (length > MAX_VALUE_LENGTH)
+				throw new IOException("Encoded value length " + length + " exceeds the maximum length");
+
+			final byte[] bytes = new byte[length];
+			bytesSource.read(bytes);
+
+			final String retVal = new String(bytes, StandardCharsets.UTF_8);
+			dictionary.add(retVal);
+
+			return retVal;
+		}
+
+		private int readVarInt() throws IOException
+		{
+			int retVal = 0;
+			for (int shift = 0; shift < 32; shift += 7)
+			{
+				final int b = byteSource.read();
+				retVal |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+				{
+					if (retVal < 0)
+						throw new IOException("Encoded integer is out of range");
+
+					return retVal;
+				}
+			}
+
+			throw new IOException("Encoded integer is too long");
+		}
+	}
+}
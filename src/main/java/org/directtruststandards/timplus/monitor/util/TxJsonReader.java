@@ -0,0 +1,127 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming JSON reader for monitoring objects written by the {@link TxJsonWriter} or by Jackson databinding.  The input is a sequence
+ * of Tx JSON objects separated by whitespace, such as a newline delimited JSON (JSON Lines) export.
+ * <p>
+ * Unknown properties are skipped.  Unknown stanza types are read as UNKNOWN and details of unknown types are dropped, so exports
+ * written by newer versions can be read.
+ * <p>
+ * A reader is not thread safe.  Closing the reader closes the underlying stream.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxJsonReader implements Closeable
+{
+	private static final TxStanzaType[] STANZA_TYPES = TxStanzaType.values();
+
+	private static final TxDetailType[] DETAIL_TYPES = TxDetailType.values();
+
+	protected final JsonParser parser;
+
+	/**
+	 * Constructor
+	 * @param in The stream containing the JSON objects.
+	 * @throws IOException Thrown if the parser cannot be created.
+	 */
+	public TxJsonReader(InputStream in) throws IOException
+	{
+		if (in == null)
+			throw new IllegalArgumentException("Input stream cannot be null");
+
+		parser = TxJsonWriter.JSON_FACTORY.createParser(in);
+	}
+
+	/**
+	 * Reads the next monitoring object.
+	 * @return The next monitoring object or null if the end of the input has been reached.
+	 * @throws IOException Thrown if the input cannot be read or is not a valid monitoring object.
+	 */
+	public Tx read() throws IOException
+	{
+		final JsonToken token = parser.nextToken();
+		if (token == null)
+			return null;
+
+		if (token != JsonToken.START_OBJECT)
+			throw new JsonParseException(parser, "Expected the start of a monitoring object but found " + token);
+
+		final Tx retVal = new Tx();
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			final String field = parser.getCurrentName();
+			final JsonToken value = parser.nextToken();
+
+			if (TxJsonWriter.STANZA_TYPE_FIELD.equals(field) && value == JsonToken.VALUE_STRING)
+				retVal.setStanzaType(toEnum(STANZA_TYPES, parser.getText(), TxStanzaType.UNKNOWN));
+			else if (TxJsonWriter.DETAILS_FIELD.equals(field) && value == JsonToken.START_OBJECT)
+				readDetails(retVal);
+			else
+				parser.skipChildren();
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Reads the details object of a monitoring object.
+	 * @param tx The monitoring object that the details are added to.
+	 * @throws IOException Thrown if the details cannot be read.
+	 */
+	protected void readDetails(Tx tx) throws IOException
+	{
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			final TxDetailType detailType = toEnum(DETAIL_TYPES, parser.getCurrentName(), null);
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+			{
+				parser.skipChildren();
+				continue;
+			}
+
+			String detailValue = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				final String field = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.VALUE_STRING && TxJsonWriter.DETAIL_VALUE_FIELD.equals(field))
+					detailValue = parser.getText();
+				else
+					parser.skipChildren();
+			}
+
+			if (detailType != null && detailValue != null)
+				tx.getDetails().put(detailType, new TxDetail(detailType, detailValue));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		parser.close();
+	}
+
+	private static <E extends Enum<E>> E toEnum(E[] values, String name, E defaultValue)
+	{
+		for (E value : values)
+			if (value.name().equals(name))
+				return value;
+
+		return defaultValue;
+	}
+}
@@ -0,0 +1,150 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Streaming JSON writer that writes monitoring objects as newline delimited JSON (JSON Lines), one object per line.  Each line has the
+ * same shape that Jackson databinding produces for a Tx:
+ * <pre>
+ * {"stanzaType":"MESSAGE","details":{"MSG_ID":{"detailType":"MSG_ID","detailValue":"..."}}}
+ * </pre>
+ * Monitoring objects are written directly to a single UTF-8 generator without reflection or intermediate trees.  Property names and
+ * enum values are pre-encoded, and the output buffer of the generator is recycled by Jackson across writers on the same thread.
+ * <p>
+ * A writer is not thread safe.  Closing the writer closes the underlying stream.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class TxJsonWriter implements Closeable, Flushable
+{
+	static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	static final String STANZA_TYPE_FIELD = "stanzaType";
+
+	static final String DETAILS_FIELD = "details";
+
+	static final String DETAIL_TYPE_FIELD = "detailType";
+
+	static final String DETAIL_VALUE_FIELD = "detailValue";
+
+	private static final SerializedString STANZA_TYPE_NAME = new SerializedString(STANZA_TYPE_FIELD);
+
+	private static final SerializedString DETAILS_NAME = new SerializedString(DETAILS_FIELD);
+
+	private static final SerializedString DETAIL_TYPE_NAME = new SerializedString(DETAIL_TYPE_FIELD);
+
+	private static final SerializedString DETAIL_VALUE_NAME = new SerializedString(DETAIL_VALUE_FIELD);
+
+	private static final SerializedString[] STANZA_TYPES = new SerializedString[TxStanzaType.values().length];
+
+	private static final SerializedString[] DETAIL_TYPES = new SerializedString[TxDetailType.values().length];
+
+	static
+	{
+		for (TxStanzaType stanzaType : TxStanzaType.values())
+			STANZA_TYPES[stanzaType.ordinal()] = new SerializedString(stanzaType.name());
+
+		for (TxDetailType detailType : TxDetailType.values())
+			DETAIL_TYPES[detailType.ordinal()] = new SerializedString(detailType.name());
+	}
+
+	protected final JsonGenerator generator;
+
+	/**
+	 * Constructor
+	 * @param out The stream that JSON lines are written to.
+	 * @throws IOException Thrown if the generator cannot be created.
+	 */
+	public TxJsonWriter(OutputStream out) throws IOException
+	{
+		if (out == null)
+			throw new IllegalArgumentException("Output stream cannot be null");
+
+		generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+
+		// lines are terminated explicitly instead of separating root values with a space
+		generator.setRootValueSeparator(null);
+	}
+
+	/**
+	 * Writes a monitoring object as a single line of JSON.
+	 * @param tx The monitoring object.
+	 * @throws IOException Thrown if the object cannot be written.
+	 */
+	public void write(Tx tx) throws IOException
+	{
+		generator.writeStartObject();
+
+		generator.writeFieldName(STANZA_TYPE_NAME);
+		generator.writeString(STANZA_TYPES[tx.getStanzaType().ordinal()]);
+
+		generator.writeFieldName(DETAILS_NAME);
+		generator.writeStartObject();
+		for (Map.Entry<TxDetailType, TxDetail> entry : tx.getDetails().entrySet())
+		{
+			final TxDetail detail = entry.getValue();
+
+			generator.writeFieldName(DETAIL_TYPES[entry.getKey().ordinal()]);
+			generator.writeStartObject();
+			generator.writeFieldName(DETAIL_TYPE_NAME);
+			generator.writeString(DETAIL_TYPES[detail.getDetailType().ordinal()]);
+			generator.writeFieldName(DETAIL_VALUE_NAME);
+			generator.writeString(detail.getDetailValue());
+			generator.writeEndObject();
+		}
+		generator.writeEndObject();
+
+		generator.writeEndObject();
+		generator.writeRaw('\n');
+	}
+
+	/**
+	 * Writes a sequence of monitoring objects, one per line.
+	 * @param txs The monitoring objects.
+	 * @return The number of monitoring objects written.
+	 * @throws IOException Thrown if an object cannot be written.
+	 */
+	public long writeAll(Iterable<Tx> txs) throws IOException
+	{
+		long count = 0;
+		for (Tx tx : txs)
+		{
+			write(tx);
+			++count;
+		}
+
+		return count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		generator.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		generator.close();
+	}
+}
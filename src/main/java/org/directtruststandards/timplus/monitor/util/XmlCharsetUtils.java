@@ -0,0 +1,194 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility methods for determining the character encoding of raw stanza bytes.  The encoding is taken from a byte order mark or the
+ * encoding pseudo attribute of the XML declaration.  If neither is present, UTF-8 is used as required by section 11.6 of RFC 6120.
+ * @author Greg Meyer
+ * @since 1.1
+ */
+public class XmlCharsetUtils
+{
+	/**
+	 * The maximum number of bytes examined when searching for an XML declaration.
+	 */
+	public static final int MAX_PREFIX_LENGTH = 128;
+
+	private static final byte[] XML_DECLARATION_START = "<?xml".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ENCODING_ATTRIBUTE = "encoding".getBytes(StandardCharsets.US_ASCII);
+
+	private XmlCharsetUtils()
+	{
+
+	}
+
+	/**
+	 * Creates a reader that decodes a stream using its detected encoding.  The stream is wrapped in a buffered stream if it does not support
+	 * mark and reset.
+	 * @param stream The stream containing the raw stanza.
+	 * @return A reader over the decoded stream.
+	 * @throws IOException Thrown if the stream cannot be read.
+	 */
+	public static Reader newReader(InputStream stream) throws IOException
+	{
+		final InputStream markableStream = stream.markSupported() ? stream : new BufferedInputStream(stream);
+
+		return new InputStreamReader(markableStream, detectCharset(markableStream));
+	}
+
+	/**
+	 * Creates a reader that decodes the bytes remaining in a buffer using their detected encoding.  The bytes are decoded in place and 
+	 * the position of the buffer is not modified.
+	 * @param buffer The buffer containing the raw stanza.
+	 * @return A reader over the decoded buffer.
+	 */
+	public static Reader newReader(ByteBuffer buffer)
+	{
+		return new InputStreamReader(new ByteBufferInputStream(buffer), detectCharset(buffer));
+	}
+
+	/**
+	 * Decodes the bytes remaining in a buffer into a string using their detected encoding.  The position of the buffer is not modified.
+	 * @param buffer The buffer containing the raw stanza.
+	 * @return The decoded stanza.
+	 */
+	public static String decode(ByteBuffer buffer)
+	{
+		return detectCharset(buffer).decode(buffer.duplicate()).toString();
+	}
+
+	/**
+	 * Determines the encoding of the bytes remaining in a buffer.  The position and limit of the buffer are not modified.
+	 * @param buffer The buffer containing the raw stanza.
+	 * @return The encoding of the raw stanza.
+	 */
+	public static Charset detectCharset(ByteBuffer buffer)
+	{
+		if (buffer.hasArray())
+			return detectCharset(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+		final int length = Math.min(buffer.remaining(), MAX_PREFIX_LENGTH);
+		final byte[] prefix = new byte[length];
+		for (int i = 0; i < length; ++i)
+			prefix[i] = buffer.get(buffer.position() + i);
+
+		return detectCharset(prefix, 0, length);
+	}
+
+	/**
+	 * Determines the encoding of a stream.  The stream must support mark and reset; on return, the stream is reset to its position prior
+	 * to this call.
+	 * @param stream The stream containing the raw stanza.
+	 * @return The encoding of the raw stanza.
+	 * @throws IOException Thrown if the stream cannot be read.
+	 */
+	public static Charset detectCharset(InputStream stream) throws IOException
+	{
+		if (!stream.markSupported())
+			throw new IllegalArgumentException("Stream must support mark and reset");
+
+		final byte[] prefix = new byte[MAX_PREFIX_LENGTH];
+
+		stream.mark(MAX_PREFIX_LENGTH);
+		try
+		{
+			int length = 0;
+			int read = 0;
+			while (length < MAX_PREFIX_LENGTH && (read = stream.read(prefix, length, MAX_PREFIX_LENGTH - length)) > 0)
+				length += read;
+
+			return detectCharset(prefix, 0, length);
+		}
+		finally
+		{
+			stream.reset();
+		}
+	}
+
+	/**
+	 * Determines the encoding of a range of bytes.
+	 * @param bytes The array containing the raw stanza.
+	 * @param offset The offset of the stanza within the array.
+	 * @param length The length of the stanza.  Only the first {@link #MAX_PREFIX_LENGTH} bytes are examined.
+	 * @return The encoding of the raw stanza.
+	 */
+	public static Charset detectCharset(byte[] bytes, int offset, int length)
+	{
+		final int end = offset + Math.min(length, MAX_PREFIX_LENGTH);
+
+		// byte order marks
+		if (end - offset >= 2)
+		{
+			final int first = bytes[offset] & 0xFF;
+			final int second = bytes[offset + 1] & 0xFF;
+
+			if ((first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE))
+				return StandardCharsets.UTF_16;
+
+			if (first == 0xEF && second == 0xBB && end - offset >= 3 && (bytes[offset + 2] & 0xFF) == 0xBF)
+				return StandardCharsets.UTF_8;
+		}
+
+		// the XML declaration is only honored as the very first content of the stanza
+		if (!startsWith(bytes, offset, end, XML_DECLARATION_START))
+			return StandardCharsets.UTF_8;
+
+		final int declarationEnd = indexOf(bytes, offset, end, (byte)'>');
+		final int encodingIndex = indexOf(bytes, offset, declarationEnd < 0 ? end : declarationEnd, ENCODING_ATTRIBUTE);
+		if (encodingIndex < 0)
+			return StandardCharsets.UTF_8;
+
+		int index = encodingIndex + ENCODING_ATTRIBUTE.length;
+		while (index < end && (bytes[index] == ' ' || bytes[index] == '=' || bytes[index] == '\t' || bytes[index] == '\r' || bytes[index] == '\n'))
+			++index;
+
+		if (index >= end || (bytes[index] != '\'' && bytes[index] != '"'))
+			return StandardCharsets.UTF_8;
+
+		final byte quote = bytes[index++];
+		final int valueEnd = indexOf(bytes, index, end, quote);
+		if (valueEnd < 0)
+			return StandardCharsets.UTF_8;
+
+		return Charset.forName(new String(bytes, index, valueEnd - index, StandardCharsets.US_ASCII));
+	}
+
+	private static boolean startsWith(byte[] bytes, int offset, int end, byte[] match)
+	{
+		if (end - offset < match.length)
+			return false;
+
+		for (int i = 0; i < match.length; ++i)
+			if (bytes[offset + i] != match[i])
+				return false;
+
+		return true;
+	}
+
+	private static int indexOf(byte[] bytes, int offset, int end, byte match)
+	{
+		for (int i = offset; i < end; ++i)
+			if (bytes[i] == match)
+				return i;
+
+		return -1;
+	}
+
+	private static int indexOf(byte[] bytes, int offset, int end, byte[] match)
+	{
+		for (int i = offset; i <= end - match.length; ++i)
+			if (startsWith(bytes, i, end, match))
+				return i;
+
+		return -1;
+	}
+}
@@ -0,0 +1,292 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directtruststandards.timplus.monitor.impl.AsyncTxParser;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.impl.TxAdmissionController;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class AsyncTxParserTest
+{
+	protected final ExecutorService executor = Executors.newFixedThreadPool(4);
+	
+	protected final AsyncTxParser parser = new AsyncTxParser(new PullTxParser(), executor);
+	
+	@AfterEach
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testParseStanzaAsync_assertCompletes() throws Exception
+	{
+		final String stanza = "<message id='async1'><body>hi</body></message>";
+		
+		assertEquals("async1", parser.parseStanzaAsync(stanza).get(5, TimeUnit.SECONDS).getDetail(TxDetailType.MSG_ID).getDetailValue());
+		assertEquals(TxStanzaType.MESSAGE, parser.parseStanzaAsync(ByteBuffer.wrap(stanza.getBytes(StandardCharsets.UTF_8))).get(5, TimeUnit.SECONDS).getStanzaType());
+		assertNull(parser.parseStanzaAsync("<bogus/>").get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testStringProcessor_unboundedDemand_assertOrderAndBoundedWindow() throws Exception
+	{
+		final List<String> stanzas = new ArrayList<>();
+		for (int i = 0; i < 1000; ++i)
+			stanzas.add(i % 100 == 99 ? "<bogus/>" : "<message id='m" + i + "'><body>hi</body></message>");
+		
+		final ListPublisher<String> publisher = new ListPublisher<>(stanzas);
+		final Processor<String, Tx> processor = parser.newStringProcessor(16);
+		publisher.subscribe(processor);
+		
+		final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		assertNull(subscriber.error);
+		assertEquals(990, subscriber.txs.size());
+		assertTrue(publisher.maxOutstanding.get() <= 16);
+		
+		int index = 0;
+		for (int i = 0; i < 1000; ++i)
+			if (i % 100 != 99)
+				assertEquals("m" + i, subscriber.txs.get(index++).getDetail(TxDetailType.MSG_ID).getDetailValue());
+	}
+	
+	@Test
+	public void testStringProcessor_limitedDemand_assertBackpressure() throws Exception
+	{
+		final List<String> stanzas = new ArrayList<>();
+		for (int i = 0; i < 100; ++i)
+			stanzas.add("<presence id='p" + i + "'/>");
+		
+		final ListPublisher<String> publisher = new ListPublisher<>(stanzas);
+		final Processor<String, Tx> processor = parser.newStringProcessor(8);
+		
+		final CollectingSubscriber subscriber = new CollectingSubscriber(5);
+		processor.subscribe(subscriber);
+		
+		// nothing is requested upstream until the processor is subscribed to the publisher
+		publisher.subscribe(processor);
+		
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (subscriber.txs.size() < 5 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		Thread.sleep(100);
+		
+		assertEquals(5, subscriber.txs.size());
+		assertTrue(publisher.emitted.get() <= 5 + 8);
+		
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		assertEquals(100, subscriber.txs.size());
+		assertEquals("p99", subscriber.txs.get(99).getDetail(TxDetailType.MSG_ID).getDetailValue());
+	}
+	
+	@Test
+	public void testStringProcessor_overloaded_assertLowValueStanzasShed() throws Exception
+	{
+		final List<String> stanzas = new ArrayList<>();
+		for (int i = 0; i < 300; ++i)
+		{
+			switch (i % 3)
+			{
+				case 0:
+					stanzas.add("<message id='m" + i + "' type='chat'><body>hi</body></message>");
+					break;
+				case 1:
+					stanzas.add("<message id='c" + i + "' type='chat'><composing xmlns='http://jabber.org/protocol/chatstates'/></message>");
+					break;
+				default:
+					stanzas.add("<presence id='p" + i + "'/>");
+			}
+		}
+		
+		// load from other work keeps the controller overloaded for the whole stream
+		final TxAdmissionController controller = new TxAdmissionController(1, 0);
+		controller.enter();
+		parser.setAdmissionController(controller);
+		
+		final ListPublisher<String> publisher = new ListPublisher<>(stanzas);
+		final Processor<String, Tx> processor = parser.newStringProcessor(16);
+		publisher.subscribe(processor);
+		
+		final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		assertNull(subscriber.error);
+		assertEquals(110, subscriber.txs.size());
+		assertTrue(publisher.maxOutstanding.get() <= 16);
+		
+		assertEquals(100, controller.getAdmittedCount(TxStanzaType.MESSAGE));
+		assertEquals(100, controller.getShedCount(TxStanzaType.MESSAGE_CHAT_STATE));
+		assertEquals(10, controller.getAdmittedCount(TxStanzaType.PRESENSE));
+		assertEquals(90, controller.getShedCount(TxStanzaType.PRESENSE));
+		assertEquals(1, controller.getQueueDepth());
+		
+		int messages = 0;
+		for (Tx tx : subscriber.txs)
+			if (tx.getStanzaType() == TxStanzaType.MESSAGE)
+				assertEquals("m" + (messages++ * 3), tx.getDetail(TxDetailType.MSG_ID).getDetailValue());
+		assertEquals(100, messages);
+	}
+	
+	@Test
+	public void testStringProcessor_rejectingExecutor_assertErrorSignaledAndQueueDepthReleased() throws Exception
+	{
+		final ExecutorService rejecting = Executors.newSingleThreadExecutor();
+		rejecting.shutdown();
+		
+		final AsyncTxParser rejectingParser = new AsyncTxParser(new PullTxParser(), rejecting);
+		final TxAdmissionController controller = new TxAdmissionController(16, 8);
+		rejectingParser.setAdmissionController(controller);
+		
+		final List<String> stanzas = new ArrayList<>();
+		for (int i = 0; i < 10; ++i)
+			stanzas.add("<message id='m" + i + "' type='chat'><body>hi</body></message>");
+		
+		final ListPublisher<String> publisher = new ListPublisher<>(stanzas);
+		final Processor<String, Tx> processor = rejectingParser.newStringProcessor(4);
+		publisher.subscribe(processor);
+		
+		final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		assertTrue(subscriber.error instanceof RejectedExecutionException);
+		assertTrue(subscriber.txs.isEmpty());
+		assertEquals(0, controller.getQueueDepth());
+		assertTrue(publisher.emitted.get() <= 4);
+	}
+	
+	protected static class CollectingSubscriber implements Subscriber<Tx>
+	{
+		protected final List<Tx> txs = Collections.synchronizedList(new ArrayList<>());
+		
+		protected final CountDownLatch done = new CountDownLatch(1);
+		
+		protected final long initialRequest;
+		
+		protected volatile Subscription subscription;
+		
+		protected volatile Throwable error;
+		
+		protected CollectingSubscriber(long initialRequest)
+		{
+			this.initialRequest = initialRequest;
+		}
+		
+		@Override
+		public void onSubscribe(Subscription subscription)
+		{
+			this.subscription = subscription;
+			subscription.request(initialRequest);
+		}
+
+		@Override
+		public void onNext(Tx tx)
+		{
+			txs.add(tx);
+		}
+
+		@Override
+		public void onError(Throwable throwable)
+		{
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete()
+		{
+			done.countDown();
+		}
+	}
+	
+	/**
+	 * Publisher that emits a list of items on the requesting thread and tracks the number of outstanding requested items.
+	 */
+	protected static class ListPublisher<T> implements Publisher<T>
+	{
+		protected final List<T> items;
+		
+		protected final AtomicLong emitted = new AtomicLong();
+		
+		protected final AtomicLong maxOutstanding = new AtomicLong();
+		
+		protected ListPublisher(List<T> items)
+		{
+			this.items = items;
+		}
+		
+		@Override
+		public void subscribe(Subscriber<? super T> subscriber)
+		{
+			final AtomicLong requested = new AtomicLong();
+			final AtomicInteger wip = new AtomicInteger();
+			
+			subscriber.onSubscribe(new Subscription()
+			{
+				private volatile boolean cancelled;
+				
+				@Override
+				public void request(long n)
+				{
+					requested.addAndGet(n);
+					
+					if (wip.getAndIncrement() != 0)
+						return;
+					
+					do
+					{
+						maxOutstanding.accumulateAndGet(requested.get(), Math::max);
+						
+						while (requested.get() > 0 && emitted.get() < items.size() && !cancelled)
+						{
+							requested.decrementAndGet();
+							subscriber.onNext(items.get((int)emitted.getAndIncrement()));
+						}
+						
+						if (emitted.get() == items.size() && !cancelled)
+						{
+							cancelled = true;
+							subscriber.onComplete();
+						}
+					}
+					while (wip.decrementAndGet() != 0);
+				}
+
+				@Override
+				public void cancel()
+				{
+					cancelled = true;
+				}
+			});
+		}
+	}
+}
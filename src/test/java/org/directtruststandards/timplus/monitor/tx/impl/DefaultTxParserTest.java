@@ -4,9 +4,23 @@ package org.directtruststandards.timplus.monitor.tx.impl;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
@@ -74,6 +88,71 @@ public class DefaultTxParserTest
 		assertEquals("bernardo@shakespeare.lit/pda", details.get(TxDetailType.FROM).getDetailValue());	
 		assertEquals("chat", details.get(TxDetailType.TYPE).getDetailValue());	
 		assertNotNull(details.get(TxDetailType.MESSAGE_BODY_IND));
+		
+		// a server to server stanza in the jabber:server namespace has the same body
+		final Tx serverTx = parser.parseStanza(IOUtils.resourceToString("/messages/serverChatStateAndBody.txt", Charset.defaultCharset()));
+		assertEquals(TxStanzaType.MESSAGE, serverTx.getStanzaType());
+		assertNotNull(serverTx.getDetail(TxDetailType.MESSAGE_BODY_IND));
+		assertEquals("active", serverTx.getDetail(TxDetailType.CHAT_STATE).getDetailValue());
+		
+		// bodies in another language than the message and empty bodies are not indicated
+		assertEquals(TxStanzaType.MESSAGE_CHAT_STATE, parser.parseStanza("<message xmlns='jabber:server' id='x' xml:lang='en'>"
+				+ "<body xml:lang='de'>hallo</body><active xmlns='http://jabber.org/protocol/chatstates'/></message>").getStanzaType());
+		assertEquals(TxStanzaType.MESSAGE_CHAT_STATE, parser.parseStanza("<message xmlns='jabber:server' id='x'>"
+				+ "<body/><active xmlns='http://jabber.org/protocol/chatstates'/></message>").getStanzaType());
+	}
+	
+	@Test
+	public void testParseGroupChatStanzas_assertRoomExtracted() throws Exception
+	{
+		((DefaultTxParser)parser).setGroupChatServices(Arrays.asList("chat.shakespeare.lit", "conference.hispa.com")::contains);
+		
+		final Tx sent = parser.parseStanza(IOUtils.resourceToString("/messages/groupChatSentStanza.txt", Charset.defaultCharset()));
+		
+		assertEquals(TxStanzaType.MESSAGE, sent.getStanzaType());
+		assertEquals("groupchat", sent.getDetail(TxDetailType.TYPE).getDetailValue());
+		assertEquals("coven@chat.shakespeare.lit", sent.getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		
+		final Tx reflected = parser.parseStanza(IOUtils.resourceToString("/messages/groupChatReflectedStanza.txt", Charset.defaultCharset()));
+		
+		assertEquals(TxStanzaType.MESSAGE, reflected.getStanzaType());
+		assertEquals("coven@chat.shakespeare.lit", reflected.getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		assertEquals("crone1@shakespeare.lit/desktop", reflected.getDetail(TxDetailType.RECIPIENTS).getDetailValue());
+		
+		// the room does not depend on the FROM, RECIPIENTS, or TYPE details being requested
+		final Tx projected = parser.parseStanza(IOUtils.resourceToString("/messages/groupChatReflectedStanza.txt", Charset.defaultCharset()), 
+				EnumSet.of(TxDetailType.GROUP_CHAT_ROOM));
+		assertEquals("coven@chat.shakespeare.lit", projected.getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		assertNull(projected.getDetail(TxDetailType.FROM));
+		
+		// a reflection addressed to the bare JID of an occupant still names the room
+		final Tx reflectedToBare = parser.parseStanza("<message from='coven@chat.shakespeare.lit/firstwitch' id='hysf1v37' "
+				+ "to='crone1@shakespeare.lit' type='groupchat'><body>hi</body></message>");
+		assertEquals("coven@chat.shakespeare.lit", reflectedToBare.getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		
+		// a send from another domain is still addressed to the room
+		final Tx federatedSent = parser.parseStanza("<message from='romeo@montague.lit/orchard' id='hysf1v37' "
+				+ "to='coven@chat.shakespeare.lit' type='groupchat'><body>hi</body></message>");
+		assertEquals("coven@chat.shakespeare.lit", federatedSent.getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		
+		// a room hosted by another service provider reflects to the bare JID of an occupant
+		final String crossDomain = IOUtils.resourceToString("/messages/groupChatCrossDomainReflectedStanza.txt", Charset.defaultCharset());
+		assertEquals("coven@conference.hispa.com", parser.parseStanza(crossDomain).getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		
+		// without known group chat services a copy from a full JID to a bare JID is ambiguous, so no room is set
+		((DefaultTxParser)parser).setGroupChatServices(null);
+		assertNull(parser.parseStanza(crossDomain).getDetail(TxDetailType.GROUP_CHAT_ROOM));
+		assertEquals("bob@hispb.com", parser.parseStanza(crossDomain).getDetail(TxDetailType.RECIPIENTS).getDetailValue());
+		((DefaultTxParser)parser).setGroupChatServices("chat.shakespeare.lit"::equals);
+		assertNull(parser.parseStanza(crossDomain).getDetail(TxDetailType.GROUP_CHAT_ROOM));
+		
+		// a reflection to a full JID does not depend on known services
+		assertEquals("coven@chat.shakespeare.lit", parser.parseStanza(IOUtils.resourceToString("/messages/groupChatReflectedStanza.txt", 
+				Charset.defaultCharset())).getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		
+		// only group chat messages have a room
+		final Tx chat = parser.parseStanza(IOUtils.resourceToString("/messages/plainMessageStanza.txt", Charset.defaultCharset()));
+		assertNull(chat.getDetail(TxDetailType.GROUP_CHAT_ROOM));
 	}
 	
 	@Test
@@ -128,6 +207,40 @@ public class DefaultTxParserTest
 		assertEquals("set", details.get(TxDetailType.TYPE).getDetailValue());	
 	}
 	
+	@Test
+	public void testParseIQErrorStanza() throws Exception
+	{
+		final String stanza = IOUtils.resourceToString("/messages/iqErrorStanza.txt", Charset.defaultCharset());
+		
+		final Tx tx = parser.parseStanza(stanza);
+		
+		assertEquals(TxStanzaType.IQ_ERROR, tx.getStanzaType());
+		
+		final Map<TxDetailType, TxDetail> details = tx.getDetails();
+		
+		assertEquals("ix7s53v2", details.get(TxDetailType.MSG_ID).getDetailValue());
+		assertEquals("juliet@im.example.com/balcony", details.get(TxDetailType.RECIPIENTS).getDetailValue());
+		assertEquals("im.example.com", details.get(TxDetailType.FROM).getDetailValue());
+		assertEquals("error", details.get(TxDetailType.TYPE).getDetailValue());	
+		assertEquals("item-not-found", details.get(TxDetailType.ERROR_CONDITION).getDetailValue());
+	}
+	
+	@Test
+	public void testParsePresenceErrorStanza() throws Exception
+	{
+		final String stanza = IOUtils.resourceToString("/messages/presenceErrorStanza.txt", Charset.defaultCharset());
+		
+		final Tx tx = parser.parseStanza(stanza);
+		
+		assertEquals(TxStanzaType.PRESENSE_ERROR, tx.getStanzaType());
+		
+		final Map<TxDetailType, TxDetail> details = tx.getDetails();
+		
+		assertEquals("xk3h1v69", details.get(TxDetailType.MSG_ID).getDetailValue());
+		assertEquals("error", details.get(TxDetailType.TYPE).getDetailValue());	
+		assertEquals("remote-server-not-found", details.get(TxDetailType.ERROR_CONDITION).getDetailValue());
+	}
+	
 	@Test
 	public void testParsSubscribeStanza() throws Exception
 	{
@@ -144,4 +257,202 @@ public class DefaultTxParserTest
 		assertEquals("romeo@example.net", details.get(TxDetailType.FROM).getDetailValue());
 		assertEquals("subscribe", details.get(TxDetailType.TYPE).getDetailValue());	
 	}
+	
+	@Test
+	public void testParseStanzas_largeBatch_assertInputOrder() throws Exception
+	{
+		if (parser instanceof DefaultTxParser)
+		{
+			((DefaultTxParser)parser).setParallelism(4);
+			((DefaultTxParser)parser).setBatchThreshold(8);
+		}
+		
+		final String stanza = IOUtils.resourceToString("/messages/plainMessageStanza.txt", Charset.defaultCharset());
+		
+		final List<String> stanzas = new ArrayList<>();
+		for (int i = 0; i < 500; ++i)
+			stanzas.add(i == 250 ? "<message id='bad' type='bogus'/>" : stanza.replace("sl3nx51f", "id" + i));
+		
+		final List<Tx> txs = parser.parseStanzas(stanzas);
+		
+		assertEquals(500, txs.size());
+		for (int i = 0; i < 500; ++i)
+		{
+			if (i == 250)
+				assertNull(txs.get(i));
+			else
+				assertEquals("id" + i, txs.get(i).getDetail(TxDetailType.MSG_ID).getDetailValue());
+		}
+	}
+	
+	@Test
+	public void testParseStanzas_parallelismChangedDuringBatches_assertAllParsed() throws Exception
+	{
+		if (!(parser instanceof DefaultTxParser))
+			return;
+		
+		final DefaultTxParser batchParser = (DefaultTxParser)parser;
+		batchParser.setParallelism(2);
+		batchParser.setBatchThreshold(4);
+		
+		final String stanza = IOUtils.resourceToString("/messages/plainMessageStanza.txt", Charset.defaultCharset());
+		final List<String> stanzas = Collections.nCopies(200, stanza);
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			final List<Future<List<Tx>>> batches = new ArrayList<>();
+			for (int i = 0; i < 40; ++i)
+				batches.add(executor.submit(() -> parser.parseStanzas(stanzas)));
+			
+			// replace the pool while batches are submitted to and running on it
+			for (int i = 0; i < 20; ++i)
+				batchParser.setParallelism(2 + i % 3);
+			
+			for (Future<List<Tx>> batch : batches)
+				for (Tx tx : batch.get(30, TimeUnit.SECONDS))
+					assertNotNull(tx);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testParseStanzas_smallBatchArray_assertInputOrder() throws Exception
+	{
+		final String message = IOUtils.resourceToString("/messages/plainMessageStanza.txt", Charset.defaultCharset());
+		final String presence = IOUtils.resourceToString("/messages/presenceSubscribeStanza.txt", Charset.defaultCharset());
+		
+		final List<Tx> txs = parser.parseStanzas(presence, message);
+		
+		assertEquals(2, txs.size());
+		assertEquals(TxStanzaType.PRESENSE, txs.get(0).getStanzaType());
+		assertEquals(TxStanzaType.MESSAGE, txs.get(1).getStanzaType());
+		assertTrue(parser.parseStanzas(new ArrayList<>()).isEmpty());
+	}
+	
+	@Test
+	public void testParseStanza_byteAndCharSequenceInputs_assertEncodingRespected() throws Exception
+	{
+		final String utf8Stanza = "<message id='caf\u00e9' from='jos\u00e9@example.com' to='ren\u00e9e@example.com'><body>ol\u00e1</body></message>";
+		final byte[] utf8Bytes = utf8Stanza.getBytes(StandardCharsets.UTF_8);
+		
+		final String latinStanza = "<?xml version='1.0' encoding='ISO-8859-1'?>" + utf8Stanza;
+		final byte[] latinBytes = latinStanza.getBytes(StandardCharsets.ISO_8859_1);
+		
+		// array with leading and trailing garbage to exercise the offset and length
+		final byte[] padded = new byte[utf8Bytes.length + 6];
+		System.arraycopy(utf8Bytes, 0, padded, 3, utf8Bytes.length);
+		
+		final ByteBuffer direct = ByteBuffer.allocateDirect(latinBytes.length);
+		direct.put(latinBytes).flip();
+		
+		final Tx[] txs = {
+			parser.parseStanza(ByteBuffer.wrap(utf8Bytes)),
+			parser.parseStanza(padded, 3, utf8Bytes.length),
+			parser.parseStanza(direct),
+			parser.parseStanza(new ByteArrayInputStream(latinBytes)),
+			parser.parseStanza(new StringBuilder(utf8Stanza))
+		};
+		
+		for (Tx tx : txs)
+		{
+			assertEquals(TxStanzaType.MESSAGE, tx.getStanzaType());
+			assertEquals("caf\u00e9", tx.getDetail(TxDetailType.MSG_ID).getDetailValue());
+			assertEquals("jos\u00e9@example.com", tx.getDetail(TxDetailType.FROM).getDetailValue());
+			assertEquals("ren\u00e9e@example.com", tx.getDetail(TxDetailType.RECIPIENTS).getDetailValue());
+		}
+		
+		assertEquals(0, direct.position());
+	}
+	
+	@Test
+	public void testParseStanza_oversizedStanza_assertFailsFast() throws Exception
+	{
+		final StringBuilder stanza = new StringBuilder("<message id='big' type='chat'><body>");
+		while (stanza.length() < 256 * 1024)
+			stanza.append("0123456789abcdef");
+		stanza.append("</body></message>");
+		final byte[] bytes = stanza.toString().getBytes(StandardCharsets.UTF_8);
+		
+		final DefaultTxParser limitedParser = (DefaultTxParser)parser;
+		limitedParser.setMaxStanzaSize(64 * 1024);
+		
+		assertNull(parser.parseStanza(stanza.toString()));
+		assertNull(parser.parseStanza(stanza));
+		assertNull(parser.parseStanza(ByteBuffer.wrap(bytes)));
+		assertNull(parser.parseStanza(new ByteArrayInputStream(bytes)));
+		
+		// an endless stream is abandoned once the limit is reached instead of being buffered
+		final long[] read = new long[1];
+		final InputStream endless = new InputStream()
+		{
+			@Override
+			public int read()
+			{
+				return (read[0]++ < bytes.length) ? bytes[(int)read[0] - 1] : 'x';
+			}
+		};
+		assertNull(parser.parseStanza(endless));
+		assertTrue(read[0] < 128 * 1024);
+		
+		limitedParser.setMaxStanzaSize(0);
+		assertEquals("big", parser.parseStanza(stanza.toString()).getDetail(TxDetailType.MSG_ID).getDetailValue());
+		assertNotNull(parser.parseStanza(ByteBuffer.wrap(bytes)).getDetail(TxDetailType.MESSAGE_BODY_IND));
+	}
+	
+	@Test
+	public void testParseStanza_projection_assertOnlyRequestedDetails() throws Exception
+	{
+		final String stanza = IOUtils.resourceToString("/messages/ampDeliveredStanza.txt", Charset.defaultCharset());
+		
+		final Tx routingTx = parser.parseStanza(stanza, EnumSet.of(TxDetailType.MSG_ID, TxDetailType.FROM));
+		
+		// the details that decide the stanza type are evaluated even when they are not requested
+		assertEquals(TxStanzaType.AMP, routingTx.getStanzaType());
+		assertEquals(2, routingTx.getDetails().size());
+		assertEquals(parser.parseStanza(stanza).getDetail(TxDetailType.FROM).getDetailValue(), 
+				routingTx.getDetail(TxDetailType.FROM).getDetailValue());
+		
+		final Tx ampTx = parser.parseStanza(stanza, EnumSet.of(TxDetailType.MSG_ID, TxDetailType.AMP_CONDITION_VALUE));
+		
+		assertEquals(TxStanzaType.AMP, ampTx.getStanzaType());
+		assertEquals(2, ampTx.getDetails().size());
+		assertEquals(AMPDeliverCondition.Value.direct.name(), ampTx.getDetail(TxDetailType.AMP_CONDITION_VALUE).getDetailValue());
+		
+		final Map<TxDetailType, TxDetail> details = parser.getStanzaDetails(stanza, EnumSet.of(TxDetailType.ORIGINAL_RECIPIENT));
+		assertEquals(1, details.size());
+		assertNotNull(details.get(TxDetailType.ORIGINAL_RECIPIENT));
+	}
+	
+	@Test
+	public void testClassify_corpusAndEdgeCases_assertSameAsParseStanza() throws Exception
+	{
+		final List<String> stanzas = new ArrayList<>();
+		for (String resource : new String[] {"ampDeliveredStanza.txt", "chatStateStanza.txt", "iqErrorStanza.txt", "iqRosterSetStanza.txt", 
+				"mixedChatStateAndBody.txt", "plainMessageStanza.txt", "presenceErrorStanza.txt", "presenceSubscribeStanza.txt", "serverChatStateAndBody.txt",
+				"serviceUnavailableStanza.txt"})
+			stanzas.add(IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset()));
+		
+		stanzas.add("<message id='x'><body> </body><active xmlns='http://jabber.org/protocol/chatstates'/></message>");
+		stanzas.add("<message id='x'><body><![CDATA[]]></body><active xmlns='http://jabber.org/protocol/chatstates'/></message>");
+		stanzas.add("<message id='x' xml:lang='en'><body xml:lang='de'>hallo</body><active xmlns='http://jabber.org/protocol/chatstates'/></message>");
+		stanzas.add("<message id='x'><amp xmlns='http://jabber.org/protocol/amp' status='alert'><rule action='notify' condition='deliver' value='direct'/></amp></message>");
+		stanzas.add("<message id='x'><amp xmlns='http://jabber.org/protocol/amp' status='notify'><rule action='notify' condition='deliver' value='bogus'/></amp></message>");
+		stanzas.add("<message id='x' type='bogus'/>");
+		stanzas.add("<iq id='x'/>");
+		stanzas.add("<iq id='x' type='error'/>");
+		stanzas.add("<presence id='x'><error type='cancel'><text xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'>t</text></error></presence>");
+		
+		for (String stanza : stanzas)
+		{
+			final Tx tx = parser.parseStanza(stanza);
+			final TxStanzaType expected = (tx == null) ? null : tx.getStanzaType();
+			
+			assertEquals(expected, parser.classify(stanza), stanza);
+			assertEquals(expected, parser.classify(ByteBuffer.wrap(stanza.getBytes(StandardCharsets.UTF_8))), stanza);
+		}
+	}
 }
@@ -0,0 +1,76 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.JidCache;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class JidCacheTest
+{
+	@Test
+	public void testToJidString_repeatedJid_assertCanonicalInstanceAndCounts() throws Exception
+	{
+		final JidCache cache = new JidCache();
+		
+		final String first = cache.toJidString(new String("Romeo@Example.net/Orchard"));
+		final String second = cache.toJidString(new String("Romeo@Example.net/Orchard"));
+		
+		assertEquals("romeo@example.net/Orchard", first);
+		assertSame(first, second);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.size());
+		
+		assertSame(first, cache.toJidString(JidCreate.from("romeo@example.net/Orchard")));
+	}
+	
+	@Test
+	public void testToJidString_invalidJid_assertExceptionAndNotCached() throws Exception
+	{
+		final JidCache cache = new JidCache();
+		
+		assertThrows(Exception.class, () -> cache.toJidString("romeo@"));
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testToJidString_exceedMaxSize_assertBounded() throws Exception
+	{
+		final JidCache cache = new JidCache(64);
+		
+		for (int i = 0; i < 1000; ++i)
+			cache.toJidString("user" + i + "@example.com");
+		
+		assertTrue(cache.size() <= 64);
+		
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getMissCount());
+	}
+	
+	@Test
+	public void testParseStanza_sharedCache_assertSharedValues() throws Exception
+	{
+		final JidCache cache = new JidCache();
+		final DefaultTxParser defaultParser = new DefaultTxParser();
+		final PullTxParser pullParser = new PullTxParser();
+		defaultParser.setJidCache(cache);
+		pullParser.setJidCache(cache);
+		
+		final String stanza = "<message id='1' from='romeo@example.net/orchard' to='juliet@example.com'><body>hi</body></message>";
+		
+		final Tx defaultTx = defaultParser.parseStanza(stanza);
+		final Tx pullTx = pullParser.parseStanza(stanza);
+		
+		assertSame(defaultTx.getDetail(TxDetailType.FROM).getDetailValue(), pullTx.getDetail(TxDetailType.FROM).getDetailValue());
+		assertSame(defaultTx.getDetail(TxDetailType.RECIPIENTS).getDetailValue(), pullTx.getDetail(TxDetailType.RECIPIENTS).getDetailValue());
+	}
+}
@@ -0,0 +1,243 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxBatch;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class PullTxParserTest extends DefaultTxParserTest
+{
+	protected static final String[] CORPUS = {"ampDeliveredStanza.txt", "chatStateStanza.txt", "groupChatCrossDomainReflectedStanza.txt", 
+			"groupChatReflectedStanza.txt", "groupChatSentStanza.txt", "iqErrorStanza.txt", "iqRosterSetStanza.txt", "mixedChatStateAndBody.txt", "plainMessageStanza.txt", "presenceErrorStanza.txt", "presenceSubscribeStanza.txt", "serverChatStateAndBody.txt", "serviceUnavailableStanza.txt"};
+	
+	public PullTxParserTest()
+	{
+		parser = new PullTxParser();
+	}
+	
+	@Test
+	public void testParseStanza_corpus_assertSameAsDefaultParser() throws Exception
+	{
+		final TxParser defaultParser = new DefaultTxParser();
+		
+		for (String resource : CORPUS)
+		{
+			final String stanza = IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset());
+			
+			assertSameTx(defaultParser.parseStanza(stanza), parser.parseStanza(stanza));
+			assertSameTx(defaultParser.parseStanza(stanza), parser.parseStanza(new ByteArrayInputStream(stanza.getBytes(Charset.defaultCharset()))));
+		}
+	}
+	
+	@Test
+	public void testParseStanza_edgeCases_assertSameAsDefaultParser() throws Exception
+	{
+		final TxParser defaultParser = new DefaultTxParser();
+		
+		final String[] stanzas = {
+			"<message from='Romeo@Example.net/Orchard' id='x'><body>hi</body></message>",
+			"<message id='x' xml:lang='en'><body xml:lang='de'>hallo</body></message>",
+			"<message id='x'><body></body><composing xmlns='http://jabber.org/protocol/chatstates'/></message>",
+			"<message id='x'><unknown xmlns='http://jabber.org/protocol/chatstates'/></message>",
+			"<message id='x'><amp xmlns='http://jabber.org/protocol/amp' status='notify' to='Francisco@hamlet.lit'>"
+					+ "<rule action='notify' condition='deliver' value='stored'/></amp></message>",
+			"<message id='x'><amp xmlns='http://jabber.org/protocol/amp' status='alert'><rule action='notify' condition='deliver' value='direct'/></amp></message>",
+			"<iq id='x' type='error'><error type='cancel'><item-not-found xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error></iq>",
+			"<presence id='x' type='error'><error type='cancel'><text xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'>t</text>"
+					+ "<remote-server-not-found xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error></presence>",
+			"<presence id='x'/>"
+		};
+		
+		for (String stanza : stanzas)
+			assertSameTx(defaultParser.parseStanza(stanza), parser.parseStanza(stanza));
+	}
+	
+	@Test
+	public void testParseStanza_invalidStanzas_assertNull() throws Exception
+	{
+		assertNull(parser.parseStanza("<stream id='x'/>"));
+		assertNull(parser.parseStanza("<iq id='x'/>"));
+		assertNull(parser.parseStanza("<message id='x' type='bogus'/>"));
+		assertNull(parser.parseStanza("<message id='x'><error type='cancel'><bogus xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error></message>"));
+		assertNull(parser.parseStanza("<message id='x'>"));
+	}
+	
+	@Test
+	public void testParseStanza_deeplyNestedElements_assertFailsFast() throws Exception
+	{
+		final PullTxParser pullParser = (PullTxParser)parser;
+		
+		final String[] stanzas = {
+			"<message id='x'>" + nest("html", "http://jabber.org/protocol/xhtml-im", 40) + "<body>hi</body></message>",
+			"<message id='x'><body>hi" + nest("b", "", 40) + "</body></message>",
+			"<message id='x'><amp xmlns='http://jabber.org/protocol/amp' status='notify'>" + nest("rule", "", 40) + "</amp></message>"
+		};
+		
+		for (String stanza : stanzas)
+		{
+			assertNull(parser.parseStanza(stanza), stanza);
+			assertFalse(pullParser.parseInto(stanza, new MutableTx()), stanza);
+		}
+		
+		pullParser.setMaxDepth(64);
+		for (String stanza : stanzas)
+			assertEquals(TxStanzaType.MESSAGE, parser.parseStanza(stanza).getStanzaType(), stanza);
+		
+		// the body text is detected when it precedes or follows nested markup
+		assertNotNull(parser.parseStanza(stanzas[1]).getDetail(TxDetailType.MESSAGE_BODY_IND));
+		assertNotNull(parser.parseStanza("<message id='x'><body><b/>hi</body></message>").getDetail(TxDetailType.MESSAGE_BODY_IND));
+		assertNull(parser.parseStanza("<message id='x'><body><b>hi</b></body></message>").getDetail(TxDetailType.MESSAGE_BODY_IND));
+	}
+	
+	protected static String nest(String element, String namespace, int depth)
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < depth; ++i)
+			builder.append('<').append(element).append(namespace.isEmpty() ? "" : " xmlns='" + namespace + "'").append('>');
+		for (int i = 0; i < depth; ++i)
+			builder.append("</").append(element).append('>');
+		
+		return builder.toString();
+	}
+	
+	@Test
+	public void testParseStanza_projectedCorpus_assertSameAsDefaultParser() throws Exception
+	{
+		final TxParser defaultParser = new DefaultTxParser();
+		
+		final List<EnumSet<TxDetailType>> projections = Arrays.asList(EnumSet.of(TxDetailType.MSG_ID, TxDetailType.FROM),
+				EnumSet.of(TxDetailType.ERROR_CONDITION, TxDetailType.CHAT_STATE), EnumSet.of(TxDetailType.MESSAGE_BODY_IND),
+				EnumSet.of(TxDetailType.ORIGINAL_RECIPIENT, TxDetailType.TYPE), EnumSet.noneOf(TxDetailType.class));
+		
+		for (String resource : CORPUS)
+		{
+			final String stanza = IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset());
+			
+			for (EnumSet<TxDetailType> projection : projections)
+				assertSameTx(defaultParser.parseStanza(stanza, projection), parser.parseStanza(stanza, projection));
+		}
+	}
+	
+	@Test
+	public void testParseStanza_projection_assertStopsOnceResolved() throws Exception
+	{
+		// the stanza is truncated after the elements that resolve the requested details and the stanza type
+		final String stanza = "<message id='x' from='romeo@example.net' type='error'><body>hi</body><error type='cancel'>"
+				+ "<service-unavailable xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error><x>";
+		
+		assertNull(parser.parseStanza(stanza));
+		
+		final Tx tx = parser.parseStanza(stanza, EnumSet.of(TxDetailType.MSG_ID, TxDetailType.MESSAGE_BODY_IND));
+		
+		assertEquals(TxStanzaType.MESSAGE_ERROR, tx.getStanzaType());
+		assertEquals(2, tx.getDetails().size());
+		assertNotNull(parser.parseStanza(stanza, EnumSet.of(TxDetailType.FROM)));
+		
+		// without an error, a later AMP or error element could still change the stanza type
+		assertNull(parser.parseStanza("<message id='x' from='romeo@example.net'><body>hi</body>"
+				+ "<composing xmlns='http://jabber.org/protocol/chatstates'/><x>", EnumSet.of(TxDetailType.MESSAGE_BODY_IND)));
+	}
+	
+	@Test
+	public void testParseInto_corpus_assertSameAsParseStanzaWithReusedDetails() throws Exception
+	{
+		for (TxParser txParser : new TxParser[] {new DefaultTxParser(), parser})
+		{
+			final MutableTx target = new MutableTx();
+			TxDetail msgIdDetail = null;
+			TxDetail recipientsDetail = null;
+			
+			for (String resource : CORPUS)
+			{
+				final String stanza = IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset());
+				
+				assertTrue(txParser.parseInto(stanza, target));
+				assertSameTx(txParser.parseStanza(stanza), target);
+				
+				// both engines write the recipient straight into the reusable detail of the target
+				if (recipientsDetail == null)
+					recipientsDetail = target.getDetail(TxDetailType.RECIPIENTS);
+				else if (target.getDetail(TxDetailType.RECIPIENTS) != null)
+					assertSame(recipientsDetail, target.getDetail(TxDetailType.RECIPIENTS));
+				
+				assertTrue(txParser.parseInto(ByteBuffer.wrap(stanza.getBytes(StandardCharsets.UTF_8)), EnumSet.of(TxDetailType.MSG_ID), target));
+				assertSameTx(txParser.parseStanza(stanza, EnumSet.of(TxDetailType.MSG_ID)), target);
+				
+				// the same detail object is refilled by every parse
+				if (msgIdDetail == null)
+					msgIdDetail = target.getDetail(TxDetailType.MSG_ID);
+				else
+					assertSame(msgIdDetail, target.getDetail(TxDetailType.MSG_ID));
+				
+				final Tx copy = target.toTx();
+				txParser.parseInto("<presence/>", target);
+				assertSameTx(txParser.parseStanza(stanza, EnumSet.of(TxDetailType.MSG_ID)), copy);
+			}
+			
+			assertFalse(txParser.parseInto("<message id='x'>", target));
+			assertEquals(TxStanzaType.UNKNOWN, target.getStanzaType());
+			assertTrue(target.getDetails().isEmpty());
+		}
+	}
+	
+	@Test
+	public void testParseInto_batch_assertRowsSameAsParseStanza() throws Exception
+	{
+		for (TxParser txParser : new TxParser[] {new DefaultTxParser(), parser})
+		{
+			final TxBatch batch = new TxBatch(4);
+			
+			for (String resource : CORPUS)
+			{
+				final String stanza = IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset());
+				
+				assertEquals(batch.size(), txParser.parseInto(stanza, batch));
+				assertEquals(batch.size(), txParser.parseInto(ByteBuffer.wrap(stanza.getBytes(StandardCharsets.UTF_8)), 
+						EnumSet.of(TxDetailType.MSG_ID), batch));
+			}
+			
+			assertEquals(-1, txParser.parseInto("<message id='x'>", batch));
+			assertEquals(CORPUS.length * 2, batch.size());
+			
+			for (int i = 0; i < CORPUS.length; ++i)
+			{
+				final String stanza = IOUtils.resourceToString("/messages/" + CORPUS[i], Charset.defaultCharset());
+				
+				assertSameTx(txParser.parseStanza(stanza), batch.get(i * 2));
+				assertSameTx(txParser.parseStanza(stanza), batch.toTx(i * 2));
+				assertSameTx(txParser.parseStanza(stanza, EnumSet.of(TxDetailType.MSG_ID)), batch.get(i * 2 + 1));
+			}
+		}
+	}
+	
+	protected static void assertSameTx(Tx expected, Tx actual)
+	{
+		assertEquals(expected.getStanzaType(), actual.getStanzaType());
+		assertEquals(expected.getDetails().size(), actual.getDetails().size());
+		
+		for (TxDetail detail : expected.getDetails().values())
+			assertEquals(detail.getDetailValue(), actual.getDetail(detail.getDetailType()).getDetailValue(), detail.getDetailType().getType());
+	}
+}
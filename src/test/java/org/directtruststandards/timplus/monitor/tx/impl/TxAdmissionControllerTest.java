@@ -0,0 +1,107 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.directtruststandards.timplus.monitor.impl.TxAdmissionController;
+import org.directtruststandards.timplus.monitor.impl.TxAdmissionController.Policy;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class TxAdmissionControllerTest
+{
+	@Test
+	public void testAdmit_notOverloaded_assertEverythingAdmitted()
+	{
+		final TxAdmissionController controller = new TxAdmissionController(10, 5);
+
+		for (TxStanzaType type : TxStanzaType.values())
+			assertTrue(controller.admit(type));
+		assertTrue(controller.admit(null));
+
+		assertFalse(controller.isOverloaded());
+		assertEquals(0, controller.getShedCount());
+		assertEquals(1, controller.getAdmittedCount(TxStanzaType.MESSAGE_CHAT_STATE));
+	}
+
+	@Test
+	public void testAdmit_queueDepthWatermarks_assertPoliciesAppliedUntilDrained()
+	{
+		final TxAdmissionController controller = new TxAdmissionController(10, 5);
+		controller.setPolicy(TxStanzaType.IQ_ERROR, Policy.SAMPLE, 4);
+
+		final long[] enteredAt = new long[10];
+		for (int i = 0; i < enteredAt.length; ++i)
+			enteredAt[i] = controller.enter();
+		assertTrue(controller.isOverloaded());
+
+		for (int i = 0; i < 20; ++i)
+		{
+			assertTrue(controller.admit(TxStanzaType.MESSAGE));
+			assertTrue(controller.admit(TxStanzaType.AMP));
+			assertTrue(controller.admit(TxStanzaType.MESSAGE_ERROR));
+			assertTrue(controller.admit(TxStanzaType.PRESENSE_ERROR));
+			assertTrue(controller.admit(null));
+			assertFalse(controller.admit(TxStanzaType.MESSAGE_CHAT_STATE));
+			assertEquals(i % TxAdmissionController.DEFAULT_SAMPLE_RATE == 0, controller.admit(TxStanzaType.PRESENSE));
+			assertEquals(i % 4 == 0, controller.admit(TxStanzaType.IQ_ERROR));
+		}
+
+		assertEquals(20, controller.getShedCount(TxStanzaType.MESSAGE_CHAT_STATE));
+		assertEquals(18, controller.getShedCount(TxStanzaType.PRESENSE));
+		assertEquals(15, controller.getShedCount(TxStanzaType.IQ_ERROR));
+		assertEquals(53, controller.getShedCount());
+		assertEquals(0, controller.getShedCount(TxStanzaType.MESSAGE));
+
+		// overload holds until the low watermark is reached
+		for (int i = 0; i < 4; ++i)
+			controller.exit(enteredAt[i]);
+		assertTrue(controller.isOverloaded());
+
+		controller.exit(enteredAt[4]);
+		assertFalse(controller.isOverloaded());
+		assertTrue(controller.admit(TxStanzaType.MESSAGE_CHAT_STATE));
+		assertEquals(1, controller.getOverloadCount());
+	}
+
+	@Test
+	public void testAdmit_latencyWatermarks_assertOverloadedWhileSlow()
+	{
+		final TxAdmissionController controller = new TxAdmissionController(100, 10);
+		controller.setLatencyWatermarks(10, 1, TimeUnit.MILLISECONDS);
+
+		controller.enter();
+		final long enteredAt = controller.enter();
+		controller.exit(enteredAt - TimeUnit.SECONDS.toNanos(1));
+		assertTrue(controller.getAverageLatency(TimeUnit.MILLISECONDS) >= 10);
+		assertTrue(controller.isOverloaded());
+		assertFalse(controller.admit(TxStanzaType.MESSAGE_CHAT_STATE));
+
+		// an empty queue ends overload even though no parse has lowered the average
+		controller.exit(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+		assertFalse(controller.isOverloaded());
+	}
+
+	@Test
+	public void testSetPolicy_invalidArguments_assertException()
+	{
+		final TxAdmissionController controller = new TxAdmissionController(10, 5);
+
+		assertThrows(IllegalArgumentException.class, () -> controller.setPolicy(TxStanzaType.MESSAGE, Policy.COUNT, 1));
+		assertThrows(IllegalArgumentException.class, () -> controller.setPolicy(TxStanzaType.AMP, Policy.SAMPLE, 10));
+		assertThrows(IllegalArgumentException.class, () -> controller.setPolicy(TxStanzaType.PRESENSE, Policy.SAMPLE, 0));
+		assertThrows(IllegalArgumentException.class, () -> controller.setPolicy(null, Policy.COUNT, 1));
+		assertThrows(IllegalArgumentException.class, () -> controller.setLatencyWatermarks(1, 1, TimeUnit.MILLISECONDS));
+		assertThrows(IllegalArgumentException.class, () -> new TxAdmissionController(0, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TxAdmissionController(5, 5));
+
+		controller.setPolicy(TxStanzaType.MESSAGE_CHAT_STATE, Policy.PARSE, 0);
+		assertEquals(Policy.PARSE, controller.getPolicy(TxStanzaType.MESSAGE_CHAT_STATE));
+		assertEquals(Policy.SAMPLE, controller.getPolicy(TxStanzaType.IQ));
+		assertEquals(TxAdmissionController.DEFAULT_SAMPLE_RATE, controller.getSampleRate(TxStanzaType.IQ));
+	}
+}
@@ -0,0 +1,144 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.impl.TxArchiveReplayer;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+public class TxArchiveReplayerTest
+{
+	@TempDir
+	protected Path tempDir;
+	
+	protected Path writeArchive(int messageCount) throws Exception
+	{
+		final String amp = IOUtils.resourceToString("/messages/ampDeliveredStanza.txt", Charset.defaultCharset());
+		
+		final StringBuilder builder = new StringBuilder("<?xml version='1.0'?><stream:stream xmlns='jabber:server' "
+				+ "xmlns:stream='http://etherx.jabber.org/streams' to='example.com'>\n<!-- capture <message> start -->\n");
+		for (int i = 0; i < messageCount; ++i)
+		{
+			builder.append("<message id='m").append(i).append("' from='romeo@example.net/orchard' to='juliet@example.com'>")
+				.append("<body><![CDATA[<message id='fake'/>]]> a > b</body>")
+				.append("<forwarded xmlns='urn:xmpp:forward:0'><message id='nested'/></forwarded></message>\n");
+			
+			if (i % 10 == 0)
+				builder.append("<presence id='p").append(i).append("' attr='&gt;/>'/>\n").append(amp).append('\n');
+		}
+		builder.append("<message id='truncated'>");
+		
+		final Path archive = tempDir.resolve("archive.xml");
+		Files.write(archive, builder.toString().getBytes(StandardCharsets.UTF_8));
+		
+		return archive;
+	}
+	
+	@Test
+	public void testReplay_smallWindows_assertAllStanzasInOrder() throws Exception
+	{
+		final Path archive = writeArchive(100);
+		
+		final TxArchiveReplayer replayer = new TxArchiveReplayer(new PullTxParser());
+		replayer.setWindowSize(64);
+		
+		final List<Tx> txs = new ArrayList<>();
+		final long count = replayer.replay(archive, txs::add);
+		
+		assertReplayed(txs, count);
+	}
+	
+	@Test
+	public void testReplay_parallel_assertAllStanzasInOrder() throws Exception
+	{
+		final Path archive = writeArchive(100);
+		
+		final TxArchiveReplayer replayer = new TxArchiveReplayer(new PullTxParser());
+		replayer.setWindowSize(4096);
+		replayer.setParallelism(4);
+		
+		final List<Tx> txs = new ArrayList<>();
+		final long count = replayer.replay(archive, txs::add);
+		
+		assertReplayed(txs, count);
+	}
+	
+	@Test
+	public void testReplay_truncatedTrailingStanza_assertSkippedWithWarning() throws Exception
+	{
+		final String complete = "<stream:stream xmlns='jabber:server' xmlns:stream='http://etherx.jabber.org/streams'>"
+				+ "<message id='m1' to='juliet@example.com'><body>hi</body></message>";
+		final String truncated = "<message id='m2' to='juliet@example.com'><body>h";
+		
+		final Path archive = tempDir.resolve("truncated.xml");
+		Files.write(archive, (complete + truncated).getBytes(StandardCharsets.UTF_8));
+		
+		final Logger logger = (Logger)LoggerFactory.getLogger(TxArchiveReplayer.class);
+		final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+		appender.start();
+		logger.addAppender(appender);
+		try
+		{
+			final TxArchiveReplayer replayer = new TxArchiveReplayer(new PullTxParser());
+			replayer.setWindowSize(32);
+			
+			final List<Tx> txs = new ArrayList<>();
+			assertEquals(1, replayer.replay(archive, txs::add));
+			assertEquals("m1", txs.get(0).getDetail(TxDetailType.MSG_ID).getDetailValue());
+			
+			assertEquals(1, appender.list.size());
+			final ILoggingEvent event = appender.list.get(0);
+			assertEquals(Level.WARN, event.getLevel());
+			assertTrue(event.getFormattedMessage().contains(truncated.length() + " bytes at offset " + complete.length()));
+			
+			// a complete archive is replayed without a warning
+			appender.list.clear();
+			Files.write(archive, (complete + "</stream:stream>\n").getBytes(StandardCharsets.UTF_8));
+			assertEquals(1, replayer.replay(archive, txs::add));
+			assertTrue(appender.list.isEmpty());
+		}
+		finally
+		{
+			logger.detachAppender(appender);
+		}
+	}
+	
+	protected void assertReplayed(List<Tx> txs, long count)
+	{
+		assertEquals(120, count);
+		assertEquals(120, txs.size());
+		
+		int index = 0;
+		for (int i = 0; i < 100; ++i)
+		{
+			final Tx tx = txs.get(index++);
+			assertEquals(TxStanzaType.MESSAGE, tx.getStanzaType());
+			assertEquals("m" + i, tx.getDetail(TxDetailType.MSG_ID).getDetailValue());
+			
+			if (i % 10 == 0)
+			{
+				assertEquals("p" + i, txs.get(index++).getDetail(TxDetailType.MSG_ID).getDetailValue());
+				assertEquals(TxStanzaType.AMP, txs.get(index++).getStanzaType());
+			}
+		}
+	}
+}
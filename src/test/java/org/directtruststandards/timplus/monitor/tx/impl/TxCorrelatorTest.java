@@ -0,0 +1,255 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.impl.TxCorrelator;
+import org.directtruststandards.timplus.monitor.tx.TxCorrelationListener;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class TxCorrelatorTest
+{
+	private static final PullTxParser PARSER = new PullTxParser();
+
+	protected static Tx message(String id, String to)
+	{
+		return PARSER.parseStanza("<message id='" + id + "' from='romeo@example.net/orchard' to='" + to + "'><body>hi</body></message>");
+	}
+
+	protected static Tx amp(String id, String originalRecipient)
+	{
+		return PARSER.parseStanza("<message id='" + id + "' from='example.com' to='romeo@example.net/orchard'>"
+				+ "<amp xmlns='http://jabber.org/protocol/amp' status='notify' to='" + originalRecipient + "'>"
+				+ "<rule action='notify' condition='deliver' value='stored'/></amp></message>");
+	}
+
+	protected static Tx error(String id, String from)
+	{
+		return PARSER.parseStanza("<message id='" + id + "' type='error' from='" + from + "' to='romeo@example.net/orchard'>"
+				+ "<error type='cancel'><service-unavailable xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error></message>");
+	}
+
+	protected static class RecordingListener implements TxCorrelationListener
+	{
+		protected final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void onMatched(Tx message, Tx response, String recipient)
+		{
+			events.add("matched:" + message.getDetail(TxDetailType.MSG_ID).getDetailValue() + ":" + response.getStanzaType() + ":" + recipient);
+		}
+
+		@Override
+		public void onUnmatched(Tx response)
+		{
+			events.add("unmatched:" + response.getDetail(TxDetailType.MSG_ID).getDetailValue() + ":" + response.getStanzaType());
+		}
+
+		@Override
+		public void onExpired(Tx message, List<String> pendingRecipients)
+		{
+			events.add("expired:" + message.getDetail(TxDetailType.MSG_ID).getDetailValue() + ":" + pendingRecipients);
+		}
+	}
+
+	protected static class MutableClock extends Clock
+	{
+		protected final AtomicLong millis = new AtomicLong();
+
+		@Override
+		public ZoneOffset getZone()
+		{
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(java.time.ZoneId zone)
+		{
+			return this;
+		}
+
+		@Override
+		public Instant instant()
+		{
+			return Instant.ofEpochMilli(millis.get());
+		}
+	}
+
+	@Test
+	public void testAccept_messageThenAmp_assertMatched()
+	{
+		final RecordingListener listener = new RecordingListener();
+		final TxCorrelator correlator = new TxCorrelator(listener);
+
+		assertTrue(correlator.accept(message("1", "juliet@example.com")));
+		assertEquals(1, correlator.size());
+
+		assertTrue(correlator.accept(amp("1", "juliet@example.com/balcony")));
+
+		assertEquals(Arrays.asList("matched:1:AMP:juliet@example.com"), listener.events);
+		assertEquals(0, correlator.size());
+		assertEquals(1, correlator.getMatchedCount());
+	}
+
+	@Test
+	public void testAccept_ampBeforeMessage_assertHeldThenMatched()
+	{
+		final RecordingListener listener = new RecordingListener();
+		final TxCorrelator correlator = new TxCorrelator(listener);
+
+		assertTrue(correlator.accept(amp("1", "juliet@example.com")));
+		assertTrue(listener.events.isEmpty());
+		assertEquals(1, correlator.size());
+
+		correlator.accept(message("1", "juliet@example.com"));
+
+		assertEquals(Arrays.asList("matched:1:AMP:juliet@example.com"), listener.events);
+		assertEquals(0, correlator.size());
+	}
+
+	@Test
+	public void testAccept_groupChatRecipients_assertMatchedPerRecipient()
+	{
+		final RecordingListener listener = new RecordingListener();
+		final TxCorrelator correlator = new TxCorrelator(listener);
+
+		final Tx message = message("1", "juliet@example.com");
+		message.addRecipient("nurse@example.com");
+		correlator.accept(message);
+		correlator.accept(message("1", "benvolio@example.org"));
+
+		correlator.accept(amp("1", "nurse@example.com"));
+		correlator.accept(error("1", "example.org"));
+		assertEquals(1, correlator.size());
+
+		correlator.accept(error("1", "juliet@example.com/balcony"));
+
+		assertEquals(Arrays.asList("matched:1:AMP:nurse@example.com", "matched:1:MESSAGE_ERROR:benvolio@example.org",
+				"matched:1:MESSAGE_ERROR:juliet@example.com"), listener.events);
+		assertEquals(0, correlator.size());
+	}
+
+	@Test
+	public void testAccept_wrongRecipient_assertUnmatched()
+	{
+		final RecordingListener listener = new RecordingListener();
+		final TxCorrelator correlator = new TxCorrelator(listener);
+
+		correlator.accept(message("1", "juliet@example.com"));
+		correlator.accept(amp("1", "tybalt@example.com"));
+
+		assertEquals(Arrays.asList("unmatched:1:AMP"), listener.events);
+		assertEquals(1, correlator.size());
+		assertEquals(1, correlator.getUnmatchedCount());
+	}
+
+	@Test
+	public void testAccept_otherStanzas_assertIgnored()
+	{
+		final TxCorrelator correlator = new TxCorrelator(new RecordingListener());
+
+		assertFalse(correlator.accept(PARSER.parseStanza("<iq id='1' type='get'/>")));
+		assertFalse(correlator.accept(PARSER.parseStanza("<message from='romeo@example.net' to='juliet@example.com'><body>hi</body></message>")));
+		assertFalse(correlator.accept(new Tx(TxStanzaType.MESSAGE, Collections.singletonMap(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, "1")))));
+		assertEquals(0, correlator.size());
+
+		assertThrows(IllegalArgumentException.class, () -> correlator.accept(null));
+	}
+
+	@Test
+	public void testExpire_timeToLiveElapsed_assertExpiredAndUnmatched()
+	{
+		final RecordingListener listener = new RecordingListener();
+		final MutableClock clock = new MutableClock();
+		final TxCorrelator correlator = new TxCorrelator(listener, 1000, 100);
+		correlator.setClock(clock);
+
+		correlator.accept(message("1", "juliet@example.com"));
+		correlator.accept(amp("2", "juliet@example.com"));
+		clock.millis.set(50);
+		correlator.accept(message("3", "juliet@example.com"));
+
+		assertEquals(0, correlator.expire());
+
+		clock.millis.set(100);
+		assertEquals(2, correlator.expire());
+		assertEquals(1, correlator.size());
+
+		listener.events.sort(null);
+		assertEquals(Arrays.asList("expired:1:[juliet@example.com]", "unmatched:2:AMP"), listener.events);
+		assertEquals(1, correlator.getExpiredCount());
+	}
+
+	@Test
+	public void testAccept_maxPendingReached_assertOldestEvicted()
+	{
+		final RecordingListener listener = new RecordingListener();
+		final TxCorrelator correlator = new TxCorrelator(listener, 1, 60000);
+
+		correlator.accept(message("1", "juliet@example.com"));
+		correlator.accept(message("2", "juliet@example.com"));
+
+		assertEquals(1, correlator.size());
+		assertEquals(Arrays.asList("expired:1:[juliet@example.com]"), listener.events);
+	}
+
+	@Test
+	public void testAccept_concurrentSubmitters_assertAllMatched() throws Exception
+	{
+		final RecordingListener listener = new RecordingListener();
+		final TxCorrelator correlator = new TxCorrelator(listener);
+		final int threads = 4;
+		final int perThread = 2000;
+
+		final Tx[] amps = new Tx[threads * perThread];
+		final Tx[] messages = new Tx[threads * perThread];
+		for (int i = 0; i < messages.length; ++i)
+		{
+			messages[i] = message(Integer.toString(i), "juliet@example.com");
+			amps[i] = amp(Integer.toString(i), "juliet@example.com");
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+		try
+		{
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; ++t)
+			{
+				final int offset = t * perThread;
+				futures.add(executor.submit(() -> {for (int i = offset; i < offset + perThread; ++i) correlator.accept(messages[i]);}));
+				futures.add(executor.submit(() -> {for (int i = offset; i < offset + perThread; ++i) correlator.accept(amps[i]);}));
+			}
+
+			for (Future<?> future : futures)
+				future.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		assertEquals(messages.length, correlator.getMatchedCount());
+		assertEquals(0, correlator.getUnmatchedCount());
+		assertEquals(0, correlator.size());
+		assertEquals(messages.length, listener.events.size());
+	}
+}
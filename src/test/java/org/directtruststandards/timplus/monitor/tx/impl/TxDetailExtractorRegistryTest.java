@@ -0,0 +1,202 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.directtruststandards.timplus.monitor.impl.AMPTxDetailExtractor;
+import org.directtruststandards.timplus.monitor.impl.BodyTxDetailExtractor;
+import org.directtruststandards.timplus.monitor.impl.ChatStateTxDetailExtractor;
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.ErrorTxDetailExtractor;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.impl.TxDetailExtractionContext;
+import org.directtruststandards.timplus.monitor.impl.TxDetailExtractor;
+import org.directtruststandards.timplus.monitor.impl.TxDetailExtractorRegistry;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.jivesoftware.smack.util.ParserUtils;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.junit.jupiter.api.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+public class TxDetailExtractorRegistryTest
+{
+	private static final String FLAGGED_MESSAGE = "<message id='1' from='romeo@example.net/orchard' to='juliet@example.com' type='chat'>" +
+			"<active xmlns='http://jabber.org/protocol/chatstates'/><flag xmlns='urn:example:flag' level='urgent'/></message>";
+
+	private static final String PLAIN_MESSAGE = "<message id='2' from='romeo@example.net/orchard' to='juliet@example.com' type='chat'>" +
+			"<active xmlns='http://jabber.org/protocol/chatstates'/></message>";
+
+	@Test
+	public void testGetExtractor_builtIns_assertFoundByNamespace()
+	{
+		final TxDetailExtractorRegistry registry = new TxDetailExtractorRegistry();
+
+		assertEquals(4, registry.getExtractors().size());
+		assertTrue(registry.getExtractor(AMPExtension.NAMESPACE, AMPExtension.ELEMENT) instanceof AMPTxDetailExtractor);
+		assertTrue(registry.getExtractor(ChatStateExtension.NAMESPACE, "composing") instanceof ChatStateTxDetailExtractor);
+		assertTrue(registry.getExtractor("", "body") instanceof BodyTxDetailExtractor);
+		assertTrue(registry.getExtractor("jabber:client", "body") instanceof BodyTxDetailExtractor);
+		assertTrue(registry.getExtractor("jabber:server", "error") instanceof ErrorTxDetailExtractor);
+
+		assertNull(registry.getExtractor(AMPExtension.NAMESPACE, "rule"));
+		assertNull(registry.getExtractor("", "subject"));
+		assertNull(registry.getExtractor("urn:example:flag", "flag"));
+	}
+
+	@Test
+	public void testRegister_replaceAndUnregister_assertTableUpdated()
+	{
+		final TxDetailExtractorRegistry registry = new TxDetailExtractorRegistry();
+		final FlagExtractor flag = new FlagExtractor();
+
+		registry.register(flag);
+		assertSame(flag, registry.getExtractor("urn:example:flag", "flag"));
+		assertEquals(5, registry.getExtractors().size());
+
+		final FlagExtractor replacement = new FlagExtractor();
+		registry.register(replacement);
+		assertSame(replacement, registry.getExtractor("urn:example:flag", "flag"));
+		assertEquals(5, registry.getExtractors().size());
+
+		assertSame(replacement, registry.unregister("urn:example:flag", "flag"));
+		assertNull(registry.getExtractor("urn:example:flag", "flag"));
+		assertNull(registry.unregister("urn:example:flag", "flag"));
+
+		assertNotNull(registry.unregister("jabber:client", "body"));
+		assertNull(registry.getExtractor("", "body"));
+	}
+
+	@Test
+	public void testRegister_invalidExtractor_assertException()
+	{
+		final TxDetailExtractorRegistry registry = new TxDetailExtractorRegistry(Collections.emptyList());
+
+		assertTrue(registry.getExtractors().isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> registry.register(null));
+		assertThrows(IllegalArgumentException.class, () -> registry.register(new FlagExtractor()
+		{
+			@Override
+			public Set<TxDetailType> getDetailTypes()
+			{
+				return Collections.emptySet();
+			}
+		}));
+	}
+
+	@Test
+	public void testParseStanza_customExtractor_pullParser_assertDispatchedOnlyWhenPresent()
+	{
+		final PullTxParser parser = new PullTxParser();
+		final FlagExtractor flag = new FlagExtractor();
+		parser.getExtractorRegistry().register(flag);
+
+		final Tx tx = parser.parseStanza(FLAGGED_MESSAGE);
+		assertEquals("urgent", tx.getDetail(TxDetailType.MESSAGE_BODY_IND).getDetailValue());
+		assertEquals("active", tx.getDetail(TxDetailType.CHAT_STATE).getDetailValue());
+		assertEquals(TxStanzaType.MESSAGE, tx.getStanzaType());
+		assertEquals(1, flag.pullCount.get());
+
+		// the element is not present
+		final Tx plain = parser.parseStanza(PLAIN_MESSAGE);
+		assertEquals(TxStanzaType.MESSAGE_CHAT_STATE, plain.getStanzaType());
+		assertEquals(1, flag.pullCount.get());
+
+		// the detail type of the extractor is not requested, but it decides the stanza type
+		final Tx projected = parser.parseStanza(FLAGGED_MESSAGE, EnumSet.of(TxDetailType.MSG_ID, TxDetailType.CHAT_STATE));
+		assertEquals("active", projected.getDetail(TxDetailType.CHAT_STATE).getDetailValue());
+		assertNull(projected.getDetail(TxDetailType.MESSAGE_BODY_IND));
+		assertEquals(TxStanzaType.MESSAGE, projected.getStanzaType());
+		assertEquals(2, flag.pullCount.get());
+		assertEquals(0, flag.elementCount.get());
+	}
+
+	@Test
+	public void testParseStanza_customExtractor_defaultParser_assertDispatchedOnlyWhenPresent()
+	{
+		final DefaultTxParser parser = new DefaultTxParser();
+		final FlagExtractor flag = new FlagExtractor();
+		parser.getExtractorRegistry().register(flag);
+
+		final Tx tx = parser.parseStanza(FLAGGED_MESSAGE);
+		assertEquals("urgent", tx.getDetail(TxDetailType.MESSAGE_BODY_IND).getDetailValue());
+		assertEquals("active", tx.getDetail(TxDetailType.CHAT_STATE).getDetailValue());
+		assertEquals(TxStanzaType.MESSAGE, tx.getStanzaType());
+		assertEquals(1, flag.elementCount.get());
+
+		assertEquals(TxStanzaType.MESSAGE_CHAT_STATE, parser.parseStanza(PLAIN_MESSAGE).getStanzaType());
+		assertEquals(1, flag.elementCount.get());
+		assertEquals(0, flag.pullCount.get());
+	}
+
+	@Test
+	public void testParseStanza_builtInRemoved_assertDetailNotExtracted()
+	{
+		final PullTxParser parser = new PullTxParser();
+		parser.getExtractorRegistry().unregister(ChatStateExtension.NAMESPACE, null);
+
+		final Tx tx = parser.parseStanza(PLAIN_MESSAGE);
+		assertNull(tx.getDetail(TxDetailType.CHAT_STATE));
+		assertEquals(TxStanzaType.MESSAGE, tx.getStanzaType());
+	}
+
+	/**
+	 * Marks messages that carry a flag element as if they had a body.
+	 */
+	protected static class FlagExtractor implements TxDetailExtractor
+	{
+		protected final AtomicInteger pullCount = new AtomicInteger();
+
+		protected final AtomicInteger elementCount = new AtomicInteger();
+
+		@Override
+		public String getNamespace()
+		{
+			return "urn:example:flag";
+		}
+
+		@Override
+		public String getElementName()
+		{
+			return "flag";
+		}
+
+		@Override
+		public Set<TxDetailType> getDetailTypes()
+		{
+			return EnumSet.of(TxDetailType.MESSAGE_BODY_IND);
+		}
+
+		@Override
+		public boolean extract(ExtensionElement element, TxDetailExtractionContext context)
+		{
+			elementCount.incrementAndGet();
+			context.putDetail(TxDetailType.MESSAGE_BODY_IND, ((StandardExtensionElement)element).getAttributeValue("level"));
+
+			return true;
+		}
+
+		@Override
+		public boolean extract(XmlPullParser parser, TxDetailExtractionContext context) throws Exception
+		{
+			pullCount.incrementAndGet();
+			context.putDetail(TxDetailType.MESSAGE_BODY_IND, parser.getAttributeValue("", "level"));
+			ParserUtils.forwardToEndTagOfDepth(parser, parser.getDepth());
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.impl.TxDuplicateFilter;
+import org.directtruststandards.timplus.monitor.impl.TxStanzaClassifier;
+import org.directtruststandards.timplus.monitor.tx.impl.TxCorrelatorTest.MutableClock;
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class TxDuplicateFilterTest
+{
+	private static final String MESSAGE = "<message id='1' from='romeo@example.net/orchard' to='juliet@example.com' type='chat'>" +
+			"<body>hi</body></message>";
+
+	@Test
+	public void testIsDuplicate_repeatedHash_assertDuplicate()
+	{
+		final TxDuplicateFilter filter = new TxDuplicateFilter();
+
+		assertFalse(filter.isDuplicate(12345L));
+		assertTrue(filter.isDuplicate(12345L));
+		assertFalse(filter.isDuplicate(67890L));
+
+		// stanzas without an identity are never duplicates
+		assertFalse(filter.isDuplicate(0));
+		assertFalse(filter.isDuplicate(0));
+
+		assertEquals(1, filter.getDuplicateCount());
+		assertEquals(2, filter.getPassedCount());
+
+		filter.clear();
+		assertFalse(filter.isDuplicate(12345L));
+	}
+
+	@Test
+	public void testIsDuplicate_rotation_assertRememberedForOneToTwoIntervals()
+	{
+		final MutableClock clock = new MutableClock();
+		final TxDuplicateFilter filter = new TxDuplicateFilter(1024, 0.01, 1000);
+		filter.setClock(clock);
+		filter.clear();
+
+		assertFalse(filter.isDuplicate(1L));
+		assertFalse(filter.isDuplicate(2L));
+
+		// both hashes move to the previous generation; seeing 1 again carries it into the new generation
+		clock.millis.addAndGet(1000);
+		assertTrue(filter.isDuplicate(1L));
+
+		clock.millis.addAndGet(1000);
+		assertTrue(filter.isDuplicate(1L));
+		assertFalse(filter.isDuplicate(2L));
+	}
+
+	@Test
+	public void testIsDuplicate_capacityReached_assertFalsePositiveRateBounded()
+	{
+		final TxDuplicateFilter filter = new TxDuplicateFilter(64 * 1024, 0.01, Long.MAX_VALUE);
+		assertEquals(7, filter.getHashCount());
+		assertEquals(256 * 1024, filter.getBitsPerGeneration());
+
+		final SplittableRandom random = new SplittableRandom(7);
+		for (long i = 0; i < filter.getCapacity() * 3; ++i)
+			filter.isDuplicate(random.nextLong());
+
+		// early rotation keeps the rate of unseen hashes reported as duplicates below twice the configured rate
+		final long before = filter.getDuplicateCount();
+		for (int i = 0; i < 100000; ++i)
+			filter.isDuplicate(random.nextLong());
+
+		assertTrue(filter.getDuplicateCount() - before < 2000);
+	}
+
+	@Test
+	public void testConstructor_invalidArguments_assertException()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new TxDuplicateFilter(8, 0.01, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new TxDuplicateFilter(1024, 0, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new TxDuplicateFilter(1024, 1, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new TxDuplicateFilter(1024, 0.01, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TxDuplicateFilter().setClock(null));
+	}
+
+	@Test
+	public void testIdentityHash_stanzaAttributes_assertCopiesMatch()
+	{
+		final TxStanzaClassifier classifier = new TxStanzaClassifier();
+
+		final long hash = classifier.identityHash(MESSAGE);
+		assertNotEquals(0, hash);
+
+		// the payload and the encoding do not change the identity
+		assertEquals(hash, classifier.identityHash(MESSAGE.replace("hi", "hello")));
+		assertEquals(hash, classifier.identityHash(ByteBuffer.wrap(MESSAGE.getBytes(StandardCharsets.UTF_8))));
+
+		assertNotEquals(hash, classifier.identityHash(MESSAGE.replace("juliet@example.com", "juliet@example.com/balcony")));
+		assertNotEquals(hash, classifier.identityHash(MESSAGE.replace("id='1'", "id='2'")));
+		assertNotEquals(hash, classifier.identityHash(MESSAGE.replace("type='chat'", "type='normal'")));
+		assertNotEquals(hash, classifier.identityHash(MESSAGE.replace(" type='chat'", "")));
+		assertNotEquals(hash, classifier.identityHash(MESSAGE.replace("message", "presence")));
+
+		assertEquals(0, classifier.identityHash(MESSAGE.replace(" id='1'", "")));
+		assertEquals(0, classifier.identityHash("not a stanza"));
+	}
+
+	@Test
+	public void testParseStanza_duplicateFilter_assertCopiesDropped()
+	{
+		final PullTxParser pullParser = new PullTxParser();
+		pullParser.setDuplicateFilter(new TxDuplicateFilter());
+
+		assertNotNull(pullParser.parseStanza(MESSAGE));
+		assertNull(pullParser.parseStanza(MESSAGE));
+		assertNull(pullParser.parseStanza(ByteBuffer.wrap(MESSAGE.getBytes(StandardCharsets.UTF_8))));
+
+		final MutableTx target = new MutableTx();
+		assertFalse(pullParser.parseInto(MESSAGE, target));
+		assertTrue(target.getDetails().isEmpty());
+		assertTrue(pullParser.parseInto(MESSAGE.replace("id='1'", "id='2'"), target));
+		assertEquals(3, pullParser.getDuplicateFilter().getDuplicateCount());
+
+		final DefaultTxParser defaultParser = new DefaultTxParser();
+		assertNull(defaultParser.getDuplicateFilter());
+		assertNotNull(defaultParser.parseStanza(MESSAGE));
+		assertNotNull(defaultParser.parseStanza(MESSAGE));
+
+		defaultParser.setDuplicateFilter(new TxDuplicateFilter());
+		assertNotNull(defaultParser.parseStanza(MESSAGE));
+		assertNull(defaultParser.parseStanza(MESSAGE));
+	}
+
+	@Test
+	public void testClassify_inconclusiveScanWithDuplicateFilter_assertParseNotDropped()
+	{
+		// the classifier scan cannot resolve a CDATA or prefixed body, so classify falls back to a parse
+		final String[] stanzas = {MESSAGE.replace("<body>hi</body>", "<body><![CDATA[hi]]></body>"),
+				MESSAGE.replace("id='1'", "id='2'").replace("<body>hi</body>", "<x:body xmlns:x='jabber:client'>hi</x:body>")};
+		
+		for (DefaultTxParser parser : new DefaultTxParser[] {new DefaultTxParser(), new PullTxParser()})
+		{
+			parser.setDuplicateFilter(new TxDuplicateFilter());
+			
+			for (String stanza : stanzas)
+			{
+				assertNull(parser.getClassifier().classify(stanza));
+				assertEquals(TxStanzaType.MESSAGE, parser.classify(stanza));
+				assertEquals(TxStanzaType.MESSAGE, parser.classify(ByteBuffer.wrap(stanza.getBytes(StandardCharsets.UTF_8))));
+				
+				assertNotNull(parser.parseStanza(stanza));
+				assertNull(parser.parseStanza(stanza));
+			}
+			
+			assertEquals(2, parser.getDuplicateFilter().getDuplicateCount());
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.impl.TxGroupChatAggregator;
+import org.directtruststandards.timplus.monitor.tx.impl.TxCorrelatorTest.MutableClock;
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class TxGroupChatAggregatorTest
+{
+	private static final PullTxParser PARSER = new PullTxParser();
+
+	static
+	{
+		PARSER.setGroupChatServices("chat.shakespeare.lit"::equals);
+	}
+
+	protected static String sent(String id, String room)
+	{
+		return "<message id='" + id + "' from='hag66@shakespeare.lit/pda' to='" + room + "' type='groupchat'><body>hi</body></message>";
+	}
+
+	protected static String reflected(String id, String room, String occupant)
+	{
+		return "<message id='" + id + "' from='" + room + "/thirdwitch' to='" + occupant + "' type='groupchat'><body>hi</body></message>";
+	}
+
+	@Test
+	public void testAccept_roomFanOut_assertCollapsedIntoOneTx()
+	{
+		final List<Tx> out = Collections.synchronizedList(new ArrayList<>());
+		final MutableClock clock = new MutableClock();
+		final TxGroupChatAggregator aggregator = new TxGroupChatAggregator(out::add);
+		aggregator.setClock(clock);
+
+		// the parse target is reused for every copy
+		final MutableTx target = new MutableTx();
+
+		PARSER.parseInto(sent("1", "coven@chat.shakespeare.lit"), target);
+		aggregator.accept(target);
+		for (int i = 0; i < 300; ++i)
+		{
+			PARSER.parseInto(reflected("1", "coven@chat.shakespeare.lit", "occupant" + i + "@shakespeare.lit/desktop"), target);
+			aggregator.accept(target);
+		}
+
+		// a duplicate reflection does not add a recipient
+		PARSER.parseInto(reflected("1", "coven@chat.shakespeare.lit", "occupant0@shakespeare.lit/desktop"), target);
+		aggregator.accept(target);
+
+		assertTrue(out.isEmpty());
+		assertEquals(1, aggregator.size());
+		assertEquals(301, aggregator.getCollapsedCount());
+
+		clock.millis.addAndGet(TxGroupChatAggregator.DEFAULT_WINDOW - 1);
+		assertEquals(0, aggregator.expire());
+
+		clock.millis.incrementAndGet();
+		assertEquals(1, aggregator.expire());
+		assertEquals(1, out.size());
+		assertEquals(0, aggregator.size());
+		assertEquals(1, aggregator.getEmittedCount());
+
+		final Tx tx = out.get(0);
+		assertEquals(TxStanzaType.MESSAGE, tx.getStanzaType());
+		assertEquals("1", tx.getDetail(TxDetailType.MSG_ID).getDetailValue());
+		assertEquals("coven@chat.shakespeare.lit", tx.getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		assertEquals("hag66@shakespeare.lit/pda", tx.getDetail(TxDetailType.FROM).getDetailValue());
+		assertEquals(300, tx.getRecipients().size());
+		assertEquals("occupant0@shakespeare.lit/desktop", tx.getRecipients().get(0));
+		assertEquals("occupant299@shakespeare.lit/desktop", tx.getRecipients().get(299));
+	}
+
+	@Test
+	public void testAccept_reflectionsToBareJids_assertCollapsedIntoOneTx()
+	{
+		final List<Tx> out = new ArrayList<>();
+		final TxGroupChatAggregator aggregator = new TxGroupChatAggregator(out::add);
+
+		aggregator.accept(PARSER.parseStanza(sent("1", "coven@chat.shakespeare.lit")));
+		for (int i = 0; i < 3; ++i)
+			aggregator.accept(PARSER.parseStanza(reflected("1", "coven@chat.shakespeare.lit", "occupant" + i + "@shakespeare.lit")));
+
+		assertEquals(1, aggregator.size());
+		assertEquals(3, aggregator.getCollapsedCount());
+
+		aggregator.flush();
+		assertEquals(1, out.size());
+		assertEquals("coven@chat.shakespeare.lit", out.get(0).getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		assertEquals(Arrays.asList("occupant0@shakespeare.lit", "occupant1@shakespeare.lit", "occupant2@shakespeare.lit"), 
+				out.get(0).getRecipients());
+	}
+
+	@Test
+	public void testAccept_crossDomainReflectionsToBareJids_assertCollapsedOnlyForKnownServices()
+	{
+		final PullTxParser parser = new PullTxParser();
+		final List<Tx> out = new ArrayList<>();
+		final TxGroupChatAggregator aggregator = new TxGroupChatAggregator(out::add);
+
+		// reflections of an unknown service have no room and are passed through instead of being keyed by occupant
+		for (int i = 0; i < 3; ++i)
+			aggregator.accept(parser.parseStanza(reflected("1", "coven@conference.hispa.com", "occupant" + i + "@hispb.com")));
+		assertEquals(3, out.size());
+		assertEquals(0, aggregator.size());
+
+		out.clear();
+		parser.setGroupChatServices("conference.hispa.com"::equals);
+		for (int i = 0; i < 3; ++i)
+			aggregator.accept(parser.parseStanza(reflected("1", "coven@conference.hispa.com", "occupant" + i + "@hispb.com")));
+		assertEquals(1, aggregator.size());
+
+		aggregator.flush();
+		assertEquals(1, out.size());
+		assertEquals("coven@conference.hispa.com", out.get(0).getDetail(TxDetailType.GROUP_CHAT_ROOM).getDetailValue());
+		assertEquals(Arrays.asList("occupant0@hispb.com", "occupant1@hispb.com", "occupant2@hispb.com"), out.get(0).getRecipients());
+	}
+
+	@Test
+	public void testAccept_nonGroupChat_assertPassedThrough()
+	{
+		final List<Tx> out = new ArrayList<>();
+		final TxGroupChatAggregator aggregator = new TxGroupChatAggregator(out::add);
+
+		final Tx chat = PARSER.parseStanza("<message id='2' from='romeo@example.net/orchard' to='juliet@example.com' type='chat'>"
+				+ "<body>hi</body></message>");
+		final Tx amp = PARSER.parseStanza("<message id='1' from='chat.shakespeare.lit' to='hag66@shakespeare.lit/pda'>"
+				+ "<amp xmlns='http://jabber.org/protocol/amp' status='notify' to='occupant0@shakespeare.lit'>"
+				+ "<rule action='notify' condition='deliver' value='direct'/></amp></message>");
+
+		aggregator.accept(chat);
+		aggregator.accept(amp);
+
+		assertEquals(2, out.size());
+		assertSame(chat, out.get(0));
+		assertSame(amp, out.get(1));
+		assertEquals(0, aggregator.size());
+		assertEquals(0, aggregator.getCollapsedCount());
+	}
+
+	@Test
+	public void testAccept_separateRoomsAndIds_assertSeparateAggregates()
+	{
+		final List<Tx> out = new ArrayList<>();
+		final MutableClock clock = new MutableClock();
+		final TxGroupChatAggregator aggregator = new TxGroupChatAggregator(out::add, 100, 1024);
+		aggregator.setClock(clock);
+
+		aggregator.accept(PARSER.parseStanza(reflected("1", "coven@chat.shakespeare.lit", "crone1@shakespeare.lit/desktop")));
+		aggregator.accept(PARSER.parseStanza(reflected("1", "globe@chat.shakespeare.lit", "crone1@shakespeare.lit/desktop")));
+		aggregator.accept(PARSER.parseStanza(reflected("2", "coven@chat.shakespeare.lit", "crone1@shakespeare.lit/desktop")));
+		assertEquals(3, aggregator.size());
+
+		// a copy that arrives after the window starts a new aggregate and emits the expired one of its segment
+		clock.millis.addAndGet(100);
+		aggregator.accept(PARSER.parseStanza(reflected("1", "coven@chat.shakespeare.lit", "wiccarocks@shakespeare.lit/laptop")));
+		assertTrue(out.size() >= 1);
+
+		final int pending = aggregator.size();
+		assertEquals(pending, aggregator.flush());
+		assertEquals(0, aggregator.size());
+		assertEquals(4, out.size());
+
+		// a reflection without the sent copy keeps the occupant JID as the sender
+		for (Tx tx : out)
+		{
+			assertEquals(1, tx.getRecipients().size());
+			assertEquals("thirdwitch", tx.getDetail(TxDetailType.FROM).getDetailValue().split("/")[1]);
+		}
+		assertEquals(Arrays.asList("crone1@shakespeare.lit/desktop"), out.get(0).getRecipients());
+	}
+
+	@Test
+	public void testAccept_fullSegment_assertOldestEmittedEarly()
+	{
+		final List<Tx> out = new ArrayList<>();
+		final TxGroupChatAggregator aggregator = new TxGroupChatAggregator(out::add, 60000, 1);
+		aggregator.setClock(new MutableClock());
+
+		for (int i = 0; i < 100; ++i)
+			aggregator.accept(PARSER.parseStanza(sent("id" + i, "coven@chat.shakespeare.lit")));
+
+		assertTrue(aggregator.size() <= 16);
+		assertEquals(100, out.size() + aggregator.size());
+
+		// a sent copy without reflections keeps the room as its recipient
+		assertEquals(Arrays.asList("coven@chat.shakespeare.lit"), out.get(0).getRecipients());
+		assertNull(out.get(0).getDetail(TxDetailType.ORIGINAL_RECIPIENT));
+	}
+
+	@Test
+	public void testConstructor_invalidArguments_assertException()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new TxGroupChatAggregator(null));
+		assertThrows(IllegalArgumentException.class, () -> new TxGroupChatAggregator(tx -> {}, 0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new TxGroupChatAggregator(tx -> {}, 1, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TxGroupChatAggregator(tx -> {}).accept(null));
+	}
+}
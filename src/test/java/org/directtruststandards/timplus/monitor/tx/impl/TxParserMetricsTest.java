@@ -0,0 +1,85 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParserMetrics;
+import org.directtruststandards.timplus.monitor.impl.LatencyHistogram;
+import org.directtruststandards.timplus.monitor.impl.MicrometerTxParserMetrics;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class TxParserMetricsTest
+{
+	private static final String MESSAGE = "<message id='1' from='romeo@example.net/orchard' to='juliet@example.com'><body>hi</body></message>";
+	
+	@Test
+	public void testParseStanza_defaultMetrics_assertCounts() throws Exception
+	{
+		for (DefaultTxParser parser : new DefaultTxParser[] {new DefaultTxParser(), new PullTxParser()})
+		{
+			final DefaultTxParserMetrics metrics = (DefaultTxParserMetrics)parser.getMetrics();
+			
+			parser.parseStanza(MESSAGE);
+			parser.parseStanza(MESSAGE);
+			assertNull(parser.parseStanza("<message id='1'><body>hi</body>"));
+			
+			assertEquals(2, metrics.getParseCount(TxStanzaType.MESSAGE));
+			assertEquals(0, metrics.getParseCount(TxStanzaType.IQ));
+			assertEquals(2, metrics.getDetailCount(TxDetailType.MSG_ID));
+			assertEquals(2, metrics.getDetailCount(TxDetailType.MESSAGE_BODY_IND));
+			assertEquals(0, metrics.getDetailCount(TxDetailType.AMP_CONDITION_VALUE));
+			assertEquals(2, metrics.getLatencyHistogram(TxStanzaType.MESSAGE).getCount());
+			assertEquals(1, metrics.getFailureCounts().values().stream().mapToLong(Long::longValue).sum());
+			
+			metrics.reset();
+			assertEquals(0, metrics.getParseCount(TxStanzaType.MESSAGE));
+			assertTrue(metrics.getFailureCounts().isEmpty());
+		}
+	}
+	
+	@Test
+	public void testParseStanza_micrometerMetrics_assertMeters() throws Exception
+	{
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		final PullTxParser parser = new PullTxParser();
+		parser.setMetrics(new MicrometerTxParserMetrics(registry));
+		
+		parser.parseStanza(MESSAGE);
+		parser.parseStanza("<iq id='1' type='get'/>");
+		parser.parseStanza("<iq id='2'/>");
+		
+		assertEquals(1, registry.get(MicrometerTxParserMetrics.PARSE_METER).tag("stanzaType", "MESSAGE").timer().count());
+		assertEquals(1, registry.get(MicrometerTxParserMetrics.PARSE_METER).tag("stanzaType", "IQ").timer().count());
+		assertEquals(2, registry.get(MicrometerTxParserMetrics.DETAIL_METER).tag("detailType", "MSG_ID").counter().count());
+		assertEquals(1, registry.get(MicrometerTxParserMetrics.FAILURE_METER).counter().count());
+	}
+	
+	@Test
+	public void testLatencyHistogram_recordValues_assertPercentiles()
+	{
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 1000; ++i)
+			histogram.record(i * 1000);
+		
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500, histogram.getMean(), 0.001);
+		
+		final long median = histogram.getValueAtPercentile(50);
+		assertTrue(median >= 500000 && median <= 500000 * 1.125, "Median " + median);
+		assertEquals(1000000, histogram.getValueAtPercentile(100));
+		
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+		
+		histogram.reset();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+}
@@ -0,0 +1,60 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.TxStanzaClassifier;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class TxStanzaClassifierTest
+{
+	@Test
+	public void testClassify_corpus_assertDecidedWithoutParsing() throws Exception
+	{
+		final TxStanzaClassifier classifier = new TxStanzaClassifier();
+		final DefaultTxParser parser = new DefaultTxParser();
+		
+		for (String resource : PullTxParserTest.CORPUS)
+		{
+			final String stanza = IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset());
+			final TxStanzaType expected = parser.parseStanza(stanza).getStanzaType();
+			
+			assertEquals(expected, classifier.classify(stanza), resource);
+			assertEquals(expected, classifier.classify(new StringBuilder(stanza)), resource);
+			assertEquals(expected, classifier.classify(ByteBuffer.wrap(stanza.getBytes(StandardCharsets.UTF_8))), resource);
+		}
+	}
+	
+	@Test
+	public void testClassify_errorBeforeTruncation_assertStopsAtDecisiveElement() throws Exception
+	{
+		final TxStanzaClassifier classifier = new TxStanzaClassifier();
+		
+		assertEquals(TxStanzaType.MESSAGE_ERROR, classifier.classify("<message id='x'><error type='cancel'>"
+				+ "<service-unavailable xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error><body>"));
+		assertNull(classifier.classify("<message id='x'><body>hi</body>"));
+	}
+	
+	@Test
+	public void testClassify_ambiguousStanzas_assertNull() throws Exception
+	{
+		final TxStanzaClassifier classifier = new TxStanzaClassifier();
+		
+		assertNull(classifier.classify("<message id='x'><body xml:lang='de'>hallo</body></message>"));
+		assertNull(classifier.classify("<message id='x'><body><![CDATA[hi]]></body></message>"));
+		assertNull(classifier.classify("<message id='x'><cs:active xmlns:cs='http://jabber.org/protocol/chatstates'/></message>"));
+		assertNull(classifier.classify("<message id='x' type='&#99;hat'/>"));
+		assertNull(classifier.classify("<stream id='x'/>"));
+		assertNull(classifier.classify(ByteBuffer.wrap("<message id='x'/>".getBytes(StandardCharsets.UTF_16))));
+		
+		classifier.setMaxScanLength(16);
+		assertNull(classifier.classify("<message id='x'><body>hi</body></message>"));
+	}
+}
@@ -0,0 +1,79 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.tx.TxStreamParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class TxStreamIteratorTest
+{
+	protected TxStreamParser parser = new PullTxParser();
+	
+	@Test
+	public void testParseStream_unterminatedClientStream_assertAllValidStanzas() throws Exception
+	{
+		final List<Tx> txs = new ArrayList<>();
+		try (InputStream stream = getClass().getResourceAsStream("/streams/clientStream.txt"))
+		{
+			final Iterator<Tx> iter = parser.parseStream(stream);
+			while (iter.hasNext())
+				txs.add(iter.next());
+			
+			assertFalse(iter.hasNext());
+			assertThrows(NoSuchElementException.class, () -> iter.next());
+		}
+		
+		assertEquals(4, txs.size());
+		
+		assertEquals(TxStanzaType.MESSAGE, txs.get(0).getStanzaType());
+		assertEquals("sl3nx51f", txs.get(0).getDetail(TxDetailType.MSG_ID).getDetailValue());
+		
+		assertEquals(TxStanzaType.PRESENSE, txs.get(1).getStanzaType());
+		assertEquals("xk3h1v69", txs.get(1).getDetail(TxDetailType.MSG_ID).getDetailValue());
+		
+		assertEquals(TxStanzaType.AMP, txs.get(2).getStanzaType());
+		assertEquals("francisco@hamlet.lit", txs.get(2).getDetail(TxDetailType.ORIGINAL_RECIPIENT).getDetailValue());
+		
+		assertEquals(TxStanzaType.IQ, txs.get(3).getStanzaType());
+		assertEquals("set", txs.get(3).getDetail(TxDetailType.TYPE).getDetailValue());
+	}
+	
+	@Test
+	public void testParseStream_closedStream_consumer_assertCount() throws Exception
+	{
+		final String stream = "<stream:stream xmlns='jabber:server' xmlns:stream='http://etherx.jabber.org/streams'>"
+				+ "<message id='1'><body>one</body></message><message id='2'><body>two</body></message></stream:stream>";
+		
+		final List<Tx> txs = new ArrayList<>();
+		final long count = parser.parseStream(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), txs::add);
+		
+		assertEquals(2, count);
+		assertEquals("1", txs.get(0).getDetail(TxDetailType.MSG_ID).getDetailValue());
+		assertEquals("2", txs.get(1).getDetail(TxDetailType.MSG_ID).getDetailValue());
+	}
+	
+	@Test
+	public void testParseStream_singleStanza_assertOneTx() throws Exception
+	{
+		final String stanza = "<presence id='p1' from='romeo@example.net'/>";
+		
+		final Iterator<Tx> iter = parser.parseStream(new ByteArrayInputStream(stanza.getBytes(StandardCharsets.UTF_8)));
+		
+		assertEquals(TxStanzaType.PRESENSE, iter.next().getStanzaType());
+		assertFalse(iter.hasNext());
+	}
+}
@@ -0,0 +1,170 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.directtruststandards.timplus.monitor.impl.TxTimingWheel;
+import org.directtruststandards.timplus.monitor.tx.TxTimeoutListener;
+import org.directtruststandards.timplus.monitor.tx.impl.TxCorrelatorTest.MutableClock;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.junit.jupiter.api.Test;
+
+public class TxTimingWheelTest
+{
+	@Test
+	public void testAdvance_deadlinePassed_assertTimedOut()
+	{
+		final List<Tx> timedOut = new ArrayList<>();
+		final MutableClock clock = new MutableClock();
+		final TxTimingWheel wheel = new TxTimingWheel(timedOut::add, 1000, 100, 8);
+		wheel.setClock(clock);
+
+		final Tx message = TxCorrelatorTest.message("1", "juliet@example.com");
+		assertTrue(wheel.accept(message));
+		assertFalse(wheel.schedule(TxCorrelatorTest.message("1", "juliet@example.com/balcony")));
+		assertEquals(1, wheel.size());
+
+		clock.millis.set(999);
+		assertEquals(0, wheel.advance());
+
+		clock.millis.set(1000);
+		assertEquals(1, wheel.advance());
+		assertEquals(1, timedOut.size());
+		assertSame(message, timedOut.get(0));
+		assertEquals(0, wheel.size());
+		assertEquals(1, wheel.getExpiredCount());
+	}
+
+	@Test
+	public void testAccept_ampArrives_assertCancelled()
+	{
+		final List<Tx> timedOut = new ArrayList<>();
+		final MutableClock clock = new MutableClock();
+		final TxTimingWheel wheel = new TxTimingWheel(timedOut::add, 1000, 100, 8);
+		wheel.setClock(clock);
+
+		wheel.accept(TxCorrelatorTest.message("1", "juliet@example.com"));
+		wheel.accept(TxCorrelatorTest.message("2", "juliet@example.com"));
+		wheel.accept(TxCorrelatorTest.message("3", "juliet@example.com"));
+
+		assertTrue(wheel.accept(TxCorrelatorTest.amp("1", "juliet@example.com")));
+		assertTrue(wheel.accept(TxCorrelatorTest.error("2", "juliet@example.com")));
+		assertFalse(wheel.accept(TxCorrelatorTest.amp("4", "juliet@example.com")));
+		assertNull(wheel.cancel("1"));
+
+		clock.millis.set(5000);
+		assertEquals(1, wheel.advance());
+		assertEquals("3", timedOut.get(0).getDetail(TxDetailType.MSG_ID).getDetailValue());
+	}
+
+	@Test
+	public void testAccept_multipleRecipients_assertPendingRecipientsReported()
+	{
+		final List<String> timedOut = new ArrayList<>();
+		final MutableClock clock = new MutableClock();
+		final TxTimingWheel wheel = new TxTimingWheel(new TxTimeoutListener()
+		{
+			@Override
+			public void onTimeout(Tx tx)
+			{
+				throw new AssertionError("Pending recipients not reported");
+			}
+
+			@Override
+			public void onTimeout(Tx tx, List<String> pendingRecipients)
+			{
+				timedOut.add(tx.getDetail(TxDetailType.MSG_ID).getDetailValue() + ":" + pendingRecipients);
+			}
+		}, 1000, 100, 8);
+		wheel.setClock(clock);
+
+		// the copies of a group chat message add their recipients to the first copy
+		assertTrue(wheel.accept(TxCorrelatorTest.message("1", "juliet@example.com/balcony")));
+		assertTrue(wheel.accept(TxCorrelatorTest.message("1", "nurse@example.com")));
+		assertTrue(wheel.accept(TxCorrelatorTest.message("1", "tybalt@example.org")));
+		assertTrue(wheel.accept(TxCorrelatorTest.message("2", "juliet@example.com")));
+		assertEquals(2, wheel.size());
+
+		// each response only cancels the recipient it applies to
+		assertTrue(wheel.accept(TxCorrelatorTest.amp("1", "juliet@example.com")));
+		assertFalse(wheel.accept(TxCorrelatorTest.amp("1", "juliet@example.com")));
+		assertFalse(wheel.accept(TxCorrelatorTest.amp("1", "romeo@example.net")));
+		assertTrue(wheel.accept(TxCorrelatorTest.error("1", "example.com")));
+		assertEquals(2, wheel.size());
+
+		assertTrue(wheel.accept(TxCorrelatorTest.amp("2", "juliet@example.com")));
+		assertEquals(1, wheel.size());
+
+		clock.millis.set(1000);
+		assertEquals(1, wheel.advance());
+		assertEquals(Arrays.asList("1:[tybalt@example.org]"), timedOut);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testAdvance_deadlinesBeyondOneRevolution_assertExpiredInOrder()
+	{
+		final List<Tx> timedOut = new ArrayList<>();
+		final MutableClock clock = new MutableClock();
+		final TxTimingWheel wheel = new TxTimingWheel(timedOut::add, 1000, 10, 4);
+		wheel.setClock(clock);
+
+		// with 4 buckets of 10ms, these deadlines share buckets across several revolutions
+		for (int i = 0; i < 100; ++i)
+			wheel.schedule(TxCorrelatorTest.message(Integer.toString(i), "juliet@example.com"), i * 7);
+
+		for (long now = 0; now <= 700; now += 10)
+		{
+			clock.millis.set(now);
+			wheel.advance();
+
+			for (Tx tx : timedOut)
+				assertTrue(Integer.parseInt(tx.getDetail(TxDetailType.MSG_ID).getDetailValue()) * 7 <= now);
+
+			assertEquals(timedOut.size() + wheel.size(), 100);
+			assertEquals((int)Math.min(100, now / 7 + 1), timedOut.size());
+		}
+
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testAdvance_longPause_assertAllDueExpired()
+	{
+		final List<Tx> timedOut = new ArrayList<>();
+		final MutableClock clock = new MutableClock();
+		final TxTimingWheel wheel = new TxTimingWheel(timedOut::add, 1000, 10, 4);
+		wheel.setClock(clock);
+
+		wheel.schedule(TxCorrelatorTest.message("1", "juliet@example.com"), 50);
+		wheel.schedule(TxCorrelatorTest.message("2", "juliet@example.com"), 5000);
+
+		clock.millis.set(4000);
+		assertEquals(1, wheel.advance());
+
+		// messages scheduled after the pause still honor their full timeout
+		wheel.schedule(TxCorrelatorTest.message("3", "juliet@example.com"), 5);
+		clock.millis.set(4004);
+		assertEquals(0, wheel.advance());
+		clock.millis.set(5000);
+		assertEquals(2, wheel.advance());
+	}
+
+	@Test
+	public void testConstructor_invalidArguments_assertException()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new TxTimingWheel(null, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new TxTimingWheel(tx -> {}, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TxTimingWheel(tx -> {}, 1000, 0, 8));
+		assertThrows(IllegalArgumentException.class, () -> new TxTimingWheel(tx -> {}, 1000, 100, 0));
+	}
+}
@@ -0,0 +1,115 @@
+package org.directtruststandards.timplus.monitor.tx.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.impl.PullTxParser;
+import org.directtruststandards.timplus.monitor.impl.XmlPullParserPool;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+public class XmlPullParserPoolTest
+{
+	private static final String MESSAGE = "<message id='1' from='romeo@example.net/orchard' to='juliet@example.com'><body>hi</body></message>";
+	
+	@Test
+	public void testAcquire_perThread_assertReusedAndNestedUnpooled() throws Exception
+	{
+		final XmlPullParserPool pool = new XmlPullParserPool();
+		
+		final XmlPullParser parser = pool.acquire(new StringReader(MESSAGE));
+		assertEquals(XmlPullParser.START_TAG, parser.next());
+		
+		final XmlPullParser nested = pool.acquire(new StringReader(MESSAGE));
+		assertNotSame(parser, nested);
+		pool.release(nested);
+		pool.release(parser);
+		
+		final XmlPullParser reused = pool.acquire(new StringReader("<presence/>"));
+		assertSame(parser, reused);
+		assertEquals(XmlPullParser.START_TAG, reused.next());
+		assertEquals("presence", reused.getName());
+		pool.release(reused);
+		
+		assertEquals(2, pool.getCreatedCount());
+	}
+	
+	@Test
+	public void testAcquire_sharedCapacity_assertBounded() throws Exception
+	{
+		final XmlPullParserPool pool = new XmlPullParserPool(1);
+		
+		final XmlPullParser first = pool.acquire(new StringReader(MESSAGE));
+		final XmlPullParser second = pool.acquire(new StringReader(MESSAGE));
+		pool.release(first);
+		pool.release(second);
+		
+		assertSame(first, pool.acquire(new StringReader(MESSAGE)));
+		assertEquals(2, pool.getCreatedCount());
+	}
+	
+	@Test
+	public void testParseStanza_sharedParserAcrossThreads_assertOneXmlParserPerThread() throws Exception
+	{
+		for (DefaultTxParser txParser : new DefaultTxParser[] {new DefaultTxParser(), new PullTxParser()})
+		{
+			final int threads = 4;
+			final ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try
+			{
+				final List<Future<Boolean>> futures = new ArrayList<>();
+				for (int t = 0; t < threads; ++t)
+				{
+					futures.add(executor.submit(() ->
+					{
+						boolean retVal = true;
+						for (int i = 0; i < 500; ++i)
+						{
+							final Tx tx = txParser.parseStanza(MESSAGE);
+							retVal &= tx != null && tx.getStanzaType() == TxStanzaType.MESSAGE;
+							
+							// failed parses must return their parser as well
+							retVal &= txParser.parseStanza("<message id='x'>") == null;
+						}
+						
+						return retVal;
+					}));
+				}
+				
+				for (Future<Boolean> future : futures)
+					assertTrue(future.get());
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+			
+			assertTrue(txParser.getParserPool().getCreatedCount() <= threads);
+		}
+	}
+	
+	@Test
+	public void testRelease_null_assertIgnored() throws Exception
+	{
+		final XmlPullParserPool pool = new XmlPullParserPool(2);
+		pool.release(null);
+		
+		final XmlPullParser parser = pool.acquire(new StringReader(MESSAGE));
+		assertNotNull(parser);
+		assertNull(parser.getName());
+	}
+}
@@ -0,0 +1,134 @@
+package org.directtruststandards.timplus.monitor.tx.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+public class TxBatchTest
+{
+	@Test
+	public void testAdd_repeatedValues_assertSharedDictionaryCodes()
+	{
+		final TxBatch batch = new TxBatch(1);
+
+		for (int i = 0; i < 200; ++i)
+		{
+			final Tx tx = new Tx();
+			tx.setStanzaType((i % 2 == 0) ? TxStanzaType.MESSAGE : TxStanzaType.PRESENSE);
+			tx.getDetails().put(TxDetailType.FROM, new TxDetail(TxDetailType.FROM, "romeo@example.net"));
+			tx.getDetails().put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, Integer.toString(i)));
+			if (i % 2 == 0)
+			{
+				tx.addRecipient("juliet@example.com");
+				tx.addRecipient("romeo@example.net");
+			}
+
+			assertEquals(i, batch.add(tx));
+		}
+
+		assertEquals(200, batch.size());
+
+		// the sender is stored once and shared with the recipient column
+		assertEquals(202, batch.getDictionarySize());
+		assertEquals(batch.getCode(0, TxDetailType.FROM), batch.getCode(199, TxDetailType.FROM));
+		assertEquals(batch.getCode(0, TxDetailType.FROM), batch.getRecipientCodes(0)[1]);
+		assertEquals("romeo@example.net", batch.decode(batch.getCode(1, TxDetailType.FROM)));
+
+		assertEquals(TxStanzaType.PRESENSE, batch.getStanzaType(199));
+		assertEquals("199", batch.getValue(199, TxDetailType.MSG_ID));
+		assertEquals("juliet@example.com,romeo@example.net", batch.getValue(198, TxDetailType.RECIPIENTS));
+		assertEquals(0, batch.getRecipientCodes(199).length);
+		assertEquals(-1, batch.getCode(199, TxDetailType.MESSAGE_BODY_IND));
+		assertNull(batch.getValue(199, TxDetailType.RECIPIENTS));
+
+		// scanning the presence bitmap across word boundaries
+		int count = 0;
+		for (int row = batch.nextRow(TxDetailType.RECIPIENTS, 0); row >= 0; row = batch.nextRow(TxDetailType.RECIPIENTS, row + 1))
+		{
+			assertEquals(0, row % 2);
+			++count;
+		}
+		assertEquals(100, count);
+		assertEquals(64, batch.nextRow(TxDetailType.RECIPIENTS, 63));
+		assertEquals(-1, batch.nextRow(TxDetailType.MESSAGE_BODY_IND, 0));
+
+		batch.clear();
+		assertEquals(0, batch.size());
+		assertEquals(0, batch.getDictionarySize());
+		assertEquals(-1, batch.nextRow(TxDetailType.RECIPIENTS, 0));
+		assertThrows(IndexOutOfBoundsException.class, () -> batch.getStanzaType(0));
+	}
+
+	@Test
+	public void testGet_rowView_assertSameAsSource() throws Exception
+	{
+		final Tx tx = new Tx();
+		tx.setStanzaType(TxStanzaType.MESSAGE);
+		tx.getDetails().put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, "1"));
+		tx.getDetails().put(TxDetailType.FROM, new TxDetail(TxDetailType.FROM, "romeo@example.net"));
+		tx.addRecipient("juliet@example.com");
+		tx.addRecipient("nurse@example.com");
+
+		final TxBatch batch = new TxBatch();
+		batch.add(new Tx());
+		batch.add(tx);
+
+		final Tx view = batch.get(1);
+		assertEquals(TxStanzaType.MESSAGE, view.getStanzaType());
+		assertEquals(3, view.getDetails().size());
+		assertEquals("1", view.getDetail(TxDetailType.MSG_ID).getDetailValue());
+		assertEquals(Arrays.asList("juliet@example.com", "nurse@example.com"), view.getRecipients());
+		assertNull(view.getDetail(TxDetailType.MESSAGE_BODY_IND));
+		assertSame(view.getDetail(TxDetailType.FROM), view.getDetail(TxDetailType.FROM));
+
+		// details iterate in detail type order like an EnumMap
+		assertEquals(tx.getDetails().keySet().toString(), view.getDetails().keySet().toString());
+		assertEquals(tx.toString(), view.toString());
+
+		assertThrows(UnsupportedOperationException.class, () -> view.addRecipient("romeo@example.net"));
+		assertThrows(UnsupportedOperationException.class, () -> view.setStanzaType(TxStanzaType.IQ));
+
+		final Iterator<Tx> iter = batch.iterator();
+		assertTrue(iter.next().getDetails().isEmpty());
+		assertEquals("1", iter.next().getDetail(TxDetailType.MSG_ID).getDetailValue());
+		assertFalse(iter.hasNext());
+
+		// a serialized view is a standalone copy
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+		{
+			out.writeObject(view);
+		}
+
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+		{
+			final Tx copy = (Tx)in.readObject();
+			assertEquals(Tx.class, copy.getClass());
+			assertEquals(tx.toString(), copy.toString());
+			assertEquals(tx.getRecipients(), copy.getRecipients());
+		}
+
+		batch.toTx(1).addRecipient("romeo@example.net");
+		assertEquals(2, batch.get(1).getRecipients().size());
+	}
+
+	@Test
+	public void testConstructor_invalidArguments_assertException()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new TxBatch(0));
+		assertThrows(IllegalArgumentException.class, () -> new TxBatch().add(null));
+		assertThrows(IllegalArgumentException.class, () -> new TxBatch().getCode(0, TxDetailType.RECIPIENTS));
+	}
+}
@@ -3,8 +3,17 @@ package org.directtruststandards.timplus.monitor.tx.model;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.junit.jupiter.api.Test;
@@ -22,6 +31,7 @@ public class TxTest
 		
 		final TxDetail detail = tx.getDetail(TxDetailType.RECIPIENTS);
 		assertEquals("me@domain.com", detail.getDetailValue());
+		assertEquals(TxDetail.class, detail.getClass());
 	}
 	
 	@Test
@@ -38,6 +48,12 @@ public class TxTest
 		
 		final TxDetail detail = tx.getDetail(TxDetailType.RECIPIENTS);
 		assertEquals("me@domain.com,you@domain.com", detail.getDetailValue());
+		
+		// the read only details keep the supplied detail, which is appended to in place
+		tx.addRecipient("nurse@domain.com");
+		assertSame(detail, tx.getDetail(TxDetailType.RECIPIENTS));
+		assertSame(detail, details.get(TxDetailType.RECIPIENTS));
+		assertEquals(Arrays.asList("me@domain.com", "you@domain.com", "nurse@domain.com"), tx.getRecipients());
 	}
 	
 	@Test
@@ -55,4 +71,119 @@ public class TxTest
 		final TxDetail detail = tx.getDetail(TxDetailType.RECIPIENTS);
 		assertEquals("me@domain.com", detail.getDetailValue());
 	}
+	
+	@Test
+	public void testDetails_emptyConstructor_assertEnumMapInTypeOrder()
+	{
+		final Tx tx = new Tx();
+		
+		assertTrue(tx.getDetails() instanceof EnumMap);
+		
+		tx.getDetails().put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, "id"));
+		tx.getDetails().put(TxDetailType.FROM, new TxDetail(TxDetailType.FROM, "me@domain.com"));
+		tx.addRecipient("you@domain.com");
+		
+		final Iterator<TxDetailType> iter = tx.getDetails().keySet().iterator();
+		assertEquals(TxDetailType.FROM, iter.next());
+		assertEquals(TxDetailType.RECIPIENTS, iter.next());
+		assertEquals(TxDetailType.MSG_ID, iter.next());
+		assertEquals("id", tx.getDetail(TxDetailType.MSG_ID).getDetailValue());
+	}
+	
+	@Test
+	public void testAddRecipient_manyRecipients_assertStructuredAndJoined()
+	{
+		final Tx tx = new Tx();
+		
+		for (int i = 0; i < 500; ++i)
+			tx.addRecipient("occupant" + i + "@domain.com");
+		
+		final TxDetail detail = tx.getDetail(TxDetailType.RECIPIENTS);
+		assertTrue(detail instanceof TxRecipientsDetail);
+		assertEquals(500, tx.getRecipients().size());
+		assertEquals("occupant499@domain.com", tx.getRecipients().get(499));
+		
+		final String joined = detail.getDetailValue();
+		assertTrue(joined.startsWith("occupant0@domain.com,occupant1@domain.com,"));
+		assertEquals(500, joined.split(",").length);
+		assertSame(joined, detail.getDetailValue());
+		
+		tx.addRecipient("late@domain.com");
+		assertTrue(detail.getDetailValue().endsWith(",occupant499@domain.com,late@domain.com"));
+		
+		((TxRecipientsDetail)detail).setDetailValue("me@domain.com,you@domain.com");
+		assertEquals(Arrays.asList("me@domain.com", "you@domain.com"), tx.getRecipients());
+	}
+	
+	@Test
+	public void testSerialize_multipleRecipients_assertPlainDetail() throws Exception
+	{
+		final Tx tx = new Tx();
+		tx.setStanzaType(TxStanzaType.MESSAGE);
+		tx.addRecipient("me@domain.com");
+		tx.addRecipient("you@domain.com");
+		assertTrue(tx.getDetail(TxDetailType.RECIPIENTS) instanceof TxRecipientsDetail);
+		
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+		{
+			out.writeObject(tx);
+		}
+		
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+		{
+			final Tx copy = (Tx)in.readObject();
+			final TxDetail detail = copy.getDetail(TxDetailType.RECIPIENTS);
+			assertEquals(TxDetail.class, detail.getClass());
+			assertEquals("me@domain.com,you@domain.com", detail.getDetailValue());
+			assertEquals(Arrays.asList("me@domain.com", "you@domain.com"), copy.getRecipients());
+			
+			copy.addRecipient("nurse@domain.com");
+			assertTrue(copy.getDetail(TxDetailType.RECIPIENTS) instanceof TxRecipientsDetail);
+			assertEquals("me@domain.com,you@domain.com,nurse@domain.com", copy.getDetail(TxDetailType.RECIPIENTS).getDetailValue());
+		}
+	}
+	
+	@Test
+	public void testGetRecipients_plainDetail_assertSplit()
+	{
+		final Map<TxDetailType, TxDetail> details = new HashMap<>();
+		details.put(TxDetailType.RECIPIENTS, new TxDetail(TxDetailType.RECIPIENTS, "me@domain.com,you@domain.com"));
+		
+		assertEquals(Arrays.asList("me@domain.com", "you@domain.com"), new Tx(TxStanzaType.MESSAGE, details).getRecipients());
+		assertTrue(new Tx().getRecipients().isEmpty());
+	}
+	
+	@Test
+	public void testSetDetails_mutableTx_assertCopiedIntoReusableDetails()
+	{
+		final MutableTx tx = new MutableTx();
+		tx.setDetail(TxDetailType.MSG_ID, "1");
+		final TxDetail msgIdDetail = tx.getDetail(TxDetailType.MSG_ID);
+		
+		final Map<TxDetailType, TxDetail> details = new HashMap<>();
+		details.put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, "2"));
+		details.put(TxDetailType.RECIPIENTS, new TxDetail(TxDetailType.RECIPIENTS, "me@domain.com,you@domain.com"));
+		tx.setDetails(details);
+		
+		assertEquals(2, tx.getDetails().size());
+		assertSame(msgIdDetail, tx.getDetail(TxDetailType.MSG_ID));
+		assertEquals("2", msgIdDetail.getDetailValue());
+		assertEquals(Arrays.asList("me@domain.com", "you@domain.com"), tx.getRecipients());
+		
+		// the supplied map is not retained
+		details.clear();
+		assertEquals(2, tx.getDetails().size());
+		
+		tx.setDetails(tx.getDetails());
+		assertEquals(2, tx.getDetails().size());
+		
+		// a single plain recipient is set on the reusable RECIPIENTS detail
+		final TxDetail recipientsDetail = tx.getDetail(TxDetailType.RECIPIENTS);
+		final Tx single = new Tx();
+		single.addRecipient("me@domain.com");
+		tx.copyFrom(single);
+		assertSame(recipientsDetail, tx.getDetail(TxDetailType.RECIPIENTS));
+		assertEquals(Arrays.asList("me@domain.com"), tx.getRecipients());
+	}
 }
@@ -0,0 +1,61 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.directtruststandards.timplus.monitor.tx.model.MutableTx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class MutableTxPoolTest
+{
+	@Test
+	public void testAcquireRelease_reuse_assertSameInstanceReset()
+	{
+		final MutableTxPool pool = new MutableTxPool(2);
+		
+		final MutableTx tx = pool.acquire();
+		tx.setStanzaType(TxStanzaType.MESSAGE);
+		tx.setDetail(TxDetailType.MSG_ID, "1");
+		
+		assertTrue(pool.release(tx));
+		assertEquals(1, pool.size());
+		
+		final MutableTx reused = pool.acquire();
+		assertSame(tx, reused);
+		assertEquals(TxStanzaType.UNKNOWN, reused.getStanzaType());
+		assertTrue(reused.getDetails().isEmpty());
+		assertEquals(0, pool.size());
+	}
+	
+	@Test
+	public void testRelease_poolFull_assertDropped()
+	{
+		final MutableTxPool pool = new MutableTxPool(1);
+		
+		assertTrue(pool.release(new MutableTx()));
+		assertFalse(pool.release(new MutableTx()));
+		assertEquals(1, pool.size());
+		
+		pool.acquire();
+		assertNotSame(pool.acquire(), pool.acquire());
+		
+		assertThrows(IllegalArgumentException.class, () -> pool.release(null));
+		assertThrows(IllegalArgumentException.class, () -> new MutableTxPool(0));
+	}
+	
+	@Test
+	public void testForCurrentThread_repeatedCalls_assertSameInstanceReset()
+	{
+		final MutableTx tx = MutableTxPool.forCurrentThread();
+		tx.setRecipient("me@domain.com");
+		
+		assertSame(tx, MutableTxPool.forCurrentThread());
+		assertTrue(tx.getDetails().isEmpty());
+	}
+}
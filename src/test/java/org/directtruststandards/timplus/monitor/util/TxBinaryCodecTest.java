@@ -0,0 +1,119 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+public class TxBinaryCodecTest
+{
+	private static final String[] CORPUS = {"ampDeliveredStanza.txt", "chatStateStanza.txt", "iqErrorStanza.txt", "iqRosterSetStanza.txt", 
+			"mixedChatStateAndBody.txt", "plainMessageStanza.txt", "presenceErrorStanza.txt", "presenceSubscribeStanza.txt", "serviceUnavailableStanza.txt"};
+	
+	@Test
+	public void testWriteBatch_corpus_assertRoundTripAndSmallerThanSerialization() throws Exception
+	{
+		final DefaultTxParser parser = new DefaultTxParser();
+		final List<Tx> txs = new ArrayList<>();
+		for (int i = 0; i < 20; ++i)
+			for (String resource : CORPUS)
+				txs.add(parser.parseStanza(IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset())));
+		
+		final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		TxBinaryCodec.writeBatch(txs, new DataOutputStream(binary));
+		
+		final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(serialized))
+		{
+			out.writeObject(txs);
+		}
+		
+		assertTrue(binary.size() * 10 < serialized.size(), binary.size() + " vs " + serialized.size());
+		
+		final List<Tx> read = TxBinaryCodec.readBatch(new DataInputStream(new ByteArrayInputStream(binary.toByteArray())));
+		assertEquals(txs.size(), read.size());
+		for (int i = 0; i < txs.size(); ++i)
+			assertSameTx(txs.get(i), read.get(i));
+		
+		// repeated values share one instance through the dictionary
+		assertSame(read.get(0).getDetail(TxDetailType.FROM).getDetailValue(), read.get(CORPUS.length).getDetail(TxDetailType.FROM).getDetailValue());
+		
+		final ByteBuffer buffer = ByteBuffer.allocate(binary.size());
+		TxBinaryCodec.writeBatch(txs, buffer);
+		assertFalse(buffer.hasRemaining());
+		
+		buffer.flip();
+		assertEquals(txs.size(), TxBinaryCodec.readBatch(buffer).size());
+		assertFalse(buffer.hasRemaining());
+	}
+	
+	@Test
+	public void testWriteTo_singleTx_assertRoundTrip() throws Exception
+	{
+		final Tx tx = new Tx();
+		tx.setStanzaType(TxStanzaType.MESSAGE);
+		tx.getDetails().put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, "café"));
+		tx.getDetails().put(TxDetailType.MESSAGE_BODY_IND, new TxDetail(TxDetailType.MESSAGE_BODY_IND, ""));
+		
+		final ByteBuffer buffer = ByteBuffer.allocate(64);
+		TxBinaryCodec.writeTo(tx, buffer);
+		buffer.flip();
+		
+		assertSameTx(tx, TxBinaryCodec.readFrom(buffer));
+	}
+	
+	@Test
+	public void testReadBatch_unknownTypes_assertForwardCompatible() throws Exception
+	{
+		// version 1, one object, stanza ordinal 100, two details: ordinal 100 = "x", MSG_ID = "y"
+		final byte[] encoded = {1, 1, 100, 2, 100, 0, 1, 'x', (byte)TxDetailType.MSG_ID.ordinal(), 0, 1, 'y'};
+		
+		final Tx tx = TxBinaryCodec.readFrom(ByteBuffer.wrap(encoded));
+		
+		assertEquals(TxStanzaType.UNKNOWN, tx.getStanzaType());
+		assertEquals(1, tx.getDetails().size());
+		assertEquals("y", tx.getDetail(TxDetailType.MSG_ID).getDetailValue());
+	}
+	
+	@Test
+	public void testReadBatch_invalidEncodings_assertIOException() throws Exception
+	{
+		assertThrows(IOException.class, () -> TxBinaryCodec.readBatch(ByteBuffer.wrap(new byte[] {2, 0})));
+		assertThrows(IOException.class, () -> TxBinaryCodec.readBatch(ByteBuffer.wrap(new byte[] {1, 1, 1, 1, 5, 0, 10, 'x'})));
+		assertThrows(IOException.class, () -> TxBinaryCodec.readBatch(ByteBuffer.wrap(new byte[] {1, 1, 1, 1, 5, 3})));
+		assertThrows(IOException.class, () -> TxBinaryCodec.readFrom(ByteBuffer.wrap(new byte[] {1, 0})));
+		
+		// a stream header claiming Integer.MAX_VALUE objects fails on the missing data instead of preallocating for them
+		final byte[] hostile = {1, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07};
+		assertThrows(IOException.class, () -> TxBinaryCodec.readBatch(new DataInputStream(new ByteArrayInputStream(hostile))));
+	}
+	
+	private static void assertSameTx(Tx expected, Tx actual)
+	{
+		assertEquals(expected.getStanzaType(), actual.getStanzaType());
+		assertEquals(expected.getDetails().size(), actual.getDetails().size());
+		
+		for (TxDetail detail : expected.getDetails().values())
+			assertEquals(detail.getDetailValue(), actual.getDetail(detail.getDetailType()).getDetailValue());
+	}
+}
@@ -0,0 +1,104 @@
+package org.directtruststandards.timplus.monitor.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TxJsonWriterTest
+{
+	private static final String[] CORPUS = {"ampDeliveredStanza.txt", "chatStateStanza.txt", "iqErrorStanza.txt", "iqRosterSetStanza.txt", 
+			"mixedChatStateAndBody.txt", "plainMessageStanza.txt", "presenceErrorStanza.txt", "presenceSubscribeStanza.txt", "serviceUnavailableStanza.txt"};
+	
+	@Test
+	public void testWrite_corpus_assertSameAsDatabinding() throws Exception
+	{
+		final ObjectMapper mapper = new ObjectMapper();
+		final List<Tx> txs = parseCorpus();
+		
+		final Tx escaped = new Tx();
+		escaped.setStanzaType(TxStanzaType.MESSAGE);
+		escaped.getDetails().put(TxDetailType.MSG_ID, new TxDetail(TxDetailType.MSG_ID, "\"quoted\"\né\u0001"));
+		txs.add(escaped);
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (TxJsonWriter writer = new TxJsonWriter(out))
+		{
+			assertEquals(txs.size(), writer.writeAll(txs));
+		}
+		
+		final String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n", -1);
+		assertEquals(txs.size() + 1, lines.length);
+		assertEquals("", lines[txs.size()]);
+		
+		for (int i = 0; i < txs.size(); ++i)
+			assertEquals(mapper.writeValueAsString(txs.get(i)), lines[i]);
+	}
+	
+	@Test
+	public void testRead_writtenLines_assertRoundTrip() throws Exception
+	{
+		final List<Tx> txs = parseCorpus();
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (TxJsonWriter writer = new TxJsonWriter(out))
+		{
+			writer.writeAll(txs);
+		}
+		
+		try (TxJsonReader reader = new TxJsonReader(new ByteArrayInputStream(out.toByteArray())))
+		{
+			for (Tx expected : txs)
+			{
+				final Tx actual = reader.read();
+				assertEquals(expected.getStanzaType(), actual.getStanzaType());
+				assertEquals(expected.getDetails().size(), actual.getDetails().size());
+				for (TxDetail detail : expected.getDetails().values())
+					assertEquals(detail.getDetailValue(), actual.getDetail(detail.getDetailType()).getDetailValue());
+			}
+			
+			assertNull(reader.read());
+		}
+	}
+	
+	@Test
+	public void testRead_unknownValues_assertForwardCompatible() throws Exception
+	{
+		final String json = "{\"stanzaType\":\"NEW_TYPE\",\"extra\":{\"a\":[1,2]},\"details\":{\"NEW_DETAIL\":{\"detailType\":\"NEW_DETAIL\",\"detailValue\":\"x\"},"
+				+ "\"MSG_ID\":{\"detailType\":\"MSG_ID\",\"detailValue\":\"y\"}}}";
+		
+		try (TxJsonReader reader = new TxJsonReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))))
+		{
+			final Tx tx = reader.read();
+			
+			assertEquals(TxStanzaType.UNKNOWN, tx.getStanzaType());
+			assertEquals(1, tx.getDetails().size());
+			assertEquals("y", tx.getDetail(TxDetailType.MSG_ID).getDetailValue());
+		}
+	}
+	
+	private static List<Tx> parseCorpus() throws Exception
+	{
+		final DefaultTxParser parser = new DefaultTxParser();
+		final List<Tx> retVal = new ArrayList<>();
+		for (String resource : CORPUS)
+			retVal.add(parser.parseStanza(IOUtils.resourceToString("/messages/" + resource, Charset.defaultCharset())));
+		
+		return retVal;
+	}
+}